@@ -0,0 +1,354 @@
+package es.hgccarlos.filehost.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import es.hgccarlos.filehost.model.Bucket;
+import es.hgccarlos.filehost.service.BucketService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shapes the throughput of the streaming endpoints (raw and resumable uploads, view and
+ * download) in bytes per second ({@link BandwidthProperties}): a node-wide cap, one limit
+ * per bucket (overridable by bucket name) and one per client, as resolved by
+ * {@link ClientAddresses}. Every chunk is reserved on all the limiters that apply and the
+ * request's own thread sleeps for the longest delay, so no extra threads are involved.
+ * Throttled downloads skip sendfile, which would bypass the response stream.
+ *
+ * <p>Multipart uploads ({@code POST /api/files/upload} and {@code /upload-many}) are not
+ * shaped. Spring resolves them in the {@code DispatcherServlet}, after this filter, but by
+ * asking Tomcat for the parts, and Tomcat's parser reads the body straight from the
+ * connector rather than through the wrapped {@code getInputStream()}. Clients whose uploads
+ * must be paced use the raw PUT or the resumable session endpoints.
+ */
+@Component
+public class BandwidthFilter extends OncePerRequestFilter {
+
+    // see FileStreamer: without it the streamer copies through the (throttled) output stream
+    static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+
+    private static final int MIN_CHUNK = 1024;
+    private static final int MAX_CHUNK = 64 * 1024;
+
+    // cached for buckets without a limit
+    private static final ByteRateLimiter NONE = new ByteRateLimiter(1, 0);
+
+    /** Which limit held a chunk back; a tag with a fixed set of values, unlike a bucket id. */
+    enum Limit { GLOBAL, BUCKET, CLIENT }
+
+    private final BandwidthProperties props;
+    private final BucketService bucketService;
+    private final MeterRegistry meterRegistry;
+    private final ClientAddresses clients;
+    private final long burstNanos;
+    private final ByteRateLimiter global;
+    private final Cache<Long, ByteRateLimiter> perBucket;
+    private final Cache<Long, ByteRateLimiter> perClient;
+    // registered once: direction x limit
+    private final Meters uploadMeters;
+    private final Meters downloadMeters;
+
+    public BandwidthFilter(BandwidthProperties props, RateLimitProperties rateLimit,
+                           BucketService bucketService, MeterRegistry meterRegistry) {
+        this.props = props;
+        this.bucketService = bucketService;
+        this.meterRegistry = meterRegistry;
+        this.clients = new ClientAddresses(rateLimit.getTrustedProxies(), rateLimit.getIpv6Prefix());
+        this.burstNanos = props.getBurst().toNanos();
+        this.global = limiter(props.getGlobal());
+        // idle limiters have refilled, so dropping them loses nothing
+        Duration idle = props.getBurst().compareTo(Duration.ofMinutes(1)) > 0 ? props.getBurst() : Duration.ofMinutes(1);
+        this.perBucket = Caffeine.newBuilder().expireAfterAccess(idle).maximumSize(10_000).build();
+        this.perClient = Caffeine.newBuilder().expireAfterAccess(idle).maximumSize(100_000).build();
+        this.uploadMeters = new Meters(meterRegistry, "upload");
+        this.downloadMeters = new Meters(meterRegistry, "download");
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        if (global == null && props.getPerBucket().toBytes() <= 0 && props.getPerClient().toBytes() <= 0
+                && props.getBuckets().isEmpty()) return true;
+        String path = request.getRequestURI();
+        return switch (request.getMethod()) {
+            case "GET" -> !(path.startsWith("/api/files/view/") || path.startsWith("/api/files/download/"));
+            case "PUT" -> !(path.startsWith("/api/files/upload/") || path.startsWith("/api/files/sessions/"));
+            default -> true;
+        };
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest req, HttpServletResponse res, FilterChain chain)
+            throws ServletException, IOException {
+        boolean upload = "PUT".equals(req.getMethod());
+        String apiKey = req.getHeader(upload ? "bucketKey" : "X-API-KEY");
+        Bucket bucket = apiKey == null ? null : bucketService.getBucketByApiKey(apiKey).orElse(null);
+
+        List<ByteRateLimiter> limiters = new ArrayList<>(3);
+        List<Limit> kinds = new ArrayList<>(3);
+        if (global != null) {
+            limiters.add(global);
+            kinds.add(Limit.GLOBAL);
+        }
+        if (bucket != null) {
+            ByteRateLimiter l = perBucket.get(bucket.getId(), id ->
+                    limiterOrNone(props.getBuckets().getOrDefault(bucket.getName(), props.getPerBucket())));
+            if (l != NONE) {
+                limiters.add(l);
+                kinds.add(Limit.BUCKET);
+            }
+        }
+        long[] address = new long[2];
+        String remote = req.getRemoteAddr();
+        if (props.getPerClient().toBytes() > 0) {
+            long key = clients.resolve(req, remote, address) ? clients.key(address) : remote.hashCode();
+            limiters.add(perClient.get(key, k -> limiter(props.getPerClient())));
+            kinds.add(Limit.CLIENT);
+        }
+        if (limiters.isEmpty()) {
+            chain.doFilter(req, res);
+            return;
+        }
+
+        Throttle throttle = new Throttle(limiters.toArray(ByteRateLimiter[]::new),
+                kinds.toArray(Limit[]::new), upload ? uploadMeters : downloadMeters);
+        if (upload) {
+            chain.doFilter(new ThrottledRequest(req, throttle), res);
+        } else {
+            chain.doFilter(new ThrottledRequest(req, null), new ThrottledResponse(res, throttle));
+        }
+    }
+
+    private ByteRateLimiter limiter(DataSize perSecond) {
+        return perSecond == null || perSecond.toBytes() <= 0 ? null : new ByteRateLimiter(perSecond.toBytes(), burstNanos);
+    }
+
+    /** Caffeine can't hold nulls: buckets without a limit get the {@link #NONE} marker. */
+    private ByteRateLimiter limiterOrNone(DataSize perSecond) {
+        ByteRateLimiter l = limiter(perSecond);
+        return l != null ? l : NONE;
+    }
+
+    // ---- Metrics ----
+
+    /** bandwidth.throttled.bytes and bandwidth.wait of one direction, one pair per {@link Limit}. */
+    static final class Meters {
+        private final Counter[] throttledBytes = new Counter[Limit.values().length];
+        private final Timer[] wait = new Timer[Limit.values().length];
+
+        Meters(MeterRegistry registry, String direction) {
+            for (Limit limit : Limit.values()) {
+                String limitedBy = limit.name().toLowerCase();
+                throttledBytes[limit.ordinal()] = Counter.builder("bandwidth.throttled.bytes")
+                        .description("Bytes held back by bandwidth limits")
+                        .baseUnit("bytes")
+                        .tags("direction", direction, "limitedBy", limitedBy)
+                        .register(registry);
+                wait[limit.ordinal()] = Timer.builder("bandwidth.wait")
+                        .description("Time transfers spent waiting for bandwidth")
+                        .tags("direction", direction, "limitedBy", limitedBy)
+                        .register(registry);
+            }
+        }
+
+        void record(Limit limit, int bytes, long delayNanos) {
+            throttledBytes[limit.ordinal()].increment(bytes);
+            wait[limit.ordinal()].record(delayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // ---- Throttled streams ----
+
+    /** The limiters of one request, reserved together chunk by chunk. */
+    static final class Throttle {
+        private final ByteRateLimiter[] limiters;
+        private final Limit[] kinds;
+        private final int chunk;
+        private final Meters meters;
+
+        Throttle(ByteRateLimiter[] limiters, Limit[] kinds, Meters meters) {
+            this.limiters = limiters;
+            this.kinds = kinds;
+            long slowest = Long.MAX_VALUE;
+            for (ByteRateLimiter l : limiters) slowest = Math.min(slowest, l.bytesPerSecond());
+            // ~16 reservations a second at the slowest rate
+            this.chunk = (int) Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, slowest / 16));
+            this.meters = meters;
+        }
+
+        int chunk() {
+            return chunk;
+        }
+
+        void acquire(int bytes) throws IOException {
+            long now = System.nanoTime();
+            long delay = 0;
+            Limit limitedBy = null;
+            for (int i = 0; i < limiters.length; i++) {
+                long d = limiters[i].reserve(bytes, now);
+                if (d > delay) {
+                    delay = d;
+                    limitedBy = kinds[i];
+                }
+            }
+            if (delay <= 0) return;
+            meters.record(limitedBy, bytes, delay);
+            try {
+                TimeUnit.NANOSECONDS.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttled");
+            }
+        }
+    }
+
+    /** Throttles the body of an upload; for downloads only turns sendfile off. */
+    private static final class ThrottledRequest extends HttpServletRequestWrapper {
+        private final Throttle throttle;
+        private ServletInputStream in;
+
+        ThrottledRequest(HttpServletRequest request, Throttle throttle) {
+            super(request);
+            this.throttle = throttle;
+        }
+
+        @Override
+        public Object getAttribute(String name) {
+            return SENDFILE_SUPPORTED.equals(name) ? null : super.getAttribute(name);
+        }
+
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            if (throttle == null) return super.getInputStream();
+            if (in == null) in = new ThrottledInputStream(super.getInputStream(), throttle);
+            return in;
+        }
+    }
+
+    private static final class ThrottledResponse extends HttpServletResponseWrapper {
+        private final Throttle throttle;
+        private ServletOutputStream out;
+
+        ThrottledResponse(HttpServletResponse response, Throttle throttle) {
+            super(response);
+            this.throttle = throttle;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (out == null) out = new ThrottledOutputStream(super.getOutputStream(), throttle);
+            return out;
+        }
+    }
+
+    private static final class ThrottledInputStream extends ServletInputStream {
+        private final ServletInputStream in;
+        private final Throttle throttle;
+
+        ThrottledInputStream(ServletInputStream in, Throttle throttle) {
+            this.in = in;
+            this.throttle = throttle;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) throttle.acquire(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, Math.min(len, throttle.chunk()));
+            if (n > 0) throttle.acquire(n);
+            return n;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return in.isFinished();
+        }
+
+        @Override
+        public boolean isReady() {
+            return in.isReady();
+        }
+
+        @Override
+        public void setReadListener(ReadListener listener) {
+            in.setReadListener(listener);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static final class ThrottledOutputStream extends ServletOutputStream {
+        private final ServletOutputStream out;
+        private final Throttle throttle;
+
+        ThrottledOutputStream(ServletOutputStream out, Throttle throttle) {
+            this.out = out;
+            this.throttle = throttle;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            throttle.acquire(1);
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, throttle.chunk());
+                throttle.acquire(n);
+                out.write(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public boolean isReady() {
+            return out.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener listener) {
+            out.setWriteListener(listener);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
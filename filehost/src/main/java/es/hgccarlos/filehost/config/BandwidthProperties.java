@@ -0,0 +1,26 @@
+package es.hgccarlos.filehost.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Bytes per second allowed on the streaming upload/download endpoints; 0 = unlimited. */
+@Data
+@Component
+@ConfigurationProperties(prefix = "bandwidth")
+public class BandwidthProperties {
+
+    // whole node, every client and bucket together
+    private DataSize global = DataSize.ofBytes(0);
+    private DataSize perBucket = DataSize.ofBytes(0);
+    private DataSize perClient = DataSize.ofBytes(0);
+    // per-bucket overrides by bucket name
+    private Map<String, DataSize> buckets = new HashMap<>();
+    // how much unused allowance a limiter can save up (as time at its rate)
+    private Duration burst = Duration.ofSeconds(1);
+}
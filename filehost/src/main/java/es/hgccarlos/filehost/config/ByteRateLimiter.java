@@ -0,0 +1,37 @@
+package es.hgccarlos.filehost.config;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket in bytes per second, kept as one arrival time updated with CAS. Callers
+ * reserve the bytes they are about to move and sleep for the returned delay, so a
+ * throttled transfer blocks its own request thread and nothing else.
+ */
+final class ByteRateLimiter {
+
+    private final long bytesPerSecond;
+    private final double nanosPerByte;
+    private final long burstNanos;
+    private final AtomicLong tat;
+
+    ByteRateLimiter(long bytesPerSecond, long burstNanos) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.nanosPerByte = 1e9 / bytesPerSecond;
+        this.burstNanos = burstNanos;
+        this.tat = new AtomicLong(System.nanoTime() - burstNanos);
+    }
+
+    long bytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /** Takes {@code bytes} and returns how long to wait (nanos) before sending them. */
+    long reserve(long bytes, long now) {
+        long cost = (long) (bytes * nanosPerByte);
+        while (true) {
+            long current = tat.get();
+            long next = Math.max(current, now - burstNanos) + cost;
+            if (tat.compareAndSet(current, next)) return Math.max(0, next - now);
+        }
+    }
+}
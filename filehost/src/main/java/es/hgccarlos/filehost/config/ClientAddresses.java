@@ -0,0 +1,62 @@
+package es.hgccarlos.filehost.config;
+
+import es.hgccarlos.filehost.config.IpAddresses.Cidr;
+import jakarta.servlet.http.HttpServletRequest;
+
+import java.util.List;
+
+/**
+ * Who a request comes from, for per-client limits: the peer address, or, when the peer is
+ * a trusted proxy, the rightmost {@code X-Forwarded-For} hop that isn't one. IPv6 clients
+ * are grouped by {@code ipv6Prefix}. Nothing is allocated per call.
+ */
+final class ClientAddresses {
+
+    private final Cidr[] trustedProxies;
+    private final int ipv6Prefix;
+
+    ClientAddresses(List<String> trustedProxies, int ipv6Prefix) {
+        this.trustedProxies = cidrs(trustedProxies);
+        this.ipv6Prefix = Math.max(0, Math.min(128, ipv6Prefix));
+    }
+
+    /** Writes the client's address into {@code address}; false if the peer address isn't an IP. */
+    boolean resolve(HttpServletRequest req, String remote, long[] address) {
+        if (remote == null || !IpAddresses.parse(remote, 0, remote.length(), address)) return false;
+        if (!matches(trustedProxies, address)) return true;
+
+        // walk right to left past our own proxies; a malformed hop stops at the last trusted one
+        String forwarded = req.getHeader("X-Forwarded-For");
+        if (forwarded == null) return true;
+        int end = forwarded.length();
+        while (end > 0) {
+            int comma = forwarded.lastIndexOf(',', end - 1);
+            if (!IpAddresses.parse(forwarded, comma + 1, end, address)) return true;
+            if (!matches(trustedProxies, address)) return true;
+            end = comma;
+        }
+        return true;
+    }
+
+    /** 64-bit key of the client (its address, or its IPv6 prefix). */
+    long key(long[] address) {
+        int bits = IpAddresses.isV4(address[0], address[1]) ? 128 : ipv6Prefix;
+        long hi = address[0] & IpAddresses.maskHi(bits);
+        long lo = address[1] & IpAddresses.maskLo(bits);
+        return hi ^ Long.rotateLeft(lo * 0x9E3779B97F4A7C15L, 32);
+    }
+
+    static boolean matches(Cidr[] networks, long[] address) {
+        for (Cidr network : networks) {
+            if (network.contains(address)) return true;
+        }
+        return false;
+    }
+
+    static Cidr[] cidrs(List<String> entries) {
+        return entries == null ? new Cidr[0] : entries.stream()
+                .filter(e -> !e.isBlank())
+                .map(Cidr::parse)
+                .toArray(Cidr[]::new);
+    }
+}
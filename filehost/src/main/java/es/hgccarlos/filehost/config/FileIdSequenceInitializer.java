@@ -0,0 +1,32 @@
+package es.hgccarlos.filehost.config;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * {@code files.id} used to be an IDENTITY column. Hibernate creates {@code files_seq}
+ * starting at 1 on existing databases, so move it past the highest id already
+ * handed out before the first insert runs.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class FileIdSequenceInitializer {
+
+    private final JdbcTemplate jdbc;
+    // injected only so the schema update has run before we touch the sequence
+    private final EntityManagerFactory entityManagerFactory;
+
+    @PostConstruct
+    public void alignSequence() {
+        Long value = jdbc.queryForObject(
+                "SELECT setval('files_seq', GREATEST(" +
+                "(SELECT COALESCE(MAX(id), 0) FROM files), " +
+                "(SELECT last_value FROM files_seq), 1))", Long.class);
+        log.info("files_seq aligned at {}", value);
+    }
+}
@@ -0,0 +1,40 @@
+package es.hgccarlos.filehost.config;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * {@code files.storage_key} is new; older rows kept the key of their contents in
+ * {@code relative_path}. Copy it over before the first request reads the row. Rows that
+ * pointed straight at the shared blob store also get back a per-bucket
+ * {@code stored_name}/{@code relative_path} ({@code <bucket path>/<uuid>.<ext>}), the shape
+ * clients saw before.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class FileStorageKeyInitializer {
+
+    private static final String BLOB_ROWS_SQL =
+            "UPDATE files f SET storage_key = f.relative_path, stored_name = n.name, " +
+            "relative_path = n.path || '/' || n.name FROM (SELECT o.id, b.path, gen_random_uuid()::text || " +
+            "COALESCE('.' || NULLIF(substring(o.original_name FROM '\\.([^.]*)$'), ''), '') AS name " +
+            "FROM files o JOIN buckets b ON b.id = o.bucket_id " +
+            "WHERE o.storage_key IS NULL AND o.relative_path LIKE 'blobs/%') n WHERE f.id = n.id";
+    private static final String OTHER_ROWS_SQL =
+            "UPDATE files SET storage_key = relative_path WHERE storage_key IS NULL";
+
+    private final JdbcTemplate jdbc;
+    // injected only so the schema update has added the column before we fill it
+    private final EntityManagerFactory entityManagerFactory;
+
+    @PostConstruct
+    public void fillStorageKeys() {
+        int rows = jdbc.update(BLOB_ROWS_SQL) + jdbc.update(OTHER_ROWS_SQL);
+        if (rows > 0) log.info("storage_key filled in for {} file rows", rows);
+    }
+}
@@ -0,0 +1,194 @@
+package es.hgccarlos.filehost.config;
+
+/**
+ * Allocation-free parsing of textual IPv4/IPv6 addresses into 128 bits ({@code hi}, {@code lo}).
+ * IPv4 addresses are stored IPv4-mapped ({@code ::ffff:a.b.c.d}), so one representation
+ * covers both families. Used by {@link IpRateLimitFilter} on every request.
+ */
+final class IpAddresses {
+
+    private IpAddresses() { }
+
+    /** A network in CIDR notation ({@code 10.0.0.0/8}, {@code 2001:db8::/32}) or a single address. */
+    record Cidr(long hi, long lo, int bits) {
+
+        static Cidr parse(String text) {
+            String s = text.trim();
+            int slash = s.indexOf('/');
+            String address = slash < 0 ? s : s.substring(0, slash);
+            long[] a = new long[2];
+            if (!IpAddresses.parse(address, 0, address.length(), a)) {
+                throw new IllegalArgumentException("Invalid IP address: " + text);
+            }
+            boolean v4 = isV4(a[0], a[1]);
+            int bits = slash < 0 ? 128 : Integer.parseInt(s.substring(slash + 1)) + (v4 ? 96 : 0);
+            if (bits < 0 || bits > 128 || (v4 && bits < 96)) {
+                throw new IllegalArgumentException("Invalid prefix length: " + text);
+            }
+            return new Cidr(a[0] & maskHi(bits), a[1] & maskLo(bits), bits);
+        }
+
+        boolean contains(long[] a) {
+            return (a[0] & maskHi(bits)) == hi && (a[1] & maskLo(bits)) == lo;
+        }
+    }
+
+    static boolean isV4(long hi, long lo) {
+        return hi == 0 && (lo >>> 32) == 0xFFFFL;
+    }
+
+    static long maskHi(int bits) {
+        return bits <= 0 ? 0 : bits >= 64 ? -1L : -1L << (64 - bits);
+    }
+
+    static long maskLo(int bits) {
+        return bits <= 64 ? 0 : bits >= 128 ? -1L : -1L << (128 - bits);
+    }
+
+    /**
+     * Parses {@code s[from, to)} (surrounding spaces, brackets and a {@code %zone} are
+     * ignored) into {@code out[0]} (high 64 bits) and {@code out[1]} (low 64 bits).
+     * Leaves {@code out} untouched and returns false if it isn't an IP address.
+     */
+    static boolean parse(CharSequence s, int from, int to, long[] out) {
+        while (from < to && s.charAt(from) == ' ') from++;
+        while (to > from && s.charAt(to - 1) == ' ') to--;
+        if (to - from >= 2 && s.charAt(from) == '[' && s.charAt(to - 1) == ']') {
+            from++;
+            to--;
+        }
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) == '%') {
+                to = i;
+                break;
+            }
+        }
+        if (from >= to) return false;
+
+        boolean colon = false;
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) == ':') {
+                colon = true;
+                break;
+            }
+        }
+        if (!colon) {
+            long v4 = parseV4(s, from, to);
+            if (v4 < 0) return false;
+            out[0] = 0;
+            out[1] = 0xFFFF_0000_0000L | v4;
+            return true;
+        }
+        return parseV6(s, from, to, out);
+    }
+
+    /** The address as an unsigned 32-bit value, or -1. */
+    private static long parseV4(CharSequence s, int from, int to) {
+        long value = 0;
+        int octets = 0;
+        int i = from;
+        while (i < to) {
+            int start = i;
+            int octet = 0;
+            while (i < to && i - start < 3 && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+                octet = octet * 10 + (s.charAt(i) - '0');
+                i++;
+            }
+            if (i == start || octet > 255 || ++octets > 4) return -1;
+            value = (value << 8) | octet;
+            if (i < to) {
+                if (s.charAt(i) != '.' || octets == 4) return -1;
+                i++;
+                if (i == to) return -1;
+            }
+        }
+        return octets == 4 ? value : -1;
+    }
+
+    private static boolean parseV6(CharSequence s, int from, int to, long[] out) {
+        // groups before "::" accumulate into (hi, lo); groups after it into (rhi, rlo)
+        long hi = 0, lo = 0, rhi = 0, rlo = 0;
+        int groups = 0, rightGroups = 0;
+        boolean compressed = false;
+        int i = from;
+        if (to - from >= 2 && s.charAt(i) == ':' && s.charAt(i + 1) == ':') {
+            compressed = true;
+            i += 2;
+        } else if (s.charAt(i) == ':') {
+            return false;
+        }
+        while (i < to) {
+            int start = i;
+            int group = 0;
+            while (i < to && i - start < 4 && hex(s.charAt(i)) >= 0) {
+                group = (group << 4) | hex(s.charAt(i));
+                i++;
+            }
+            if (i < to && s.charAt(i) == '.') {
+                // embedded IPv4 tail, worth two groups
+                long v4 = parseV4(s, start, to);
+                if (v4 < 0 || groups + rightGroups + 2 > 8) return false;
+                if (compressed) {
+                    rhi = (rhi << 32) | (rlo >>> 32);
+                    rlo = (rlo << 32) | v4;
+                    rightGroups += 2;
+                } else {
+                    hi = (hi << 32) | (lo >>> 32);
+                    lo = (lo << 32) | v4;
+                    groups += 2;
+                }
+                i = to;
+                break;
+            }
+            if (i == start || groups + rightGroups >= 8) return false;
+            if (compressed) {
+                rhi = (rhi << 16) | (rlo >>> 48);
+                rlo = (rlo << 16) | group;
+                rightGroups++;
+            } else {
+                hi = (hi << 16) | (lo >>> 48);
+                lo = (lo << 16) | group;
+                groups++;
+            }
+            if (i == to) break;
+            if (s.charAt(i) != ':') return false;
+            i++;
+            if (i < to && s.charAt(i) == ':') {
+                if (compressed) return false;
+                compressed = true;
+                i++;
+            } else if (i == to) {
+                return false;
+            }
+        }
+
+        int total = groups + rightGroups;
+        if (compressed ? total > 7 : total != 8) return false;
+        if (compressed) {
+            // shift the leading groups into place and append the trailing ones
+            int shift = 16 * (8 - groups);
+            if (shift >= 128) {
+                hi = 0;
+                lo = 0;
+            } else if (shift >= 64) {
+                hi = lo << (shift - 64);
+                lo = 0;
+            } else if (shift > 0) {
+                hi = (hi << shift) | (lo >>> (64 - shift));
+                lo = lo << shift;
+            }
+            hi |= rhi;
+            lo |= rlo;
+        }
+        out[0] = hi;
+        out[1] = lo;
+        return true;
+    }
+
+    private static int hex(char c) {
+        if (c >= '0' && c <= '9') return c - '0';
+        if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+        if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+        return -1;
+    }
+}
@@ -1,26 +1,66 @@
 package es.hgccarlos.filehost.config;
 
-import io.github.resilience4j.ratelimiter.RateLimiter;
-import io.github.resilience4j.ratelimiter.RateLimiterConfig;
-import io.github.resilience4j.ratelimiter.RateLimiterRegistry;
+import es.hgccarlos.filehost.config.IpAddresses.Cidr;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
-import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import java.io.IOException;
-import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
 
+/**
+ * Per-client rate limit on {@code /api/**}: {@code limitForPeriod} requests per
+ * {@code limitRefreshPeriod} ({@link RateLimitProperties}), kept in a fixed-size
+ * {@link IpTokenBuckets} table so a scan from millions of addresses can't grow the heap.
+ *
+ * <p>Clients are told apart by {@link ClientAddresses} (trusted proxies, IPv6 prefix).
+ * Responses carry {@code RateLimit-*} headers and refusals a {@code Retry-After}.
+ * Admitting a request allocates nothing.
+ */
 @Component
-@RequiredArgsConstructor
 public class IpRateLimitFilter extends OncePerRequestFilter {
 
-    private final RateLimitProperties props;
-    private final RateLimiterRegistry registry;
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    // parse buffer, one per request thread
+    private static final ThreadLocal<long[]> ADDRESS = ThreadLocal.withInitial(() -> new long[2]);
+
+    private final IpTokenBuckets buckets;
+    private final Cidr[] whitelist;
+    private final ClientAddresses clients;
+    private final String limit;
+    private final String policy;
+    private final String[] numbers;  // header values, so admitting a request allocates no strings
+    private final Counter rejected;
+
+    public IpRateLimitFilter(RateLimitProperties props, MeterRegistry meterRegistry) {
+        this.buckets = new IpTokenBuckets(props.getLimitForPeriod(), props.getLimitRefreshPeriod(),
+                props.getTimeoutDuration(), props.getMaxTrackedIps());
+        this.whitelist = ClientAddresses.cidrs(props.getWhitelist());
+        this.clients = new ClientAddresses(props.getTrustedProxies(), props.getIpv6Prefix());
+        this.limit = Integer.toString(props.getLimitForPeriod());
+        this.policy = limit + ";w=" + props.getLimitRefreshPeriod().toSeconds();
+        long largest = Math.max(props.getLimitForPeriod(), props.getLimitRefreshPeriod().toSeconds() + 1);
+        this.numbers = IntStream.rangeClosed(0, (int) Math.min(largest, 1 << 16))
+                .mapToObj(Integer::toString)
+                .toArray(String[]::new);
+
+        this.rejected = Counter.builder("ratelimit.rejected")
+                .description("Requests refused with 429")
+                .register(meterRegistry);
+        FunctionCounter.builder("ratelimit.evicted", buckets.evicted, LongAdder::sum)
+                .description("Clients dropped from the table while still throttled (table too small)")
+                .register(meterRegistry);
+    }
 
     @Override
     protected void doFilterInternal(HttpServletRequest req,
@@ -28,27 +68,39 @@ public class IpRateLimitFilter extends OncePerRequestFilter {
                                     FilterChain chain)
             throws ServletException, IOException {
 
-        String ip = req.getRemoteAddr();
+        long[] address = ADDRESS.get();
+        String remote = req.getRemoteAddr();
+        boolean parsed = clients.resolve(req, remote, address);
 
-        if (props.getWhitelist().contains(ip)) {
+        if (parsed && ClientAddresses.matches(whitelist, address)) {
             chain.doFilter(req, res);
             return;
         }
 
-        RateLimiterConfig config = RateLimiterConfig.custom()
-                .limitForPeriod(props.getLimitForPeriod())
-                .limitRefreshPeriod(props.getLimitRefreshPeriod())
-                .timeoutDuration(props.getTimeoutDuration())
-                .build();
+        long key = parsed ? clients.key(address) : remote.hashCode();
+        long now = buckets.now();
+        long granted = buckets.acquire(key, now);
 
-        RateLimiter limiter = registry.rateLimiter(ip, () -> config);
-
-        if (limiter.acquirePermission()) {
-            chain.doFilter(req, res);
-        } else {
+        if (granted < 0) {
+            rejected.increment();
+            headers(res, 0, -granted - now);
+            res.setHeader("Retry-After", number(seconds(buckets.retryAfterNanos(granted, now))));
             res.sendError(HttpStatus.TOO_MANY_REQUESTS.value(),
-                    "Rate limit exceeded for IP: " + ip);
+                    "Rate limit exceeded for IP: " + remote);
+            return;
         }
+
+        long wait = buckets.waitNanos(granted, now);
+        if (wait > 0) {
+            // timeoutDuration > 0: hold the request until its permit comes due
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        headers(res, buckets.remaining(granted, now), buckets.resetNanos(granted, now));
+        chain.doFilter(req, res);
     }
 
     @Override
@@ -56,4 +108,21 @@ public class IpRateLimitFilter extends OncePerRequestFilter {
         String p = request.getRequestURI();
         return !p.startsWith("/api/");
     }
+
+    // ---- Headers ----
+
+    private void headers(HttpServletResponse res, int remaining, long resetNanos) {
+        res.setHeader("RateLimit-Limit", limit);
+        res.setHeader("RateLimit-Remaining", number(remaining));
+        res.setHeader("RateLimit-Reset", number(seconds(resetNanos)));
+        res.setHeader("RateLimit-Policy", policy);
+    }
+
+    private static long seconds(long nanos) {
+        return (nanos + SECOND - 1) / SECOND;
+    }
+
+    private String number(long value) {
+        return value < numbers.length ? numbers[(int) value] : Long.toString(value);
+    }
 }
@@ -0,0 +1,115 @@
+package es.hgccarlos.filehost.config;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-size table of per-client token buckets, kept as GCRA "theoretical arrival times"
+ * (one {@code long} per client): {@code limit} requests per {@code period}, with bursts of
+ * up to {@code limit}.
+ *
+ * <p>The table is set-associative: a key can only live in one of {@value #WAYS} slots of
+ * its set, and each set is guarded by one of a fixed pool of locks. A slot whose bucket has
+ * refilled carries no state, so it is reused freely; when every slot of a set is still
+ * draining, the one closest to refilled is evicted. Memory is therefore bounded by
+ * {@code capacity} no matter how many addresses show up, and nothing is allocated per call.
+ */
+final class IpTokenBuckets {
+
+    static final int WAYS = 8;
+
+    private final long[] keys;
+    private final long[] tats;      // 0 = empty slot
+    private final Object[] locks;
+    private final int setMask;
+    private final long seed = ThreadLocalRandom.current().nextLong();
+    private final long origin = System.nanoTime() - 1;
+
+    final int limit;
+    final long interval;            // nanos per permit
+    private final long tolerance;   // burst allowance on top of one permit
+    private final long maxWait;
+
+    final LongAdder evicted = new LongAdder();
+
+    IpTokenBuckets(int limit, Duration period, Duration maxWait, int capacity) {
+        if (limit < 1) throw new IllegalArgumentException("limitForPeriod must be positive");
+        int sets = Integer.highestOneBit(Math.max(1, capacity / WAYS));
+        this.keys = new long[sets * WAYS];
+        this.tats = new long[sets * WAYS];
+        this.locks = new Object[Math.min(sets, 1024)];
+        for (int i = 0; i < locks.length; i++) locks[i] = new Object();
+        this.setMask = sets - 1;
+        this.limit = limit;
+        this.interval = Math.max(1, period.toNanos() / limit);
+        this.tolerance = interval * (limit - 1);
+        this.maxWait = maxWait == null ? 0 : maxWait.toNanos();
+    }
+
+    long now() {
+        return System.nanoTime() - origin;
+    }
+
+    /**
+     * Takes a permit for {@code key}. Returns the bucket's new arrival time (positive) when
+     * granted, or minus its current one when refused; see {@link #waitNanos},
+     * {@link #remaining} and {@link #retryAfterNanos} to read it.
+     */
+    long acquire(long key, long now) {
+        int set = (int) (mix(key) & setMask);
+        int base = set * WAYS;
+        synchronized (locks[set & (locks.length - 1)]) {
+            int slot = -1;
+            for (int i = base; i < base + WAYS; i++) {
+                if (tats[i] != 0 && keys[i] == key) {
+                    slot = i;
+                    break;
+                }
+            }
+            if (slot < 0) {
+                slot = base;
+                for (int i = base; i < base + WAYS; i++) {
+                    if (tats[i] <= now) {
+                        slot = i;
+                        break;
+                    }
+                    if (tats[i] < tats[slot]) slot = i;
+                }
+                if (tats[slot] > now) evicted.increment();
+                keys[slot] = key;
+                tats[slot] = 0;
+            }
+            long tat = Math.max(tats[slot], now);
+            if (tat - tolerance - now > maxWait) return -tat;
+            tats[slot] = tat + interval;
+            return tat + interval;
+        }
+    }
+
+    /** How long a granted request has to wait for its permit (only with a timeout). */
+    long waitNanos(long granted, long now) {
+        return Math.max(0, granted - interval - tolerance - now);
+    }
+
+    /** Permits left right after a granted request. */
+    int remaining(long granted, long now) {
+        long left = Math.floorDiv(now + tolerance - granted, interval) + 1;
+        return (int) Math.max(0, Math.min(limit, left));
+    }
+
+    /** Until the bucket is full again. */
+    long resetNanos(long granted, long now) {
+        return Math.max(0, granted - now);
+    }
+
+    /** Until a refused client gets its next permit. */
+    long retryAfterNanos(long refused, long now) {
+        return Math.max(0, -refused - tolerance - now);
+    }
+
+    private long mix(long key) {
+        long h = (key ^ seed) * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32);
+    }
+}
@@ -1,13 +1,18 @@
 package es.hgccarlos.filehost.config;
 
 import es.hgccarlos.filehost.service.JwtService;
-import io.jsonwebtoken.ExpiredJwtException;
+import es.hgccarlos.filehost.service.UserStatusCache;
+import io.jsonwebtoken.Claims;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.*;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.authentication.*;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.User;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
@@ -15,6 +20,7 @@ import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import java.io.IOException;
+import java.util.List;
 
 @Component
 @RequiredArgsConstructor
@@ -22,6 +28,11 @@ public class JwtAuthFilter extends OncePerRequestFilter {
 
     private final JwtService jwtService;
     private final UserDetailsService userDetailsService;
+    private final UserStatusCache userStatusCache;
+
+    // authorities from the token's roles claim instead of loading the user every request
+    @Value("${jwt.stateless:true}")
+    private boolean stateless;
 
     @Override
     protected void doFilterInternal(HttpServletRequest request,
@@ -30,20 +41,19 @@ public class JwtAuthFilter extends OncePerRequestFilter {
             throws ServletException, IOException {
 
         String header = request.getHeader("Authorization");
-        String username = null;
-        String token = null;
+        Claims claims = null;
 
         if (header != null && header.startsWith("Bearer ")) {
-            token = header.substring(7);
-            try {
-                if (jwtService.validateToken(token)) {
-                    username = jwtService.getUsernameFromToken(token);
-                }
-            } catch (ExpiredJwtException ignored) { }
+            // one verification per request (and none for a token seen recently)
+            claims = jwtService.verify(header.substring(7)).orElse(null);
         }
 
-        if (username != null && SecurityContextHolder.getContext().getAuthentication() == null) {
-            UserDetails userDetails = userDetailsService.loadUserByUsername(username);
+        if (claims != null && SecurityContextHolder.getContext().getAuthentication() == null) {
+            UserDetails userDetails = stateless ? fromClaims(claims) : userDetailsService.loadUserByUsername(claims.getSubject());
+            if (userDetails == null) {
+                chain.doFilter(request, response);
+                return;
+            }
 
             var authToken = new UsernamePasswordAuthenticationToken(
                     userDetails,
@@ -57,6 +67,18 @@ public class JwtAuthFilter extends OncePerRequestFilter {
         chain.doFilter(request, response);
     }
 
+    /** Principal built from the token alone, or null if the user was disabled or their role changed. */
+    @SuppressWarnings("unchecked")
+    private UserDetails fromClaims(Claims claims) {
+        String username = claims.getSubject();
+        List<String> roles = claims.get("roles", List.class);
+        if (!userStatusCache.allows(username, roles)) return null;
+        List<GrantedAuthority> authorities = roles.stream()
+                .<GrantedAuthority>map(r -> new SimpleGrantedAuthority("ROLE_" + r))
+                .toList();
+        return User.withUsername(username).password("").authorities(authorities).build();
+    }
+
     @Override
     protected boolean shouldNotFilter(HttpServletRequest request) {
         String path = request.getRequestURI();
@@ -5,6 +5,7 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 
 @Data
@@ -15,6 +16,13 @@ public class RateLimitProperties {
     private int limitForPeriod;
     private Duration limitRefreshPeriod;
     private Duration timeoutDuration;
-    private List<String> whitelist;
+    private List<String> whitelist = new ArrayList<>();
+
+    // X-Forwarded-For is only read when the peer is one of these (IPs or CIDRs)
+    private List<String> trustedProxies = new ArrayList<>();
+    // IPv6 clients sharing this prefix share one limit (a host usually owns a whole /64)
+    private int ipv6Prefix = 64;
+    // clients tracked at once; memory stays fixed at ~16 bytes per slot
+    private int maxTrackedIps = 65536;
 
 }
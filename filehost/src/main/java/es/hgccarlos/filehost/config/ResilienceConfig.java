@@ -1,13 +0,0 @@
-package es.hgccarlos.filehost.config;
-
-import io.github.resilience4j.ratelimiter.RateLimiterRegistry;
-import org.springframework.context.annotation.Bean;
-import org.springframework.context.annotation.Configuration;
-
-@Configuration
-public class ResilienceConfig {
-    @Bean
-    public RateLimiterRegistry rateLimiterRegistry() {
-        return RateLimiterRegistry.ofDefaults();
-    }
-}
@@ -49,13 +49,16 @@ public class SecurityConfig {
             @Value("${app.user}") String apiUsername,
             @Value("${app.password}") String apiPassword
     ) {
+        // hashed once: BCrypt is deliberately slow and this runs on every authenticated request
+        var apiUser = org.springframework.security.core.userdetails.User
+                .withUsername(apiUsername)
+                .password(new BCryptPasswordEncoder().encode(apiPassword))
+                .roles("ADMIN")
+                .build();
         return username -> {
             if (username.equals(apiUsername)) {
-                return org.springframework.security.core.userdetails.User
-                        .withUsername(apiUsername)
-                        .password(new BCryptPasswordEncoder().encode(apiPassword))
-                        .roles("ADMIN")
-                        .build();
+                // a copy: ProviderManager erases the password of the user it authenticated
+                return org.springframework.security.core.userdetails.User.withUserDetails(apiUser).build();
             }
                 var u = userService.getByUsername(username);
                 return org.springframework.security.core.userdetails.User
@@ -91,6 +94,7 @@ public class SecurityConfig {
                     .requestMatchers("/auth/**").permitAll()
                     .requestMatchers("/api/users/**").authenticated() 
                     .requestMatchers("/api/buckets/**").hasRole("ADMIN")
+                    .requestMatchers("/api/admin/**").hasRole("ADMIN")
                     .requestMatchers("/api/files/**").authenticated()
                     .requestMatchers("/actuator/**").hasRole("ADMIN")
                     .anyRequest().permitAll()
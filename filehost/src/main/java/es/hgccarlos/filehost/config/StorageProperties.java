@@ -0,0 +1,86 @@
+package es.hgccarlos.filehost.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** Storage backends a bucket can be created on (see StorageBackends). */
+@Data
+@Component
+@ConfigurationProperties(prefix = "storage")
+public class StorageProperties {
+
+    // for buckets created without naming one; "local" is always there
+    private String defaultBackend = "local";
+    // heap-only backend named "memory", for tests and demos
+    private boolean memoryEnabled = false;
+    // more filesystem roots by name, e.g. a cheaper disk for the cold tier; outside the upload dir
+    private Map<String, String> local = new HashMap<>();
+    // S3-compatible backends by name (AWS, MinIO, ...)
+    private Map<String, S3> s3 = new HashMap<>();
+    // several local roots (one per disk) used as one backend by name; files are placed per upload
+    private Map<String, Pool> pools = new HashMap<>();
+    // erasure-coded backends by name: files striped into data + parity shards over a pool's roots
+    private Map<String, Erasure> erasure = new HashMap<>();
+
+    @Data
+    public static class S3 {
+        private String endpoint;
+        private String region = "us-east-1";
+        private String bucket;
+        private String accessKey;
+        private String secretKey;
+        // http://host/bucket/key rather than http://bucket.host/key (MinIO and most stand-ins)
+        private boolean pathStyle = true;
+        // objects above this go up as a multipart upload of parts this size (S3 minimum 5MB)
+        private DataSize partSize = DataSize.ofMegabytes(8);
+        // parts of one object in flight at once
+        private int uploadParallelism = 4;
+        private Duration connectTimeout = Duration.ofSeconds(5);
+        private Duration requestTimeout = Duration.ofSeconds(30);
+    }
+
+    @Data
+    public static class Pool {
+        // "local" and/or storage.local.<name> roots, each on its own disk
+        private List<String> members = new ArrayList<>();
+        private Placement placement = Placement.FREE_SPACE;
+        // round-robin shares by member, 1 if not listed
+        private Map<String, Integer> weights = new HashMap<>();
+        // a root with less free space takes no new files, and is drained down to it
+        private DataSize minFree = DataSize.ofGigabytes(5);
+        // consecutive failed writes (or a failed probe) after which a root counts as failing
+        private int maxWriteErrors = 3;
+        // members to move everything off, e.g. before replacing the disk
+        private Set<String> draining = new HashSet<>();
+    }
+
+    @Data
+    public static class Erasure {
+        // storage.pools.<name> whose roots hold the shards; needs data + parity roots at least
+        private String pool;
+        private int dataShards = 4;
+        // shards that can be lost (dead disk, corrupt cells) with every file still readable
+        private int parityShards = 2;
+        // bytes of a file per shard per stripe; files smaller than a stripe get smaller cells
+        private DataSize cellSize = DataSize.ofKilobytes(256);
+    }
+
+    public enum Placement {
+        // random, weighted by the free space above min-free
+        FREE_SPACE,
+        // smooth weighted round-robin
+        ROUND_ROBIN,
+        // the faster of two random roots, by recent write time per MB
+        LATENCY
+    }
+}
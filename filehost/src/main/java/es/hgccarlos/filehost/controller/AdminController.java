@@ -0,0 +1,81 @@
+package es.hgccarlos.filehost.controller;
+
+import es.hgccarlos.filehost.dto.Response;
+import es.hgccarlos.filehost.service.LayoutMigrator;
+import es.hgccarlos.filehost.service.StorageRootMonitor;
+import es.hgccarlos.filehost.service.StorageScrubber;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+@RequestMapping("/api/admin")
+@RequiredArgsConstructor
+public class AdminController {
+
+    private final StorageScrubber scrubber;
+    private final LayoutMigrator layoutMigrator;
+    private final StorageRootMonitor rootMonitor;
+
+    /** Last storage scrub (orphans, dangling rows, timing) */
+    @GetMapping("/scrub")
+    public Response lastScrub() {
+        String message = scrubber.isRunning() ? "Scrub in progress" : "Last scrub";
+        return new Response("success", "200", message, null, scrubber.lastReport().orElse(null));
+    }
+
+    /** Start a scrub now, in the background */
+    @PostMapping("/scrub")
+    public ResponseEntity<Response> startScrub() {
+        if (!scrubber.start()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(new Response("error", "SCRUB_RUNNING", "A scrub is already running", null, null));
+        }
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .body(new Response("success", "202", "Scrub started", null, null));
+    }
+
+    /** Progress of the move of flat files into the sharded layout */
+    @GetMapping("/layout-migration")
+    public Response layoutMigration() {
+        String message = layoutMigrator.isRunning() ? "Migration in progress" : "Last migration";
+        return new Response("success", "200", message, null, layoutMigrator.status().orElse(null));
+    }
+
+    /** Start moving flat files into the sharded layout, in the background */
+    @PostMapping("/layout-migration")
+    public ResponseEntity<Response> startLayoutMigration() {
+        if (!layoutMigrator.start()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(new Response("error", "MIGRATION_RUNNING", "A layout migration is already running", null, null));
+        }
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .body(new Response("success", "202", "Layout migration started", null, null));
+    }
+
+    /** Roots of the storage pools: state, free space, write latency */
+    @GetMapping("/storage/roots")
+    public Response storageRoots() {
+        return new Response("success", "200", "Storage roots", null, rootMonitor.status());
+    }
+
+    /** Stop placing files on a root and move its files to the others of its pool */
+    @PostMapping("/storage/roots/{root}/drain")
+    public ResponseEntity<Response> drainRoot(@PathVariable String root) {
+        return setDraining(root, true, "Root draining");
+    }
+
+    /** Put a drained root back into use */
+    @DeleteMapping("/storage/roots/{root}/drain")
+    public ResponseEntity<Response> undrainRoot(@PathVariable String root) {
+        return setDraining(root, false, "Root back in use");
+    }
+
+    private ResponseEntity<Response> setDraining(String root, boolean drain, String message) {
+        return rootMonitor.setDraining(root, drain)
+                .map(status -> ResponseEntity.ok(new Response("success", "200", message, null, status)))
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .body(new Response("error", "ROOT_NOT_FOUND", "No storage pool has a root '" + root + "'", null, null)));
+    }
+}
@@ -30,7 +30,7 @@ public class BucketController {
     @PostMapping("/create")
     @ResponseStatus(HttpStatus.CREATED)
     public Response createBucket(@RequestBody CreateBucketRequest req) {
-        return bucketService.createBucket(req.getName());
+        return bucketService.createBucket(req.getName(), req.getBackend());
     }
 
     /**
@@ -47,10 +47,17 @@ public class BucketController {
         return bucketService.listBuckets();
     }
 
-    /** Delete */
+    /** Delete – the key is revoked at once, files are removed in the background */
     @DeleteMapping()
+    @ResponseStatus(HttpStatus.ACCEPTED)
     public Response delete(@RequestBody SimpleBuketRequest req) {
         return bucketService.deleteBucket(req.getApiKey());
     }
 
+    /** Progress of a deletion started with DELETE */
+    @GetMapping("/deletions/{bucketId}")
+    public Response deletionStatus(@PathVariable Long bucketId) {
+        return bucketService.deletionStatus(bucketId);
+    }
+
 }
\ No newline at end of file
@@ -2,17 +2,26 @@ package es.hgccarlos.filehost.controller;
 
 import es.hgccarlos.filehost.dto.DeleteManyFilesRequest;
 import es.hgccarlos.filehost.dto.FileDTO;
+import es.hgccarlos.filehost.dto.HashCheckRequest;
 import es.hgccarlos.filehost.dto.Response;
 import es.hgccarlos.filehost.model.FileEntity;
+import es.hgccarlos.filehost.service.FileHandle;
 import es.hgccarlos.filehost.service.StorageService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.time.ZoneId;
+import java.util.Base64;
+import java.util.HexFormat;
 import java.util.List;
 
 @RestController
@@ -21,12 +30,20 @@ import java.util.List;
 public class FileController {
 
     @Autowired StorageService service;
+    @Autowired FileStreamer streamer;
     private static final String HEADER = "X-API-KEY";
+    private static final String EXPECTED_HASH = "X-Expected-SHA256";
+    // downloads can be kept, but are always revalidated (a 304 costs one metadata lookup)
+    private static final String DOWNLOAD_CACHE_CONTROL = "private, no-cache";
 
-    /** Single upload */
+    @Value("${fileEntity.view.cache-control:private, max-age=3600}")
+    String viewCacheControl;
+
+    /** Single upload – optional X-Expected-SHA256 makes it conditional */
     @PostMapping("/upload")
-    public Response upload(@RequestParam("bucketKey") String bucketKey, @RequestParam("file") MultipartFile file) {
-        return service.uploadFile(file, bucketKey);
+    public Response upload(@RequestParam("bucketKey") String bucketKey, @RequestParam("file") MultipartFile file,
+                           @RequestHeader(value = EXPECTED_HASH, required = false) String expectedHash) {
+        return service.uploadFile(file, bucketKey, expectedHash);
     }
 
     /** Multi upload */
@@ -36,6 +53,23 @@ public class FileController {
         return service.uploadFiles(files, bucketKey);
     }
 
+    /** Raw upload – request body is the file, streamed straight into the blob store */
+    @PutMapping("/upload/{name}")
+    public Response uploadRaw(@RequestHeader("bucketKey") String bucketKey, @PathVariable String name,
+                              @RequestHeader(value = EXPECTED_HASH, required = false) String expectedHash,
+                              HttpServletRequest request) throws IOException {
+        String mimeType = request.getContentType() != null
+                ? request.getContentType() : MediaType.APPLICATION_OCTET_STREAM_VALUE;
+        return service.uploadStream(request.getInputStream(), bucketKey, name, mimeType,
+                request.getContentLengthLong(), expectedHash);
+    }
+
+    /** Exists – which of these hashes the bucket already has */
+    @PostMapping("/exists")
+    public Response exists(@RequestHeader("bucketKey") String bucketKey, @RequestBody HashCheckRequest req) {
+        return service.checkHashes(req.getHashes(), bucketKey);
+    }
+
     /** Delete */
     @DeleteMapping("/{id}")
     public Response delete(@RequestHeader("bucketKey") String bucketKey, @PathVariable Long id) {
@@ -56,22 +90,51 @@ public class FileController {
 
     /** View */
     @GetMapping("/view/{id}")
-    public ResponseEntity<byte[]> view(@RequestHeader(HEADER) String apiKey,
-                                       @PathVariable Long id) throws IOException {
-        FileEntity meta = service.getFileMetaById(id, apiKey);
-        return ResponseEntity.ok()
-                .contentType(MediaType.parseMediaType(meta.getMimeType()))
-                .body(service.getFileBytes(id, apiKey));
+    public void view(@RequestHeader(HEADER) String apiKey, @PathVariable Long id,
+                     HttpServletRequest request, HttpServletResponse response) throws IOException {
+        try (FileHandle file = service.openFile(id, apiKey)) {
+            FileEntity meta = file.getMeta();
+            response.setHeader(HttpHeaders.CACHE_CONTROL, viewCacheControl);
+            response.setHeader(HttpHeaders.VARY, HEADER);
+            if (notModified(meta, request, response)) return;
+            String mimeType = meta.getMimeType() != null
+                    ? meta.getMimeType() : MediaType.APPLICATION_OCTET_STREAM_VALUE;
+            streamer.stream(request, response, file, mimeType, null, etag(meta), lastModified(meta));
+        }
     }
 
     /** Download */
     @GetMapping("/download/{id}")
-    public ResponseEntity<byte[]> download(@RequestHeader(HEADER) String apiKey,
-                                           @PathVariable Long id) throws IOException {
-        FileEntity meta = service.getFileMetaById(id, apiKey);
-        return ResponseEntity.ok()
-                .header("Content-Disposition", "attachment; filename=\"" + meta.getOriginalName() + "\"")
-                .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                .body(service.getFileBytes(id, apiKey));
+    public void download(@RequestHeader(HEADER) String apiKey, @PathVariable Long id,
+                         HttpServletRequest request, HttpServletResponse response) throws IOException {
+        try (FileHandle file = service.openFile(id, apiKey)) {
+            FileEntity meta = file.getMeta();
+            response.setHeader(HttpHeaders.CACHE_CONTROL, DOWNLOAD_CACHE_CONTROL);
+            response.setHeader(HttpHeaders.VARY, HEADER);
+            if (notModified(meta, request, response)) return;
+            streamer.stream(request, response, file, MediaType.APPLICATION_OCTET_STREAM_VALUE,
+                    "attachment; filename=\"" + meta.getOriginalName() + "\"",
+                    etag(meta), lastModified(meta));
+        }
+    }
+
+    /**
+     * Sets ETag/Last-Modified and answers If-None-Match / If-Modified-Since (304) and
+     * If-Match / If-Unmodified-Since (412) from metadata alone, before the file is opened.
+     */
+    private static boolean notModified(FileEntity meta, HttpServletRequest request,
+                                       HttpServletResponse response) {
+        return new ServletWebRequest(request, response).checkNotModified(etag(meta), lastModified(meta));
+    }
+
+    /** Strong validator: the content hash, in the same hex form as X-Expected-SHA256. */
+    private static String etag(FileEntity meta) {
+        if (meta.getHash() == null) return null;
+        return "\"" + HexFormat.of().formatHex(Base64.getDecoder().decode(meta.getHash())) + "\"";
+    }
+
+    private static long lastModified(FileEntity meta) {
+        if (meta.getUploadTime() == null) return -1;
+        return meta.getUploadTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
     }
-}
\ No newline at end of file
+}
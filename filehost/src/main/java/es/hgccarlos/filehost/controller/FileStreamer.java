@@ -0,0 +1,322 @@
+package es.hgccarlos.filehost.controller;
+
+import es.hgccarlos.filehost.service.FileHandle;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Writes a stored file to the response without loading it into the heap.
+ * On Tomcat's NIO connector the copy is handed to the kernel (sendfile); elsewhere
+ * it goes through {@link FileChannel#transferTo}, so memory per download stays constant.
+ * Files in a remote storage backend are fetched range by range as they are sent.
+ *
+ * <p>Honours byte {@code Range} requests (RFC 7233): one range is answered with a
+ * plain 206, several with {@code multipart/byteranges}, and {@code If-Range} falls
+ * back to the full body when the client's copy is stale. Every part is read straight
+ * from its region of the file (or of the in-memory copy for small cached files).
+ */
+@Component
+public class FileStreamer {
+
+    // Tomcat's sendfile contract, see org.apache.catalina.Globals
+    static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+    static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    /** Below this a plain copy is cheaper than setting up sendfile (same default as Tomcat's DefaultServlet). */
+    private static final long SENDFILE_MIN_SIZE = 48 * 1024;
+
+    /** More ranges than this (after merging overlaps) get the whole file instead. */
+    private static final int MAX_RANGES = 32;
+
+    private static final String BYTES_UNIT = "bytes";
+    private static final String CRLF = "\r\n";
+
+    /**
+     * @param etag         strong validator of the content, quoted, or {@code null}
+     * @param lastModified last modification in epoch millis, or {@code -1} if unknown
+     */
+    public void stream(HttpServletRequest request, HttpServletResponse response, Path file,
+                       String contentType, String disposition,
+                       String etag, long lastModified) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            write(request, response, new FileBody(file, channel),
+                    contentType, disposition, etag, lastModified);
+        }
+    }
+
+    /** Streams an opened file, from memory when its contents are in the content cache. */
+    public void stream(HttpServletRequest request, HttpServletResponse response, FileHandle file,
+                       String contentType, String disposition,
+                       String etag, long lastModified) throws IOException {
+        byte[] cached = file.cachedContent();
+        Body body = cached != null ? new BytesBody(cached)
+                : file.getPath() != null ? new FileBody(file.getPath(), file.channel())
+                : new RemoteBody(file);
+        write(request, response, body, contentType, disposition, etag, lastModified);
+    }
+
+    private static void write(HttpServletRequest request, HttpServletResponse response, Body body,
+                              String contentType, String disposition,
+                              String etag, long lastModified) throws IOException {
+        long size = body.size();
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, BYTES_UNIT);
+        if (disposition != null) response.setHeader(HttpHeaders.CONTENT_DISPOSITION, disposition);
+
+        List<long[]> ranges = requestedRanges(request, size, etag, lastModified);
+        if (ranges != null && ranges.isEmpty()) {
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, BYTES_UNIT + " */" + size);
+            return;
+        }
+
+        if (ranges == null) {
+            response.setContentType(contentType);
+            response.setContentLengthLong(size);
+            if (!isHead(request)) send(request, response, body, 0, size);
+        } else if (ranges.size() == 1) {
+            long[] r = ranges.get(0);
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setContentType(contentType);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, contentRange(r, size));
+            response.setContentLengthLong(r[1] - r[0] + 1);
+            if (!isHead(request)) send(request, response, body, r[0], r[1] - r[0] + 1);
+        } else {
+            sendMultipart(request, response, body, ranges, size, contentType);
+        }
+    }
+
+    // ---- Range parsing ----
+
+    /**
+     * The ranges to serve, sorted and merged; {@code null} means "send the whole file"
+     * (no or unusable Range header, stale If-Range), an empty list means 416.
+     */
+    private static List<long[]> requestedRanges(HttpServletRequest request, long size,
+                                                String etag, long lastModified) {
+        String header = request.getHeader(HttpHeaders.RANGE);
+        if (header == null || !("GET".equals(request.getMethod()) || isHead(request))) return null;
+        if (!ifRangeMatches(request.getHeader(HttpHeaders.IF_RANGE), etag, lastModified)) return null;
+
+        int eq = header.indexOf('=');
+        if (eq < 0 || !header.substring(0, eq).trim().equalsIgnoreCase(BYTES_UNIT)) return null;
+
+        List<long[]> ranges = new ArrayList<>();
+        int specs = 0;
+        for (String spec : header.substring(eq + 1).split(",")) {
+            spec = spec.trim();
+            if (spec.isEmpty()) continue;
+            specs++;
+            int dash = spec.indexOf('-');
+            if (dash < 0) return null;
+            long start, end;
+            try {
+                String first = spec.substring(0, dash).trim();
+                String last = spec.substring(dash + 1).trim();
+                if (first.isEmpty()) {                 // suffix: last N bytes
+                    long n = Long.parseLong(last);
+                    if (n < 0) return null;
+                    if (n == 0 || size == 0) continue;
+                    start = Math.max(0, size - n);
+                    end = size - 1;
+                } else {
+                    start = Long.parseLong(first);
+                    end = last.isEmpty() ? size - 1 : Long.parseLong(last);
+                    if (start < 0 || end < start) return null;
+                    if (start >= size) continue;       // unsatisfiable, others may still be fine
+                    end = Math.min(end, size - 1);
+                }
+            } catch (NumberFormatException ex) {
+                return null;                           // malformed header is ignored, not an error
+            }
+            ranges.add(new long[]{start, end});
+        }
+        if (specs == 0) return null;
+        List<long[]> merged = merge(ranges);
+        return merged.size() > MAX_RANGES ? null : merged;
+    }
+
+    /** Overlapping or touching ranges become one, so a client can't make us send a byte twice. */
+    private static List<long[]> merge(List<long[]> ranges) {
+        ranges.sort(Comparator.comparingLong(r -> r[0]));
+        List<long[]> merged = new ArrayList<>();
+        for (long[] r : ranges) {
+            long[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && r[0] <= last[1] + 1) last[1] = Math.max(last[1], r[1]);
+            else merged.add(r);
+        }
+        return merged;
+    }
+
+    /** Strong comparison for entity tags, exact second match for dates (RFC 7233 §3.2). */
+    private static boolean ifRangeMatches(String ifRange, String etag, long lastModified) {
+        if (ifRange == null) return true;
+        String v = ifRange.trim();
+        if (v.startsWith("\"") || v.startsWith("W/")) {
+            return etag != null && v.equals(etag);
+        }
+        if (lastModified < 0) return false;
+        try {
+            long date = ZonedDateTime.parse(v, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            return date / 1000 == lastModified / 1000;
+        } catch (DateTimeParseException ex) {
+            return false;
+        }
+    }
+
+    // ---- Writing ----
+
+    private static void send(HttpServletRequest request, HttpServletResponse response, Body body,
+                             long position, long count) throws IOException {
+        if (count >= SENDFILE_MIN_SIZE && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))
+                && body.sendfile(request, position, count)) {
+            return; // Tomcat writes the region itself once the servlet returns
+        }
+        body.copy(position, count, response.getOutputStream());
+    }
+
+    private static void sendMultipart(HttpServletRequest request, HttpServletResponse response,
+                                      Body body, List<long[]> ranges,
+                                      long size, String contentType) throws IOException {
+        String boundary = UUID.randomUUID().toString().replace("-", "");
+        List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+        long length = 0;
+        for (long[] r : ranges) {
+            byte[] head = (CRLF + "--" + boundary + CRLF
+                    + HttpHeaders.CONTENT_TYPE + ": " + contentType + CRLF
+                    + HttpHeaders.CONTENT_RANGE + ": " + contentRange(r, size) + CRLF + CRLF)
+                    .getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(head);
+            length += head.length + (r[1] - r[0] + 1);
+        }
+        byte[] tail = (CRLF + "--" + boundary + "--" + CRLF).getBytes(StandardCharsets.US_ASCII);
+        length += tail.length;
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(length);
+        if (isHead(request)) return;
+
+        ServletOutputStream out = response.getOutputStream();
+        for (int i = 0; i < ranges.size(); i++) {
+            long[] r = ranges.get(i);
+            out.write(partHeaders.get(i));
+            body.copy(r[0], r[1] - r[0] + 1, out);
+        }
+        out.write(tail);
+    }
+
+    private static String contentRange(long[] r, long size) {
+        return BYTES_UNIT + " " + r[0] + "-" + r[1] + "/" + size;
+    }
+
+    private static boolean isHead(HttpServletRequest request) {
+        return "HEAD".equals(request.getMethod());
+    }
+
+    // ---- Bodies ----
+
+    /** Where the bytes of a response come from. */
+    private interface Body {
+        long size() throws IOException;
+
+        /** Hands the region to Tomcat's sendfile; {@code false} if this body can't be sent that way. */
+        boolean sendfile(HttpServletRequest request, long position, long count);
+
+        void copy(long position, long count, OutputStream out) throws IOException;
+    }
+
+    private record FileBody(Path path, FileChannel channel) implements Body {
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public boolean sendfile(HttpServletRequest request, long position, long count) {
+            request.setAttribute(SENDFILE_FILENAME, path.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, position);
+            request.setAttribute(SENDFILE_END, position + count);
+            return true;
+        }
+
+        @Override
+        public void copy(long position, long count, OutputStream out) throws IOException {
+            WritableByteChannel target = Channels.newChannel(out);
+            long end = position + count;
+            while (position < end) {
+                long n = channel.transferTo(position, end - position, target);
+                if (n <= 0) throw new IOException("File shrank while being sent");
+                position += n;
+            }
+        }
+    }
+
+    /** Each range is its own ranged read from the backend, copied through a 64KB buffer. */
+    private record RemoteBody(FileHandle file) implements Body {
+        @Override
+        public long size() {
+            return file.getMeta().getSizeBytes();
+        }
+
+        @Override
+        public boolean sendfile(HttpServletRequest request, long position, long count) {
+            return false;
+        }
+
+        @Override
+        public void copy(long position, long count, OutputStream out) throws IOException {
+            try (ReadableByteChannel source = file.read(position, count)) {
+                ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+                long left = count;
+                while (left > 0) {
+                    buf.clear();
+                    if (buf.remaining() > left) buf.limit((int) left);
+                    int n = source.read(buf);
+                    if (n < 0) throw new IOException("Stored object shorter than expected");
+                    out.write(buf.array(), 0, n);
+                    left -= n;
+                }
+            }
+        }
+    }
+
+    private record BytesBody(byte[] content) implements Body {
+        @Override
+        public long size() {
+            return content.length;
+        }
+
+        @Override
+        public boolean sendfile(HttpServletRequest request, long position, long count) {
+            return false;
+        }
+
+        @Override
+        public void copy(long position, long count, OutputStream out) throws IOException {
+            out.write(content, (int) position, (int) count);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package es.hgccarlos.filehost.controller;
+
+import es.hgccarlos.filehost.dto.CreateUploadSessionRequest;
+import es.hgccarlos.filehost.dto.Response;
+import es.hgccarlos.filehost.service.UploadSessionService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.InputStream;
+
+/**
+ * Resumable uploads for files too large for a single multipart request.
+ * Create a session, PUT chunks at any offset (in any order, in parallel),
+ * check which ranges arrived, then commit.
+ */
+@RestController
+@RequestMapping("/api/files/sessions")
+@RequiredArgsConstructor
+public class UploadSessionController {
+
+    private final UploadSessionService sessionService;
+
+    /** Create */
+    @PostMapping
+    public Response create(@RequestHeader("bucketKey") String bucketKey,
+                           @RequestBody CreateUploadSessionRequest req) {
+        long size = req.getTotalSize() == null ? -1 : req.getTotalSize();
+        return sessionService.createSession(bucketKey, req.getFileName(), req.getMimeType(), size);
+    }
+
+    /** Chunk – raw bytes written at the given offset */
+    @PutMapping("/{id}")
+    public Response putChunk(@RequestHeader("bucketKey") String bucketKey,
+                             @PathVariable String id,
+                             @RequestParam("offset") long offset,
+                             InputStream body) {
+        return sessionService.writeChunk(id, bucketKey, offset, body);
+    }
+
+    /** Status – received ranges */
+    @GetMapping("/{id}")
+    public Response status(@RequestHeader("bucketKey") String bucketKey, @PathVariable String id) {
+        return sessionService.getSession(id, bucketKey);
+    }
+
+    /** Commit */
+    @PostMapping("/{id}/commit")
+    public Response commit(@RequestHeader("bucketKey") String bucketKey, @PathVariable String id) {
+        return sessionService.commit(id, bucketKey);
+    }
+
+    /** Abort */
+    @DeleteMapping("/{id}")
+    public Response abort(@RequestHeader("bucketKey") String bucketKey, @PathVariable String id) {
+        return sessionService.abort(id, bucketKey);
+    }
+}
@@ -12,6 +12,8 @@ import lombok.Setter;
 public class CreateBucketRequest {
 
     private String name;
+    // storage backend for its files (local, memory, an S3 one); default if absent
+    private String backend;
 
 }
 
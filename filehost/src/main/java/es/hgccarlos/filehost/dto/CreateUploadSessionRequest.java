@@ -0,0 +1,18 @@
+package es.hgccarlos.filehost.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class CreateUploadSessionRequest {
+
+    private String fileName;
+    private String mimeType;
+    private Long totalSize;
+
+}
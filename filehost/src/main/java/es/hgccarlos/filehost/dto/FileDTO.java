@@ -22,5 +22,7 @@ public class FileDTO {
     private String hash;
     private LocalDateTime uploadTime;
     private Long bucketId;
+    // backend (tier) the content is served from
+    private String storageBackend;
 
 }
@@ -0,0 +1,21 @@
+package es.hgccarlos.filehost.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class HashCheckDTO {
+
+    /** Hashes already stored in the bucket, as sent by the client. */
+    private List<String> present;
+    /** Hashes the client still has to upload, as sent by the client. */
+    private List<String> missing;
+
+}
@@ -0,0 +1,19 @@
+package es.hgccarlos.filehost.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class HashCheckRequest {
+
+    /** SHA-256 of each file, hex or Base64. */
+    private List<String> hashes;
+
+}
@@ -0,0 +1,26 @@
+package es.hgccarlos.filehost.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.LocalDateTime;
+
+/** Progress of moving flat files into the sharded layout (see LayoutMigrator). */
+@Getter
+@AllArgsConstructor
+public class LayoutMigrationReport {
+
+    private boolean running;
+    private LocalDateTime startedAt;
+    /** Null while running. */
+    private LocalDateTime finishedAt;
+    /** Blobs moved from {@code blobs/<hash>} to their shard. */
+    private long blobsMoved;
+    /** Legacy per-bucket copies moved to their shard. */
+    private long filesMoved;
+    /** Rows looked at that were already sharded. */
+    private long alreadySharded;
+    /** Moves that failed (e.g. file missing); left where they were. */
+    private long failed;
+
+}
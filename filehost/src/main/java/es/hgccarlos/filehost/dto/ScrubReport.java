@@ -0,0 +1,35 @@
+package es.hgccarlos.filehost.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+/** Outcome of one storage/metadata reconciliation run (see StorageScrubber). */
+@Getter
+@AllArgsConstructor
+public class ScrubReport {
+
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+    /** quarantine, delete or report: what was done with the orphans. */
+    private String orphanAction;
+    /** Files on disk that were looked at. */
+    private long filesScanned;
+    /** File rows whose target was checked. */
+    private long rowsScanned;
+    /** Files on disk no row points at, older than the grace period. */
+    private long orphans;
+    private long orphanBytes;
+    /** Rows whose file is missing (flagged with missing_since). */
+    private long danglingRows;
+    /** Rows flagged earlier whose file is back. */
+    private long recoveredRows;
+    private long errors;
+
+    public long getDurationMs() {
+        return Duration.between(startedAt, finishedAt).toMillis();
+    }
+
+}
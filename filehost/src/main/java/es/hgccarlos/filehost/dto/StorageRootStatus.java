@@ -0,0 +1,23 @@
+package es.hgccarlos.filehost.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/** One root (disk) of a storage pool, as of its last check (see StorageRootMonitor). */
+@Getter
+@AllArgsConstructor
+public class StorageRootStatus {
+
+    private String pool;
+    private String root;
+    private String path;
+    /** ACTIVE, FULL, FAILING or DRAINING. */
+    private String state;
+    private long freeBytes;
+    private long totalBytes;
+    /** Recent write time per MB (moving average). */
+    private double writeMsPerMb;
+    private long writes;
+    private long writeErrors;
+
+}
@@ -0,0 +1,26 @@
+package es.hgccarlos.filehost.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class UploadSessionDTO {
+
+    private String id;
+    private String originalName;
+    private String mimeType;
+    private Long totalSize;
+    private Long receivedBytes;
+    /** Received byte ranges as [start, end) pairs, merged and sorted. */
+    private List<long[]> received;
+    private LocalDateTime expiresAt;
+
+}
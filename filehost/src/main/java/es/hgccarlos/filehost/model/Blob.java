@@ -0,0 +1,47 @@
+package es.hgccarlos.filehost.model;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * Content-addressed copy of a file's bytes, shared by every {@link FileEntity}
+ * with the same hash regardless of the bucket it lives in.
+ */
+@Entity
+@Table(name = "blobs", indexes = @Index(columnList = "relative_path"))
+@Getter
+@Setter
+@NoArgsConstructor
+public class Blob {
+    @Id
+    private String hash;
+
+    // key in the backend below
+    @Column(name = "relative_path", nullable = false)
+    private String relativePath;
+
+    // null: "local"; tiering moves blobs between backends, this is the tier it is on
+    @Column(name = "storage_backend")
+    private String storageBackend;
+
+    @Column(name = "size_bytes", nullable = false)
+    private Long sizeBytes;
+
+    @Column(name = "ref_count", nullable = false)
+    private Long refCount;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt = LocalDateTime.now();
+
+    // reads, decaying with storage.tiering.heat-half-life; flushed by AccessTracker
+    @Column(name = "heat")
+    private Double heat;
+
+    @Column(name = "last_read_at")
+    private LocalDateTime lastReadAt;
+
+}
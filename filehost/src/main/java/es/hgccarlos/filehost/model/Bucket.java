@@ -1,7 +1,6 @@
 package es.hgccarlos.filehost.model;
 
 import jakarta.persistence.*;
-import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
@@ -13,7 +12,6 @@ import java.time.LocalDateTime;
 @Getter
 @Setter
 @NoArgsConstructor
-@AllArgsConstructor
 public class Bucket {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -31,4 +29,20 @@ public class Bucket {
     @Column(name = "created_at", nullable = false)
     private LocalDateTime createdAt = LocalDateTime.now();
 
+    // set when deletion is requested; the row goes once BucketReaper has removed its files
+    @Column(name = "deleting_since")
+    private LocalDateTime deletingSince;
+
+    // StorageBackends name its files go to; null (buckets older than backends) is "local"
+    @Column(name = "storage_backend")
+    private String storageBackend;
+
+    public Bucket(Long id, String name, String path, String apiKey, LocalDateTime createdAt) {
+        this.id = id;
+        this.name = name;
+        this.path = path;
+        this.apiKey = apiKey;
+        this.createdAt = createdAt;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,46 @@
+package es.hgccarlos.filehost.model;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * Progress of an asynchronous bucket deletion. Outlives the {@link Bucket} row so the
+ * outcome can still be queried once the bucket is gone.
+ */
+@Entity
+@Table(name = "bucket_deletions")
+@Getter
+@Setter
+@NoArgsConstructor
+public class BucketDeletion {
+    @Id
+    @Column(name = "bucket_id")
+    private Long bucketId;
+
+    @Column(name = "bucket_name", nullable = false)
+    private String bucketName;
+
+    @Column(name = "bucket_path", nullable = false)
+    private String bucketPath;
+
+    @Column(name = "files_total", nullable = false)
+    private Long filesTotal;
+
+    @Column(name = "files_deleted", nullable = false)
+    private Long filesDeleted = 0L;
+
+    @Column(name = "requested_at", nullable = false)
+    private LocalDateTime requestedAt = LocalDateTime.now();
+
+    @Column(name = "finished_at")
+    private LocalDateTime finishedAt;
+
+    public String getState() {
+        return finishedAt == null ? "DELETING" : "DELETED";
+    }
+
+}
@@ -8,12 +8,20 @@ import lombok.Setter;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "files")
+@Table(name = "files", indexes = {
+        // per-bucket listing and the keyset pages of BucketReaper
+        @Index(name = "idx_files_bucket_id", columnList = "bucket_id, id"),
+        // key lookups of the scrubber, the unlink queue and LayoutMigrator
+        @Index(name = "idx_files_storage_key", columnList = "storage_key")
+})
 @Getter
 @Setter
 @NoArgsConstructor
 public class FileEntity {
-    @Id @GeneratedValue(strategy = GenerationType.IDENTITY)
+    // pooled sequence (not IDENTITY) so Hibernate can batch inserts
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "files_seq")
+    @SequenceGenerator(name = "files_seq", sequenceName = "files_seq", allocationSize = 50)
     private Long id;
 
     @Column(name = "original_name", nullable = false)
@@ -22,9 +30,19 @@ public class FileEntity {
     @Column(name = "stored_name", nullable = false)
     private String storedName;
 
+    // <bucket path>/<storedName>, what clients see; the contents are at storageKey
     @Column(name = "relative_path", nullable = false)
     private String relativePath;
 
+    // key of the contents in storageBackend: the shared blob, or for files uploaded before the
+    // blob store the per-bucket copy; never exposed. Filled in for older rows at startup
+    @Column(name = "storage_key")
+    private String storageKey;
+
+    // backend holding storageKey (the blob's, which may differ from the bucket's after dedup); null: "local"
+    @Column(name = "storage_backend")
+    private String storageBackend;
+
     @Column(name = "mime_type", nullable = false)
     private String mimeType;
 
@@ -40,4 +58,8 @@ public class FileEntity {
     @Column(name = "bucket_id", nullable = false)
     private Long bucketId;
 
+    // set by StorageScrubber while the file this row points at is missing from disk
+    @Column(name = "missing_since")
+    private LocalDateTime missingSince;
+
 }
\ No newline at end of file
@@ -0,0 +1,40 @@
+package es.hgccarlos.filehost.model;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * A file (key in its storage backend, for local the path relative to the upload root)
+ * whose row is gone and that still has to be removed. Written in the same transaction as
+ * the delete, so a crash or a failing disk can't leave it behind; see {@code UnlinkQueue}.
+ */
+@Entity
+@Table(name = "pending_unlinks", indexes = @Index(columnList = "next_attempt_at"))
+@Getter
+@Setter
+@NoArgsConstructor
+public class PendingUnlink {
+    @Id @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, length = 1024)
+    private String path;
+
+    // null: "local"
+    @Column(name = "storage_backend")
+    private String storageBackend;
+
+    @Column(nullable = false)
+    private Integer attempts = 0;
+
+    @Column(name = "next_attempt_at", nullable = false)
+    private LocalDateTime nextAttemptAt = LocalDateTime.now();
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt = LocalDateTime.now();
+
+}
@@ -0,0 +1,26 @@
+package es.hgccarlos.filehost.model;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Entity
+@Table(name = "upload_chunks", indexes = @Index(columnList = "session_id"))
+@Getter
+@Setter
+@NoArgsConstructor
+public class UploadChunk {
+    @Id @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "session_id", nullable = false)
+    private String sessionId;
+
+    @Column(name = "start_offset", nullable = false)
+    private Long startOffset;
+
+    @Column(name = "length_bytes", nullable = false)
+    private Long lengthBytes;
+
+}
@@ -0,0 +1,41 @@
+package es.hgccarlos.filehost.model;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * Resumable upload in progress. The bytes live in a part file under
+ * {@code uploadDir/sessions}; received ranges are tracked as {@link UploadChunk} rows.
+ */
+@Entity
+@Table(name = "upload_sessions")
+@Getter
+@Setter
+@NoArgsConstructor
+public class UploadSession {
+    @Id
+    private String id;
+
+    @Column(name = "bucket_id", nullable = false)
+    private Long bucketId;
+
+    @Column(name = "original_name", nullable = false)
+    private String originalName;
+
+    @Column(name = "mime_type", nullable = false)
+    private String mimeType;
+
+    @Column(name = "total_size", nullable = false)
+    private Long totalSize;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt = LocalDateTime.now();
+
+    @Column(name = "expires_at", nullable = false)
+    private LocalDateTime expiresAt;
+
+}
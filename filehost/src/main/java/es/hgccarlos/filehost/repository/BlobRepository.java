@@ -0,0 +1,7 @@
+package es.hgccarlos.filehost.repository;
+
+import es.hgccarlos.filehost.model.Blob;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface BlobRepository extends JpaRepository<Blob, String> {
+}
@@ -0,0 +1,10 @@
+package es.hgccarlos.filehost.repository;
+
+import es.hgccarlos.filehost.model.BucketDeletion;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.List;
+
+public interface BucketDeletionRepository extends JpaRepository<BucketDeletion, Long> {
+    List<BucketDeletion> findAllByFinishedAtIsNull();
+}
@@ -1,13 +1,23 @@
 package es.hgccarlos.filehost.repository;
 
-import es.hgccarlos.filehost.model.Bucket;
 import es.hgccarlos.filehost.model.FileEntity;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 public interface FileRepository extends JpaRepository<FileEntity, Long> {
     Optional<FileEntity> findByHashAndBucketId(String hash, Long bucketId);
     List<FileEntity> findAllByBucketId(Long id);
+    long countByBucketId(Long bucketId);
+
+    /** The file, only if it lives in the bucket owning {@code apiKey}: bucket, ownership and metadata in one query. */
+    @Query("SELECT f FROM FileEntity f, Bucket b WHERE f.id = :id AND f.bucketId = b.id AND b.apiKey = :apiKey")
+    Optional<FileEntity> findByIdAndBucketApiKey(@Param("id") Long id, @Param("apiKey") String apiKey);
+
+    @Query("SELECT f.hash FROM FileEntity f WHERE f.bucketId = :bucketId AND f.hash IN :hashes")
+    List<String> findExistingHashes(@Param("bucketId") Long bucketId, @Param("hashes") Collection<String> hashes);
 }
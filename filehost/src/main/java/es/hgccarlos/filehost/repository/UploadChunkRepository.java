@@ -0,0 +1,17 @@
+package es.hgccarlos.filehost.repository;
+
+import es.hgccarlos.filehost.model.UploadChunk;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+
+public interface UploadChunkRepository extends JpaRepository<UploadChunk, Long> {
+    List<UploadChunk> findAllBySessionIdOrderByStartOffsetAsc(String sessionId);
+
+    @Modifying
+    @Query("DELETE FROM UploadChunk c WHERE c.sessionId = :sessionId")
+    int deleteAllBySessionId(@Param("sessionId") String sessionId);
+}
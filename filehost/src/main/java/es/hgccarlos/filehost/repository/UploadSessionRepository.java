@@ -0,0 +1,11 @@
+package es.hgccarlos.filehost.repository;
+
+import es.hgccarlos.filehost.model.UploadSession;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+public interface UploadSessionRepository extends JpaRepository<UploadSession, String> {
+    List<UploadSession> findAllByExpiresAtBefore(LocalDateTime time);
+}
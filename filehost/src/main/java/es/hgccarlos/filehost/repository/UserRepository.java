@@ -9,4 +9,12 @@ import java.util.UUID;
 public interface UserRepository extends JpaRepository<User, UUID> {
     Optional<User> findByUsername(String username);
     boolean existsByUsername(String username);
+
+    // only the columns authorization depends on
+    Optional<Status> findStatusByUsername(String username);
+
+    interface Status {
+        String getRole();
+        boolean isEnabled();
+    }
 }
@@ -0,0 +1,62 @@
+package es.hgccarlos.filehost.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts reads per blob for the tiering engine. A download only bumps an in-memory
+ * counter; {@link TieringService} flushes them every {@code flush-interval} into the blob's
+ * {@code heat}, a read count that halves every {@code heat-half-life} without reads. Reads
+ * racing a flush may land in the next one or, rarely, be lost: the heat is an estimate.
+ */
+@Component
+@RequiredArgsConstructor
+public class AccessTracker {
+
+    // heat decays by the time since the last read, then the new reads are added
+    private static final String FLUSH_SQL =
+            "UPDATE blobs SET heat = COALESCE(heat, 0) * " +
+            "power(0.5, EXTRACT(EPOCH FROM (now() - COALESCE(last_read_at, now()))) / ?) + ?, " +
+            "last_read_at = now() WHERE hash = ?";
+
+    private final JdbcTemplate jdbc;
+
+    @Value("${storage.tiering.enabled:false}")
+    private boolean enabled;
+
+    @Value("${storage.tiering.heat-half-life:P1D}")
+    private Duration halfLife;
+
+    private final ConcurrentHashMap<String, LongAdder> reads = new ConcurrentHashMap<>();
+
+    /** Called on every download; nothing is tracked while tiering is off. */
+    public void record(String hash) {
+        if (!enabled || hash == null) return;
+        reads.computeIfAbsent(hash, h -> new LongAdder()).increment();
+    }
+
+    /** Writes the reads counted since the last flush and returns them by hash. */
+    public Map<String, Long> flush() {
+        Map<String, Long> counted = new HashMap<>();
+        for (String hash : reads.keySet()) {
+            LongAdder n = reads.remove(hash);
+            if (n != null) counted.put(hash, n.sum());
+        }
+        if (counted.isEmpty()) return counted;
+        double halfLifeSeconds = Math.max(1, halfLife.toSeconds());
+        jdbc.batchUpdate(FLUSH_SQL, counted.entrySet(), counted.size(), (ps, e) -> {
+            ps.setDouble(1, halfLifeSeconds);
+            ps.setLong(2, e.getValue());
+            ps.setString(3, e.getKey());
+        });
+        return counted;
+    }
+}
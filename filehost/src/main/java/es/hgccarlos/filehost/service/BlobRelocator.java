@@ -0,0 +1,69 @@
+package es.hgccarlos.filehost.service;
+
+import es.hgccarlos.filehost.storage.LocalStorageBackend;
+import es.hgccarlos.filehost.storage.ObjectRef;
+import es.hgccarlos.filehost.storage.StorageBackend;
+import es.hgccarlos.filehost.storage.StorageBackends;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Moves a blob to another backend while it stays in use, keeping its key (tiering,
+ * draining a pool root):
+ * <ol>
+ *   <li>the object is copied to the target backend;</li>
+ *   <li>the blob row is locked (uploads deduplicating onto it and deletes wait) and it and
+ *       its file rows are repointed, so downloads are served from the target from then on;</li>
+ *   <li>the old copy goes to the {@link UnlinkQueue} with a delay, for reads already under way.</li>
+ * </ol>
+ * If the row changed meanwhile (deleted, moved) the copy is queued for removal instead.
+ */
+@Service
+@RequiredArgsConstructor
+public class BlobRelocator {
+
+    private static final String LOCAL = "'" + LocalStorageBackend.NAME + "'";
+    private static final String LOCK_SQL =
+            "SELECT COALESCE(storage_backend, " + LOCAL + ") FROM blobs WHERE hash = ? AND relative_path = ? FOR UPDATE";
+    private static final String MOVE_BLOB_SQL =
+            "UPDATE blobs SET storage_backend = ? WHERE hash = ?";
+    private static final String MOVE_FILES_SQL =
+            "UPDATE files SET storage_backend = ? WHERE storage_key = ? AND COALESCE(storage_backend, " + LOCAL + ") = ?";
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final StorageBackends backends;
+    private final UnlinkQueue unlinkQueue;
+
+    /** False if the blob changed under us (deleted, moved) and nothing was done. */
+    public boolean move(String hash, String key, long size, String from, String to, Duration unlinkDelay)
+            throws IOException {
+        StorageBackend source = backends.get(from), target = backends.get(to);
+        try (InputStream in = Channels.newInputStream(source.get(key, 0, size))) {
+            target.put(key, in, size);
+        }
+        Boolean moved = null;
+        try {
+            moved = tx.execute(s -> {
+                List<String> locked = jdbc.queryForList(LOCK_SQL, String.class, hash, key);
+                if (locked.isEmpty() || !locked.get(0).equals(from)) return false;
+                jdbc.update(MOVE_BLOB_SQL, to, hash);
+                jdbc.update(MOVE_FILES_SQL, to, key, from);
+                unlinkQueue.enqueue(List.of(new ObjectRef(from, key)), unlinkDelay);
+                return true;
+            });
+        } finally {
+            // the queue leaves it alone if something else references it there by now
+            if (!Boolean.TRUE.equals(moved)) unlinkQueue.enqueue(List.of(new ObjectRef(to, key)));
+        }
+        return Boolean.TRUE.equals(moved);
+    }
+}
@@ -0,0 +1,26 @@
+package es.hgccarlos.filehost.service;
+
+import es.hgccarlos.filehost.model.FileEntity;
+import es.hgccarlos.filehost.storage.ObjectRef;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+public interface BlobService {
+    Path stagingDir() throws IOException;
+    /**
+     * Puts staged files bound for a remote {@code backend} there ahead of {@link #storeAll},
+     * which then only takes the references. Call it outside a transaction.
+     */
+    void upload(List<StagedFile> staged, String backend) throws IOException;
+    /** Queues for unlinking what {@link #upload} put for files whose transaction then failed. */
+    void abandon(List<StagedFile> staged, String backend);
+    /** Stores the staged file on {@code backend} (null: local), or reuses the blob with its hash wherever it is. */
+    ObjectRef store(StagedFile staged, String backend) throws IOException;
+    List<ObjectRef> storeAll(List<StagedFile> staged, String backend) throws IOException;
+    void release(FileEntity file);
+    void releaseAll(List<FileEntity> files);
+    /** Like {@link #releaseAll} but hands back the objects to remove instead of queueing them. */
+    List<ObjectRef> detachAll(List<FileEntity> files);
+}
@@ -0,0 +1,222 @@
+package es.hgccarlos.filehost.service;
+
+import es.hgccarlos.filehost.model.FileEntity;
+import es.hgccarlos.filehost.storage.DirectoryCache;
+import es.hgccarlos.filehost.storage.ObjectRef;
+import es.hgccarlos.filehost.storage.StorageBackend;
+import es.hgccarlos.filehost.storage.StorageBackends;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.transaction.Transactional;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Stores file contents once per hash under {@code blobs/} (sharded by hash prefix, see
+ * {@link ShardedLayout}) in the bucket's {@link StorageBackend}, and keeps a reference
+ * count of the {@link FileEntity} rows (in any bucket) that point at them. Reference counts
+ * are maintained with JDBC batches so a whole upload or delete batch costs a fixed number
+ * of round-trips.
+ *
+ * <p>Deduplication is across backends: content already stored somewhere is referenced
+ * where it is rather than copied to the bucket's backend. Uploads to a remote backend go
+ * through {@link #upload} before the caller's transaction, so no row lock or connection is
+ * held during the transfer; keys are content addressed, so putting one again is harmless,
+ * and an object left behind by a transaction that then failed goes to the {@link UnlinkQueue}
+ * (which keeps it if another upload referenced it meanwhile).
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+@Transactional
+public class BlobServiceImpl implements BlobService {
+
+    static final String BLOB_DIR = "blobs";
+
+    // inserts the blob with one reference, or adds a reference if it already exists
+    private static final String ACQUIRE_SQL =
+            "INSERT INTO blobs (hash, relative_path, storage_backend, size_bytes, ref_count, created_at) " +
+            "VALUES (?, ?, ?, ?, 1, now()) " +
+            "ON CONFLICT (hash) DO UPDATE SET ref_count = blobs.ref_count + 1";
+    private static final String RELEASE_SQL =
+            "UPDATE blobs SET ref_count = ref_count - ? WHERE hash = ?";
+    private static final String DELETE_UNREFERENCED_SQL =
+            "DELETE FROM blobs WHERE hash IN (:hashes) AND ref_count <= 0 RETURNING relative_path, storage_backend";
+    private static final String PATHS_SQL =
+            "SELECT hash, relative_path, storage_backend FROM blobs WHERE hash IN (:hashes)";
+
+    private final JdbcTemplate jdbc;
+    private final NamedParameterJdbcTemplate namedJdbc;
+    private final MeterRegistry meterRegistry;
+    private final FileContentCache contentCache;
+    private final UnlinkQueue unlinkQueue;
+    private final DirectoryCache directories;
+    private final StorageBackends backends;
+
+    @Value("${fileEntity.upload-dir}")
+    private String uploadDir;
+
+    private Path rootPath;
+
+    @PostConstruct
+    public void init() throws IOException {
+        rootPath = Paths.get(uploadDir);
+        Files.createDirectories(rootPath.resolve(BLOB_DIR));
+    }
+
+    // ---- Staging ----
+    @Override
+    public Path stagingDir() throws IOException {
+        // same filesystem as the local blobs, so storing a staged file locally is a rename
+        return directories.ensure(rootPath.resolve(BLOB_DIR));
+    }
+
+    // ---- Store ----
+    @Override
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
+    public void upload(List<StagedFile> staged, String backend) throws IOException {
+        // pools are local roots, where storeAll only renames
+        if (staged.isEmpty() || backends.pools().stream().anyMatch(p -> p.name().equals(backend))) return;
+        StorageBackend store = backends.get(backend);
+        Map<String, ObjectRef> existing = locations(staged.stream().map(StagedFile::getHash).toList());
+        for (StagedFile f : staged) {
+            String key = ShardedLayout.blobPath(f.getHash());
+            if (existing.containsKey(f.getHash()) || store.localPath(key).isPresent()) continue;
+            if (store.stat(key).isEmpty()) {
+                // the staged file stays: storeAll writes it again if the object is unlinked
+                // before then
+                try (InputStream in = Files.newInputStream(f.getPath())) {
+                    store.put(key, in, f.getSize());
+                }
+                meterRegistry.counter("blob.create", "backend", store.name()).increment();
+            }
+            f.setUploaded(true);
+        }
+    }
+
+    @Override
+    public void abandon(List<StagedFile> staged, String backend) {
+        List<ObjectRef> uploaded = staged.stream()
+                .filter(StagedFile::isUploaded)
+                .map(f -> new ObjectRef(backends.get(backend).name(), ShardedLayout.blobPath(f.getHash())))
+                .toList();
+        try {
+            unlinkQueue.enqueue(uploaded);
+        } catch (RuntimeException ex) {
+            log.warn("Could not queue {} abandoned upload(s) for unlinking", uploaded.size(), ex);
+        }
+    }
+
+    @Override
+    public ObjectRef store(StagedFile staged, String backend) throws IOException {
+        return storeAll(List.of(staged), backend).get(0);
+    }
+
+    @Override
+    public List<ObjectRef> storeAll(List<StagedFile> staged, String backend) throws IOException {
+        if (staged.isEmpty()) return List.of();
+        // a pool picks a root per file; what is already stored stays where it is
+        List<Placed> placed = new ArrayList<>(staged.size());
+        for (StagedFile f : staged) {
+            String target = backends.forWrite(backend, f.getSize()).name();
+            placed.add(new Placed(f, new ObjectRef(target, ShardedLayout.blobPath(f.getHash()))));
+        }
+
+        // an unlink of these keys already queued either finishes first (and we write the
+        // object again below) or waits for our commit and sees the reference
+        unlinkQueue.hold(placed.stream().map(p -> p.ref().key()).toList());
+        // take the references first so a concurrent release cannot drop a blob under us
+        jdbc.batchUpdate(ACQUIRE_SQL, placed, placed.size(), (ps, p) -> {
+            ps.setString(1, p.file().getHash());
+            ps.setString(2, p.ref().key());
+            ps.setString(3, p.ref().backend());
+            ps.setLong(4, p.file().getSize());
+        });
+        Map<String, ObjectRef> existing = locations(staged.stream().map(StagedFile::getHash).toList());
+
+        List<ObjectRef> refs = new ArrayList<>(staged.size());
+        for (Placed p : placed) {
+            StagedFile f = p.file();
+            // blobs stored before sharding keep their flat path until the layout migration moves them
+            ObjectRef ref = existing.getOrDefault(f.getHash(), p.ref());
+            StorageBackend store = backends.get(ref.backend());
+            if (store.stat(ref.key()).isPresent()) {
+                Files.deleteIfExists(f.getPath());
+                if (!f.isUploaded()) meterRegistry.counter("blob.dedup.hit").increment();
+            } else {
+                store.putFile(ref.key(), f.getPath());
+                meterRegistry.counter("blob.create", "backend", store.name()).increment();
+            }
+            refs.add(ref);
+        }
+        return refs;
+    }
+
+    private record Placed(StagedFile file, ObjectRef ref) { }
+
+    // ---- Release ----
+    @Override
+    public void release(FileEntity file) {
+        releaseAll(List.of(file));
+    }
+
+    @Override
+    public void releaseAll(List<FileEntity> files) {
+        unlinkQueue.enqueue(detachAll(files));
+    }
+
+    @Override
+    public List<ObjectRef> detachAll(List<FileEntity> files) {
+        if (files.isEmpty()) return List.of();
+        contentCache.invalidate(files.stream().map(FileEntity::getHash).toList());
+
+        Map<String, ObjectRef> blobs = locations(files.stream().map(FileEntity::getHash).toList());
+        Map<String, Long> refs = new HashMap<>();
+        List<ObjectRef> unlink = new ArrayList<>();
+        for (FileEntity f : files) {
+            ObjectRef blob = blobs.get(f.getHash());
+            // the blob may have just been moved to its shard, so any path in the store counts
+            boolean inStore = blob != null && (blob.key().equals(f.getStorageKey())
+                    || f.getStorageKey().startsWith(BLOB_DIR + "/"));
+            if (!inStore) {
+                // per-bucket copy written before the blob store existed
+                unlink.add(new ObjectRef(backends.get(f.getStorageBackend()).name(), f.getStorageKey()));
+            } else {
+                refs.merge(f.getHash(), 1L, Long::sum);
+            }
+        }
+
+        if (!refs.isEmpty()) {
+            jdbc.batchUpdate(RELEASE_SQL, refs.entrySet(), refs.size(), (ps, e) -> {
+                ps.setLong(1, e.getValue());
+                ps.setString(2, e.getKey());
+            });
+            List<ObjectRef> unreferenced = namedJdbc.query(DELETE_UNREFERENCED_SQL,
+                    Map.of("hashes", refs.keySet()), (rs, i) -> ref(rs.getString(1), rs.getString(2)));
+            unlink.addAll(unreferenced);
+            meterRegistry.counter("blob.delete").increment(unreferenced.size());
+        }
+        return unlink;
+    }
+
+    // ---- Helpers ----
+    private Map<String, ObjectRef> locations(Collection<String> hashes) {
+        Map<String, ObjectRef> locations = new HashMap<>();
+        namedJdbc.query(PATHS_SQL, Map.of("hashes", new HashSet<>(hashes)),
+                rs -> { locations.put(rs.getString(1), ref(rs.getString(2), rs.getString(3))); });
+        return locations;
+    }
+
+    private ObjectRef ref(String key, String backend) {
+        return new ObjectRef(backends.get(backend).name(), key);
+    }
+}
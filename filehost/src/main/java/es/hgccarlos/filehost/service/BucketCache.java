@@ -0,0 +1,108 @@
+package es.hgccarlos.filehost.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import es.hgccarlos.filehost.model.Bucket;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * In-process apiKey → bucket lookup, so file operations don't hit Postgres for a record
+ * that practically never changes. Unknown keys are cached too, for a shorter time, so a
+ * flood of invalid keys is answered from memory.
+ *
+ * <p>{@link #evict} drops keys right away and again once the surrounding transaction
+ * completes, so a lookup racing with the commit can't put the old bucket back. With
+ * {@code fileEntity.bucket-cache.notify=true} evictions are also sent to the other
+ * instances through Postgres NOTIFY (see {@link BucketCacheListener}); without it they
+ * only see the change once their entry expires.
+ *
+ * <p>Cached buckets are shared snapshots: read them, never modify or save them.
+ */
+@Slf4j
+@Component
+public class BucketCache {
+
+    static final String NAME = "bucket.byKey";
+    static final String CHANNEL = "bucket_cache";
+
+    private final Cache<String, Optional<Bucket>> cache;
+    private final Counter negativeHits;
+    private final JdbcTemplate jdbc;  // null unless evictions are broadcast
+
+    public BucketCache(MeterRegistry meterRegistry,
+                       ObjectProvider<JdbcTemplate> jdbc,
+                       @Value("${fileEntity.bucket-cache.ttl:60s}") Duration ttl,
+                       @Value("${fileEntity.bucket-cache.negative-ttl:10s}") Duration negativeTtl,
+                       @Value("${fileEntity.bucket-cache.max-size:10000}") long maxSize,
+                       @Value("${fileEntity.bucket-cache.notify:false}") boolean notify) {
+        this.jdbc = notify ? jdbc.getObject() : null;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(Expiry.creating((String key, Optional<Bucket> bucket) ->
+                        bucket.isPresent() ? ttl : negativeTtl))
+                .recordStats()
+                .build();
+
+        // cache.gets{result=hit|miss}, cache.evictions, cache.size
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, NAME);
+        this.negativeHits = Counter.builder("bucket.cache.negative.hits")
+                .description("Lookups of unknown API keys answered from the cache")
+                .register(meterRegistry);
+    }
+
+    public Optional<Bucket> get(String apiKey, Function<String, Optional<Bucket>> loader) {
+        if (apiKey == null) return Optional.empty();
+        boolean[] loaded = {false};
+        Optional<Bucket> bucket = cache.get(apiKey, k -> {
+            loaded[0] = true;
+            return loader.apply(k);
+        });
+        if (bucket.isEmpty() && !loaded[0]) negativeHits.increment();
+        return bucket;
+    }
+
+    /** Forgets the given keys here and, when enabled, on every other instance. */
+    public void evict(String... apiKeys) {
+        List<String> keys = Arrays.stream(apiKeys).filter(Objects::nonNull).toList();
+        cache.invalidateAll(keys);
+        if (jdbc != null) {
+            // delivered by Postgres when (and only if) the transaction commits
+            keys.forEach(k -> jdbc.query("SELECT pg_notify(?, ?)", (RowCallbackHandler) rs -> { }, CHANNEL, k));
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    cache.invalidateAll(keys);
+                }
+            });
+        }
+    }
+
+    // ---- Called by the NOTIFY listener ----
+    void evictLocal(String apiKey) {
+        cache.invalidate(apiKey);
+    }
+
+    void clear() {
+        cache.invalidateAll();
+    }
+}
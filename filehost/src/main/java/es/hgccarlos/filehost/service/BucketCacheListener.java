@@ -0,0 +1,72 @@
+package es.hgccarlos.filehost.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Applies bucket-cache evictions made by other instances. Keeps one pooled connection
+ * LISTENing on {@value BucketCache#CHANNEL}; if it drops, the whole cache is cleared
+ * (notifications may have been missed meanwhile) and the listener reconnects.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "fileEntity.bucket-cache.notify", havingValue = "true")
+public class BucketCacheListener {
+
+    private static final int POLL_MS = 5_000;
+
+    private final DataSource dataSource;
+    private final BucketCache bucketCache;
+
+    private volatile boolean running = true;
+    private Thread thread;
+
+    @PostConstruct
+    public void start() {
+        thread = Thread.ofPlatform().daemon().name("bucket-cache-listener").start(this::run);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        thread.interrupt();
+        thread.join(POLL_MS);
+    }
+
+    private void run() {
+        while (running) {
+            try (Connection c = dataSource.getConnection(); Statement st = c.createStatement()) {
+                st.execute("LISTEN " + BucketCache.CHANNEL);
+                bucketCache.clear();
+                log.info("Listening for bucket cache evictions");
+                PGConnection pg = c.unwrap(PGConnection.class);
+                while (running) {
+                    PGNotification[] batch = pg.getNotifications(POLL_MS);
+                    if (batch == null) continue;
+                    for (PGNotification n : batch) bucketCache.evictLocal(n.getParameter());
+                }
+            } catch (SQLException ex) {
+                if (!running) return;
+                bucketCache.clear();
+                log.warn("Bucket cache listener lost its connection, retrying", ex);
+                try {
+                    Thread.sleep(POLL_MS);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+}
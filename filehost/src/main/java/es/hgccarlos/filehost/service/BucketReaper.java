@@ -0,0 +1,143 @@
+package es.hgccarlos.filehost.service;
+
+import es.hgccarlos.filehost.model.BucketDeletion;
+import es.hgccarlos.filehost.model.FileEntity;
+import es.hgccarlos.filehost.repository.BucketDeletionRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Removes buckets marked for deletion by {@link BucketServiceImpl#deleteBucket}. Rows go
+ * in keyset pages, one {@code DELETE ... RETURNING} statement and one short transaction per
+ * page; the files freed by a page are queued in the {@link UnlinkQueue} in that same
+ * transaction, so content uploaded again elsewhere before the unlink runs is kept. The
+ * bucket row goes last, when none of its files is left; uploads from nodes that still had
+ * the bucket cached share-lock the row in their store transaction and are refused once
+ * {@code deleting_since} is set; the drop waits for those still in flight and is put off to
+ * the next run if they added a file.
+ *
+ * <p>{@code SKIP LOCKED} lets several instances reap the same bucket without stepping on
+ * each other; anything skipped is picked up on a later run.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class BucketReaper {
+
+    // ids past the last page only: rows deleted by earlier pages are dead index entries
+    // until vacuum
+    private static final String DELETE_PAGE_SQL =
+            "DELETE FROM files WHERE id IN (" +
+            "SELECT id FROM files WHERE bucket_id = ? AND id > ? ORDER BY id LIMIT ? FOR UPDATE SKIP LOCKED) " +
+            "RETURNING id, hash, storage_key, storage_backend";
+    private static final String PROGRESS_SQL =
+            "UPDATE bucket_deletions SET files_deleted = files_deleted + ? WHERE bucket_id = ?";
+    // waits for store transactions holding the row (FOR KEY SHARE, see StorageServiceImpl), so
+    // the NOT EXISTS below, a later statement, sees the files they committed
+    private static final String LOCK_BUCKET_SQL =
+            "SELECT id FROM buckets WHERE id = ? FOR UPDATE";
+    private static final String DROP_BUCKET_SQL =
+            "DELETE FROM buckets WHERE id = ? AND deleting_since IS NOT NULL " +
+            "AND NOT EXISTS (SELECT 1 FROM files WHERE bucket_id = ?)";
+    private static final String FINISH_SQL =
+            "UPDATE bucket_deletions SET finished_at = now() WHERE bucket_id = ?";
+
+    private final BucketDeletionRepository deletionRepo;
+    private final BlobService blobService;
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${fileEntity.upload-dir}")
+    private String uploadDir;
+
+    @Value("${fileEntity.bucket-reaper.batch-size:1000}")
+    private int batchSize;
+
+    @Scheduled(fixedDelayString = "${fileEntity.bucket-reaper.interval:PT10S}")
+    public void reapAll() {
+        for (BucketDeletion deletion : deletionRepo.findAllByFinishedAtIsNull()) {
+            try {
+                reap(deletion);
+            } catch (RuntimeException ex) {
+                log.warn("Could not finish deleting bucket '{}', will retry", deletion.getBucketName(), ex);
+            }
+        }
+    }
+
+    void reap(BucketDeletion deletion) {
+        Long bucketId = deletion.getBucketId();
+        long lastId = 0;
+        while (true) {
+            long after = lastId;
+            Page page = tx.execute(s -> deletePage(bucketId, after));
+            if (page.rows() < batchSize) break;
+            lastId = page.lastId();
+        }
+
+        deleteDirectory(deletion.getBucketPath());
+        Boolean dropped = tx.execute(s -> {
+            jdbc.queryForList(LOCK_BUCKET_SQL, Long.class, bucketId);
+            if (jdbc.update(DROP_BUCKET_SQL, bucketId, bucketId) == 0) return false;
+            jdbc.update(FINISH_SQL, bucketId);
+            return true;
+        });
+        if (Boolean.TRUE.equals(dropped)) {
+            log.info("Bucket '{}' deleted", deletion.getBucketName());
+        }
+    }
+
+    // ---- Helpers ----
+    private record Page(int rows, long lastId) { }
+
+    private Page deletePage(Long bucketId, long afterId) {
+        List<FileEntity> files = jdbc.query(DELETE_PAGE_SQL, (rs, i) -> {
+            FileEntity f = new FileEntity();
+            f.setId(rs.getLong(1));
+            f.setHash(rs.getString(2));
+            f.setStorageKey(rs.getString(3));
+            f.setStorageBackend(rs.getString(4));
+            f.setBucketId(bucketId);
+            return f;
+        }, bucketId, afterId, batchSize);
+        if (files.isEmpty()) return new Page(0, afterId);
+
+        blobService.releaseAll(files);
+        jdbc.update(PROGRESS_SQL, files.size(), bucketId);
+        meterRegistry.counter("bucket.reaper.files").increment(files.size());
+        long lastId = files.stream().mapToLong(FileEntity::getId).max().orElse(afterId);
+        return new Page(files.size(), lastId);
+    }
+
+    private void deleteDirectory(String bucketPath) {
+        Path root = Paths.get(uploadDir).toAbsolutePath().normalize();
+        Path dir = root.resolve(bucketPath).normalize();
+        // a direct child of the upload root, and never a shared store (blobs, sessions...)
+        if (!root.equals(dir.getParent()) || !Files.isDirectory(dir)
+                || BucketServiceImpl.RESERVED_NAMES.contains(dir.getFileName().toString())) return;
+        try (Stream<Path> walk = Files.walk(dir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(this::deleteQuietly);
+        } catch (IOException ex) {
+            log.warn("Error deleting bucket dir '{}'", dir, ex);
+        }
+    }
+
+    private void deleteQuietly(Path path) {
+        try { Files.deleteIfExists(path); }
+        catch (IOException ex) { log.warn("Could not delete {}", path, ex); }
+    }
+}
@@ -8,7 +8,10 @@ import java.util.Optional;
 
 public interface BucketService {
     Response createBucket(String name);
+    /** {@code backend} names a configured storage backend, null for the default one. */
+    Response createBucket(String name, String backend);
     Response deleteBucket(String apiKey);
+    Response deletionStatus(Long bucketId);
     Response rotateApiKey(String apiKey);
     List<Bucket> listBuckets();
     Optional<Bucket> getBucketByApiKey(String apiKey);
@@ -3,9 +3,13 @@ package es.hgccarlos.filehost.service;
 
 import es.hgccarlos.filehost.dto.Response;
 import es.hgccarlos.filehost.model.Bucket;
-import es.hgccarlos.filehost.model.FileEntity;
+import es.hgccarlos.filehost.model.BucketDeletion;
+import es.hgccarlos.filehost.repository.BucketDeletionRepository;
 import es.hgccarlos.filehost.repository.BucketRepository;
 import es.hgccarlos.filehost.repository.FileRepository;
+import es.hgccarlos.filehost.storage.ErasureCodedBackend;
+import es.hgccarlos.filehost.storage.LocalStorageBackend;
+import es.hgccarlos.filehost.storage.StorageBackends;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.PostConstruct;
@@ -17,9 +21,10 @@ import org.springframework.stereotype.Service;
 
 import java.io.IOException;
 import java.nio.file.*;
-import java.util.Comparator;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -30,8 +35,18 @@ import java.nio.file.Paths;
 @Transactional
 public class BucketServiceImpl implements BucketService {
 
+    // a random key nobody is given: a bucket being deleted can't be reached at all
+    static final String REVOKED_KEY_PREFIX = "revoked:";
+
+    // directories of the upload root that aren't buckets; a bucket's directory is its name
+    static final Set<String> RESERVED_NAMES = Set.of(BlobServiceImpl.BLOB_DIR, UploadSessionServiceImpl.SESSION_DIR,
+            StorageScrubber.QUARANTINE_DIR, ErasureCodedBackend.SHARD_DIR);
+
     private final BucketRepository bucketRepo;
     private final FileRepository fileRepo;
+    private final BucketDeletionRepository deletionRepo;
+    private final BucketCache bucketCache;
+    private final StorageBackends backends;
     private final MeterRegistry meterRegistry;
 
     @Value("${fileEntity.upload-dir}")
@@ -50,11 +65,24 @@ public class BucketServiceImpl implements BucketService {
     // ---- Create Bucket ----
     @Override
     public Response createBucket(String name) {
+        return createBucket(name, null);
+    }
+
+    @Override
+    public Response createBucket(String name, String backend) {
         Counter.builder("bucket.create.count").register(meterRegistry).increment();
-        if (bucketRepo.findByName(name).isPresent()) {
+        if (RESERVED_NAMES.contains(name)) {
+            return new Response("error","BUCKET_NAME_RESERVED","Bucket name is reserved",name,null);
+        }
+        Optional<Bucket> existing = bucketRepo.findByName(name);
+        if (existing.isPresent()) {
             log.warn("Bucket '{}' already exists", name);
+            if (existing.get().getDeletingSince() != null) {
+                return new Response("error","BUCKET_DELETING","Bucket is still being deleted",null,null);
+            }
             return new Response("error","BUCKET_EXISTS","Bucket already exists",null,null);
         }
+        String storage = backends.resolve(backend);
         String apiKey = UUID.randomUUID().toString();
         String path = name;
 
@@ -62,49 +90,53 @@ public class BucketServiceImpl implements BucketService {
         bucket.setName(name);
         bucket.setPath(path);
         bucket.setApiKey(apiKey);
+        bucket.setStorageBackend(storage);
         bucketRepo.save(bucket);
-
-        try {
-            Path bucketDir = rootPath.resolve(path);
-            Files.createDirectories(bucketDir);
-            log.info("Created bucket '{}' at {}", name, bucketDir);
-            return new Response("success","201","Bucket created",null, apiKey);
-        } catch (IOException e) {
-            log.error("Could not create bucket dir for {}", name, e);
-            throw new RuntimeException("Bucket directory creation failed", e);
+        bucketCache.evict(apiKey);
+
+        // remote buckets have no directory here: their files live in the backend
+        if (LocalStorageBackend.NAME.equals(storage)) {
+            try {
+                Files.createDirectories(rootPath.resolve(path));
+            } catch (IOException e) {
+                log.error("Could not create bucket dir for {}", name, e);
+                throw new RuntimeException("Bucket directory creation failed", e);
+            }
         }
+        log.info("Created bucket '{}' on storage backend '{}'", name, storage);
+        return new Response("success","201","Bucket created",null, apiKey);
     }
 
 
     // ---- Delete Bucket ----
+    // only revokes the key and queues the bucket: BucketReaper removes files and rows in the background
     @Override
     public Response deleteBucket(String apiKey) {
         Counter.builder("bucket.delete.count").register(meterRegistry).increment();
         Bucket bucket = resolveBucket(apiKey);
-        String path = bucket.getPath();
-
-        // delete all files
-        List<FileEntity> files = fileRepo.findAllByBucketId(bucket.getId());
-        files.forEach(f -> {
-            try { Files.deleteIfExists(Paths.get(uploadDir, f.getRelativePath())); }
-            catch (IOException ex) { log.warn("Could not delete {}", f.getRelativePath(), ex); }
-        });
-        fileRepo.deleteAll(files);
-
-        // delete directory
-        try {
-            Path dir = Paths.get(uploadDir, path);
-            Files.walk(dir)
-                    .sorted(Comparator.reverseOrder())
-                    .forEach(p -> { try{Files.deleteIfExists(p);} catch(IOException ex){}} );
-            log.info("Deleted bucket directory '{}'", dir);
-        } catch (IOException ex) {
-            log.warn("Error deleting bucket dir '{}'", path, ex);
-        }
 
-        bucketRepo.delete(bucket);
-        log.info("Bucket '{}' deleted", bucket.getName());
-        return new Response("success","200","Bucket deleted", null, null);
+        bucket.setApiKey(REVOKED_KEY_PREFIX + UUID.randomUUID());
+        bucket.setDeletingSince(LocalDateTime.now());
+        bucketRepo.save(bucket);
+        bucketCache.evict(apiKey);
+
+        BucketDeletion deletion = new BucketDeletion();
+        deletion.setBucketId(bucket.getId());
+        deletion.setBucketName(bucket.getName());
+        deletion.setBucketPath(bucket.getPath());
+        deletion.setFilesTotal(fileRepo.countByBucketId(bucket.getId()));
+        deletionRepo.save(deletion);
+
+        log.info("Bucket '{}' marked for deletion ({} files)", bucket.getName(), deletion.getFilesTotal());
+        return new Response("success","202","Bucket deletion started", null, bucket.getId());
+    }
+
+    @Override
+    public Response deletionStatus(Long bucketId) {
+        BucketDeletion deletion = deletionRepo.findById(bucketId)
+                .orElseThrow(() -> new RuntimeException("No deletion found for bucket " + bucketId));
+        String message = deletion.getFinishedAt() == null ? "Bucket deletion in progress" : "Bucket deleted";
+        return new Response("success","200", message, null, deletion);
     }
 
     // ---- Rotate API Key ----
@@ -115,6 +147,7 @@ public class BucketServiceImpl implements BucketService {
         String old = bucket.getApiKey();
         bucket.setApiKey(UUID.randomUUID().toString());
         bucketRepo.save(bucket);
+        bucketCache.evict(old, bucket.getApiKey());
         log.info("Rotated API key for bucket '{}': {} → {}", bucket.getName(), old, bucket.getApiKey());
         return new Response("success","200","API key rotated", null, bucket.getApiKey());
     }
@@ -123,14 +156,16 @@ public class BucketServiceImpl implements BucketService {
     @Override
     public List<Bucket> listBuckets() {
         meterRegistry.counter("bucket.list.count").increment();
-        return bucketRepo.findAll();
+        return bucketRepo.findAllByDeletingSinceIsNull();
     }
 
     // ---- Get Bucket by API Key ----
+    // served from BucketCache; SUPPORTS so a cache hit doesn't open (and commit) a transaction
     @Override
+    @Transactional(Transactional.TxType.SUPPORTS)
     public Optional<Bucket> getBucketByApiKey(String apiKey) {
         meterRegistry.counter("bucket.getByKey.count").increment();
-        return bucketRepo.findByApiKey(apiKey);
+        return bucketCache.get(apiKey, bucketRepo::findByApiKey);
     }
 
     private Bucket resolveBucket(String apiKey) {
@@ -0,0 +1,85 @@
+package es.hgccarlos.filehost.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+
+/**
+ * Keeps the bytes of small, frequently viewed files on the heap.
+ * Entries are keyed by content hash: blobs are content addressed, so one entry serves
+ * every file (in any bucket) with the same contents and can never go stale. The cache
+ * is bounded by total bytes and evicts with Caffeine's W-TinyLFU policy, so a burst of
+ * one-off downloads doesn't push out the logos and manifests that are hit all day.
+ */
+@Component
+public class FileContentCache {
+
+    static final String NAME = "file.content";
+
+    private final Cache<String, byte[]> cache;  // null when disabled (max-size 0)
+    private final long maxFileBytes;
+
+    public FileContentCache(MeterRegistry meterRegistry,
+                            @Value("${fileEntity.cache.max-size:64MB}") DataSize maxSize,
+                            @Value("${fileEntity.cache.max-file-size:256KB}") DataSize maxFileSize) {
+        this.maxFileBytes = maxFileSize.toBytes();
+        if (maxSize.toBytes() <= 0) {
+            this.cache = null;
+            return;
+        }
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxSize.toBytes())
+                .weigher((String hash, byte[] content) -> content.length)
+                .recordStats()
+                .build();
+
+        // cache.gets{result=hit|miss}, cache.evictions, cache.eviction.weight, cache.size
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, NAME);
+        Gauge.builder("file.content.cache.resident", cache,
+                        c -> c.policy().eviction().map(e -> e.weightedSize().orElse(0L)).orElse(0L))
+                .description("Bytes held by the content cache")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("file.content.cache.hit.ratio", cache, c -> c.stats().hitRate())
+                .description("Share of lookups served from memory")
+                .register(meterRegistry);
+    }
+
+    /** Reads a file's contents on a cache miss. */
+    @FunctionalInterface
+    public interface Loader {
+        byte[] load() throws IOException;
+    }
+
+    /**
+     * Contents of the file, read with {@code loader} on a miss, or {@code null} if the
+     * file is too large to be cached (or caching is off) and should be streamed instead.
+     */
+    public byte[] get(String hash, Long sizeBytes, Loader loader) throws IOException {
+        if (cache == null || hash == null || sizeBytes == null || sizeBytes > maxFileBytes) return null;
+        try {
+            return cache.get(hash, h -> {
+                try {
+                    return loader.load();
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    public void invalidate(Collection<String> hashes) {
+        if (cache != null) cache.invalidateAll(hashes);
+    }
+}
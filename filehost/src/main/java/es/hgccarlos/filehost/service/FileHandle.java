@@ -0,0 +1,88 @@
+package es.hgccarlos.filehost.service;
+
+import es.hgccarlos.filehost.model.FileEntity;
+import es.hgccarlos.filehost.storage.StorageBackend;
+import lombok.Getter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A file already checked against the caller's bucket, ready to be read.
+ * Nothing touches the storage until {@link #cachedContent()}, {@link #channel()} or
+ * {@link #read} is called, so answering a conditional request from {@link #getMeta()}
+ * costs no I/O; only an actual read counts as a download (and as an access for tiering).
+ * Close it when the response is written.
+ */
+public class FileHandle implements Closeable {
+
+    @Getter private final FileEntity meta;
+    private final StorageBackend backend;
+    private final String key;
+    private final FileContentCache contentCache;
+    private final Runnable onRead;
+
+    private FileChannel channel;
+    private boolean read;
+
+    public FileHandle(FileEntity meta, StorageBackend backend, String key,
+                      FileContentCache contentCache, Runnable onRead) {
+        this.meta = meta;
+        this.backend = backend;
+        this.key = key;
+        this.contentCache = contentCache;
+        this.onRead = onRead;
+    }
+
+    /** The stored file on the local filesystem, or {@code null} if it lives in a remote backend. */
+    public Path getPath() {
+        return backend.localPath(key).orElse(null);
+    }
+
+    /** The whole file from the in-memory cache, or {@code null} if it has to be streamed. */
+    public byte[] cachedContent() throws IOException {
+        byte[] content = contentCache.get(meta.getHash(), meta.getSizeBytes(), () -> {
+            try (InputStream in = Channels.newInputStream(backend.get(key, 0, meta.getSizeBytes()))) {
+                return in.readAllBytes();
+            }
+        });
+        if (content != null) markRead();
+        return content;
+    }
+
+    /** Read channel on the local file, opened on first use; only for files with a {@link #getPath()}. */
+    public FileChannel channel() throws IOException {
+        if (channel == null) {
+            Path path = getPath();
+            if (path == null) throw new IllegalStateException(key + " is not stored locally");
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            markRead();
+        }
+        return channel;
+    }
+
+    /** {@code count} bytes from {@code position}, from whichever backend holds the file; close it. */
+    public ReadableByteChannel read(long position, long count) throws IOException {
+        ReadableByteChannel range = backend.get(key, position, count);
+        markRead();
+        return range;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) channel.close();
+    }
+
+    private void markRead() {
+        if (!read) {
+            read = true;
+            onRead.run();
+        }
+    }
+}
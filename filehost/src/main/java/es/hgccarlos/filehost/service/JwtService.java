@@ -1,26 +1,61 @@
 package es.hgccarlos.filehost.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import io.jsonwebtoken.*;
 import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
 import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.Date;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Optional;
 import java.util.function.Function;
 
 @Service
+@RequiredArgsConstructor
 public class JwtService {
 
+    private final MeterRegistry meterRegistry;
+
     @Value("${jwt.secret}")
     private String secret;
 
     @Value("${jwt.expiration}")
     private long expirationMs;
 
-    private Key getSigningKey() {
-        return Keys.hmacShaKeyFor(secret.getBytes());
+    // verified tokens, keyed by SHA-256 of the token; never kept past their exp
+    @Value("${jwt.cache.max-size:10000}")
+    private long cacheSize;
+
+    @Value("${jwt.cache.ttl:5m}")
+    private Duration cacheTtl;
+
+    private Key signingKey;
+    private JwtParser parser;  // immutable, shared by all threads
+    private Cache<String, Claims> verified;
+
+    @PostConstruct
+    public void init() {
+        signingKey = Keys.hmacShaKeyFor(secret.getBytes());
+        parser = Jwts.parserBuilder().setSigningKey(signingKey).build();
+        verified = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfter(Expiry.creating((String digest, Claims claims) -> timeToLive(claims)))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, verified, "jwt.claims");
     }
 
     public String generateToken(String username, List<String> roles) {
@@ -32,30 +67,31 @@ public class JwtService {
                 .claim("roles", roles)
                 .setIssuedAt(now)
                 .setExpiration(expiry)
-                .signWith(getSigningKey(), SignatureAlgorithm.HS256)
+                .signWith(signingKey, SignatureAlgorithm.HS256)
                 .compact();
     }
 
-    // Valida el token, incluyendo la expiración
-    public boolean validateToken(String token) {
+    /**
+     * Claims of a token with a valid signature that hasn't expired, verifying it only
+     * the first time it is seen. Empty for anything else.
+     */
+    public Optional<Claims> verify(String token) {
         try {
-            Jwts.parserBuilder()
-                    .setSigningKey(getSigningKey())
-                    .build()
-                    .parseClaimsJws(token);
-            return true;
+            return Optional.of(claims(token));
         } catch (JwtException | IllegalArgumentException e) {
-            return false;
+            return Optional.empty();
         }
     }
 
+    // Valida el token, incluyendo la expiración
+    public boolean validateToken(String token) {
+        return verify(token).isPresent();
+    }
+
     // Nuevo método: Valida solo la firma del token (ignora la expiración)
     public boolean isTokenSignatureValid(String token) {
         try {
-            Jwts.parserBuilder()
-                    .setSigningKey(getSigningKey())
-                    .build()
-                    .parse(token);
+            parser.parse(token);
             return true;
         } catch (JwtException | IllegalArgumentException e) {
             return false;
@@ -68,26 +104,9 @@ public class JwtService {
 
     public String getUsernameFromTokenEvenIfExpired(String token) {
         try {
-            // No valida la expiración para obtener las claims
-            Claims claims = Jwts.parserBuilder()
-                    .setSigningKey(getSigningKey())
-                    .build()
-                    .parseClaimsJws(token).getBody(); // parseClaimsJws lanzará ExpiredJwtException si el token ha expirado.
-            // Esto es problemático si queremos leer el subject de un token expirado.
-            // La estrategia más segura es usar parse() para validar la firma y luego extraer las claims de forma segura.
-            // Sin embargo, si tu implementación actual de `extractClaim` no lanza por expiración si solo extrae,
-            // entonces `extractClaim` podría servir. Revisa cómo se comporta con tokens expirados.
-
-            // Si `extractClaim` ya maneja `ExpiredJwtException` o permite leer claims sin validación de expiración,
-            // entonces este método podría no ser necesario o ser una envoltura simple.
-            // La forma más robusta es parsear sin validar expiración, luego extraer.
-            return Jwts.parserBuilder()
-                    .setSigningKey(getSigningKey())
-                    .build()
-                    .parseClaimsJws(token)
-                    .getBody()
-                    .getSubject();
+            return claims(token).getSubject();
         } catch (ExpiredJwtException e) {
+            // la firma ya se comprobó antes de mirar la expiración
             return e.getClaims().getSubject();
         } catch (JwtException | IllegalArgumentException e) {
             throw new RuntimeException("Invalid token for refresh: " + e.getMessage(), e);
@@ -96,21 +115,45 @@ public class JwtService {
 
 
     public <T> T extractClaim(String token, Function<Claims, T> claimsResolver) {
-        Claims claims = Jwts.parserBuilder()
-                .setSigningKey(getSigningKey())
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
-        return claimsResolver.apply(claims);
+        return claimsResolver.apply(claims(token));
     }
 
     @SuppressWarnings("unchecked")
     public List<String> getRolesFromToken(String token) {
-        Claims claims = Jwts.parserBuilder()
-                .setSigningKey(getSigningKey())
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
-        return claims.get("roles", List.class);
+        return claims(token).get("roles", List.class);
+    }
+
+    // ---- Verified claims cache ----
+
+    /** Like {@code parseClaimsJws(token).getBody()}, throwing the same exceptions, but cached. */
+    private Claims claims(String token) {
+        if (token == null || token.isBlank()) throw new IllegalArgumentException("JWT String argument cannot be null or empty.");
+        String digest = digest(token);
+        Claims claims = verified.getIfPresent(digest);
+        if (claims != null && !isExpired(claims)) return claims;
+        claims = parser.parseClaimsJws(token).getBody();
+        verified.put(digest, claims);
+        return claims;
+    }
+
+    private Duration timeToLive(Claims claims) {
+        Date exp = claims.getExpiration();
+        if (exp == null) return cacheTtl;
+        long left = exp.getTime() - System.currentTimeMillis();
+        return Duration.ofMillis(Math.max(0, Math.min(left, cacheTtl.toMillis())));
+    }
+
+    private static boolean isExpired(Claims claims) {
+        Date exp = claims.getExpiration();
+        return exp != null && exp.getTime() <= System.currentTimeMillis();
+    }
+
+    private static String digest(String token) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,289 @@
+package es.hgccarlos.filehost.service;
+
+import es.hgccarlos.filehost.dto.LayoutMigrationReport;
+import es.hgccarlos.filehost.storage.DirectoryCache;
+import es.hgccarlos.filehost.storage.LocalStorageBackend;
+import es.hgccarlos.filehost.storage.ObjectRef;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+/**
+ * Moves files stored before sharding ({@code blobs/<hash>}, legacy {@code <bucket>/<name>}
+ * copies, all on the local backend) into the layout of {@link ShardedLayout}, in the
+ * background and while the node keeps serving. Each file moves on its own in a short
+ * transaction:
+ * <ol>
+ *   <li>the row(s) pointing at the old path are locked, so an upload deduplicating onto the
+ *       blob or a delete waits for the move instead of racing it;</li>
+ *   <li>the new path is created as a hard link to the old one (no data copied);</li>
+ *   <li>the rows are repointed, and the old path is handed to the {@link UnlinkQueue} with
+ *       a delay, so downloads that read the old path just before the commit can still open
+ *       it.</li>
+ * </ol>
+ * If the transaction fails the new link is removed again. Files already moved are skipped,
+ * so a run cut short by a restart just picks up where it left off when started again.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class LayoutMigrator {
+
+    private static final String BLOBS_PAGE_SQL =
+            "SELECT hash, relative_path FROM blobs WHERE hash > ? " +
+            "AND (storage_backend IS NULL OR storage_backend = '" + LocalStorageBackend.NAME + "') ORDER BY hash LIMIT ?";
+    private static final String LOCK_BLOB_SQL =
+            "SELECT relative_path FROM blobs WHERE hash = ? FOR UPDATE";
+    private static final String MOVE_BLOB_SQL =
+            "UPDATE blobs SET relative_path = ? WHERE hash = ?";
+    // legacy copies are the only files outside the blob store
+    private static final String LEGACY_PAGE_SQL =
+            "SELECT id, storage_key FROM files WHERE id > ? AND storage_key NOT LIKE '" +
+            BlobServiceImpl.BLOB_DIR + "/%' ORDER BY id LIMIT ?";
+    private static final String LOCK_FILES_SQL =
+            "SELECT id FROM files WHERE storage_key = ? FOR UPDATE";
+    private static final String MOVE_FILES_SQL =
+            "UPDATE files SET storage_key = ? WHERE storage_key = ?";
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final DirectoryCache directories;
+    private final UnlinkQueue unlinkQueue;
+
+    @Value("${fileEntity.upload-dir}")
+    private String uploadDir;
+
+    @Value("${fileEntity.layout.migrate-on-startup:false}")
+    private boolean migrateOnStartup;
+
+    @Value("${fileEntity.layout.batch-size:500}")
+    private int batchSize;
+
+    @Value("${fileEntity.layout.parallelism:4}")
+    private int parallelism;
+
+    /** Link, lookup or unlink calls per second; 0 = unlimited. */
+    @Value("${fileEntity.layout.max-ops-per-second:500}")
+    private long maxOpsPerSecond;
+
+    /** How long an old path stays readable after its rows moved on. */
+    @Value("${fileEntity.layout.unlink-delay:PT10M}")
+    private Duration unlinkDelay;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile Progress current;
+    private OpsBudget budget;
+    private Path rootPath;
+
+    @PostConstruct
+    public void init() {
+        rootPath = Paths.get(uploadDir).toAbsolutePath().normalize();
+        budget = new OpsBudget(maxOpsPerSecond);
+    }
+
+    // ---- Entry points ----
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        if (migrateOnStartup) start();
+    }
+
+    /** Starts a run in the background; false if one is already going. */
+    public boolean start() {
+        if (!running.compareAndSet(false, true)) return false;
+        Progress progress = new Progress();
+        current = progress;
+        Thread.ofVirtual().name("layout-migration").start(() -> {
+            try {
+                migrate(progress);
+            } catch (RuntimeException ex) {
+                log.error("Layout migration failed", ex);
+            } finally {
+                progress.finishedAt = LocalDateTime.now();
+                running.set(false);
+            }
+        });
+        return true;
+    }
+
+    /** Progress of the current or last run. */
+    public Optional<LayoutMigrationReport> status() {
+        Progress p = current;
+        if (p == null) return Optional.empty();
+        return Optional.of(new LayoutMigrationReport(p.finishedAt == null, p.startedAt, p.finishedAt,
+                p.blobs.sum(), p.files.sum(), p.sharded.sum(), p.failed.sum()));
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    // ---- Run ----
+    private static final class Progress {
+        final LocalDateTime startedAt = LocalDateTime.now();
+        volatile LocalDateTime finishedAt;
+        final LongAdder blobs = new LongAdder(), files = new LongAdder(),
+                sharded = new LongAdder(), failed = new LongAdder();
+    }
+
+    private record Entry<K>(K key, String path) { }
+
+    private void migrate(Progress progress) {
+        log.info("Layout migration started");
+        String lastHash = "";
+        while (true) {
+            String after = lastHash;
+            List<Entry<String>> page = jdbc.query(BLOBS_PAGE_SQL,
+                    (rs, i) -> new Entry<>(rs.getString(1), rs.getString(2)), after, batchSize);
+            if (page.isEmpty()) break;
+            movePage(page, e -> ShardedLayout.blobPath(e.key()), this::moveBlob, progress.blobs, progress);
+            if (page.size() < batchSize) break;
+            lastHash = page.get(page.size() - 1).key();
+        }
+
+        long lastId = 0;
+        while (true) {
+            long after = lastId;
+            List<Entry<Long>> page = jdbc.query(LEGACY_PAGE_SQL,
+                    (rs, i) -> new Entry<>(rs.getLong(1), rs.getString(2)), after, batchSize);
+            if (page.isEmpty()) break;
+            movePage(page, e -> ShardedLayout.legacyPath(e.path()), this::moveFiles, progress.files, progress);
+            if (page.size() < batchSize) break;
+            lastId = page.get(page.size() - 1).key();
+        }
+        log.info("Layout migration done: {} blobs and {} legacy files moved, {} already sharded, {} failed",
+                progress.blobs.sum(), progress.files.sum(), progress.sharded.sum(), progress.failed.sum());
+    }
+
+    @FunctionalInterface
+    private interface Move<K> {
+        /** False if the row changed under us (deleted, already moved) and nothing was done. */
+        boolean apply(Entry<K> entry, String target) throws IOException;
+    }
+
+    private <K> void movePage(List<Entry<K>> page, Function<Entry<K>, String> target, Move<K> move,
+                              LongAdder moved, Progress progress) {
+        Semaphore slots = new Semaphore(parallelism);
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Entry<K> e : page) {
+                String to = target.apply(e);
+                if (to.equals(e.path())) {
+                    progress.sharded.increment();
+                    continue;
+                }
+                pool.submit(() -> {
+                    slots.acquireUninterruptibly();
+                    try {
+                        if (move.apply(e, to)) moved.increment();
+                    } catch (IOException | RuntimeException ex) {
+                        log.warn("Could not move {} to {}", e.path(), to, ex);
+                        progress.failed.increment();
+                    } finally {
+                        slots.release();
+                    }
+                });
+            }
+        }
+    }
+
+    private boolean moveBlob(Entry<String> blob, String target) throws IOException {
+        return relink(blob.path(), target, () -> {
+            // the upsert of a deduplicating upload takes the same row lock
+            List<String> locked = jdbc.queryForList(LOCK_BLOB_SQL, String.class, blob.key());
+            return !locked.isEmpty() && locked.get(0).equals(blob.path());
+        }, () -> {
+            jdbc.update(MOVE_BLOB_SQL, target, blob.key());
+            jdbc.update(MOVE_FILES_SQL, target, blob.path());
+        });
+    }
+
+    private boolean moveFiles(Entry<Long> file, String target) throws IOException {
+        return relink(file.path(), target,
+                () -> !jdbc.queryForList(LOCK_FILES_SQL, Long.class, file.path()).isEmpty(),
+                () -> jdbc.update(MOVE_FILES_SQL, target, file.path()));
+    }
+
+    /** Lock, link, repoint, queue the old path: all or nothing, in one transaction. */
+    private boolean relink(String from, String to, BooleanSupplier lock, Runnable repoint)
+            throws IOException {
+        Path source = rootPath.resolve(from);
+        Path target = rootPath.resolve(to);
+        boolean[] linked = {false};
+        try {
+            Boolean moved = tx.execute(s -> {
+                if (!lock.getAsBoolean()) return false;
+                try {
+                    budget.spend(1);
+                    linked[0] = link(source, target);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+                repoint.run();
+                unlinkQueue.enqueue(List.of(ObjectRef.local(from)), unlinkDelay);
+                return true;
+            });
+            return Boolean.TRUE.equals(moved);
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        } catch (RuntimeException ex) {
+            if (linked[0]) Files.deleteIfExists(target);
+            throw ex;
+        }
+    }
+
+    /**
+     * True if the link was created here, false if an earlier, interrupted run left it. Either
+     * way the file's mtime is set to now: a link keeps the old one, and the scrubber would
+     * take the new path for an orphan before its row is repointed.
+     */
+    private boolean link(Path source, Path target) throws IOException {
+        boolean created = createLink(source, target);
+        Files.setLastModifiedTime(target, FileTime.from(Instant.now()));
+        return created;
+    }
+
+    private boolean createLink(Path source, Path target) throws IOException {
+        Path dir = directories.ensure(target.getParent());
+        try {
+            Files.createLink(target, source);
+            return true;
+        } catch (FileAlreadyExistsException ex) {
+            if (Files.isSameFile(target, source)) return false;
+            throw ex;
+        } catch (NoSuchFileException ex) {
+            if (!Files.exists(dir)) {
+                directories.forget(dir);
+                directories.ensure(dir);
+                Files.createLink(target, source);
+                return true;
+            }
+            throw ex;
+        }
+    }
+}
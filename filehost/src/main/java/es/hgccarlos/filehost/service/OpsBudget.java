@@ -0,0 +1,50 @@
+package es.hgccarlos.filehost.service;
+
+import org.springframework.util.unit.DataSize;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/** Disk operations per second shared by all the tasks of a background job (GCRA); 0 = unlimited. */
+final class OpsBudget {
+
+    private static final long KB = DataSize.ofKilobytes(1).toBytes();
+
+    private final long nanosPerOp;
+    private final AtomicLong tat = new AtomicLong(System.nanoTime());
+
+    OpsBudget(long opsPerSecond) {
+        this.nanosPerOp = opsPerSecond <= 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / opsPerSecond;
+    }
+
+    /**
+     * Budget for a byte rate, counted in kilobytes (see {@link #spendBytes}); 0 = unlimited.
+     * A rate under 1KB/s can't be expressed and is refused rather than read as unlimited.
+     */
+    static OpsBudget bytesPerSecond(DataSize rate) {
+        if (rate.toBytes() > 0 && rate.toBytes() < KB) {
+            throw new IllegalArgumentException("Byte rate limits start at 1KB per second, got " + rate);
+        }
+        return new OpsBudget(rate.toBytes() / KB);
+    }
+
+    /** Parks the caller until {@code bytes} (rounded up to whole kilobytes) fit in the budget. */
+    void spendBytes(long bytes) {
+        spend(Math.max(1, (bytes + KB - 1) / KB));
+    }
+
+    /** Parks the caller until {@code ops} operations' worth of budget is available. */
+    void spend(long ops) {
+        if (nanosPerOp == 0) return;
+        long cost = ops * nanosPerOp;
+        long now = System.nanoTime();
+        long start;
+        while (true) {
+            long current = tat.get();
+            start = Math.max(current, now);
+            if (tat.compareAndSet(current, start + cost)) break;
+        }
+        if (start > now) LockSupport.parkNanos(start - now);
+    }
+}
@@ -0,0 +1,127 @@
+package es.hgccarlos.filehost.service;
+
+import es.hgccarlos.filehost.storage.ErasureCodedBackend;
+import es.hgccarlos.filehost.storage.ObjectRef;
+import es.hgccarlos.filehost.storage.StorageBackends;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Background repair of erasure-coded blobs: every shard of every blob on an
+ * {@link ErasureCodedBackend} is read and checked, and the lost ones (missing, corrupt cell)
+ * are rebuilt from the others, as are the ones on a failing or draining root, which is how
+ * those roots get emptied of shards. A blob with more than {@code m} shards lost can't be
+ * rebuilt: it's logged and counted in {@code erasure.repair.unrecoverable}.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ShardRepairer {
+
+    private static final String PAGE_SQL =
+            "SELECT hash, relative_path, size_bytes FROM blobs WHERE storage_backend = ? AND hash > ? " +
+            "ORDER BY hash LIMIT ?";
+    private static final String REFERENCED_SQL =
+            "SELECT count(*) FROM blobs WHERE storage_backend = ? AND relative_path = ?";
+
+    private final JdbcTemplate jdbc;
+    private final StorageBackends backends;
+    private final UnlinkQueue unlinkQueue;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${storage.shard-repair.batch-size:200}")
+    private int batchSize;
+
+    @Value("${storage.shard-repair.parallelism:2}")
+    private int parallelism;
+
+    /** Shard bytes read (and rewritten) per second across the run; 0 = unlimited. */
+    @Value("${storage.shard-repair.max-bytes-per-second:50MB}")
+    private DataSize maxBytesPerSecond;
+
+    private OpsBudget budget;
+
+    private record Blob(String hash, String key, long size) { }
+
+    @PostConstruct
+    public void init() {
+        budget = OpsBudget.bytesPerSecond(maxBytesPerSecond);
+        for (ErasureCodedBackend backend : backends.erasureCoded()) {
+            FunctionCounter.builder("erasure.degraded.reads", backend, ErasureCodedBackend::degradedReads)
+                    .description("Stripes downloads had to rebuild from parity")
+                    .tags("backend", backend.name()).register(meterRegistry);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${storage.shard-repair.interval:P1D}",
+               initialDelayString = "${storage.shard-repair.initial-delay:PT10M}")
+    public void repairAll() {
+        for (ErasureCodedBackend backend : backends.erasureCoded()) repair(backend);
+    }
+
+    void repair(ErasureCodedBackend backend) {
+        long started = System.nanoTime();
+        String lastHash = "";
+        while (true) {
+            List<Blob> page = jdbc.query(PAGE_SQL,
+                    (rs, i) -> new Blob(rs.getString(1), rs.getString(2), rs.getLong(3)),
+                    backend.name(), lastHash, batchSize);
+            if (page.isEmpty()) break;
+            repairAll(backend, page);
+            if (page.size() < batchSize) break;
+            lastHash = page.get(page.size() - 1).hash();
+        }
+        log.info("Shard repair of '{}' done in {} ms", backend.name(), (System.nanoTime() - started) / 1_000_000);
+    }
+
+    private void repairAll(ErasureCodedBackend backend, List<Blob> page) {
+        Semaphore slots = new Semaphore(parallelism);
+        long shardsPerData = backend.dataShards() + backend.parityShards();
+        try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Blob b : page) {
+                workers.submit(() -> {
+                    slots.acquireUninterruptibly();
+                    try {
+                        long shardBytes = b.size() / backend.dataShards() * shardsPerData;
+                        budget.spendBytes(shardBytes);
+                        ErasureCodedBackend.Repair result = backend.repair(b.key());
+                        meterRegistry.counter("erasure.repair.checked", "backend", backend.name()).increment();
+                        if (!result.recoverable()) {
+                            log.error("Blob {} on '{}' lost {} of its {} shards and cannot be rebuilt",
+                                    b.hash(), backend.name(), result.lost(), shardsPerData);
+                            meterRegistry.counter("erasure.repair.unrecoverable", "backend", backend.name()).increment();
+                        } else if (result.rewritten() > 0) {
+                            log.info("Blob {} on '{}': {} shard(s) lost, {} rewritten",
+                                    b.hash(), backend.name(), result.lost(), result.rewritten());
+                            meterRegistry.counter("erasure.repair.rewritten", "backend", backend.name())
+                                    .increment(result.rewritten());
+                            // deleted while we rebuilt it: the unlink may have run before our shards landed;
+                            // the queue deletes it again unless an upload referenced it meanwhile
+                            Integer refs = jdbc.queryForObject(REFERENCED_SQL, Integer.class, backend.name(), b.key());
+                            if (refs == null || refs == 0) unlinkQueue.enqueue(List.of(new ObjectRef(backend.name(), b.key())));
+                        }
+                    } catch (IOException | RuntimeException ex) {
+                        log.warn("Could not repair blob {} on '{}'", b.hash(), backend.name(), ex);
+                        meterRegistry.counter("erasure.repair.failed", "backend", backend.name()).increment();
+                    } finally {
+                        slots.release();
+                    }
+                });
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package es.hgccarlos.filehost.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HexFormat;
+
+/**
+ * Where files live on disk: two levels of hash-prefix directories under their store
+ * ({@code blobs/ab/cd/abcd...}), 65,536 leaves, so no single directory grows past a few
+ * thousand entries however many files there are.
+ */
+final class ShardedLayout {
+
+    private ShardedLayout() { }
+
+    /** Path of the blob with this (base64) content hash. */
+    static String blobPath(String base64Hash) {
+        String hex = HexFormat.of().formatHex(Base64.getDecoder().decode(base64Hash));
+        return shard(BlobServiceImpl.BLOB_DIR, hex, hex);
+    }
+
+    /**
+     * Sharded equivalent of a legacy per-bucket path ({@code <bucket>/<name>} becomes
+     * {@code <bucket>/ab/cd/<name>}, prefix taken from the SHA-256 of the name);
+     * {@code relativePath} itself if it is already sharded.
+     */
+    static String legacyPath(String relativePath) {
+        int slash = relativePath.lastIndexOf('/');
+        String dir = slash < 0 ? "" : relativePath.substring(0, slash);
+        String name = relativePath.substring(slash + 1);
+        String hex = sha256Hex(name);
+        String suffix = "/" + hex.substring(0, 2) + "/" + hex.substring(2, 4);
+        if (dir.endsWith(suffix)) return relativePath;
+        return shard(dir, hex, name);
+    }
+
+    private static String shard(String dir, String hex, String name) {
+        String shard = hex.substring(0, 2) + "/" + hex.substring(2, 4) + "/" + name;
+        return dir.isEmpty() ? shard : dir + "/" + shard;
+    }
+
+    private static String sha256Hex(String s) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(md.digest(s.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package es.hgccarlos.filehost.service;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+
+import java.nio.file.Path;
+
+/**
+ * Upload content already written to a temporary file, together with the
+ * SHA-256 (Base64) and size computed while it was being written.
+ */
+@Getter
+@RequiredArgsConstructor
+public class StagedFile {
+
+    private final Path path;
+    private final String hash;
+    private final long size;
+
+    /** Already put on its remote backend by {@link BlobService#upload}; the file is still here. */
+    @Setter
+    private boolean uploaded;
+
+}
@@ -0,0 +1,202 @@
+package es.hgccarlos.filehost.service;
+
+import es.hgccarlos.filehost.dto.StorageRootStatus;
+import es.hgccarlos.filehost.storage.PoolMember;
+import es.hgccarlos.filehost.storage.StorageBackends;
+import es.hgccarlos.filehost.storage.StoragePool;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Watches the roots of every storage pool: probes each one and reads its free space every
+ * {@code check-interval}, exports per-root utilization, and drains the roots that should not
+ * hold files: everything off a failing or draining root, a full one down to its min-free.
+ * Blobs are moved to other roots of the same pool by the {@link BlobRelocator}, so files stay
+ * readable throughout.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class StorageRootMonitor {
+
+    private static final String DRAIN_PAGE_SQL =
+            "SELECT hash, relative_path, size_bytes FROM blobs WHERE storage_backend = ? AND hash > ? " +
+            "ORDER BY hash LIMIT ?";
+
+    private final JdbcTemplate jdbc;
+    private final StorageBackends backends;
+    private final BlobRelocator relocator;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${storage.drain.batch-size:200}")
+    private int batchSize;
+
+    @Value("${storage.drain.parallelism:4}")
+    private int parallelism;
+
+    /** Copy throughput across all drains; 0 = unlimited. */
+    @Value("${storage.drain.max-bytes-per-second:100MB}")
+    private DataSize maxBytesPerSecond;
+
+    /** How long a moved file stays readable on the drained root. */
+    @Value("${storage.drain.unlink-delay:PT10M}")
+    private Duration unlinkDelay;
+
+    private final Map<PoolMember, PoolMember.State> lastState = new ConcurrentHashMap<>();
+    private OpsBudget budget;
+
+    @PostConstruct
+    public void init() {
+        budget = OpsBudget.bytesPerSecond(maxBytesPerSecond);
+        for (StoragePool pool : backends.pools()) {
+            for (PoolMember m : pool.members()) {
+                lastState.put(m, m.state());
+                Tags tags = Tags.of("pool", pool.name(), "root", m.name());
+                Gauge.builder("storage.root.free.bytes", m, PoolMember::freeBytes)
+                        .description("Usable space left on the root's disk").tags(tags).register(meterRegistry);
+                Gauge.builder("storage.root.total.bytes", m, PoolMember::totalBytes)
+                        .tags(tags).register(meterRegistry);
+                Gauge.builder("storage.root.usage", m,
+                                r -> r.totalBytes() == 0 ? 0 : 1 - (double) r.freeBytes() / r.totalBytes())
+                        .description("Fraction of the root's disk in use").tags(tags).register(meterRegistry);
+                Gauge.builder("storage.root.write.ms.per.mb", m, r -> r.nanosPerMb() / 1e6)
+                        .description("Recent write time per MB (moving average)").tags(tags).register(meterRegistry);
+                Gauge.builder("storage.root.state", m, r -> r.state().ordinal())
+                        .description("0 active, 1 full, 2 failing, 3 draining").tags(tags).register(meterRegistry);
+                FunctionCounter.builder("storage.root.writes", m, PoolMember::writes).tags(tags).register(meterRegistry);
+                FunctionCounter.builder("storage.root.written.bytes", m, PoolMember::writtenBytes)
+                        .tags(tags).register(meterRegistry);
+                FunctionCounter.builder("storage.root.write.errors", m, PoolMember::writeErrors)
+                        .tags(tags).register(meterRegistry);
+            }
+        }
+    }
+
+    // ---- Health ----
+    @Scheduled(fixedDelayString = "${storage.check-interval:PT30S}")
+    public void check() {
+        for (StoragePool pool : backends.pools()) {
+            pool.check();
+            for (PoolMember m : pool.members()) {
+                PoolMember.State now = m.state(), before = lastState.put(m, now);
+                if (now != before) {
+                    log.warn("Storage root '{}' of pool '{}' ({}): {} -> {}", m.name(), pool.name(), m.root(), before, now);
+                }
+            }
+        }
+    }
+
+    // ---- Drain ----
+    @Scheduled(fixedDelayString = "${storage.drain.interval:PT1M}")
+    public void drain() {
+        for (StoragePool pool : backends.pools()) {
+            for (PoolMember m : pool.members()) {
+                if (m.state() != PoolMember.State.ACTIVE) drain(pool, m);
+            }
+        }
+    }
+
+    private record Blob(String hash, String key, long size) { }
+
+    private void drain(StoragePool pool, PoolMember root) {
+        log.info("Draining storage root '{}' ({})", root.name(), root.state());
+        // a full root only down to min-free; counted here, as the moved files are unlinked
+        // after unlinkDelay and the disk won't show the space back before then
+        long toMove = root.state() == PoolMember.State.FULL ? root.minFree() - root.freeBytes() : Long.MAX_VALUE;
+        AtomicLong moved = new AtomicLong();
+        String lastHash = "";
+        while (moved.get() < toMove) {
+            List<Blob> page = jdbc.query(DRAIN_PAGE_SQL,
+                    (rs, i) -> new Blob(rs.getString(1), rs.getString(2), rs.getLong(3)),
+                    root.name(), lastHash, batchSize);
+            if (page.isEmpty()) break;
+            if (!moveAll(pool, root, page, moved, toMove)) break;
+            if (page.size() < batchSize) break;
+            lastHash = page.get(page.size() - 1).hash();
+        }
+    }
+
+    /**
+     * Adds the bytes moved to {@code moved}, stopping once it reaches {@code toMove}. False once
+     * no other root has room, so the drain stops.
+     */
+    private boolean moveAll(StoragePool pool, PoolMember root, List<Blob> page, AtomicLong moved, long toMove) {
+        AtomicBoolean full = new AtomicBoolean();
+        Semaphore slots = new Semaphore(parallelism);
+        Tags tags = Tags.of("pool", pool.name(), "root", root.name());
+        try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Blob b : page) {
+                workers.submit(() -> {
+                    slots.acquireUninterruptibly();
+                    try {
+                        if (full.get() || moved.get() >= toMove) return;
+                        String target;
+                        try {
+                            target = pool.place(b.size(), root).name();
+                        } catch (IOException noRoom) {
+                            if (full.compareAndSet(false, true)) log.warn("Cannot drain '{}': {}", root.name(), noRoom.getMessage());
+                            return;
+                        }
+                        budget.spendBytes(b.size());
+                        if (relocator.move(b.hash(), b.key(), b.size(), root.name(), target, unlinkDelay)) {
+                            moved.addAndGet(b.size());
+                            meterRegistry.counter("storage.drain.moved", tags).increment();
+                            meterRegistry.counter("storage.drain.moved.bytes", tags).increment(b.size());
+                        }
+                    } catch (IOException | RuntimeException ex) {
+                        log.warn("Could not move blob {} off storage root '{}'", b.hash(), root.name(), ex);
+                        meterRegistry.counter("storage.drain.failed", tags).increment();
+                    } finally {
+                        slots.release();
+                    }
+                });
+            }
+        }
+        return !full.get();
+    }
+
+    // ---- Admin ----
+    public List<StorageRootStatus> status() {
+        return backends.pools().stream()
+                .flatMap(pool -> pool.members().stream())
+                .map(m -> new StorageRootStatus(m.pool(), m.name(), m.root().toString(), m.state().name(),
+                        m.freeBytes(), m.totalBytes(), m.nanosPerMb() / 1e6, m.writes(), m.writeErrors()))
+                .toList();
+    }
+
+    /** Marks a root as draining (or takes it back); empty if there is no such pool root. */
+    public Optional<StorageRootStatus> setDraining(String root, boolean drain) {
+        for (StoragePool pool : backends.pools()) {
+            for (PoolMember m : pool.members()) {
+                if (m.name().equals(root)) {
+                    m.setDraining(drain);
+                    log.info("Storage root '{}' of pool '{}' {}", root, pool.name(), drain ? "draining" : "back in use");
+                    return status().stream().filter(s -> s.getRoot().equals(root)).findFirst();
+                }
+            }
+        }
+        return Optional.empty();
+    }
+}
@@ -0,0 +1,343 @@
+package es.hgccarlos.filehost.service;
+
+import es.hgccarlos.filehost.dto.ScrubReport;
+import es.hgccarlos.filehost.storage.ErasureCodedBackend;
+import es.hgccarlos.filehost.storage.ObjectRef;
+import es.hgccarlos.filehost.storage.StorageBackends;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+
+/**
+ * Reconciles what is on disk with what the database says is there. Two passes run side by
+ * side, each holding at most one batch in memory:
+ * <ul>
+ *   <li>every top-level directory of the upload root (the blob store, legacy bucket
+ *       directories) is walked in its own task; files no blob or file row points at, and
+ *       older than the grace period, are orphans and get quarantined, deleted or just counted;</li>
+ *   <li>file rows are read in id order and their objects checked in whichever storage
+ *       backend holds them; rows whose file is gone
+ *       are flagged with {@code missing_since} (and unflagged if it comes back).</li>
+ * </ul>
+ * Disk operations across both passes share a budget of {@code max-ops-per-second}, so a run
+ * doesn't starve uploads and downloads of I/O.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class StorageScrubber {
+
+    static final String QUARANTINE_DIR = "quarantine";
+
+    private static final String KNOWN_PATHS_SQL =
+            "SELECT relative_path FROM blobs WHERE relative_path IN (:paths) " +
+            "UNION SELECT storage_key FROM files WHERE storage_key IN (:paths)";
+    private static final String ROWS_SQL =
+            "SELECT id, storage_key, storage_backend, missing_since IS NOT NULL FROM files WHERE id > ? ORDER BY id LIMIT ?";
+    private static final String FLAG_MISSING_SQL =
+            "UPDATE files SET missing_since = now() WHERE id = ANY (?) AND missing_since IS NULL";
+    private static final String CLEAR_MISSING_SQL =
+            "UPDATE files SET missing_since = NULL WHERE id = ANY (?)";
+
+    private final JdbcTemplate jdbc;
+    private final NamedParameterJdbcTemplate namedJdbc;
+    private final MeterRegistry meterRegistry;
+    private final StorageBackends backends;
+
+    @Value("${fileEntity.upload-dir}")
+    private String uploadDir;
+
+    @Value("${fileEntity.scrub.enabled:true}")
+    private boolean enabled;
+
+    @Value("${fileEntity.scrub.batch-size:1000}")
+    private int batchSize;
+
+    @Value("${fileEntity.scrub.parallelism:4}")
+    private int parallelism;
+
+    /** Stat, move or delete calls per second across the whole run; 0 = unlimited. */
+    @Value("${fileEntity.scrub.max-ops-per-second:2000}")
+    private long maxOpsPerSecond;
+
+    /** Younger files are skipped: an upload writes its file before the row. */
+    @Value("${fileEntity.scrub.grace:PT1H}")
+    private Duration grace;
+
+    /** quarantine (moved under uploadDir/quarantine), delete, or report. */
+    @Value("${fileEntity.scrub.orphan-action:quarantine}")
+    private String orphanAction;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile ScrubReport last;
+    private OpsBudget budget;
+    private Path rootPath;
+
+    @PostConstruct
+    public void init() {
+        rootPath = Paths.get(uploadDir).toAbsolutePath().normalize();
+        budget = new OpsBudget(maxOpsPerSecond);
+        if (!Set.of("quarantine", "delete", "report").contains(orphanAction)) {
+            throw new IllegalStateException("fileEntity.scrub.orphan-action must be quarantine, delete or report");
+        }
+
+        gauge("scrub.last.files", "Files on disk looked at by the last scrub", ScrubReport::getFilesScanned);
+        gauge("scrub.last.rows", "File rows checked by the last scrub", ScrubReport::getRowsScanned);
+        gauge("scrub.last.orphans", "Orphan files found by the last scrub", ScrubReport::getOrphans);
+        gauge("scrub.last.orphan.bytes", "Size of the orphans found by the last scrub", ScrubReport::getOrphanBytes);
+        gauge("scrub.last.dangling", "Rows pointing at a missing file in the last scrub", ScrubReport::getDanglingRows);
+        gauge("scrub.last.errors", "I/O errors in the last scrub", ScrubReport::getErrors);
+        TimeGauge.builder("scrub.last.duration", this, TimeUnit.MILLISECONDS,
+                        s -> s.last == null ? 0 : s.last.getDurationMs())
+                .register(meterRegistry);
+        Gauge.builder("scrub.running", running, r -> r.get() ? 1 : 0).register(meterRegistry);
+    }
+
+    // ---- Entry points ----
+    @Scheduled(fixedDelayString = "${fileEntity.scrub.interval:PT24H}",
+               initialDelayString = "${fileEntity.scrub.initial-delay:PT1H}")
+    public void scheduled() {
+        if (enabled) run();
+    }
+
+    /** Runs now on the caller's thread; empty if a run is already going. */
+    public Optional<ScrubReport> run() {
+        if (!running.compareAndSet(false, true)) return Optional.empty();
+        try {
+            return Optional.of(scrub());
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /** Starts a run in the background; false if one is already going. */
+    public boolean start() {
+        if (!running.compareAndSet(false, true)) return false;
+        Thread.ofVirtual().name("storage-scrub").start(() -> {
+            try {
+                scrub();
+            } catch (RuntimeException ex) {
+                log.error("Storage scrub failed", ex);
+            } finally {
+                running.set(false);
+            }
+        });
+        return true;
+    }
+
+    public Optional<ScrubReport> lastReport() {
+        return Optional.ofNullable(last);
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    // ---- Run ----
+    private static final class Counts {
+        final LongAdder files = new LongAdder(), rows = new LongAdder(), orphans = new LongAdder(),
+                orphanBytes = new LongAdder(), dangling = new LongAdder(), recovered = new LongAdder(),
+                errors = new LongAdder();
+    }
+
+    private ScrubReport scrub() {
+        LocalDateTime startedAt = LocalDateTime.now();
+        Counts counts = new Counts();
+        // shards of erasure-coded files when the upload dir is also a pool root: not whole files
+        Set<String> skipped = Set.of(UploadSessionServiceImpl.SESSION_DIR, QUARANTINE_DIR,
+                ErasureCodedBackend.SHARD_DIR);
+
+        List<Path> dirs = new ArrayList<>();
+        try (Stream<Path> top = Files.list(rootPath)) {
+            top.filter(Files::isDirectory)
+                    .filter(d -> !skipped.contains(d.getFileName().toString()))
+                    .forEach(dirs::add);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Could not list " + rootPath, ex);
+        }
+
+        // one task per top-level directory plus the row pass, at most `parallelism` walking at once
+        Semaphore slots = new Semaphore(parallelism);
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            pool.submit(() -> scanRows(counts));
+            pool.submit(() -> scanDir(rootPath, 1, counts));  // stray files in the root itself
+            for (Path dir : dirs) {
+                pool.submit(() -> {
+                    slots.acquireUninterruptibly();
+                    try {
+                        scanDir(dir, Integer.MAX_VALUE, counts);
+                    } finally {
+                        slots.release();
+                    }
+                });
+            }
+        }
+
+        ScrubReport report = new ScrubReport(startedAt, LocalDateTime.now(), orphanAction,
+                counts.files.sum(), counts.rows.sum(), counts.orphans.sum(), counts.orphanBytes.sum(),
+                counts.dangling.sum(), counts.recovered.sum(), counts.errors.sum());
+        last = report;
+        log.info("Storage scrub: {} files, {} rows, {} orphans ({} bytes, {}), {} dangling rows, {} errors in {} ms",
+                report.getFilesScanned(), report.getRowsScanned(), report.getOrphans(), report.getOrphanBytes(),
+                orphanAction, report.getDanglingRows(), report.getErrors(), report.getDurationMs());
+        return report;
+    }
+
+    // ---- Disk → rows ----
+    private record Candidate(String path, long size) { }
+
+    private void scanDir(Path dir, int depth, Counts counts) {
+        Instant cutoff = Instant.now().minus(grace);
+        List<Candidate> batch = new ArrayList<>(batchSize);
+        try (Stream<Path> walk = Files.walk(dir, depth)) {
+            Iterator<Path> it = walk.iterator();
+            while (it.hasNext()) {
+                Path p = it.next();
+                budget.spend(1);
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (IOException gone) {
+                    continue;
+                }
+                if (!attrs.isRegularFile()) continue;
+                counts.files.increment();
+                if (attrs.lastModifiedTime().toInstant().isAfter(cutoff)) continue;
+                batch.add(new Candidate(rootPath.relativize(p).toString(), attrs.size()));
+                if (batch.size() == batchSize) {
+                    reconcile(batch, counts);
+                    batch.clear();
+                }
+            }
+        } catch (IOException | UncheckedIOException ex) {
+            // typically a directory removed while walking it (bucket reaper)
+            log.warn("Scrub could not walk {}", dir, ex);
+            counts.errors.increment();
+        }
+        reconcile(batch, counts);
+    }
+
+    private void reconcile(List<Candidate> batch, Counts counts) {
+        if (batch.isEmpty()) return;
+        List<Candidate> orphans = unknown(batch);
+        // asked again right before acting, in case an upload claimed one of them meanwhile
+        if (!orphans.isEmpty()) orphans = unknown(orphans);
+        for (Candidate o : orphans) {
+            counts.orphans.increment();
+            counts.orphanBytes.add(o.size());
+            try {
+                handleOrphan(o.path());
+            } catch (IOException ex) {
+                log.warn("Could not {} orphan {}", orphanAction, o.path(), ex);
+                counts.errors.increment();
+            }
+        }
+    }
+
+    private List<Candidate> unknown(List<Candidate> candidates) {
+        Set<String> known = new HashSet<>(namedJdbc.queryForList(KNOWN_PATHS_SQL,
+                Map.of("paths", candidates.stream().map(Candidate::path).toList()), String.class));
+        return candidates.stream().filter(c -> !known.contains(c.path())).toList();
+    }
+
+    private void handleOrphan(String relative) throws IOException {
+        Path source = rootPath.resolve(relative);
+        switch (orphanAction) {
+            case "delete" -> {
+                budget.spend(1);
+                Files.deleteIfExists(source);
+            }
+            case "quarantine" -> {
+                budget.spend(1);
+                Path target = rootPath.resolve(QUARANTINE_DIR).resolve(relative);
+                Files.createDirectories(target.getParent());
+                Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            default -> log.info("Orphan file {}", relative);
+        }
+    }
+
+    // ---- Rows → disk ----
+    private record Row(long id, ObjectRef object, boolean flagged) { }
+
+    private void scanRows(Counts counts) {
+        long lastId = 0;
+        while (true) {
+            List<Row> rows = jdbc.query(ROWS_SQL,
+                    (rs, i) -> new Row(rs.getLong(1), new ObjectRef(rs.getString(3), rs.getString(2)), rs.getBoolean(4)),
+                    lastId, batchSize);
+            if (rows.isEmpty()) return;
+            lastId = rows.get(rows.size() - 1).id();
+
+            Map<ObjectRef, Boolean> present = new ConcurrentHashMap<>();
+            Semaphore slots = new Semaphore(parallelism);
+            try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (ObjectRef object : rows.stream().map(Row::object).distinct().toList()) {
+                    pool.submit(() -> {
+                        slots.acquireUninterruptibly();
+                        try {
+                            budget.spend(1);
+                            present.put(object, backends.get(object.backend()).stat(object.key()).isPresent());
+                        } catch (IOException | RuntimeException ex) {
+                            // unknown is not missing: leave the row as it is
+                            log.warn("Scrub could not check {}", object, ex);
+                            counts.errors.increment();
+                        } finally {
+                            slots.release();
+                        }
+                    });
+                }
+            }
+
+            List<Long> missing = new ArrayList<>(), recovered = new ArrayList<>();
+            for (Row r : rows) {
+                boolean exists = present.getOrDefault(r.object(), true);
+                if (!exists) missing.add(r.id());
+                else if (r.flagged()) recovered.add(r.id());
+            }
+            if (!missing.isEmpty()) updateIds(FLAG_MISSING_SQL, missing);
+            if (!recovered.isEmpty()) updateIds(CLEAR_MISSING_SQL, recovered);
+            counts.rows.add(rows.size());
+            counts.dangling.add(missing.size());
+            counts.recovered.add(recovered.size());
+            if (rows.size() < batchSize) return;
+        }
+    }
+
+    private void updateIds(String sql, List<Long> ids) {
+        jdbc.update(sql, ps -> ps.setArray(1, ps.getConnection().createArrayOf("bigint", ids.toArray())));
+    }
+
+    // ---- Helpers ----
+    private void gauge(String name, String description, ToLongFunction<ScrubReport> value) {
+        Gauge.builder(name, this, s -> s.last == null ? 0 : value.applyAsLong(s.last))
+                .description(description)
+                .register(meterRegistry);
+    }
+}
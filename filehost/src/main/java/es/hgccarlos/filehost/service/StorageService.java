@@ -2,17 +2,24 @@ package es.hgccarlos.filehost.service;
 
 import es.hgccarlos.filehost.dto.FileDTO;
 import es.hgccarlos.filehost.dto.Response;
+import es.hgccarlos.filehost.model.Bucket;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 
 public interface StorageService {
     Response uploadFile(MultipartFile file, String bucketKey);
+    Response uploadFile(MultipartFile file, String bucketKey, String expectedHash);
+    Response uploadStream(InputStream body, String bucketKey, String originalName,
+                          String mimeType, long contentLength, String expectedHash);
+    Response checkHashes(List<String> hashes, String bucketKey);
     Response uploadFiles(MultipartFile[] files, String bucketKey);
+    Response storeStaged(Bucket bucket, StagedFile staged, String originalName, String mimeType) throws IOException;
     Response deleteFile(Long id, String bucketKey);
     Response deleteFiles(Long[] ids, String bucketKey);
     List<FileDTO> listFiles(String bucketKey);
-    byte[] getFileBytes(Long id, String bucketKey) throws IOException;
+    FileHandle openFile(Long id, String bucketKey);
     es.hgccarlos.filehost.model.FileEntity getFileMetaById(Long id, String bucketKey);
 }
\ No newline at end of file
@@ -1,26 +1,44 @@
 package es.hgccarlos.filehost.service;
 
 import es.hgccarlos.filehost.dto.FileDTO;
+import es.hgccarlos.filehost.dto.HashCheckDTO;
 import es.hgccarlos.filehost.dto.Response;
 import es.hgccarlos.filehost.model.Bucket;
 import es.hgccarlos.filehost.model.FileEntity;
 import es.hgccarlos.filehost.repository.FileRepository;
+import es.hgccarlos.filehost.storage.LocalStorageBackend;
+import es.hgccarlos.filehost.storage.ObjectRef;
+import es.hgccarlos.filehost.storage.StorageBackends;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.Timer;
 import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
 import jakarta.transaction.Transactional;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.*;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 @Slf4j
 @Service
@@ -29,61 +47,120 @@ import java.util.*;
 public class StorageServiceImpl implements StorageService {
 
     private final FileRepository fileRepo;
+    private final JdbcTemplate jdbc;
     private final BucketService bucketService;
+    private final BlobService blobService;
+    private final FileContentCache contentCache;
+    private final StorageBackends backends;
+    private final AccessTracker accessTracker;
+    private final TransactionTemplate tx;
     private final MeterRegistry meterRegistry;
 
-    @Value("${fileEntity.upload-dir}")
-    private String uploadDir;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String TEMP_PREFIX = ".upload-";
+    private static final String TEMP_SUFFIX = ".part";
+
+    // ownership check and delete in one statement; RETURNING hands the blob store what it needs
+    private static final String DELETE_OWNED_SQL =
+            "DELETE FROM files WHERE bucket_id = ? AND id = ANY (?) RETURNING id, hash, storage_key, storage_backend";
+    // other nodes may accept a deleted bucket's key until their BucketCache entry expires; the
+    // row lock keeps BucketReaper from dropping the bucket before the upload commits
+    private static final String HOLD_BUCKET_SQL =
+            "SELECT id FROM buckets WHERE id = ? AND deleting_since IS NULL FOR KEY SHARE";
+
+    /** Parts of one upload-many request staged at the same time. */
+    @Value("${fileEntity.upload.parallelism:8}")
+    private int uploadParallelism;
+
+    /** Parts staged at the same time across all upload-many requests on this node. */
+    @Value("${fileEntity.upload.max-concurrent:64}")
+    private int maxConcurrentUploads;
+
+    /** Upper bound for one exists check, keeps the IN list reasonable. */
+    @Value("${fileEntity.exists.max-hashes:1000}")
+    private int maxHashesPerCheck;
+
+    /** Largest single file accepted, in MB. */
+    @Value("${fileEntity.max-size:1000}")
+    private long maxFileSizeMb;
+
+    @Autowired @Lazy
+    private StorageService self;
+
+    private Semaphore batchSlots;
+
+    @PostConstruct
+    public void init() {
+        batchSlots = new Semaphore(maxConcurrentUploads);
+    }
 
     // ---- Upload Single File ----
     @Override
+    @Transactional(Transactional.TxType.NOT_SUPPORTED) // the blob may go to a remote backend first
     public Response uploadFile(MultipartFile file, String bucketKey) {
+        return uploadFile(file, bucketKey, null);
+    }
+
+    @Override
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
+    public Response uploadFile(MultipartFile file, String bucketKey, String expectedHash) {
+        return upload(bucketKey, file.getOriginalFilename(), file.getContentType(),
+                file.getSize(), expectedHash, file);
+    }
+
+    // ---- Upload Raw Request Body ----
+    @Override
+    @Transactional(Transactional.TxType.NOT_SUPPORTED) // don't pin a DB connection while a client streams
+    public Response uploadStream(InputStream body, String bucketKey, String originalName,
+                                 String mimeType, long contentLength, String expectedHash) {
+        return upload(bucketKey, originalName, mimeType, contentLength, expectedHash, () -> body);
+    }
+
+    private Response upload(String bucketKey, String originalName, String mimeType,
+                            long declaredSize, String expectedHash, InputStreamSource source) {
 
         Bucket bucket = bucketService.getBucketByApiKey(bucketKey)
                 .orElseThrow(() -> new RuntimeException("Invalid API key"));
         Long bucketId = bucket.getId();
-        String bucketPath = bucket.getPath();
+
+        if (declaredSize > maxFileBytes()) {
+            meterRegistry.counter("file.upload.fail",
+                    "bucketId", bucketId.toString()).increment();
+            return new Response("error", "FILE_TOO_LARGE",
+                    "File exceeds the maximum size of " + maxFileSizeMb + " MB", originalName, null);
+        }
+
+        // conditional upload: the client told us what it is sending
+        String expected = expectedHash == null ? null : normalizeHash(expectedHash);
+        if (expected != null && fileRepo.findByHashAndBucketId(expected, bucketId).isPresent()) {
+            meterRegistry.counter("file.upload.duplicate",
+                    "bucketId", bucketId.toString()).increment();
+            return new Response("error", "FILE_DUPLICATED",
+                    "File already exists in this bucket", originalName, null);
+        }
 
         Timer.Sample timer = Timer.start(meterRegistry);
+        StagedFile staged = null;
         try {
-            String hash = calculateHash(file);
-            if (fileRepo.findByHashAndBucketId(hash, bucketId).isPresent()) {
-                meterRegistry.counter("file.upload.duplicate",
+            // single pass: hash while the bytes go to a temp file in the blob store
+            try (InputStream in = source.getInputStream()) {
+                staged = stage(in, blobService.stagingDir(), maxFileBytes());
+            }
+            if (expected != null && !expected.equals(staged.getHash())) {
+                deleteQuietly(staged.getPath());
+                meterRegistry.counter("file.upload.hashMismatch",
                         "bucketId", bucketId.toString()).increment();
-                return new Response("error", "FILE_DUPLICATED",
-                        "File already exists in this bucket", file.getOriginalFilename(), null);
+                return new Response("error", "HASH_MISMATCH",
+                        "Uploaded content does not match the expected hash",
+                        "expected " + expectedHash + ", got " + staged.getHash(), null);
             }
-
-            // store on disk
-            String ext = getExtension(file.getOriginalFilename());
-            String storedName = UUID.randomUUID() + (ext.isEmpty() ? "" : "." + ext);
-            Path targetDir = Paths.get(uploadDir, bucketPath);
-            Files.createDirectories(targetDir);
-            Path dest = targetDir.resolve(storedName);
-            Files.copy(file.getInputStream(), dest, StandardCopyOption.REPLACE_EXISTING);
-
-            // persist metadata
-            FileEntity e = new FileEntity();
-            e.setOriginalName(file.getOriginalFilename());
-            e.setStoredName(storedName);
-            e.setRelativePath(bucketPath + "/" + storedName);
-            e.setMimeType(file.getContentType());
-            e.setSizeBytes(file.getSize());
-            e.setUploadTime(LocalDateTime.now());
-            e.setHash(hash);
-            e.setBucketId(bucketId);
-            fileRepo.save(e);
-
-            // metrics on success
-            meterRegistry.counter("file.upload.success",
-                    "bucketId", bucketId.toString()).increment();
-            meterRegistry.summary("file.upload.size",
-                    "bucketId", bucketId.toString()).record(file.getSize());
-
-            return new Response("success", "201",
-                    "File uploaded successfully", null, toDTO(e));
+            // a remote backend gets the bytes before the transaction, which only references them
+            blobService.upload(List.of(staged), bucket.getStorageBackend());
+            // through the proxy: the upload gets its own short transaction here
+            return self.storeStaged(bucket, staged, originalName, mimeType);
 
         } catch (Exception ex) {
+            if (staged != null) discard(List.of(staged), bucket);
             meterRegistry.counter("file.upload.fail",
                     "bucketId", bucketId.toString()).increment();
             log.error("uploadFile: unexpected error", ex);
@@ -97,24 +174,137 @@ public class StorageServiceImpl implements StorageService {
         }
     }
 
+    // ---- Store Staged File ----
+    @Override
+    public Response storeStaged(Bucket bucket, StagedFile staged,
+                                String originalName, String mimeType) throws IOException {
+        Long bucketId = bucket.getId();
+        String hash = staged.getHash();
+        if (!holdBucket(bucketId)) {
+            discard(List.of(staged), bucket);
+            return bucketDeleting(originalName);
+        }
+        if (fileRepo.findByHashAndBucketId(hash, bucketId).isPresent()) {
+            discard(List.of(staged), bucket);
+            meterRegistry.counter("file.upload.duplicate",
+                    "bucketId", bucketId.toString()).increment();
+            return new Response("error", "FILE_DUPLICATED",
+                    "File already exists in this bucket", originalName, null);
+        }
+
+        // into the shared blob on the bucket's backend (or reuse it if another bucket already has it)
+        ObjectRef stored = blobService.store(staged, bucket.getStorageBackend());
+
+        // persist metadata
+        FileEntity e = newFileEntity(bucket, staged, stored, originalName, mimeType);
+        fileRepo.save(e);
+
+        // metrics on success
+        meterRegistry.counter("file.upload.success",
+                "bucketId", bucketId.toString()).increment();
+        meterRegistry.summary("file.upload.size",
+                "bucketId", bucketId.toString()).record(staged.getSize());
+
+        return new Response("success", "201",
+                "File uploaded successfully", null, toDTO(e));
+    }
+
     // ---- Upload Multiple Files ----
     @Override
+    @Transactional(Transactional.TxType.NOT_SUPPORTED) // transaction only around the rows, see below
     public Response uploadFiles(MultipartFile[] files, String bucketKey) {
+        Bucket bucket = bucketService.getBucketByApiKey(bucketKey)
+                .orElseThrow(() -> new RuntimeException("Invalid API key"));
+        Long bucketId = bucket.getId();
         Counter multiCounter = meterRegistry.counter("file.upload.batch",
-                "bucketId", bucketService.getBucketByApiKey(bucketKey)
-                        .orElseThrow().getId().toString());
+                "bucketId", bucketId.toString());
         multiCounter.increment(files.length);
 
-        List<FileDTO> uploaded = new ArrayList<>();
+        Timer.Sample timer = Timer.start(meterRegistry);
+
+        // stage all parts in parallel: a batch is bound by disk latency, not CPU
+        Path stagingDir;
+        try {
+            stagingDir = blobService.stagingDir();
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not prepare upload staging area", ex);
+        }
+        Semaphore requestSlots = new Semaphore(uploadParallelism);
+        List<Future<StagedFile>> staging = new ArrayList<>(files.length);
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (MultipartFile f : files) {
+                staging.add(pool.submit(() -> stageBounded(f, stagingDir, requestSlots)));
+            }
+        }
+
+        // commit in request order so duplicates inside the batch resolve deterministically
+        List<StagedFile> accepted = new ArrayList<>();
+        List<MultipartFile> acceptedParts = new ArrayList<>();
         List<String> duplicates = new ArrayList<>();
-        for (MultipartFile f : files) {
-            Response r = uploadFile(f, bucketKey);
-            if ("success".equals(r.getStatus())) {
-                uploaded.add((FileDTO) r.getData());
-            } else if ("FILE_DUPLICATED".equals(r.getCode())) {
-                duplicates.add(f.getOriginalFilename());
+        StagedFile[] stagedParts = new StagedFile[files.length];
+        for (int i = 0; i < files.length; i++) {
+            stagedParts[i] = awaitStaged(bucket, files[i], staging.get(i));
+        }
+        List<String> hashes = Arrays.stream(stagedParts).filter(Objects::nonNull)
+                .map(StagedFile::getHash).toList();
+        Set<String> taken = hashes.isEmpty() ? new HashSet<>()
+                : new HashSet<>(fileRepo.findExistingHashes(bucketId, hashes));
+        for (int i = 0; i < files.length; i++) {
+            StagedFile staged = stagedParts[i];
+            if (staged == null) continue;
+            if (!taken.add(staged.getHash())) {
+                deleteQuietly(staged.getPath());
+                meterRegistry.counter("file.upload.duplicate",
+                        "bucketId", bucketId.toString()).increment();
+                duplicates.add(files[i].getOriginalFilename());
+            } else {
+                accepted.add(staged);
+                acceptedParts.add(files[i]);
             }
         }
+
+        // blob references in one JDBC batch, metadata rows in hibernate.jdbc.batch_size batches;
+        // a remote backend gets the bytes first, outside the transaction
+        List<FileEntity> entities = new ArrayList<>(accepted.size());
+        Boolean committed;
+        try {
+            blobService.upload(accepted, bucket.getStorageBackend());
+            committed = tx.execute(s -> {
+                if (!holdBucket(bucketId)) return false;
+                try {
+                    List<ObjectRef> stored = blobService.storeAll(accepted, bucket.getStorageBackend());
+                    for (int i = 0; i < accepted.size(); i++) {
+                        MultipartFile part = acceptedParts.get(i);
+                        entities.add(newFileEntity(bucket, accepted.get(i), stored.get(i),
+                                part.getOriginalFilename(), part.getContentType()));
+                    }
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+                fileRepo.saveAll(entities);
+                return true;
+            });
+        } catch (IOException | UncheckedIOException ex) {
+            discard(accepted, bucket);
+            meterRegistry.counter("file.upload.fail",
+                    "bucketId", bucketId.toString()).increment(accepted.size());
+            throw new RuntimeException("Could not store uploaded files", ex);
+        }
+        if (!Boolean.TRUE.equals(committed)) {
+            discard(accepted, bucket);
+            return bucketDeleting(null);
+        }
+
+        meterRegistry.counter("file.upload.success",
+                "bucketId", bucketId.toString()).increment(entities.size());
+        entities.forEach(e -> meterRegistry.summary("file.upload.size",
+                "bucketId", bucketId.toString()).record(e.getSizeBytes()));
+        List<FileDTO> uploaded = entities.stream().map(this::toDTO).toList();
+        timer.stop(Timer.builder("file.upload.batch.time")
+                .description("Time to upload a batch of files")
+                .tags("bucketId", bucketId.toString())
+                .register(meterRegistry));
+
         String status = duplicates.isEmpty() ? "success" : "partial";
         String code   = duplicates.isEmpty() ? "201" : "207";
         String desc   = duplicates.isEmpty() ? null
@@ -123,6 +313,63 @@ public class StorageServiceImpl implements StorageService {
                 "Multi-file upload complete", desc, uploaded);
     }
 
+    private StagedFile stageBounded(MultipartFile file, Path stagingDir, Semaphore requestSlots)
+            throws IOException, InterruptedException {
+        requestSlots.acquire();
+        try {
+            batchSlots.acquire();
+            try (InputStream in = file.getInputStream()) {
+                return stage(in, stagingDir, maxFileBytes());
+            } finally {
+                batchSlots.release();
+            }
+        } finally {
+            requestSlots.release();
+        }
+    }
+
+    private StagedFile awaitStaged(Bucket bucket, MultipartFile file, Future<StagedFile> staging) {
+        try {
+            return staging.get();
+        } catch (InterruptedException | ExecutionException ex) {
+            if (ex instanceof InterruptedException) Thread.currentThread().interrupt();
+            meterRegistry.counter("file.upload.fail",
+                    "bucketId", bucket.getId().toString()).increment();
+            log.error("uploadFiles: could not upload {}", file.getOriginalFilename(), ex);
+            return null;
+        }
+    }
+
+    // ---- Check Which Hashes Exist ----
+    @Override
+    public Response checkHashes(List<String> hashes, String bucketKey) {
+        Bucket bucket = bucketService.getBucketByApiKey(bucketKey)
+                .orElseThrow(() -> new RuntimeException("Invalid API key"));
+        Long bucketId = bucket.getId();
+        if (hashes == null || hashes.isEmpty()) {
+            return new Response("success", "200", "No hashes to check", null,
+                    new HashCheckDTO(List.of(), List.of()));
+        }
+        if (hashes.size() > maxHashesPerCheck) {
+            throw new RuntimeException("Too many hashes, at most " + maxHashesPerCheck + " per request");
+        }
+
+        // clients may send hex or Base64; match on the stored form, answer in theirs
+        Map<String, String> normalized = new LinkedHashMap<>();
+        for (String h : hashes) normalized.put(h, normalizeHash(h));
+        Set<String> stored = new HashSet<>(fileRepo.findExistingHashes(bucketId,
+                new HashSet<>(normalized.values())));
+
+        List<String> present = new ArrayList<>();
+        List<String> missing = new ArrayList<>();
+        normalized.forEach((given, hash) -> (stored.contains(hash) ? present : missing).add(given));
+
+        meterRegistry.counter("file.exists.hit", "bucketId", bucketId.toString()).increment(present.size());
+        meterRegistry.counter("file.exists.miss", "bucketId", bucketId.toString()).increment(missing.size());
+        return new Response("success", "200", "Hashes checked", null,
+                new HashCheckDTO(present, missing));
+    }
+
     // ---- List Files in Bucket ----
     @Override
     public List<FileDTO> listFiles(String bucketKey) {
@@ -139,25 +386,32 @@ public class StorageServiceImpl implements StorageService {
     public FileEntity getFileMetaById(Long id, String bucketKey) {
         Bucket bucket = bucketService.getBucketByApiKey(bucketKey)
                 .orElseThrow(() -> new RuntimeException("Invalid API key"));
-        meterRegistry.counter("file.meta.request", "bucketId", bucket.getId().toString()).increment();
-        FileEntity entity = fileRepo.findById(id)
-                .orElseThrow(() -> new RuntimeException("File not found"));
-        if (!entity.getBucketId().equals(bucket.getId())) {
-            meterRegistry.counter("file.meta.accessDenied",
-                    "bucketId", bucket.getId().toString()).increment();
-            throw new RuntimeException("File does not belong to this bucket");
-        }
-        return entity;
+        return ownedFile(bucket, id);
     }
 
-    // ---- Get Raw Bytes of a File ----
+    // ---- Open File for Reading ----
     @Override
-    public byte[] getFileBytes(Long id, String bucketKey) throws IOException {
-        FileEntity entity = getFileMetaById(id, bucketKey);
-        meterRegistry.counter("file.download.count",
-                "bucketId", entity.getBucketId().toString()).increment();
-        Path path = Paths.get(uploadDir, entity.getRelativePath());
-        return Files.readAllBytes(path);
+    public FileHandle openFile(Long id, String bucketKey) {
+        FileEntity entity = fileRepo.findByIdAndBucketApiKey(id, bucketKey).orElse(null);
+        if (entity == null) {
+            // failure path only: find out which check failed for the error message
+            Bucket bucket = bucketService.getBucketByApiKey(bucketKey)
+                    .orElseThrow(() -> new RuntimeException("Invalid API key"));
+            if (fileRepo.existsById(id)) {
+                meterRegistry.counter("file.meta.accessDenied",
+                        "bucketId", bucket.getId().toString()).increment();
+                throw new RuntimeException("File does not belong to this bucket");
+            }
+            throw new RuntimeException("File not found");
+        }
+        String bucketId = entity.getBucketId().toString();
+        meterRegistry.counter("file.meta.request", "bucketId", bucketId).increment();
+        Counter downloads = meterRegistry.counter("file.download.count", "bucketId", bucketId);
+        return new FileHandle(entity, backends.get(entity.getStorageBackend()), entity.getStorageKey(),
+                contentCache, () -> {
+                    downloads.increment();
+                    accessTracker.record(entity.getHash());
+                });
     }
 
     // ---- Delete File ----
@@ -169,10 +423,9 @@ public class StorageServiceImpl implements StorageService {
 
         Timer.Sample timer = Timer.start(meterRegistry);
         try {
-            FileEntity entity = getFileMetaById(id, bucketKey);
-            Path path = Paths.get(uploadDir, entity.getRelativePath());
-            Files.deleteIfExists(path);
-            fileRepo.delete(entity);
+            List<FileEntity> deleted = deleteOwned(bucketId, List.of(id));
+            if (deleted.isEmpty()) throw new RuntimeException("File not found in this bucket");
+            blobService.releaseAll(deleted);
 
             meterRegistry.counter("file.delete.success",
                     "bucketId", bucketId.toString()).increment();
@@ -196,17 +449,31 @@ public class StorageServiceImpl implements StorageService {
     // ---- Delete Multiple Files ----
     @Override
     public Response deleteFiles(Long[] ids, String bucketKey) {
+        Bucket bucket = bucketService.getBucketByApiKey(bucketKey)
+                .orElseThrow(() -> new RuntimeException("Invalid API key"));
+        Long bucketId = bucket.getId();
         Counter batchDel = meterRegistry.counter("file.delete.batch",
-                "bucketId", bucketService.getBucketByApiKey(bucketKey)
-                        .orElseThrow().getId().toString());
+                "bucketId", bucketId.toString());
         batchDel.increment(ids.length);
 
+        // one ownership-checked bulk delete for the whole batch; unlinks happen later (UnlinkQueue)
+        Set<Long> requested = new LinkedHashSet<>(Arrays.asList(ids));
+        requested.remove(null);
+        List<FileEntity> owned = deleteOwned(bucketId, requested);
+        Set<Long> ownedIds = new HashSet<>();
+        owned.forEach(f -> ownedIds.add(f.getId()));
+        blobService.releaseAll(owned);
+
+        // a repeated id was already gone the second time, as when deleting one by one
         List<Long> deleted = new ArrayList<>(), failed = new ArrayList<>();
         for (Long id : ids) {
-            Response r = deleteFile(id, bucketKey);
-            if ("success".equals(r.getStatus())) deleted.add(id);
+            if (ownedIds.remove(id)) deleted.add(id);
             else failed.add(id);
         }
+        meterRegistry.counter("file.delete.success",
+                "bucketId", bucketId.toString()).increment(deleted.size());
+        meterRegistry.counter("file.delete.fail",
+                "bucketId", bucketId.toString()).increment(failed.size());
         String status = failed.isEmpty() ? "success" : "partial";
         String code   = failed.isEmpty() ? "200" : "207";
         String desc   = failed.isEmpty() ? null
@@ -216,16 +483,132 @@ public class StorageServiceImpl implements StorageService {
     }
 
     // ---- Helpers ----
+    /** Deletes the rows of {@code ids} that belong to the bucket and returns them. */
+    private List<FileEntity> deleteOwned(Long bucketId, Collection<Long> ids) {
+        if (ids.isEmpty()) return List.of();
+        return jdbc.query(DELETE_OWNED_SQL, ps -> {
+            ps.setLong(1, bucketId);
+            ps.setArray(2, ps.getConnection().createArrayOf("bigint", ids.toArray()));
+        }, (rs, i) -> {
+            FileEntity f = new FileEntity();
+            f.setId(rs.getLong(1));
+            f.setHash(rs.getString(2));
+            f.setStorageKey(rs.getString(3));
+            f.setStorageBackend(rs.getString(4));
+            f.setBucketId(bucketId);
+            return f;
+        });
+    }
+
+    /** Share-locks the bucket row for the transaction; false if it is gone or being deleted. */
+    private boolean holdBucket(Long bucketId) {
+        return !jdbc.queryForList(HOLD_BUCKET_SQL, Long.class, bucketId).isEmpty();
+    }
+
+    private Response bucketDeleting(String detail) {
+        return new Response("error", "BUCKET_DELETING", "Bucket is being deleted", detail, null);
+    }
+
+    /** Drops staged files that won't be stored, and queues what already went to a remote backend. */
+    private void discard(List<StagedFile> staged, Bucket bucket) {
+        staged.forEach(f -> deleteQuietly(f.getPath()));
+        blobService.abandon(staged, bucket.getStorageBackend());
+    }
+
+    private FileEntity ownedFile(Bucket bucket, Long id) {
+        meterRegistry.counter("file.meta.request", "bucketId", bucket.getId().toString()).increment();
+        FileEntity entity = fileRepo.findById(id)
+                .orElseThrow(() -> new RuntimeException("File not found"));
+        if (!entity.getBucketId().equals(bucket.getId())) {
+            meterRegistry.counter("file.meta.accessDenied",
+                    "bucketId", bucket.getId().toString()).increment();
+            throw new RuntimeException("File does not belong to this bucket");
+        }
+        return entity;
+    }
+
+    /**
+     * Copies the stream into a temp file inside {@code dir}, hashing each buffer as it
+     * is written. Memory use is one buffer regardless of the upload size; anything past
+     * {@code maxBytes} aborts the copy.
+     */
+    private StagedFile stage(InputStream in, Path dir, long maxBytes) throws IOException {
+        MessageDigest md = newDigest();
+        Path tmp = Files.createTempFile(dir, TEMP_PREFIX, TEMP_SUFFIX);
+        long size = 0;
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            byte[] buf = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                size += n;
+                if (size > maxBytes) {
+                    throw new IOException("File exceeds the maximum size of " + maxFileSizeMb + " MB");
+                }
+                md.update(buf, 0, n);
+                out.write(buf, 0, n);
+            }
+        } catch (IOException | RuntimeException ex) {
+            deleteQuietly(tmp);
+            throw ex;
+        }
+        return new StagedFile(tmp, Base64.getEncoder().encodeToString(md.digest()), size);
+    }
+
+    private MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /** Accepts a SHA-256 as hex or (URL-safe) Base64 and returns the stored Base64 form. */
+    private static String normalizeHash(String hash) {
+        String h = hash.trim();
+        byte[] raw;
+        try {
+            raw = h.length() == 64 ? HexFormat.of().parseHex(h)
+                    : Base64.getDecoder().decode(h.replace('-', '+').replace('_', '/'));
+        } catch (IllegalArgumentException ex) {
+            raw = null;
+        }
+        if (raw == null || raw.length != 32) {
+            throw new RuntimeException("Invalid SHA-256 hash: " + hash);
+        }
+        return Base64.getEncoder().encodeToString(raw);
+    }
+
+    private long maxFileBytes() {
+        return maxFileSizeMb * 1024 * 1024;
+    }
+
+    private void deleteQuietly(Path path) {
+        try { Files.deleteIfExists(path); }
+        catch (IOException ex) { log.warn("Could not delete temp file {}", path, ex); }
+    }
+
     private String getExtension(String filename) {
-        int dot = filename.lastIndexOf('.');
+        int dot = filename == null ? -1 : filename.lastIndexOf('.');
         return dot < 0 ? "" : filename.substring(dot + 1);
     }
 
-    private String calculateHash(MultipartFile file)
-            throws IOException, NoSuchAlgorithmException {
-        MessageDigest md = MessageDigest.getInstance("SHA-256");
-        byte[] digest = md.digest(file.getBytes());
-        return Base64.getEncoder().encodeToString(digest);
+    private FileEntity newFileEntity(Bucket bucket, StagedFile staged, ObjectRef stored,
+                                     String originalName, String mimeType) {
+        // clients keep seeing a name of their own under the bucket; the shared blob stays internal
+        String ext = getExtension(originalName);
+        String storedName = UUID.randomUUID() + (ext.isEmpty() ? "" : "." + ext);
+        FileEntity e = new FileEntity();
+        e.setOriginalName(originalName);
+        e.setStoredName(storedName);
+        e.setRelativePath(bucket.getPath() + "/" + storedName);
+        e.setStorageKey(stored.key());
+        e.setStorageBackend(stored.backend());
+        e.setMimeType(mimeType);
+        e.setSizeBytes(staged.getSize());
+        e.setUploadTime(LocalDateTime.now());
+        e.setHash(staged.getHash());
+        e.setBucketId(bucket.getId());
+        return e;
     }
 
     private FileDTO toDTO(FileEntity e) {
@@ -238,7 +621,8 @@ public class StorageServiceImpl implements StorageService {
                 e.getSizeBytes(),
                 e.getHash(),
                 e.getUploadTime(),
-                e.getBucketId()
+                e.getBucketId(),
+                e.getStorageBackend() == null ? LocalStorageBackend.NAME : e.getStorageBackend()
         );
     }
 }
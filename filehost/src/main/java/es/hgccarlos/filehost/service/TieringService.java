@@ -0,0 +1,195 @@
+package es.hgccarlos.filehost.service;
+
+import es.hgccarlos.filehost.storage.LocalStorageBackend;
+import es.hgccarlos.filehost.storage.StorageBackends;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hot/cold tiering of the blob store. Blobs on {@code hot-backend} not read for
+ * {@code cold-after} are demoted to {@code cold-backend} by a background run; cold blobs
+ * whose heat (see {@link AccessTracker}) reaches {@code promote-reads} are promoted back
+ * when the reads are flushed. Moves go through the {@link BlobRelocator}: a blob keeps its
+ * key on both tiers and downloads follow the rows to whichever tier holds it.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class TieringService {
+
+    private static final String LOCAL = "'" + LocalStorageBackend.NAME + "'";
+    private static final String DEMOTE_PAGE_SQL =
+            "SELECT hash, relative_path, size_bytes FROM blobs WHERE hash > ? " +
+            "AND COALESCE(storage_backend, " + LOCAL + ") = ? " +
+            "AND COALESCE(last_read_at, created_at) < now() - make_interval(secs => ?) ORDER BY hash LIMIT ?";
+    private static final String PROMOTE_SQL =
+            "SELECT hash, relative_path, size_bytes FROM blobs WHERE hash IN (:hashes) " +
+            "AND COALESCE(storage_backend, " + LOCAL + ") = :cold AND heat >= :reads";
+    private static final String OCCUPANCY_SQL =
+            "SELECT count(*), COALESCE(sum(size_bytes), 0) FROM blobs WHERE COALESCE(storage_backend, " + LOCAL + ") = ?";
+    private static final int PROMOTE_CHUNK = 1000;
+
+    private final JdbcTemplate jdbc;
+    private final NamedParameterJdbcTemplate namedJdbc;
+    private final StorageBackends backends;
+    private final AccessTracker accessTracker;
+    private final BlobRelocator relocator;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${storage.tiering.enabled:false}")
+    private boolean enabled;
+
+    @Value("${storage.tiering.hot-backend:local}")
+    private String hotBackend;
+
+    @Value("${storage.tiering.cold-backend:}")
+    private String coldBackend;
+
+    /** Blobs not read for this long are demoted. */
+    @Value("${storage.tiering.cold-after:P30D}")
+    private Duration coldAfter;
+
+    /** Heat (reads, decaying) at which a cold blob is promoted. */
+    @Value("${storage.tiering.promote-reads:3}")
+    private double promoteReads;
+
+    @Value("${storage.tiering.batch-size:200}")
+    private int batchSize;
+
+    @Value("${storage.tiering.parallelism:2}")
+    private int parallelism;
+
+    /** Copy throughput across all moves; 0 = unlimited. */
+    @Value("${storage.tiering.max-bytes-per-second:50MB}")
+    private DataSize maxBytesPerSecond;
+
+    /** How long the old copy stays readable after its rows moved on. */
+    @Value("${storage.tiering.unlink-delay:PT10M}")
+    private Duration unlinkDelay;
+
+    private final Tier hot = new Tier(), cold = new Tier();
+    private OpsBudget budget;
+
+    private static final class Tier {
+        final AtomicLong objects = new AtomicLong(), bytes = new AtomicLong();
+    }
+
+    private record Candidate(String hash, String key, long size) { }
+
+    private static final RowMapper<Candidate> CANDIDATE =
+            (rs, i) -> new Candidate(rs.getString(1), rs.getString(2), rs.getLong(3));
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) return;
+        if (coldBackend.isBlank() || coldBackend.equals(hotBackend)) {
+            throw new IllegalStateException("storage.tiering.cold-backend must name a backend other than the hot one");
+        }
+        backends.get(hotBackend);
+        backends.get(coldBackend);
+        budget = OpsBudget.bytesPerSecond(maxBytesPerSecond);
+        gauges("hot", hotBackend, hot);
+        gauges("cold", coldBackend, cold);
+        log.info("Tiering: '{}' (hot) -> '{}' (cold) after {} without reads", hotBackend, coldBackend, coldAfter);
+    }
+
+    // ---- Promotion ----
+    /** Flushes the reads counted since last time and promotes the cold blobs that got hot. */
+    @Scheduled(fixedDelayString = "${storage.tiering.flush-interval:PT30S}")
+    public void flushReads() {
+        if (!enabled) return;
+        List<String> read = new ArrayList<>(accessTracker.flush().keySet());
+        for (int i = 0; i < read.size(); i += PROMOTE_CHUNK) {
+            List<Candidate> hotAgain = namedJdbc.query(PROMOTE_SQL, Map.of(
+                    "hashes", read.subList(i, Math.min(read.size(), i + PROMOTE_CHUNK)),
+                    "cold", coldBackend, "reads", promoteReads), CANDIDATE);
+            moveAll(hotAgain, coldBackend, hotBackend, "promote");
+        }
+    }
+
+    // ---- Demotion ----
+    @Scheduled(fixedDelayString = "${storage.tiering.interval:PT1H}",
+               initialDelayString = "${storage.tiering.initial-delay:PT5M}")
+    public void demoteCold() {
+        if (!enabled) return;
+        refreshOccupancy();
+        String lastHash = "";
+        while (true) {
+            List<Candidate> page = jdbc.query(DEMOTE_PAGE_SQL, CANDIDATE,
+                    lastHash, hotBackend, coldAfter.toSeconds(), batchSize);
+            if (page.isEmpty()) break;
+            moveAll(page, hotBackend, coldBackend, "demote");
+            if (page.size() < batchSize) break;
+            lastHash = page.get(page.size() - 1).hash();
+        }
+    }
+
+    // ---- Moves ----
+    private void moveAll(List<Candidate> candidates, String from, String to, String direction) {
+        if (candidates.isEmpty()) return;
+        Semaphore slots = new Semaphore(parallelism);
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Candidate c : candidates) {
+                pool.submit(() -> {
+                    slots.acquireUninterruptibly();
+                    try {
+                        budget.spendBytes(c.size());
+                        if (relocator.move(c.hash(), c.key(), c.size(), from, to, unlinkDelay)) {
+                            meterRegistry.counter("tiering.moved", "direction", direction).increment();
+                            meterRegistry.counter("tiering.moved.bytes", "direction", direction).increment(c.size());
+                            Tier source = from.equals(hotBackend) ? hot : cold, target = source == hot ? cold : hot;
+                            source.objects.decrementAndGet();
+                            source.bytes.addAndGet(-c.size());
+                            target.objects.incrementAndGet();
+                            target.bytes.addAndGet(c.size());
+                        }
+                    } catch (IOException | RuntimeException ex) {
+                        log.warn("Could not {} blob {} ({} -> {})", direction, c.hash(), from, to, ex);
+                        meterRegistry.counter("tiering.failed", "direction", direction).increment();
+                    } finally {
+                        slots.release();
+                    }
+                });
+            }
+        }
+    }
+
+    // ---- Metrics ----
+    private void gauges(String tier, String backend, Tier t) {
+        Gauge.builder("tiering.objects", t.objects, AtomicLong::get)
+                .description("Blobs on the tier (as of the last demotion run, plus moves since)")
+                .tags("tier", tier, "backend", backend).register(meterRegistry);
+        Gauge.builder("tiering.bytes", t.bytes, AtomicLong::get)
+                .description("Bytes of the blobs on the tier")
+                .tags("tier", tier, "backend", backend).register(meterRegistry);
+    }
+
+    private void refreshOccupancy() {
+        for (Map.Entry<String, Tier> e : Map.of(hotBackend, hot, coldBackend, cold).entrySet()) {
+            jdbc.query(OCCUPANCY_SQL, rs -> {
+                e.getValue().objects.set(rs.getLong(1));
+                e.getValue().bytes.set(rs.getLong(2));
+            }, e.getKey());
+        }
+    }
+}
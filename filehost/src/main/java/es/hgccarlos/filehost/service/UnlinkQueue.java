@@ -0,0 +1,207 @@
+package es.hgccarlos.filehost.service;
+
+import es.hgccarlos.filehost.storage.LocalStorageBackend;
+import es.hgccarlos.filehost.storage.ObjectRef;
+import es.hgccarlos.filehost.storage.StorageBackend;
+import es.hgccarlos.filehost.storage.StorageBackends;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Removes stored objects after their rows are gone, off the request thread. Keys are
+ * queued in {@code pending_unlinks} inside the deleting transaction, so they are only
+ * acted on if it commits and survive a restart; a scheduled drain unlinks them in parallel
+ * (bounded) and retries failures with exponential backoff. A batch is claimed in one short
+ * transaction; the unlinks run after it, each in its own transaction, so a slow remote
+ * backend never keeps a whole batch's locks or a connection per batch.
+ *
+ * <p>A key that got referenced again on the same backend in the meantime (same content
+ * uploaded after the delete, blob moved back to this tier) is dropped from the queue
+ * instead of unlinked. The check and the unlink run under a per-key advisory lock that
+ * {@link #hold} lets writers take too, so a reference still being committed either sees
+ * the object gone and writes it again, or is seen.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class UnlinkQueue {
+
+    private static final String ENQUEUE_SQL =
+            "INSERT INTO pending_unlinks (path, storage_backend, attempts, next_attempt_at, created_at) " +
+            "VALUES (?, ?, 0, now() + make_interval(secs => ?), now())";
+    // pushes the rows' next attempt out instead of keeping them locked while this instance works
+    // on them: other instances leave them alone, and after a crash they come back on their own
+    private static final String CLAIM_SQL =
+            "UPDATE pending_unlinks SET next_attempt_at = now() + make_interval(secs => ?) WHERE id IN (" +
+            "SELECT id FROM pending_unlinks WHERE next_attempt_at <= now() " +
+            "ORDER BY next_attempt_at LIMIT ? FOR UPDATE SKIP LOCKED) RETURNING id, path, storage_backend, attempts";
+    // the same key may be in use on another backend (a blob moved between tiers keeps its key)
+    private static final String REFERENCED_SQL =
+            "SELECT relative_path, COALESCE(storage_backend, '" + LocalStorageBackend.NAME + "') FROM blobs " +
+            "WHERE relative_path IN (:paths) " +
+            "UNION SELECT storage_key, COALESCE(storage_backend, '" + LocalStorageBackend.NAME + "') FROM files " +
+            "WHERE storage_key IN (:paths)";
+    // one statement, locks taken in key order so two holders can't deadlock
+    private static final String HOLD_SQL =
+            "SELECT count(pg_advisory_xact_lock(k)) FROM " +
+            "(SELECT DISTINCT hashtext(p) AS k FROM unnest(ARRAY[:keys]::text[]) p ORDER BY k) s";
+    private static final String DONE_SQL =
+            "DELETE FROM pending_unlinks WHERE id = ?";
+    private static final String RETRY_SQL =
+            "UPDATE pending_unlinks SET attempts = attempts + 1, " +
+            "next_attempt_at = now() + make_interval(secs => ?) WHERE id = ?";
+
+    private final JdbcTemplate jdbc;
+    private final NamedParameterJdbcTemplate namedJdbc;
+    private final TransactionTemplate tx;
+    private final MeterRegistry meterRegistry;
+    private final StorageBackends backends;
+
+    @Value("${fileEntity.unlink.batch-size:500}")
+    private int batchSize;
+
+    /** Unlinks in flight at once; each holds a DB connection (and the key's lock) while it runs. */
+    @Value("${fileEntity.unlink.io-concurrency:4}")
+    private int ioConcurrency;
+
+    /** How long claimed rows are left to this instance before another may take them. */
+    @Value("${fileEntity.unlink.claim-timeout:PT5M}")
+    private Duration claimTimeout;
+
+    @Value("${fileEntity.unlink.max-attempts:10}")
+    private int maxAttempts;
+
+    @Value("${fileEntity.unlink.retry-backoff:PT5S}")
+    private Duration retryBackoff;
+
+    // ---- Enqueue ----
+    /** Queues {@code paths} in the caller's transaction; they are unlinked once it commits. */
+    public void enqueue(Collection<ObjectRef> objects) {
+        enqueue(objects, Duration.ZERO);
+    }
+
+    /** Same, but not before {@code delay} has passed (readers may still be about to open them). */
+    public void enqueue(Collection<ObjectRef> objects, Duration delay) {
+        if (objects.isEmpty()) return;
+        jdbc.batchUpdate(ENQUEUE_SQL, objects, objects.size(), (ps, o) -> {
+            ps.setString(1, o.key());
+            ps.setString(2, o.backend());
+            ps.setLong(3, delay.toSeconds());
+        });
+        meterRegistry.counter("unlink.queued").increment(objects.size());
+    }
+
+    /**
+     * Keeps the queue off {@code keys} (on any backend) until the caller's transaction ends.
+     * Taken before referencing an object that may be pending, and before checking for it.
+     */
+    public void hold(Collection<String> keys) {
+        if (keys.isEmpty()) return;
+        namedJdbc.queryForObject(HOLD_SQL, Map.of("keys", keys), Long.class);
+    }
+
+    // ---- Drain ----
+    @Scheduled(fixedDelayString = "${fileEntity.unlink.interval:PT1S}")
+    public void drain() {
+        List<Pending> batch;
+        do {
+            batch = tx.execute(s -> claim());
+            if (batch == null || batch.isEmpty()) return;
+            unlinkAll(batch);
+        } while (batch.size() == batchSize);
+    }
+
+    private record Pending(long id, String path, String backend, int attempts) { }
+
+    private enum Outcome { UNLINKED, REFERENCED, RETRY, ABANDONED }
+
+    private List<Pending> claim() {
+        return jdbc.query(CLAIM_SQL,
+                (rs, i) -> new Pending(rs.getLong(1), rs.getString(2), rs.getString(3), rs.getInt(4)),
+                claimTimeout.toSeconds(), batchSize);
+    }
+
+    private void unlinkAll(List<Pending> batch) {
+        Map<Outcome, LongAdder> outcomes = new EnumMap<>(Outcome.class);
+        for (Outcome o : Outcome.values()) outcomes.put(o, new LongAdder());
+        Semaphore slots = new Semaphore(ioConcurrency);
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Pending p : batch) {
+                pool.submit(() -> {
+                    slots.acquireUninterruptibly();
+                    try {
+                        outcomes.get(unlink(p)).increment();
+                    } finally {
+                        slots.release();
+                    }
+                });
+            }
+        }
+        meterRegistry.counter("unlink.done").increment(outcomes.get(Outcome.UNLINKED).sum()
+                + outcomes.get(Outcome.REFERENCED).sum());
+        meterRegistry.counter("unlink.retry").increment(outcomes.get(Outcome.RETRY).sum());
+        meterRegistry.counter("unlink.abandoned").increment(outcomes.get(Outcome.ABANDONED).sum());
+    }
+
+    /**
+     * Checks and unlinks one key in its own transaction, under the key's lock: a writer either
+     * waits for the unlink and writes the object again, or has committed its reference.
+     */
+    private Outcome unlink(Pending p) {
+        try {
+            return tx.execute(s -> {
+                // a backend since removed from the config fails this row only
+                StorageBackend store = backends.get(p.backend());
+                hold(List.of(p.path()));
+                boolean referenced = namedJdbc.query(REFERENCED_SQL, Map.of("paths", List.of(p.path())),
+                        (rs, i) -> rs.getString(2)).contains(store.name());
+                if (!referenced) {
+                    try {
+                        store.delete(p.path());
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                }
+                jdbc.update(DONE_SQL, p.id());
+                return referenced ? Outcome.REFERENCED : Outcome.UNLINKED;
+            });
+        } catch (RuntimeException ex) {
+            log.warn("Could not delete {} (attempt {})", p.path(), p.attempts() + 1, ex);
+            try {
+                if (p.attempts() + 1 < maxAttempts) {
+                    jdbc.update(RETRY_SQL, backoffSeconds(p.attempts()), p.id());
+                    return Outcome.RETRY;
+                }
+                log.error("Giving up on deleting {} after {} attempts", p.path(), maxAttempts);
+                jdbc.update(DONE_SQL, p.id());
+                return Outcome.ABANDONED;
+            } catch (RuntimeException again) {
+                // still claimed; comes back once claim-timeout has passed
+                log.warn("Could not reschedule the unlink of {}", p.path(), again);
+                return Outcome.RETRY;
+            }
+        }
+    }
+
+    /** retryBackoff doubled per failed attempt, capped at an hour. */
+    private long backoffSeconds(int attempts) {
+        long base = Math.max(1, retryBackoff.toSeconds());
+        return Math.min(Duration.ofHours(1).toSeconds(), base << Math.min(attempts, 20));
+    }
+}
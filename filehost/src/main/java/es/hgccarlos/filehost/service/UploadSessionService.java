@@ -0,0 +1,13 @@
+package es.hgccarlos.filehost.service;
+
+import es.hgccarlos.filehost.dto.Response;
+
+import java.io.InputStream;
+
+public interface UploadSessionService {
+    Response createSession(String bucketKey, String fileName, String mimeType, long totalSize);
+    Response writeChunk(String sessionId, String bucketKey, long offset, InputStream body);
+    Response getSession(String sessionId, String bucketKey);
+    Response commit(String sessionId, String bucketKey);
+    Response abort(String sessionId, String bucketKey);
+}
@@ -0,0 +1,372 @@
+package es.hgccarlos.filehost.service;
+
+import es.hgccarlos.filehost.dto.Response;
+import es.hgccarlos.filehost.dto.UploadSessionDTO;
+import es.hgccarlos.filehost.model.Bucket;
+import es.hgccarlos.filehost.model.UploadChunk;
+import es.hgccarlos.filehost.model.UploadSession;
+import es.hgccarlos.filehost.repository.UploadChunkRepository;
+import es.hgccarlos.filehost.repository.UploadSessionRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.transaction.Transactional;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Resumable uploads: chunks are written at their offset into a part file under
+ * {@code uploadDir/sessions}, in any order and in parallel. Each received range is
+ * recorded only after it has been forced to disk, so sessions survive a restart.
+ * The SHA-256 is advanced over the contiguous prefix as chunks arrive, so commit
+ * only has to hash whatever tail is left before handing the file to
+ * {@link StorageService#storeStaged}. Chunk writes share the session's lock and hashing
+ * takes it exclusively: a chunk re-sent over bytes already hashed throws the digest away,
+ * and nothing can be written between the final hash and the store.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+@Transactional
+public class UploadSessionServiceImpl implements UploadSessionService {
+
+    static final String SESSION_DIR = "sessions";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final UploadSessionRepository sessionRepo;
+    private final UploadChunkRepository chunkRepo;
+    private final BucketService bucketService;
+    private final StorageService storageService;
+    private final BlobService blobService;
+    private final TransactionTemplate tx;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${fileEntity.upload-dir}")
+    private String uploadDir;
+
+    @Value("${fileEntity.session.ttl:24h}")
+    private Duration ttl;
+
+    // in-memory only; after a restart the prefix is re-hashed from disk on demand
+    private final Map<String, PrefixDigest> digests = new ConcurrentHashMap<>();
+
+    private Path sessionDir;
+
+    @PostConstruct
+    public void init() throws IOException {
+        sessionDir = Files.createDirectories(Paths.get(uploadDir, SESSION_DIR));
+    }
+
+    // ---- Create Session ----
+    @Override
+    public Response createSession(String bucketKey, String fileName, String mimeType, long totalSize) {
+        Bucket bucket = resolveBucket(bucketKey);
+        if (fileName == null || fileName.isBlank() || totalSize < 0) {
+            return new Response("error", "INVALID_SESSION",
+                    "fileName and a non-negative totalSize are required", null, null);
+        }
+
+        UploadSession s = new UploadSession();
+        s.setId(UUID.randomUUID().toString());
+        s.setBucketId(bucket.getId());
+        s.setOriginalName(fileName);
+        s.setMimeType(mimeType == null ? "application/octet-stream" : mimeType);
+        s.setTotalSize(totalSize);
+        s.setExpiresAt(LocalDateTime.now().plus(ttl));
+
+        try {
+            Files.createFile(partPath(s));
+        } catch (IOException e) {
+            log.error("Could not create part file for session {}", s.getId(), e);
+            throw new RuntimeException("Upload session creation failed", e);
+        }
+        sessionRepo.save(s);
+
+        meterRegistry.counter("file.session.create",
+                "bucketId", bucket.getId().toString()).increment();
+        return new Response("success", "201", "Upload session created",
+                null, toDTO(s, List.of()));
+    }
+
+    // ---- Write Chunk ----
+    @Override
+    @Transactional(Transactional.TxType.NOT_SUPPORTED) // don't pin a DB connection while streaming
+    public Response writeChunk(String sessionId, String bucketKey, long offset, InputStream body) {
+        UploadSession s = resolveSession(sessionId, resolveBucket(bucketKey));
+        if (offset < 0 || offset > s.getTotalSize()) {
+            return new Response("error", "INVALID_OFFSET",
+                    "Offset outside of the declared file size", String.valueOf(offset), null);
+        }
+
+        long written = 0;
+        PrefixDigest d = digest(s);
+        d.lock.readLock().lock();
+        try (FileChannel ch = FileChannel.open(partPath(s), StandardOpenOption.WRITE)) {
+            // rewriting a range already fed to the digest: it has to start over
+            if (offset < d.hashedUpTo) d.stale = true;
+            byte[] buf = new byte[BUFFER_SIZE];
+            ByteBuffer bb = ByteBuffer.wrap(buf);
+            int n;
+            while ((n = body.read(buf)) != -1) {
+                if (offset + written + n > s.getTotalSize()) {
+                    return new Response("error", "CHUNK_OUT_OF_RANGE",
+                            "Chunk extends past the declared file size", null, null);
+                }
+                bb.clear().limit(n);
+                while (bb.hasRemaining()) {
+                    written += ch.write(bb, offset + written);
+                }
+            }
+            ch.force(false);
+        } catch (IOException e) {
+            log.warn("writeChunk: session {} offset {} failed after {} bytes", sessionId, offset, written, e);
+            return new Response("error", "CHUNK_FAIL",
+                    "Could not write chunk", e.getMessage(), null);
+        } finally {
+            d.lock.readLock().unlock();
+        }
+
+        if (written > 0) {
+            UploadChunk c = new UploadChunk();
+            c.setSessionId(s.getId());
+            c.setStartOffset(offset);
+            c.setLengthBytes(written);
+            chunkRepo.save(c);
+            meterRegistry.summary("file.session.chunk.size",
+                    "bucketId", s.getBucketId().toString()).record(written);
+        }
+
+        List<long[]> ranges = receivedRanges(s.getId());
+        // skipped if another thread is already hashing (or committing)
+        if (d.lock.writeLock().tryLock()) {
+            try {
+                advanceDigest(s, d, ranges, false);
+            } finally {
+                d.lock.writeLock().unlock();
+            }
+        }
+        return new Response("success", "200", "Chunk stored", null, toDTO(s, ranges));
+    }
+
+    // ---- Session Status ----
+    @Override
+    public Response getSession(String sessionId, String bucketKey) {
+        UploadSession s = resolveSession(sessionId, resolveBucket(bucketKey));
+        return new Response("success", "200", "Upload session",
+                null, toDTO(s, receivedRanges(s.getId())));
+    }
+
+    // ---- Commit ----
+    @Override
+    @Transactional(Transactional.TxType.NOT_SUPPORTED) // a remote backend gets the bytes before the rows
+    public Response commit(String sessionId, String bucketKey) {
+        Bucket bucket = resolveBucket(bucketKey);
+        UploadSession s = resolveSession(sessionId, bucket);
+
+        // no chunk lands between the final hash and the store
+        PrefixDigest d = digest(s);
+        d.lock.writeLock().lock();
+        try {
+            List<long[]> ranges = receivedRanges(s.getId());
+            if (prefixLength(ranges) < s.getTotalSize()) {
+                return new Response("error", "UPLOAD_INCOMPLETE",
+                        "Not all byte ranges have been received", null, toDTO(s, ranges));
+            }
+            String hash = advanceDigest(s, d, ranges, true);
+            StagedFile staged = new StagedFile(partPath(s), hash, s.getTotalSize());
+            blobService.upload(List.of(staged), bucket.getStorageBackend());
+            Response r;
+            try {
+                r = tx.execute(status -> {
+                    try {
+                        Response stored = storageService.storeStaged(bucket, staged, s.getOriginalName(), s.getMimeType());
+                        discard(s);
+                        return stored;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (RuntimeException e) {
+                blobService.abandon(List.of(staged), bucket.getStorageBackend());
+                throw e;
+            }
+            meterRegistry.counter("file.session.commit",
+                    "bucketId", bucket.getId().toString()).increment();
+            return r;
+        } catch (IOException | UncheckedIOException e) {
+            log.error("commit: session {} failed", sessionId, e);
+            return new Response("error", "UPLOAD_FAIL",
+                    "Could not commit upload session", e.getMessage(), null);
+        } finally {
+            d.lock.writeLock().unlock();
+        }
+    }
+
+    // ---- Abort ----
+    @Override
+    public Response abort(String sessionId, String bucketKey) {
+        UploadSession s = resolveSession(sessionId, resolveBucket(bucketKey));
+        discard(s);
+        return new Response("success", "200", "Upload session aborted", null, null);
+    }
+
+    // ---- Expiry ----
+    @Scheduled(fixedDelayString = "${fileEntity.session.cleanup-interval:PT15M}")
+    public void purgeExpired() {
+        int purged = 0;
+        for (UploadSession s : sessionRepo.findAllByExpiresAtBefore(LocalDateTime.now())) {
+            // one still being written, hashed or committed is left for the next run
+            PrefixDigest d = digest(s);
+            if (!d.lock.writeLock().tryLock()) continue;
+            try {
+                discard(s);
+                purged++;
+            } finally {
+                d.lock.writeLock().unlock();
+            }
+        }
+        if (purged > 0) {
+            meterRegistry.counter("file.session.expired").increment(purged);
+            log.info("Purged {} expired upload sessions", purged);
+        }
+    }
+
+    // ---- Helpers ----
+    private Bucket resolveBucket(String bucketKey) {
+        return bucketService.getBucketByApiKey(bucketKey)
+                .orElseThrow(() -> new RuntimeException("Invalid API key"));
+    }
+
+    private UploadSession resolveSession(String sessionId, Bucket bucket) {
+        UploadSession s = sessionRepo.findById(sessionId)
+                .orElseThrow(() -> new RuntimeException("Upload session not found"));
+        if (!s.getBucketId().equals(bucket.getId())) {
+            throw new RuntimeException("Upload session does not belong to this bucket");
+        }
+        if (s.getExpiresAt().isBefore(LocalDateTime.now())) {
+            throw new RuntimeException("Upload session expired");
+        }
+        return s;
+    }
+
+    private void discard(UploadSession s) {
+        chunkRepo.deleteAllBySessionId(s.getId());
+        sessionRepo.delete(s);
+        digests.remove(s.getId());
+        try { Files.deleteIfExists(partPath(s)); }
+        catch (IOException ex) { log.warn("Could not delete part file of session {}", s.getId(), ex); }
+    }
+
+    private Path partPath(UploadSession s) {
+        return sessionDir.resolve(s.getId() + ".part");
+    }
+
+    /** Merges the recorded chunks into sorted, non-overlapping [start, end) ranges. */
+    private List<long[]> receivedRanges(String sessionId) {
+        List<long[]> ranges = new ArrayList<>();
+        for (UploadChunk c : chunkRepo.findAllBySessionIdOrderByStartOffsetAsc(sessionId)) {
+            long start = c.getStartOffset(), end = start + c.getLengthBytes();
+            long[] last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+            if (last != null && start <= last[1]) {
+                last[1] = Math.max(last[1], end);
+            } else {
+                ranges.add(new long[]{start, end});
+            }
+        }
+        return ranges;
+    }
+
+    private static long prefixLength(List<long[]> ranges) {
+        return ranges.isEmpty() || ranges.get(0)[0] != 0 ? 0 : ranges.get(0)[1];
+    }
+
+    private PrefixDigest digest(UploadSession s) {
+        return digests.computeIfAbsent(s.getId(), id -> new PrefixDigest());
+    }
+
+    /**
+     * Feeds the not-yet-hashed part of the contiguous prefix into the session's digest,
+     * from zero if a chunk rewrote bytes already hashed. Caller holds the write lock;
+     * with {@code finish} returns the final Base64 hash.
+     */
+    private String advanceDigest(UploadSession s, PrefixDigest d, List<long[]> ranges, boolean finish) {
+        long prefix = prefixLength(ranges);
+        if (d.stale) {
+            d.md.reset();
+            d.hashedUpTo = 0;
+            d.stale = false;
+        }
+        if (prefix > d.hashedUpTo) {
+            try (FileChannel ch = FileChannel.open(partPath(s), StandardOpenOption.READ)) {
+                ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+                long pos = d.hashedUpTo;
+                while (pos < prefix) {
+                    buf.clear().limit((int) Math.min(BUFFER_SIZE, prefix - pos));
+                    int n = ch.read(buf, pos);
+                    if (n < 0) throw new EOFException("Part file shorter than received ranges");
+                    buf.flip();
+                    d.md.update(buf);
+                    pos += n;
+                }
+                d.hashedUpTo = pos;
+            } catch (IOException e) {
+                // start over from zero next time rather than trust a half-fed digest
+                d.stale = true;
+                if (finish) throw new UncheckedIOException("Could not hash upload session", e);
+                log.warn("advanceDigest: session {} failed, will re-hash", s.getId(), e);
+                return null;
+            }
+        }
+        if (!finish) return null;
+        // digest() resets the state, so a retried commit must re-hash from zero
+        d.hashedUpTo = 0;
+        return Base64.getEncoder().encodeToString(d.md.digest());
+    }
+
+    private UploadSessionDTO toDTO(UploadSession s, List<long[]> ranges) {
+        long received = ranges.stream().mapToLong(r -> r[1] - r[0]).sum();
+        return new UploadSessionDTO(
+                s.getId(),
+                s.getOriginalName(),
+                s.getMimeType(),
+                s.getTotalSize(),
+                received,
+                ranges,
+                s.getExpiresAt()
+        );
+    }
+
+    private static final class PrefixDigest {
+        // shared by chunk writes, exclusive for hashing
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        final MessageDigest md;
+        volatile long hashedUpTo;
+        volatile boolean stale;
+
+        PrefixDigest() {
+            try {
+                md = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 not available", e);
+            }
+        }
+    }
+}
@@ -28,6 +28,9 @@ public class UserServiceImpl implements UserService {
     @Autowired
     private PasswordEncoder passwordEncoder;
 
+    @Autowired
+    private UserStatusCache userStatusCache;
+
     // ---- Create User ----
 
     @Value("${app.user}")
@@ -85,6 +88,7 @@ public class UserServiceImpl implements UserService {
     public UserDTO updateUser(UUID id, UserDTO request) {
         User user = userRepository.findById(id)
                 .orElseThrow(() -> new IllegalArgumentException("User not found with id: " + id));
+        String oldUsername = user.getUsername();
 
         // Update username if provided and different
         if (request.getUsername() != null && !request.getUsername().equals(user.getUsername())) {
@@ -103,6 +107,8 @@ public class UserServiceImpl implements UserService {
         user.setEnabled(request.isEnabled());
 
         User updatedUser = userRepository.save(user);
+        // tokens issued before a rename or role/enabled change stop working right away on this node
+        userStatusCache.evict(oldUsername, updatedUser.getUsername());
         return toDTO(updatedUser);
     }
 
@@ -123,6 +129,7 @@ public class UserServiceImpl implements UserService {
         }
 
         userRepository.delete(user);
+        userStatusCache.evict(user.getUsername());
         log.info("User deleted successfully: {}", user.getUsername());
     }
 
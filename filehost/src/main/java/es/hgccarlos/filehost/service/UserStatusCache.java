@@ -0,0 +1,73 @@
+package es.hgccarlos.filehost.service;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import es.hgccarlos.filehost.repository.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Revocation check for stateless JWT authorization: a token is honoured only while its
+ * user still exists, is enabled and has the role the token was issued with. The user's
+ * role/enabled columns are cached for {@code jwt.user-check.ttl}, so disabling a user or
+ * changing their role takes effect within that window (immediately on the instance that
+ * made the change) without loading the full user on every request.
+ */
+@Component
+public class UserStatusCache {
+
+    private final LoadingCache<String, Optional<UserRepository.Status>> cache;
+    private final String adminUsername;
+
+    public UserStatusCache(UserRepository userRepository,
+                           MeterRegistry meterRegistry,
+                           @Value("${app.user}") String adminUsername,
+                           @Value("${jwt.user-check.ttl:30s}") Duration ttl,
+                           @Value("${jwt.user-check.max-size:10000}") long maxSize) {
+        this.adminUsername = adminUsername;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build(userRepository::findStatusByUsername);
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "user.status");
+    }
+
+    /** Whether a verified token for {@code username} carrying {@code roles} may still be used. */
+    public boolean allows(String username, List<String> roles) {
+        if (username == null || roles == null) return false;
+        // the configured API user is always an enabled ADMIN (see SecurityConfig)
+        if (username.equals(adminUsername)) return roles.equals(List.of("ADMIN"));
+        return cache.get(username)
+                .filter(UserRepository.Status::isEnabled)
+                .map(s -> roles.equals(List.of(s.getRole())))
+                .orElse(false);
+    }
+
+    /**
+     * Drops {@code usernames} right away and again once the surrounding transaction completes,
+     * so a request racing with the commit can't cache the old status back.
+     */
+    public void evict(String... usernames) {
+        List<String> keys = Arrays.stream(usernames).filter(Objects::nonNull).toList();
+        cache.invalidateAll(keys);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    cache.invalidateAll(keys);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package es.hgccarlos.filehost.storage;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Directories known to exist, so writing into a shard costs a map lookup instead of a
+ * {@code createDirectories} (a stat per path component) on every file. Something removing
+ * a cached directory behind our back surfaces as a {@code NoSuchFileException}; callers
+ * {@link #forget} it and retry.
+ */
+@Component
+public class DirectoryCache {
+
+    private final Cache<Path, Boolean> known = Caffeine.newBuilder().maximumSize(100_000).build();
+
+    public Path ensure(Path dir) throws IOException {
+        if (known.getIfPresent(dir) == null) {
+            Files.createDirectories(dir);
+            known.put(dir, Boolean.TRUE);
+        }
+        return dir;
+    }
+
+    public void forget(Path dir) {
+        known.invalidate(dir);
+    }
+}
@@ -0,0 +1,570 @@
+package es.hgccarlos.filehost.storage;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Objects striped over the roots of a {@link StoragePool} with a {@link ReedSolomon} code:
+ * each one becomes {@code k} data and {@code m} parity shards, each on a different root, and
+ * stays readable with any {@code m} of them lost (dead disk, deleted or corrupted shard).
+ *
+ * <p>The object is cut into stripes of {@code k} cells; cell {@code j} of a stripe goes to
+ * data shard {@code j} and the stripe's parity cells to the parity shards, so a range read
+ * touches only the data cells it covers. A shard is the file {@code ec/<key>.<index>} on its
+ * root: a header (code, index, cell size, object length), then the CRC32C and bytes of each
+ * of its cells. Small objects get smaller cells (a {@code k}-th of the object) so they are
+ * not padded to {@code k} full cells.
+ *
+ * <p>Shard {@code i} goes to the {@code i}-th root of a ranking of the pool by a hash of the
+ * key (rendezvous hashing), or to another root if that one can't take it; reads look there
+ * first and search the other roots after. A read that finds a shard missing or a cell corrupt
+ * rebuilds the stripe from the others; {@link #repair} rewrites such shards for good.
+ */
+public class ErasureCodedBackend implements StorageBackend {
+
+    /** Directory of each root the shards live under, kept apart from whole files. */
+    public static final String SHARD_DIR = "ec";
+
+    private static final int MAGIC = 0x46484543;  // "FHEC"
+    private static final byte VERSION = 1;
+    private static final int HEADER = 24;
+    private static final int CRC = 4;
+
+    private final String name;
+    private final StoragePool pool;
+    private final ReedSolomon codec;
+    private final int k, n;
+    private final int maxCell;
+    private final AtomicLong degradedReads = new AtomicLong();
+
+    ErasureCodedBackend(String name, StoragePool pool, ReedSolomon codec, int maxCell) {
+        this.name = name;
+        this.pool = pool;
+        this.codec = codec;
+        this.k = codec.dataShards();
+        this.n = codec.totalShards();
+        this.maxCell = maxCell;
+    }
+
+    /** Cell size and length of one object, which fix where everything is in its shards. */
+    record Layout(int cell, long length, int k) {
+        static Layout of(long length, int k, int maxCell) {
+            return new Layout((int) Math.max(1, Math.min(maxCell, (length + k - 1) / k)), length, k);
+        }
+
+        long stripeBytes() { return (long) cell * k; }
+        long stripes() { return (length + stripeBytes() - 1) / stripeBytes(); }
+        long shardSize() { return HEADER + stripes() * (CRC + cell); }
+        long cellOffset(long stripe) { return HEADER + stripe * (CRC + cell); }
+    }
+
+    /** What {@link #repair} found: shards lost (missing or corrupt) and shards written. */
+    public record Repair(int lost, int rewritten, boolean recoverable) { }
+
+    private record Shard(int index, PoolMember root, FileChannel channel, Layout layout) { }
+
+    public StoragePool pool() {
+        return pool;
+    }
+
+    public int dataShards() {
+        return k;
+    }
+
+    public int parityShards() {
+        return n - k;
+    }
+
+    /** Stripes read so far that had to be rebuilt from parity. */
+    public long degradedReads() {
+        return degradedReads.get();
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    // ---- Write ----
+    @Override
+    public void put(String key, InputStream in, long length) throws IOException {
+        Layout layout = Layout.of(length, k, maxCell);
+        List<PoolMember> ranked = rank(key);
+        PoolMember[] targets = place(ranked, layout.shardSize(), new PoolMember[n]);
+        Path[] tmp = new Path[n];
+        FileChannel[] out = new FileChannel[n];
+        int published = 0;
+        try {
+            for (int i = 0; i < n; i++) {
+                tmp[i] = createTemp(targets[i], key, i);
+                out[i] = FileChannel.open(tmp[i], StandardOpenOption.WRITE);
+                writeFully(out[i], header(layout, i));
+            }
+            byte[][] cells = new byte[n][layout.cell()];
+            long remaining = length;
+            for (long s = 0; s < layout.stripes(); s++) {
+                for (int c = 0; c < k; c++) {
+                    int want = (int) Math.min(layout.cell(), remaining);
+                    int got = want == 0 ? 0 : in.readNBytes(cells[c], 0, want);
+                    if (got < want) throw new IOException("Expected " + length + " bytes for " + key + ", got fewer");
+                    Arrays.fill(cells[c], got, layout.cell(), (byte) 0);
+                    remaining -= got;
+                }
+                codec.encodeParity(cells, layout.cell());
+                for (int i = 0; i < n; i++) writeCell(out[i], cells[i], layout.cell());
+            }
+            for (FileChannel ch : out) ch.close();
+            for (; published < n; published++) targets[published].putFile(shardKey(key, published), tmp[published]);
+        } catch (IOException | RuntimeException ex) {
+            // don't leave a partial object behind
+            for (int i = 0; i < published; i++) deleteQuietly(targets[i], shardKey(key, i));
+            throw ex;
+        } finally {
+            for (int i = 0; i < n; i++) {
+                if (out[i] != null) out[i].close();
+                if (tmp[i] != null) Files.deleteIfExists(tmp[i]);
+            }
+        }
+    }
+
+    // shard i on the i-th root of the ranking if it can take it, else on the first root free
+    private PoolMember[] place(List<PoolMember> ranked, long shardSize, PoolMember[] keep) throws IOException {
+        PoolMember[] targets = keep.clone();
+        Set<PoolMember> used = new HashSet<>();
+        for (PoolMember m : targets) if (m != null) used.add(m);
+        for (int i = 0; i < n; i++) {
+            PoolMember preferred = ranked.get(i);
+            if (targets[i] == null && !used.contains(preferred) && preferred.accepts(shardSize)) {
+                targets[i] = preferred;
+                used.add(preferred);
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            if (targets[i] != null) continue;
+            for (PoolMember m : ranked) {
+                if (!used.contains(m) && m.accepts(shardSize)) {
+                    targets[i] = m;
+                    used.add(m);
+                    break;
+                }
+            }
+            if (targets[i] == null) {
+                throw new IOException("Erasure-coded backend '" + name + "' needs " + n + " roots of pool '"
+                        + pool.name() + "' with room for " + shardSize + " bytes");
+            }
+        }
+        return targets;
+    }
+
+    // ---- Read ----
+    @Override
+    public ReadableByteChannel get(String key, long offset, long length) throws IOException {
+        StripeReader reader = new StripeReader(key);
+        try {
+            reader.seek(offset, length);
+        } catch (IOException | RuntimeException ex) {
+            reader.close();
+            throw ex;
+        }
+        return reader;
+    }
+
+    /** Serves a range stripe by stripe, rebuilding the stripes whose data cells can't be read. */
+    private final class StripeReader implements ReadableByteChannel {
+
+        private final String key;
+        private final List<PoolMember> ranked;
+        private final Shard[] shards = new Shard[n];
+        private final boolean[] looked = new boolean[n];
+        private final byte[][] cells = new byte[n][];
+        private Layout layout;
+        private long stripe = -1, position, end;
+        private boolean open = true;
+
+        StripeReader(String key) throws IOException {
+            this.key = key;
+            this.ranked = rank(key);
+            // the layout comes from the first shard found
+            for (int i = 0; i < n && layout == null; i++) {
+                Shard s = shard(i);
+                if (s != null) layout = s.layout();
+            }
+            if (layout == null) throw new NoSuchFileException(key);
+            for (int c = 0; c < k; c++) cells[c] = new byte[layout.cell()];
+        }
+
+        void seek(long offset, long length) throws IOException {
+            if (offset < 0 || length < 0) throw new IOException("Bad range " + offset + "+" + length + " of " + key);
+            position = offset;
+            end = Math.min(layout.length(), offset + length);
+        }
+
+        private Shard shard(int index) {
+            if (!looked[index]) {
+                looked[index] = true;
+                shards[index] = locate(key, index, ranked, layout, true);
+            }
+            return shards[index];
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!open) throw new ClosedChannelException();
+            if (position >= end) return -1;
+            long s = position / layout.stripeBytes();
+            int from = (int) (position - s * layout.stripeBytes());
+            int count = (int) Math.min(dst.remaining(), Math.min(end - position, layout.stripeBytes() - from));
+            if (s != stripe) load(s, from, (int) Math.min(end - position, layout.stripeBytes() - from));
+            for (int done = 0; done < count; ) {
+                int c = (from + done) / layout.cell(), at = (from + done) % layout.cell();
+                int len = Math.min(layout.cell() - at, count - done);
+                dst.put(cells[c], at, len);
+                done += len;
+            }
+            position += count;
+            return count;
+        }
+
+        // the data cells the rest of the range covers in the stripe, or all k if one is unreadable
+        private void load(long s, int from, int count) throws IOException {
+            stripe = -1;
+            boolean[] tried = new boolean[n], present = new boolean[n];
+            boolean missing = false;
+            for (int c = from / layout.cell(); c <= (from + Math.max(count, 1) - 1) / layout.cell(); c++) {
+                tried[c] = true;
+                present[c] = readCell(c, s);
+                missing |= !present[c];
+            }
+            if (missing) {
+                degradedReads.incrementAndGet();
+                int good = 0;
+                for (boolean p : present) if (p) good++;
+                for (int i = 0; i < n && good < k; i++) {
+                    if (tried[i]) continue;
+                    if (i >= k && cells[i] == null) cells[i] = new byte[layout.cell()];
+                    if (present[i] = readCell(i, s)) good++;
+                }
+                if (good < k) {
+                    throw new IOException("Stripe " + s + " of " + key + " on '" + name + "': only " + good
+                            + " of the " + k + " shards needed are readable");
+                }
+                codec.reconstructData(cells, present, layout.cell());
+            }
+            stripe = s;
+        }
+
+        private boolean readCell(int index, long s) {
+            Shard shard = shard(index);
+            if (shard == null) return false;
+            try {
+                return ErasureCodedBackend.readCell(shard, s, cells[index]);
+            } catch (IOException ex) {
+                // the disk is failing: don't try it again for the rest of this read
+                closeQuietly(shard);
+                shards[index] = null;
+                return false;
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+            for (Shard s : shards) closeQuietly(s);
+        }
+    }
+
+    // ---- Delete / stat / list ----
+    @Override
+    public void delete(String key) throws IOException {
+        // shards may have been moved off their ranked root by a repair
+        for (PoolMember m : pool.members()) {
+            for (int i = 0; i < n; i++) m.delete(shardKey(key, i));
+        }
+    }
+
+    /**
+     * Present only if {@code k} whole shards agreeing on the layout are there (their ranked
+     * roots first, then the others): with fewer the object can't be read, and an upload of
+     * the same content has to write it again rather than reference it.
+     */
+    @Override
+    public Optional<ObjectStat> stat(String key) throws IOException {
+        List<PoolMember> ranked = rank(key);
+        boolean[] found = new boolean[n];
+        int readable = 0;
+        Layout layout = null;
+        Instant modified = null;
+        for (boolean search : new boolean[] {false, true}) {
+            for (int i = 0; i < n && readable < k; i++) {
+                if (found[i]) continue;
+                Shard s = locate(key, i, ranked, layout, search);
+                if (s == null) continue;
+                try {
+                    if (s.channel().size() < s.layout().shardSize()) continue;  // truncated
+                    Path path = s.root().localPath(shardKey(key, i)).orElseThrow();
+                    if (modified == null) modified = Files.getLastModifiedTime(path).toInstant();
+                } finally {
+                    closeQuietly(s);
+                }
+                layout = s.layout();
+                found[i] = true;
+                readable++;
+            }
+        }
+        return readable < k ? Optional.empty() : Optional.of(new ObjectStat(key, layout.length(), modified));
+    }
+
+    @Override
+    public Stream<ObjectStat> list(String prefix) throws IOException {
+        Set<String> keys = new LinkedHashSet<>();
+        for (PoolMember m : pool.members()) {
+            try (Stream<ObjectStat> shards = m.list(SHARD_DIR + "/" + prefix)) {
+                shards.map(s -> objectKey(s.key())).filter(Objects::nonNull).forEach(keys::add);
+            }
+        }
+        List<ObjectStat> stats = new ArrayList<>();
+        for (String key : keys) stat(key).ifPresent(stats::add);
+        return stats.stream();
+    }
+
+    // ---- Repair ----
+    /**
+     * Reads every cell of every shard of the object and rewrites the shards that are missing
+     * or have a corrupt cell, plus the ones on a failing or draining root, each on a root
+     * holding no other shard of it. Nothing is written if more than {@code m} are lost.
+     */
+    public Repair repair(String key) throws IOException {
+        List<PoolMember> ranked = rank(key);
+        Shard[] shards = new Shard[n];
+        Path[] tmp = new Path[n];
+        FileChannel[] out = new FileChannel[n];
+        try {
+            Layout layout = null;
+            for (int i = 0; i < n; i++) {
+                shards[i] = locate(key, i, ranked, layout, true);
+                if (shards[i] != null && layout == null) layout = shards[i].layout();
+            }
+            if (layout == null) return new Repair(n, 0, false);
+
+            boolean[] good = new boolean[n];
+            for (int i = 0; i < n; i++) good[i] = shards[i] != null;
+            byte[] cell = new byte[layout.cell()];
+            for (long s = 0; s < layout.stripes(); s++) {
+                for (int i = 0; i < n; i++) {
+                    if (!good[i]) continue;
+                    try {
+                        good[i] = readCell(shards[i], s, cell);
+                    } catch (IOException ex) {
+                        good[i] = false;
+                    }
+                }
+            }
+            int lost = 0, rewritten = 0;
+            boolean[] rewrite = new boolean[n];
+            PoolMember[] keep = new PoolMember[n];
+            for (int i = 0; i < n; i++) {
+                if (!good[i]) lost++;
+                rewrite[i] = !good[i] || leaving(shards[i].root());
+                if (rewrite[i]) rewritten++;
+                else keep[i] = shards[i].root();
+            }
+            if (lost > n - k) return new Repair(lost, 0, false);
+            if (rewritten == 0) return new Repair(0, 0, true);
+
+            PoolMember[] targets = place(ranked, layout.shardSize(), keep);
+            for (int i = 0; i < n; i++) {
+                if (!rewrite[i]) continue;
+                tmp[i] = createTemp(targets[i], key, i);
+                out[i] = FileChannel.open(tmp[i], StandardOpenOption.WRITE);
+                writeFully(out[i], header(layout, i));
+            }
+            byte[][] cells = new byte[n][layout.cell()];
+            for (long s = 0; s < layout.stripes(); s++) {
+                boolean[] present = new boolean[n];
+                int read = 0;
+                for (int i = 0; i < n && read < k; i++) {
+                    if (!good[i]) continue;
+                    if (!readCell(shards[i], s, cells[i])) {
+                        throw new IOException("Shard " + i + " of " + key + " changed while being repaired");
+                    }
+                    present[i] = true;
+                    read++;
+                }
+                codec.reconstruct(cells, present, layout.cell());
+                for (int i = 0; i < n; i++) if (rewrite[i]) writeCell(out[i], cells[i], layout.cell());
+            }
+            for (int i = 0; i < n; i++) {
+                if (!rewrite[i]) continue;
+                out[i].close();
+                targets[i].putFile(shardKey(key, i), tmp[i]);
+                // the old copy, unless the new one just replaced it
+                if (shards[i] != null && shards[i].root() != targets[i]) deleteQuietly(shards[i].root(), shardKey(key, i));
+            }
+            return new Repair(lost, rewritten, true);
+        } finally {
+            for (Shard s : shards) closeQuietly(s);
+            for (int i = 0; i < n; i++) {
+                if (out[i] != null) out[i].close();
+                if (tmp[i] != null) Files.deleteIfExists(tmp[i]);
+            }
+        }
+    }
+
+    private static boolean leaving(PoolMember root) {
+        return root.state() == PoolMember.State.FAILING || root.state() == PoolMember.State.DRAINING;
+    }
+
+    // ---- Shards ----
+    static String shardKey(String key, int index) {
+        return SHARD_DIR + "/" + key + "." + index;
+    }
+
+    // ec/<key>.<index> -> key; null for anything else (e.g. a write in progress)
+    private static String objectKey(String shardKey) {
+        int dot = shardKey.lastIndexOf('.');
+        if (!shardKey.startsWith(SHARD_DIR + "/") || dot < 0 || dot == shardKey.length() - 1) return null;
+        for (int i = dot + 1; i < shardKey.length(); i++) {
+            if (!Character.isDigit(shardKey.charAt(i))) return null;
+        }
+        return shardKey.substring(SHARD_DIR.length() + 1, dot);
+    }
+
+    // the pool's roots by a hash of key and root name: stable, and different for every key
+    private List<PoolMember> rank(String key) {
+        List<PoolMember> ranked = new ArrayList<>(pool.members());
+        Map<PoolMember, Long> score = new HashMap<>();
+        for (PoolMember m : ranked) score.put(m, mix(key.hashCode() * 0x9E3779B97F4A7C15L ^ m.name().hashCode()));
+        ranked.sort(Comparator.comparing(score::get).reversed());
+        return ranked;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    // its ranked root first; with `search`, then every other root
+    private Shard locate(String key, int index, List<PoolMember> ranked, Layout expected, boolean search) {
+        Shard shard = open(ranked.get(index), key, index, expected);
+        if (shard != null || !search) return shard;
+        for (PoolMember m : ranked) {
+            if (m == ranked.get(index)) continue;
+            shard = open(m, key, index, expected);
+            if (shard != null) return shard;
+        }
+        return null;
+    }
+
+    // null if not there, or not a shard of this object as far as the header tells
+    private Shard open(PoolMember root, String key, int index, Layout expected) {
+        Path path = root.localPath(shardKey(key, index)).orElseThrow();
+        if (!Files.isRegularFile(path)) return null;
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            ByteBuffer h = ByteBuffer.allocate(HEADER);
+            readFully(channel, h, 0);
+            h.flip();
+            CRC32C crc = new CRC32C();
+            crc.update(h.array(), 0, HEADER - CRC);
+            boolean valid = h.getInt() == MAGIC && h.get() == VERSION && (h.get() & 0xFF) == k
+                    && (h.get() & 0xFF) == n - k && (h.get() & 0xFF) == index;
+            Layout layout = new Layout(h.getInt(), h.getLong(), k);
+            valid &= h.getInt() == (int) crc.getValue() && layout.cell() > 0 && layout.length() >= 0
+                    && (expected == null || layout.equals(expected));
+            if (valid) return new Shard(index, root, channel, layout);
+        } catch (IOException ex) {
+            // unreadable: same as missing
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+        return null;
+    }
+
+    private ByteBuffer header(Layout layout, int index) {
+        ByteBuffer h = ByteBuffer.allocate(HEADER);
+        h.putInt(MAGIC).put(VERSION).put((byte) k).put((byte) (n - k)).put((byte) index)
+                .putInt(layout.cell()).putLong(layout.length());
+        CRC32C crc = new CRC32C();
+        crc.update(h.array(), 0, HEADER - CRC);
+        h.putInt((int) crc.getValue());
+        return h.flip();
+    }
+
+    /** False if the stored checksum doesn't match the cell. */
+    private static boolean readCell(Shard shard, long stripe, byte[] cell) throws IOException {
+        int size = shard.layout().cell();
+        ByteBuffer buf = ByteBuffer.allocate(CRC + size);
+        readFully(shard.channel(), buf, shard.layout().cellOffset(stripe));
+        buf.flip();
+        int stored = buf.getInt();
+        buf.get(cell, 0, size);
+        CRC32C crc = new CRC32C();
+        crc.update(cell, 0, size);
+        return stored == (int) crc.getValue();
+    }
+
+    private static void writeCell(FileChannel out, byte[] cell, int size) throws IOException {
+        CRC32C crc = new CRC32C();
+        crc.update(cell, 0, size);
+        writeFully(out, ByteBuffer.allocate(CRC).putInt((int) crc.getValue()).flip());
+        writeFully(out, ByteBuffer.wrap(cell, 0, size));
+    }
+
+    private static Path createTemp(PoolMember root, String key, int index) throws IOException {
+        Path target = root.localPath(shardKey(key, index)).orElseThrow();
+        return Files.createTempFile(Files.createDirectories(target.getParent()), ".put-", ".part");
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int read = channel.read(buf, position);
+            if (read < 0) throw new EOFException("Shard ends early");
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) channel.write(buf);
+    }
+
+    private static void closeQuietly(Shard shard) {
+        if (shard == null) return;
+        try {
+            shard.channel().close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static void deleteQuietly(PoolMember root, String shardKey) {
+        try {
+            root.delete(shardKey);
+        } catch (IOException ignored) {
+            // a later delete of the object removes it
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package es.hgccarlos.filehost.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/** Objects on the heap. Nothing survives a restart: meant for tests and throwaway setups. */
+public class InMemoryStorageBackend implements StorageBackend {
+
+    public static final String NAME = "memory";
+
+    private record StoredObject(byte[] data, Instant lastModified) { }
+
+    private final Map<String, StoredObject> objects = new ConcurrentHashMap<>();
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public void put(String key, InputStream in, long length) throws IOException {
+        if (length > Integer.MAX_VALUE - 8) throw new IOException("Object too large for memory: " + length);
+        byte[] data = in.readNBytes((int) length);
+        if (data.length != length) throw new IOException("Expected " + length + " bytes for " + key + ", got " + data.length);
+        objects.put(key, new StoredObject(data, Instant.now()));
+    }
+
+    @Override
+    public ReadableByteChannel get(String key, long offset, long length) throws IOException {
+        byte[] data = object(key).data();
+        int from = (int) Math.min(offset, data.length);
+        int count = (int) Math.min(length, data.length - from);
+        return Channels.newChannel(new ByteArrayInputStream(data, from, count));
+    }
+
+    @Override
+    public void delete(String key) {
+        objects.remove(key);
+    }
+
+    @Override
+    public Optional<ObjectStat> stat(String key) {
+        StoredObject o = objects.get(key);
+        return o == null ? Optional.empty() : Optional.of(new ObjectStat(key, o.data().length, o.lastModified()));
+    }
+
+    @Override
+    public Stream<ObjectStat> list(String prefix) {
+        return objects.entrySet().stream()
+                .filter(e -> e.getKey().startsWith(prefix))
+                .map(e -> new ObjectStat(e.getKey(), e.getValue().data().length, e.getValue().lastModified()));
+    }
+
+    private StoredObject object(String key) throws NoSuchFileException {
+        StoredObject o = objects.get(key);
+        if (o == null) throw new NoSuchFileException(key);
+        return o;
+    }
+}
@@ -0,0 +1,150 @@
+package es.hgccarlos.filehost.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Objects as files under a root directory (the upload dir for {@code local}), the key being
+ * the path relative to it. New objects are written next to their final name and renamed
+ * into place, so a reader never sees half a file.
+ */
+public class LocalStorageBackend implements StorageBackend {
+
+    public static final String NAME = "local";
+
+    private final String name;
+    private final Path root;
+    private final DirectoryCache directories;
+
+    public LocalStorageBackend(String name, Path root, DirectoryCache directories) {
+        this.name = name;
+        this.root = root.toAbsolutePath().normalize();
+        this.directories = directories;
+    }
+
+    public LocalStorageBackend(Path root, DirectoryCache directories) {
+        this(NAME, root, directories);
+    }
+
+    public LocalStorageBackend(Path root) {
+        this(root, new DirectoryCache());
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public void put(String key, InputStream in, long length) throws IOException {
+        Path target = resolve(key);
+        Path tmp = Files.createTempFile(directories.ensure(target.getParent()), ".put-", ".part");
+        try {
+            long copied = Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+            if (copied != length) throw new IOException("Expected " + length + " bytes for " + key + ", got " + copied);
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * A rename when the staged file is on the root's filesystem; otherwise (a root on another
+     * disk) copied next to its final name, renamed into place and the staged file removed.
+     */
+    @Override
+    public void putFile(String key, Path file) throws IOException {
+        Path target = resolve(key);
+        Path dir = directories.ensure(target.getParent());
+        try {
+            moveInto(file, target);
+        } catch (NoSuchFileException stale) {
+            // directory removed since we cached it
+            directories.forget(dir);
+            directories.ensure(dir);
+            moveInto(file, target);
+        }
+    }
+
+    private static void moveInto(Path file, Path target) throws IOException {
+        try {
+            Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+            return;
+        } catch (AtomicMoveNotSupportedException crossDevice) {
+            // EXDEV: fall through to a copy on the target's filesystem
+        }
+        Path tmp = Files.createTempFile(target.getParent(), ".put-", ".part");
+        try {
+            Files.copy(file, tmp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        Files.deleteIfExists(file);
+    }
+
+    @Override
+    public ReadableByteChannel get(String key, long offset, long length) throws IOException {
+        FileChannel channel = FileChannel.open(resolve(key), StandardOpenOption.READ);
+        return new RangeChannel(channel.position(offset), length);
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Files.deleteIfExists(resolve(key));
+    }
+
+    @Override
+    public Optional<ObjectStat> stat(String key) throws IOException {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(resolve(key), BasicFileAttributes.class);
+            return Optional.of(new ObjectStat(key, attrs.size(), attrs.lastModifiedTime().toInstant()));
+        } catch (NoSuchFileException ex) {
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public Stream<ObjectStat> list(String prefix) throws IOException {
+        int slash = prefix.lastIndexOf('/');
+        Path start = slash < 0 ? root : resolve(prefix.substring(0, slash));
+        if (!Files.isDirectory(start)) return Stream.empty();
+        return Files.walk(start)
+                .map(p -> root.relativize(p).toString().replace('\\', '/'))
+                .filter(key -> key.startsWith(prefix))
+                .map(key -> {
+                    try {
+                        BasicFileAttributes attrs = Files.readAttributes(resolve(key), BasicFileAttributes.class);
+                        return attrs.isRegularFile()
+                                ? new ObjectStat(key, attrs.size(), attrs.lastModifiedTime().toInstant())
+                                : null;
+                    } catch (NoSuchFileException gone) {
+                        return null;
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                })
+                .filter(Objects::nonNull);
+    }
+
+    @Override
+    public Optional<Path> localPath(String key) {
+        return Optional.of(resolve(key));
+    }
+
+    private Path resolve(String key) {
+        Path path = root.resolve(key).normalize();
+        if (!path.startsWith(root) || path.equals(root)) {
+            throw new IllegalArgumentException("Key outside the storage root: " + key);
+        }
+        return path;
+    }
+}
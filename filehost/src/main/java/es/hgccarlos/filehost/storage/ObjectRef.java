@@ -0,0 +1,9 @@
+package es.hgccarlos.filehost.storage;
+
+/** An object in a named backend, e.g. one queued for removal. */
+public record ObjectRef(String backend, String key) {
+
+    public static ObjectRef local(String key) {
+        return new ObjectRef(LocalStorageBackend.NAME, key);
+    }
+}
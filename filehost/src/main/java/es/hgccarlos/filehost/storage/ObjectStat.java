@@ -0,0 +1,6 @@
+package es.hgccarlos.filehost.storage;
+
+import java.time.Instant;
+
+/** What a {@link StorageBackend} knows about one object. */
+public record ObjectStat(String key, long size, Instant lastModified) { }
@@ -0,0 +1,190 @@
+package es.hgccarlos.filehost.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * One root (disk) of a {@link StoragePool}: its local backend, registered under the root's
+ * own name so rows record which disk holds a file, plus what placement needs to know about
+ * it. Writes are timed and failures counted; {@link #check()} probes the root and reads its
+ * free space, which writes since then are subtracted from.
+ */
+public class PoolMember implements StorageBackend {
+
+    public enum State {
+        /** Takes new files. */
+        ACTIVE,
+        /** Less than min-free left: no new files, drained down to min-free. */
+        FULL,
+        /** Probe or repeated writes failed: no new files, drained. */
+        FAILING,
+        /** Taken out by the operator: no new files, drained. */
+        DRAINING
+    }
+
+    private static final long MB = 1024 * 1024;
+    // weight of the newest write in the latency average
+    private static final double EWMA_WEIGHT = 0.2;
+    private static final String PROBE = ".probe";
+
+    private final StorageBackend delegate;
+    private final Path root;
+    private final String pool;
+    private final int weight;
+    private final long minFree;
+    private final int maxWriteErrors;
+
+    private volatile boolean draining;
+    private volatile boolean probeFailed;
+    private volatile long totalBytes;
+    private volatile double nanosPerMb;
+    private final AtomicLong freeBytes = new AtomicLong();
+    private final AtomicInteger consecutiveErrors = new AtomicInteger();
+    private final AtomicLong writes = new AtomicLong(), writtenBytes = new AtomicLong(), writeErrors = new AtomicLong();
+
+    PoolMember(String pool, StorageBackend delegate, Path root, int weight, long minFree,
+               int maxWriteErrors, boolean draining) {
+        this.pool = pool;
+        this.delegate = delegate;
+        this.root = root;
+        this.weight = Math.max(1, weight);
+        this.minFree = minFree;
+        this.maxWriteErrors = maxWriteErrors;
+        this.draining = draining;
+    }
+
+    // ---- State ----
+    public State state() {
+        if (draining) return State.DRAINING;
+        if (probeFailed || consecutiveErrors.get() >= maxWriteErrors) return State.FAILING;
+        if (freeBytes.get() < minFree) return State.FULL;
+        return State.ACTIVE;
+    }
+
+    /** Whether a new object of {@code size} bytes may go here. */
+    boolean accepts(long size) {
+        return state() == State.ACTIVE && freeBytes.get() - size >= minFree;
+    }
+
+    /** Writes, syncs and removes a probe file, then reads the free space of the disk. */
+    public void check() {
+        try {
+            Files.createDirectories(root);
+            Path probe = root.resolve(PROBE);
+            Files.write(probe, "probe".getBytes(StandardCharsets.US_ASCII), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE, StandardOpenOption.DSYNC);
+            Files.delete(probe);
+            FileStore store = Files.getFileStore(root);
+            freeBytes.set(store.getUsableSpace());
+            totalBytes = store.getTotalSpace();
+            probeFailed = false;
+            // the disk works again: earlier write errors no longer count
+            consecutiveErrors.set(0);
+        } catch (IOException | RuntimeException ex) {
+            probeFailed = true;
+        }
+    }
+
+    public void setDraining(boolean draining) {
+        this.draining = draining;
+    }
+
+    public String pool() { return pool; }
+    public Path root() { return root; }
+    public int weight() { return weight; }
+    public long minFree() { return minFree; }
+    public long freeBytes() { return freeBytes.get(); }
+    public long totalBytes() { return totalBytes; }
+    /** Recent write time per MB (moving average), 0 before the first write. */
+    public double nanosPerMb() { return nanosPerMb; }
+    public long writes() { return writes.get(); }
+    public long writtenBytes() { return writtenBytes.get(); }
+    public long writeErrors() { return writeErrors.get(); }
+
+    // for tests: as if check() had found this much space
+    void setSpace(long free, long total) {
+        freeBytes.set(free);
+        totalBytes = total;
+    }
+
+    // ---- StorageBackend ----
+    @Override
+    public String name() {
+        return delegate.name();
+    }
+
+    @Override
+    public void put(String key, InputStream in, long length) throws IOException {
+        long start = System.nanoTime();
+        try {
+            delegate.put(key, in, length);
+        } catch (IOException | RuntimeException ex) {
+            failed();
+            throw ex;
+        }
+        written(length, System.nanoTime() - start);
+    }
+
+    @Override
+    public void putFile(String key, Path file) throws IOException {
+        long length = Files.size(file);
+        long start = System.nanoTime();
+        try {
+            delegate.putFile(key, file);
+        } catch (IOException | RuntimeException ex) {
+            failed();
+            throw ex;
+        }
+        written(length, System.nanoTime() - start);
+    }
+
+    @Override
+    public ReadableByteChannel get(String key, long offset, long length) throws IOException {
+        return delegate.get(key, offset, length);
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        delegate.delete(key);
+    }
+
+    @Override
+    public Optional<ObjectStat> stat(String key) throws IOException {
+        return delegate.stat(key);
+    }
+
+    @Override
+    public Stream<ObjectStat> list(String prefix) throws IOException {
+        return delegate.list(prefix);
+    }
+
+    @Override
+    public Optional<Path> localPath(String key) {
+        return delegate.localPath(key);
+    }
+
+    private void failed() {
+        consecutiveErrors.incrementAndGet();
+        writeErrors.incrementAndGet();
+    }
+
+    private synchronized void written(long length, long nanos) {
+        consecutiveErrors.set(0);
+        freeBytes.addAndGet(-length);
+        writes.incrementAndGet();
+        writtenBytes.addAndGet(length);
+        // small files are mostly fixed cost: count them as a whole MB
+        double sample = (double) nanos * MB / Math.max(length, MB);
+        nanosPerMb = nanosPerMb == 0 ? sample : nanosPerMb + EWMA_WEIGHT * (sample - nanosPerMb);
+    }
+}
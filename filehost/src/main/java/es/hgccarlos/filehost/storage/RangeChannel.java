@@ -0,0 +1,41 @@
+package es.hgccarlos.filehost.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/** Reads at most {@code remaining} bytes of another channel, then reports end of stream. */
+final class RangeChannel implements ReadableByteChannel {
+
+    private final ReadableByteChannel source;
+    private long remaining;
+
+    RangeChannel(ReadableByteChannel source, long length) {
+        this.source = source;
+        this.remaining = length;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (remaining <= 0) return -1;
+        int limit = dst.limit();
+        if (dst.remaining() > remaining) dst.limit(dst.position() + (int) remaining);
+        try {
+            int n = source.read(dst);
+            if (n > 0) remaining -= n;
+            return n;
+        } finally {
+            dst.limit(limit);
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return source.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+}
@@ -0,0 +1,188 @@
+package es.hgccarlos.filehost.storage;
+
+import java.util.Arrays;
+
+/**
+ * Reed-Solomon code over GF(2^8): {@code k} data shards and {@code m} parity shards, any
+ * {@code k} of which are enough to rebuild the others. The code is systematic (the data
+ * shards are the data itself); the coding matrix is a Vandermonde matrix multiplied by the
+ * inverse of its top {@code k} rows, which keeps every {@code k} of its rows invertible.
+ *
+ * <p>Shards are byte arrays of the same length; the methods work on their first
+ * {@code length} bytes. Stateless after construction, so one instance can be shared.
+ */
+public final class ReedSolomon {
+
+    // x^8 + x^4 + x^3 + x^2 + 1, generator 2
+    private static final int POLYNOMIAL = 0x11D;
+    private static final int[] LOG = new int[256];
+    private static final int[] EXP = new int[510];
+    // full product table: one lookup per byte in the hot loops
+    private static final byte[][] MUL = new byte[256][256];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < 255; i++) {
+            EXP[i] = EXP[i + 255] = x;
+            LOG[x] = i;
+            x <<= 1;
+            if ((x & 0x100) != 0) x ^= POLYNOMIAL;
+        }
+        for (int a = 1; a < 256; a++) {
+            for (int b = 1; b < 256; b++) MUL[a][b] = (byte) EXP[LOG[a] + LOG[b]];
+        }
+    }
+
+    private final int dataShards;
+    private final int parityShards;
+    // (k + m) x k, identity on top
+    private final int[][] matrix;
+
+    public ReedSolomon(int dataShards, int parityShards) {
+        if (dataShards < 1 || parityShards < 1 || dataShards + parityShards > 256) {
+            throw new IllegalArgumentException("Need 1+ data and 1+ parity shards, 256 at most in all: "
+                    + dataShards + "+" + parityShards);
+        }
+        this.dataShards = dataShards;
+        this.parityShards = parityShards;
+        int total = dataShards + parityShards;
+        int[][] vandermonde = new int[total][dataShards];
+        for (int r = 0; r < total; r++) {
+            for (int c = 0; c < dataShards; c++) vandermonde[r][c] = pow(r, c);
+        }
+        int[][] top = new int[dataShards][];
+        System.arraycopy(vandermonde, 0, top, 0, dataShards);
+        this.matrix = multiply(vandermonde, invert(top));
+    }
+
+    public int dataShards() {
+        return dataShards;
+    }
+
+    public int parityShards() {
+        return parityShards;
+    }
+
+    public int totalShards() {
+        return dataShards + parityShards;
+    }
+
+    /** Computes the parity shards ({@code shards[k..k+m)}) from the data shards. */
+    public void encodeParity(byte[][] shards, int length) {
+        for (int p = dataShards; p < shards.length; p++) Arrays.fill(shards[p], 0, length, (byte) 0);
+        // input-major: each data shard is streamed once through all the parity rows
+        for (int c = 0; c < dataShards; c++) {
+            for (int p = dataShards; p < shards.length; p++) {
+                mulAdd(matrix[p][c], shards[c], shards[p], length);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds every shard not {@code present} (data and parity) from {@code k} present ones.
+     *
+     * @throws IllegalArgumentException if fewer than {@code k} shards are present
+     */
+    public void reconstruct(byte[][] shards, boolean[] present, int length) {
+        reconstruct(shards, present, length, true);
+    }
+
+    /** Same, leaving missing parity shards alone: enough to read the data. */
+    public void reconstructData(byte[][] shards, boolean[] present, int length) {
+        reconstruct(shards, present, length, false);
+    }
+
+    private void reconstruct(byte[][] shards, boolean[] present, int length, boolean parityToo) {
+        int[] rows = new int[dataShards];
+        int found = 0;
+        for (int i = 0; i < shards.length && found < dataShards; i++) {
+            if (present[i]) rows[found++] = i;
+        }
+        if (found < dataShards) {
+            throw new IllegalArgumentException("Only " + found + " of the " + dataShards + " shards needed are present");
+        }
+        boolean dataMissing = false;
+        for (int d = 0; d < dataShards; d++) dataMissing |= !present[d];
+        if (dataMissing) {
+            int[][] sub = new int[dataShards][];
+            for (int r = 0; r < dataShards; r++) sub[r] = matrix[rows[r]];
+            int[][] decode = invert(sub);
+            for (int d = 0; d < dataShards; d++) {
+                if (present[d]) continue;
+                Arrays.fill(shards[d], 0, length, (byte) 0);
+                for (int r = 0; r < dataShards; r++) mulAdd(decode[d][r], shards[rows[r]], shards[d], length);
+            }
+        }
+        if (!parityToo) return;
+        for (int p = dataShards; p < shards.length; p++) {
+            if (present[p]) continue;
+            Arrays.fill(shards[p], 0, length, (byte) 0);
+            for (int c = 0; c < dataShards; c++) mulAdd(matrix[p][c], shards[c], shards[p], length);
+        }
+    }
+
+    // ---- GF(2^8) ----
+    private static void mulAdd(int coefficient, byte[] in, byte[] out, int length) {
+        if (coefficient == 0) return;
+        if (coefficient == 1) {
+            for (int i = 0; i < length; i++) out[i] ^= in[i];
+            return;
+        }
+        byte[] table = MUL[coefficient];
+        for (int i = 0; i < length; i++) out[i] ^= table[in[i] & 0xFF];
+    }
+
+    private static int mul(int a, int b) {
+        return MUL[a][b] & 0xFF;
+    }
+
+    private static int inverse(int a) {
+        return EXP[255 - LOG[a]];
+    }
+
+    private static int pow(int a, int n) {
+        if (n == 0) return 1;
+        if (a == 0) return 0;
+        return EXP[LOG[a] * n % 255];
+    }
+
+    private static int[][] multiply(int[][] a, int[][] b) {
+        int[][] out = new int[a.length][b[0].length];
+        for (int r = 0; r < a.length; r++) {
+            for (int c = 0; c < b[0].length; c++) {
+                int sum = 0;
+                for (int i = 0; i < b.length; i++) sum ^= mul(a[r][i], b[i][c]);
+                out[r][c] = sum;
+            }
+        }
+        return out;
+    }
+
+    // Gauss-Jordan on [m | I]
+    private static int[][] invert(int[][] m) {
+        int n = m.length;
+        int[][] work = new int[n][2 * n];
+        for (int r = 0; r < n; r++) {
+            System.arraycopy(m[r], 0, work[r], 0, n);
+            work[r][n + r] = 1;
+        }
+        for (int col = 0; col < n; col++) {
+            int pivot = col;
+            while (pivot < n && work[pivot][col] == 0) pivot++;
+            if (pivot == n) throw new IllegalArgumentException("Singular matrix");
+            int[] swap = work[col];
+            work[col] = work[pivot];
+            work[pivot] = swap;
+            int scale = inverse(work[col][col]);
+            for (int c = 0; c < 2 * n; c++) work[col][c] = mul(work[col][c], scale);
+            for (int r = 0; r < n; r++) {
+                int factor = work[r][col];
+                if (r == col || factor == 0) continue;
+                for (int c = 0; c < 2 * n; c++) work[r][c] ^= mul(factor, work[col][c]);
+            }
+        }
+        int[][] out = new int[n][n];
+        for (int r = 0; r < n; r++) System.arraycopy(work[r], n, out[r], 0, n);
+        return out;
+    }
+}
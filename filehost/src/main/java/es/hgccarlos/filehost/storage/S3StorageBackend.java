@@ -0,0 +1,376 @@
+package es.hgccarlos.filehost.storage;
+
+import es.hgccarlos.filehost.config.StorageProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.*;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Objects in a bucket of an S3-compatible service (AWS, MinIO, ...), spoken to over the JDK
+ * HTTP client with SigV4 signing, so no SDK is needed. Objects up to {@code part-size} go up
+ * in one PUT; larger ones as a multipart upload with {@code upload-parallelism} parts in
+ * flight. Bodies are streamed and sent as {@code UNSIGNED-PAYLOAD}: a staged file is read
+ * part by part straight from disk, a plain stream holds at most the parts in flight in memory.
+ *
+ * <p>Reads are ranged GETs, so a {@code Range} download fetches only the bytes asked for.
+ */
+@Slf4j
+public class S3StorageBackend implements StorageBackend {
+
+    private final String name;
+    private final String origin;     // scheme://host[:port]
+    private final String host;       // as the HTTP client sends it in the Host header
+    private final String basePath;   // "/bucket" (path style) or "" (virtual host)
+    private final long partSize;
+    private final int uploadParallelism;
+    private final Duration requestTimeout;
+    private final SigV4Signer signer;
+    private final HttpClient http;
+
+    public S3StorageBackend(String name, StorageProperties.S3 config) {
+        if (config.getEndpoint() == null || config.getBucket() == null) {
+            throw new IllegalStateException("storage.s3." + name + " needs an endpoint and a bucket");
+        }
+        if (config.getPartSize().toBytes() < 5L * 1024 * 1024) {
+            throw new IllegalStateException("storage.s3." + name + ".part-size must be at least 5MB");
+        }
+        URI endpoint = URI.create(config.getEndpoint());
+        boolean secure = "https".equalsIgnoreCase(endpoint.getScheme());
+        int port = endpoint.getPort();
+        boolean defaultPort = port == -1 || port == (secure ? 443 : 80);
+        String hostName = config.isPathStyle() ? endpoint.getHost() : config.getBucket() + "." + endpoint.getHost();
+        String endpointPath = Optional.ofNullable(endpoint.getRawPath()).orElse("").replaceAll("/+$", "");
+
+        this.name = name;
+        this.host = defaultPort ? hostName : hostName + ":" + port;
+        this.origin = endpoint.getScheme() + "://" + host;
+        this.basePath = config.isPathStyle() ? endpointPath + "/" + SigV4Signer.encode(config.getBucket(), true) : endpointPath;
+        this.partSize = config.getPartSize().toBytes();
+        this.uploadParallelism = Math.max(1, config.getUploadParallelism());
+        this.requestTimeout = config.getRequestTimeout();
+        this.signer = new SigV4Signer(config.getAccessKey(), config.getSecretKey(), config.getRegion());
+        this.http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(config.getConnectTimeout())
+                .build();
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    // ---- Write ----
+    @Override
+    public void put(String key, InputStream in, long length) throws IOException {
+        if (length <= partSize) {
+            HttpResponse<String> res = send("PUT", key, Map.of(), Map.of(),
+                    BodyPublishers.fromPublisher(BodyPublishers.ofInputStream(() -> in), length),
+                    BodyHandlers.ofString(), null);
+            check(res, res.body(), "PUT", key);
+            return;
+        }
+        // parts are read in order on this thread, the semaphore keeps at most the ones in flight in memory
+        multipart(key, length, (offset, n) -> {
+            byte[] part = in.readNBytes(n);
+            if (part.length != n) throw new EOFException("Stream for " + key + " ended at " + (offset + part.length));
+            return BodyPublishers.ofByteArray(part);
+        });
+    }
+
+    @Override
+    public void putFile(String key, Path file) throws IOException {
+        long size = Files.size(file);
+        if (size <= partSize) {
+            HttpResponse<String> res = send("PUT", key, Map.of(), Map.of(),
+                    BodyPublishers.ofFile(file), BodyHandlers.ofString(), null);
+            check(res, res.body(), "PUT", key);
+        } else {
+            multipart(key, size, (offset, n) -> BodyPublishers.fromPublisher(
+                    BodyPublishers.ofInputStream(() -> region(file, offset, n)), n));
+        }
+        Files.deleteIfExists(file);
+    }
+
+    @FunctionalInterface
+    private interface PartSource {
+        BodyPublisher part(long offset, int length) throws IOException;
+    }
+
+    private void multipart(String key, long length, PartSource parts) throws IOException {
+        HttpResponse<String> created = send("POST", key, Map.of("uploads", ""), Map.of(),
+                BodyPublishers.noBody(), BodyHandlers.ofString(), requestTimeout);
+        check(created, created.body(), "start multipart upload of", key);
+        String uploadId = text(parse(created.body()).getDocumentElement(), "UploadId");
+
+        int count = (int) ((length + partSize - 1) / partSize);
+        String[] etags = new String[count];
+        try {
+            List<Future<?>> sent = new ArrayList<>(count);
+            Semaphore slots = new Semaphore(uploadParallelism);
+            AtomicBoolean failed = new AtomicBoolean();
+            try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (int i = 0; i < count && !failed.get(); i++) {
+                    long offset = i * partSize;
+                    int n = (int) Math.min(partSize, length - offset);
+                    int partNumber = i + 1;
+                    slots.acquireUninterruptibly();
+                    BodyPublisher body;
+                    try {
+                        body = parts.part(offset, n);
+                    } catch (IOException | RuntimeException ex) {
+                        slots.release();
+                        throw ex;
+                    }
+                    sent.add(pool.submit(() -> {
+                        try {
+                            HttpResponse<String> res = send("PUT", key,
+                                    Map.of("partNumber", String.valueOf(partNumber), "uploadId", uploadId),
+                                    Map.of(), body, BodyHandlers.ofString(), null);
+                            check(res, res.body(), "upload part " + partNumber + " of", key);
+                            etags[partNumber - 1] = res.headers().firstValue("ETag")
+                                    .orElseThrow(() -> new IOException("No ETag for part " + partNumber + " of " + key));
+                            return null;
+                        } catch (IOException | RuntimeException ex) {
+                            failed.set(true);
+                            throw ex;
+                        } finally {
+                            slots.release();
+                        }
+                    }));
+                }
+            }
+            for (Future<?> f : sent) await(f);
+
+            StringBuilder xml = new StringBuilder("<CompleteMultipartUpload>");
+            for (int i = 0; i < count; i++) {
+                xml.append("<Part><PartNumber>").append(i + 1).append("</PartNumber><ETag>")
+                        .append(escapeXml(etags[i])).append("</ETag></Part>");
+            }
+            xml.append("</CompleteMultipartUpload>");
+            HttpResponse<String> done = send("POST", key, Map.of("uploadId", uploadId),
+                    Map.of("Content-Type", "application/xml"),
+                    BodyPublishers.ofString(xml.toString()), BodyHandlers.ofString(), null);
+            check(done, done.body(), "complete multipart upload of", key);
+            // S3 may answer 200 and still report an error in the body
+            if (done.body().contains("<Error>")) throw new IOException("S3 complete multipart upload of " + key + ": " + done.body());
+        } catch (IOException | RuntimeException ex) {
+            abortQuietly(key, uploadId);
+            throw ex;
+        }
+    }
+
+    private void abortQuietly(String key, String uploadId) {
+        try {
+            send("DELETE", key, Map.of("uploadId", uploadId), Map.of(),
+                    BodyPublishers.noBody(), BodyHandlers.discarding(), requestTimeout);
+        } catch (IOException ex) {
+            log.warn("Could not abort multipart upload {} of {}", uploadId, key, ex);
+        }
+    }
+
+    // ---- Read ----
+    @Override
+    public ReadableByteChannel get(String key, long offset, long length) throws IOException {
+        if (length <= 0) return Channels.newChannel(InputStream.nullInputStream());
+        HttpResponse<InputStream> res = send("GET", key, Map.of(),
+                Map.of("Range", "bytes=" + offset + "-" + (offset + length - 1)),
+                BodyPublishers.noBody(), BodyHandlers.ofInputStream(), requestTimeout);
+        InputStream body = res.body();
+        if (res.statusCode() / 100 != 2) {
+            try (body) {
+                check(res, new String(body.readAllBytes(), StandardCharsets.UTF_8), "GET", key);
+            }
+        }
+        // a server that ignores Range answers 200 with the whole object
+        if (res.statusCode() == 200 && offset > 0) body.skipNBytes(offset);
+        return new RangeChannel(Channels.newChannel(body), length);
+    }
+
+    @Override
+    public Optional<ObjectStat> stat(String key) throws IOException {
+        HttpResponse<Void> res = send("HEAD", key, Map.of(), Map.of(),
+                BodyPublishers.noBody(), BodyHandlers.discarding(), requestTimeout);
+        if (res.statusCode() == 404) return Optional.empty();
+        check(res, null, "HEAD", key);
+        long size = res.headers().firstValueAsLong("Content-Length").orElse(0);
+        Instant modified = res.headers().firstValue("Last-Modified")
+                .map(v -> ZonedDateTime.parse(v, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant())
+                .orElse(Instant.EPOCH);
+        return Optional.of(new ObjectStat(key, size, modified));
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        HttpResponse<String> res = send("DELETE", key, Map.of(), Map.of(),
+                BodyPublishers.noBody(), BodyHandlers.ofString(), requestTimeout);
+        if (res.statusCode() != 404) check(res, res.body(), "DELETE", key);
+    }
+
+    /** ListObjectsV2, one page (up to 1000 keys) fetched at a time as the stream is consumed. */
+    @Override
+    public Stream<ObjectStat> list(String prefix) {
+        Iterator<ObjectStat> pages = new Iterator<>() {
+            private final Deque<ObjectStat> page = new ArrayDeque<>();
+            private String token;
+            private boolean last;
+
+            @Override
+            public boolean hasNext() {
+                while (page.isEmpty() && !last) fetch();
+                return !page.isEmpty();
+            }
+
+            @Override
+            public ObjectStat next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return page.poll();
+            }
+
+            private void fetch() {
+                Map<String, String> query = new HashMap<>(Map.of("list-type", "2", "prefix", prefix));
+                if (token != null) query.put("continuation-token", token);
+                try {
+                    HttpResponse<String> res = send("GET", null, query, Map.of(),
+                            BodyPublishers.noBody(), BodyHandlers.ofString(), requestTimeout);
+                    check(res, res.body(), "list", prefix);
+                    Element root = parse(res.body()).getDocumentElement();
+                    NodeList contents = root.getElementsByTagName("Contents");
+                    for (int i = 0; i < contents.getLength(); i++) {
+                        Element c = (Element) contents.item(i);
+                        page.add(new ObjectStat(text(c, "Key"), Long.parseLong(text(c, "Size")),
+                                Instant.parse(text(c, "LastModified"))));
+                    }
+                    token = "true".equals(optionalText(root, "IsTruncated")) ? optionalText(root, "NextContinuationToken") : null;
+                    last = token == null;
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(pages, Spliterator.NONNULL), false);
+    }
+
+    // ---- HTTP ----
+    /** Signs and sends one request; {@code key} null addresses the bucket itself. */
+    private <T> HttpResponse<T> send(String method, String key, Map<String, String> query,
+                                     Map<String, String> headers, BodyPublisher body,
+                                     BodyHandler<T> handler, Duration timeout) throws IOException {
+        String path = key == null ? (basePath.isEmpty() ? "/" : basePath)
+                : basePath + "/" + SigV4Signer.encode(key, false);
+        String canonicalQuery = SigV4Signer.canonicalQuery(query);
+        String amzDate = SigV4Signer.amzDate(ZonedDateTime.now(ZoneOffset.UTC));
+
+        SortedMap<String, String> signed = new TreeMap<>();
+        signed.put("host", host);
+        signed.put("x-amz-content-sha256", SigV4Signer.UNSIGNED_PAYLOAD);
+        signed.put("x-amz-date", amzDate);
+        HttpRequest.Builder request = HttpRequest.newBuilder(
+                        URI.create(origin + path + (canonicalQuery.isEmpty() ? "" : "?" + canonicalQuery)))
+                .method(method, body)
+                .header("Authorization", signer.authorization(method, path, query, signed, SigV4Signer.UNSIGNED_PAYLOAD))
+                .header("x-amz-content-sha256", SigV4Signer.UNSIGNED_PAYLOAD)
+                .header("x-amz-date", amzDate);
+        headers.forEach(request::header);
+        // uploads may legitimately take long; everything else gets the request timeout
+        if (timeout != null) request.timeout(timeout);
+        try {
+            return http.send(request.build(), handler);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("S3 " + method + " " + key + " interrupted");
+        }
+    }
+
+    private static void check(HttpResponse<?> res, String body, String operation, String key) throws IOException {
+        int status = res.statusCode();
+        if (status / 100 == 2) return;
+        if (status == 404) throw new NoSuchFileException(key);
+        throw new IOException("S3 " + operation + " " + key + " failed with " + status
+                + (body == null || body.isBlank() ? "" : ": " + body));
+    }
+
+    // ---- Helpers ----
+    private static InputStream region(Path file, long offset, int length) {
+        try {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            return Channels.newInputStream(new RangeChannel(channel.position(offset), length));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static void await(Future<?> f) throws IOException {
+        try {
+            f.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Multipart upload interrupted");
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException io) throw io;
+            if (ex.getCause() instanceof RuntimeException re) throw re;
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    private static Document parse(String xml) throws IOException {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+            return factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+        } catch (Exception ex) {
+            throw new IOException("Unreadable S3 response: " + xml, ex);
+        }
+    }
+
+    private static String text(Element parent, String tag) throws IOException {
+        String value = optionalText(parent, tag);
+        if (value == null) throw new IOException("S3 response without " + tag);
+        return value;
+    }
+
+    private static String optionalText(Element parent, String tag) {
+        NodeList nodes = parent.getElementsByTagName(tag);
+        return nodes.getLength() == 0 ? null : nodes.item(0).getTextContent();
+    }
+
+    private static String escapeXml(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+}
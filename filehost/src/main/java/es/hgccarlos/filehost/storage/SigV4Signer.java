@@ -0,0 +1,115 @@
+package es.hgccarlos.filehost.storage;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * AWS Signature Version 4 for S3 requests, enough of it for {@link S3StorageBackend}: the
+ * signed headers are passed in explicitly and the payload hash is given by the caller
+ * ({@link #UNSIGNED_PAYLOAD} for streamed bodies).
+ */
+final class SigV4Signer {
+
+    static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+    static final DateTimeFormatter AMZ_DATE = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+
+    private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+    private static final String SERVICE = "s3";
+
+    private final String accessKey;
+    private final String secretKey;
+    private final String region;
+
+    SigV4Signer(String accessKey, String secretKey, String region) {
+        this.accessKey = accessKey;
+        this.secretKey = secretKey;
+        this.region = region;
+    }
+
+    /**
+     * Value of the {@code Authorization} header.
+     *
+     * @param canonicalUri   the URI-encoded path, {@code /} kept
+     * @param query          decoded query parameters (sorted and encoded here)
+     * @param headers        the headers to sign, lower-case names; must include host,
+     *                       x-amz-content-sha256 and x-amz-date
+     */
+    String authorization(String method, String canonicalUri, Map<String, String> query,
+                         SortedMap<String, String> headers, String payloadHash) {
+        String amzDate = headers.get("x-amz-date");
+        String date = amzDate.substring(0, 8);
+        String signedHeaders = String.join(";", headers.keySet());
+        String canonicalRequest = method + "\n"
+                + canonicalUri + "\n"
+                + canonicalQuery(query) + "\n"
+                + headers.entrySet().stream().map(e -> e.getKey() + ":" + e.getValue().trim() + "\n")
+                        .collect(Collectors.joining()) + "\n"
+                + signedHeaders + "\n"
+                + payloadHash;
+        String scope = date + "/" + region + "/" + SERVICE + "/aws4_request";
+        String stringToSign = ALGORITHM + "\n" + amzDate + "\n" + scope + "\n" + sha256Hex(canonicalRequest);
+
+        byte[] key = hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), date);
+        key = hmac(key, region);
+        key = hmac(key, SERVICE);
+        key = hmac(key, "aws4_request");
+        String signature = HexFormat.of().formatHex(hmac(key, stringToSign));
+        return ALGORITHM + " Credential=" + accessKey + "/" + scope
+                + ",SignedHeaders=" + signedHeaders + ",Signature=" + signature;
+    }
+
+    static String amzDate(ZonedDateTime now) {
+        return AMZ_DATE.format(now);
+    }
+
+    static String canonicalQuery(Map<String, String> query) {
+        return new TreeMap<>(query).entrySet().stream()
+                .map(e -> encode(e.getKey(), true) + "=" + encode(e.getValue(), true))
+                .collect(Collectors.joining("&"));
+    }
+
+    /** RFC 3986 encoding as SigV4 wants it: unreserved characters kept, {@code /} kept in paths. */
+    static String encode(String s, boolean encodeSlash) {
+        StringBuilder out = new StringBuilder();
+        for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xff);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.' || c == '~' || (c == '/' && !encodeSlash)) {
+                out.append(c);
+            } else {
+                out.append('%').append(String.format("%02X", b & 0xff));
+            }
+        }
+        return out.toString();
+    }
+
+    static String sha256Hex(String s) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(md.digest(s.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] hmac(byte[] key, String data) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
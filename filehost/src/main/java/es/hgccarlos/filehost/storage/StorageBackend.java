@@ -0,0 +1,57 @@
+package es.hgccarlos.filehost.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Where the bytes of stored files live. Objects are addressed by a key shaped like a
+ * relative path ({@code blobs/ab/cd/abcd...}); the database records the backend name and
+ * the key of every file, and nothing above this interface touches the bytes directly.
+ *
+ * <p>Implementations must be safe for concurrent use. A missing key is reported as
+ * {@link java.nio.file.NoSuchFileException} by the read methods.
+ */
+public interface StorageBackend {
+
+    /** Name rows refer to this backend by (buckets, blobs, files, pending unlinks). */
+    String name();
+
+    /** Stores exactly {@code length} bytes from {@code in} under {@code key}, replacing any object there. */
+    void put(String key, InputStream in, long length) throws IOException;
+
+    /**
+     * Stores the contents of a local file and consumes it (the file is gone afterwards).
+     * The default streams it through {@link #put}; backends on the same filesystem rename it.
+     */
+    default void putFile(String key, Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            put(key, in, Files.size(file));
+        }
+        Files.deleteIfExists(file);
+    }
+
+    /** {@code length} bytes starting at {@code offset}; close the channel when done. */
+    ReadableByteChannel get(String key, long offset, long length) throws IOException;
+
+    /** Removes the object if there is one. */
+    void delete(String key) throws IOException;
+
+    /** Size and modification time of the object, empty if there is none. */
+    Optional<ObjectStat> stat(String key) throws IOException;
+
+    /** Objects whose key starts with {@code prefix}, in no particular order; close the stream. */
+    Stream<ObjectStat> list(String prefix) throws IOException;
+
+    /**
+     * The file behind {@code key} if this backend keeps objects on the local filesystem,
+     * so downloads can use sendfile and the content cache can read it directly.
+     */
+    default Optional<Path> localPath(String key) {
+        return Optional.empty();
+    }
+}
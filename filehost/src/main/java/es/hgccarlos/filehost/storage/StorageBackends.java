@@ -0,0 +1,151 @@
+package es.hgccarlos.filehost.storage;
+
+import es.hgccarlos.filehost.config.StorageProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * The configured {@link StorageBackend}s by name: {@code local} (the upload dir) always,
+ * {@code memory} if enabled, and one per {@code storage.local.<name>} and
+ * {@code storage.s3.<name>} entry. Rows written before backends existed have no backend
+ * recorded and mean {@code local}.
+ *
+ * <p>A {@code storage.pools.<name>} groups local roots into a {@link StoragePool}: buckets
+ * can be created on the pool, but rows always record the member (root) a file went to. A
+ * {@code storage.erasure.<name>} is a backend of its own striping files over a pool's roots
+ * ({@link ErasureCodedBackend}).
+ */
+@Slf4j
+@Component
+public class StorageBackends {
+
+    private final Map<String, StorageBackend> backends = new LinkedHashMap<>();
+    private final Map<String, StoragePool> pools = new LinkedHashMap<>();
+    private final String defaultName;
+
+    public StorageBackends(StorageProperties props, DirectoryCache directories,
+                           @Value("${fileEntity.upload-dir}") String uploadDir) {
+        Path uploadRoot = Paths.get(uploadDir).toAbsolutePath().normalize();
+        Map<String, Path> localRoots = new HashMap<>(Map.of(LocalStorageBackend.NAME, uploadRoot));
+        register(new LocalStorageBackend(uploadRoot, directories));
+        if (props.isMemoryEnabled()) register(new InMemoryStorageBackend());
+        props.getLocal().forEach((name, dir) -> {
+            Path root = Paths.get(dir).toAbsolutePath().normalize();
+            // nested roots would see each other's objects as orphans when scrubbed
+            if (root.startsWith(uploadRoot) || uploadRoot.startsWith(root)) {
+                throw new IllegalStateException("storage.local." + name + " (" + root
+                        + ") must not overlap the upload dir " + uploadRoot);
+            }
+            register(new LocalStorageBackend(name, root, directories));
+            localRoots.put(name, root);
+        });
+        props.getS3().forEach((name, config) -> register(new S3StorageBackend(name, config)));
+        props.getPools().forEach((name, config) -> pools.put(name, pool(name, config, localRoots)));
+        props.getErasure().forEach((name, config) -> register(erasureCoded(name, config)));
+        if (!isKnown(props.getDefaultBackend())) {
+            throw new IllegalStateException("storage.default-backend '" + props.getDefaultBackend()
+                    + "' is not configured, known: " + known());
+        }
+        this.defaultName = props.getDefaultBackend();
+        log.info("Storage backends: {} (default {})", known(), defaultName);
+    }
+
+    // members are swapped for their PoolMember, so every write to the root is accounted for
+    private StoragePool pool(String name, StorageProperties.Pool config, Map<String, Path> localRoots) {
+        if (backends.containsKey(name)) {
+            throw new IllegalStateException("storage.pools." + name + " has the name of a backend");
+        }
+        if (config.getMembers().size() < 2) {
+            throw new IllegalStateException("storage.pools." + name + " needs at least two members");
+        }
+        List<PoolMember> members = new ArrayList<>();
+        for (String member : config.getMembers()) {
+            StorageBackend backend = backends.get(member);
+            if (!localRoots.containsKey(member) || backend instanceof PoolMember) {
+                throw new IllegalStateException("storage.pools." + name + ": '" + member
+                        + "' is not a local root, or is already in a pool");
+            }
+            PoolMember m = new PoolMember(name, backend, localRoots.get(member),
+                    config.getWeights().getOrDefault(member, 1), config.getMinFree().toBytes(),
+                    config.getMaxWriteErrors(), config.getDraining().contains(member));
+            backends.put(member, m);
+            members.add(m);
+        }
+        StoragePool pool = new StoragePool(name, members, config.getPlacement());
+        pool.check();
+        return pool;
+    }
+
+    private ErasureCodedBackend erasureCoded(String name, StorageProperties.Erasure config) {
+        StoragePool pool = pools.get(config.getPool());
+        if (pool == null || pools.containsKey(name)) {
+            throw new IllegalStateException("storage.erasure." + name + ".pool must name a storage pool, and "
+                    + name + " must not be one; pools: " + pools.keySet());
+        }
+        ReedSolomon codec = new ReedSolomon(config.getDataShards(), config.getParityShards());
+        if (pool.members().size() < codec.totalShards()) {
+            throw new IllegalStateException("storage.erasure." + name + " needs " + codec.totalShards()
+                    + " roots (one per shard), pool '" + pool.name() + "' has " + pool.members().size());
+        }
+        long cell = config.getCellSize().toBytes();
+        if (cell < 1024 || cell > 64 * 1024 * 1024) {
+            throw new IllegalStateException("storage.erasure." + name + ".cell-size must be between 1KB and 64MB");
+        }
+        return new ErasureCodedBackend(name, pool, codec, (int) cell);
+    }
+
+    /** The backend a row refers to; {@code null} is {@code local}. */
+    public StorageBackend get(String name) {
+        StorageBackend backend = backends.get(name == null ? LocalStorageBackend.NAME : name);
+        if (backend == null) throw new IllegalStateException("Storage backend '" + name + "' is not configured");
+        return backend;
+    }
+
+    /** The backend or pool a new bucket goes on, {@code null} meaning the default one. */
+    public String resolve(String requested) {
+        String name = requested == null || requested.isBlank() ? defaultName : requested;
+        if (!isKnown(name)) {
+            throw new RuntimeException("Unknown storage backend '" + name + "', available: " + known());
+        }
+        return name;
+    }
+
+    /** Where a new object of {@code size} bytes goes: the backend itself, or a root picked by its pool. */
+    public StorageBackend forWrite(String name, long size) throws IOException {
+        StoragePool pool = name == null ? null : pools.get(name);
+        return pool != null ? pool.place(size) : get(name);
+    }
+
+    public Collection<StoragePool> pools() {
+        return pools.values();
+    }
+
+    public List<ErasureCodedBackend> erasureCoded() {
+        return backends.values().stream()
+                .filter(ErasureCodedBackend.class::isInstance)
+                .map(ErasureCodedBackend.class::cast)
+                .toList();
+    }
+
+    private boolean isKnown(String name) {
+        return backends.containsKey(name) || pools.containsKey(name);
+    }
+
+    private Set<String> known() {
+        Set<String> names = new LinkedHashSet<>(backends.keySet());
+        names.addAll(pools.keySet());
+        return names;
+    }
+
+    private void register(StorageBackend backend) {
+        if (backends.putIfAbsent(backend.name(), backend) != null) {
+            throw new IllegalStateException("Storage backend '" + backend.name() + "' configured twice");
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package es.hgccarlos.filehost.storage;
+
+import es.hgccarlos.filehost.config.StorageProperties.Placement;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Several local roots, typically one per disk, that buckets use as one backend. Each new
+ * object goes to one {@link PoolMember} picked by the {@link Placement} policy among those
+ * that are {@link PoolMember.State#ACTIVE} and have room for it; the member's name is what
+ * rows record, so reads go straight to the disk holding the file.
+ */
+public class StoragePool {
+
+    private final String name;
+    private final List<PoolMember> members;
+    private final Placement placement;
+    // smooth weighted round-robin state
+    private final Map<PoolMember, Long> current = new HashMap<>();
+
+    StoragePool(String name, List<PoolMember> members, Placement placement) {
+        this.name = name;
+        this.members = List.copyOf(members);
+        this.placement = placement;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public List<PoolMember> members() {
+        return members;
+    }
+
+    /** Probes every root and refreshes its free space. */
+    public void check() {
+        members.forEach(PoolMember::check);
+    }
+
+    /** The root a new object of {@code size} bytes goes to. */
+    public PoolMember place(long size) throws IOException {
+        return place(size, null);
+    }
+
+    /** Same, never {@code exclude} (the root being drained). */
+    public PoolMember place(long size, PoolMember exclude) throws IOException {
+        List<PoolMember> candidates = members.stream()
+                .filter(m -> m != exclude && m.accepts(size))
+                .toList();
+        if (candidates.isEmpty()) {
+            throw new IOException("No root of storage pool '" + name + "' can take " + size + " more bytes");
+        }
+        if (candidates.size() == 1) return candidates.get(0);
+        return switch (placement) {
+            case FREE_SPACE -> byFreeSpace(candidates, size);
+            case ROUND_ROBIN -> roundRobin(candidates);
+            case LATENCY -> byLatency(candidates);
+        };
+    }
+
+    private static PoolMember byFreeSpace(List<PoolMember> candidates, long size) {
+        double total = 0;
+        double[] room = new double[candidates.size()];
+        for (int i = 0; i < room.length; i++) {
+            PoolMember m = candidates.get(i);
+            room[i] = Math.max(1, m.freeBytes() - size - m.minFree());
+            total += room[i];
+        }
+        double pick = ThreadLocalRandom.current().nextDouble(total);
+        for (int i = 0; i < room.length; i++) {
+            pick -= room[i];
+            if (pick < 0) return candidates.get(i);
+        }
+        return candidates.get(candidates.size() - 1);
+    }
+
+    private synchronized PoolMember roundRobin(List<PoolMember> candidates) {
+        long total = 0;
+        PoolMember best = null;
+        for (PoolMember m : candidates) {
+            long weight = current.merge(m, (long) m.weight(), Long::sum);
+            total += m.weight();
+            if (best == null || weight > current.get(best)) best = m;
+        }
+        current.merge(best, -total, Long::sum);
+        return best;
+    }
+
+    // power of two choices: no herding onto the single fastest disk between samples
+    private static PoolMember byLatency(List<PoolMember> candidates) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int a = random.nextInt(candidates.size());
+        int b = random.nextInt(candidates.size() - 1);
+        if (b >= a) b++;
+        PoolMember first = candidates.get(a), second = candidates.get(b);
+        return first.nanosPerMb() <= second.nanosPerMb() ? first : second;
+    }
+}
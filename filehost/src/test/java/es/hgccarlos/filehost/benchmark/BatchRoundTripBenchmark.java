@@ -0,0 +1,160 @@
+package es.hgccarlos.filehost.benchmark;
+
+import es.hgccarlos.filehost.dto.FileDTO;
+import es.hgccarlos.filehost.dto.Response;
+import es.hgccarlos.filehost.service.BucketService;
+import es.hgccarlos.filehost.service.StorageService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Counts database round-trips (statement executions + commits) for a batch of
+ * uploads and deletes, going file by file (the old upload-many / delete-many loop)
+ * versus the batched endpoints.
+ *
+ * <p>Needs the Postgres from docker-compose; not picked up by a plain {@code mvn test}:
+ * <pre>
+ * mvn test -Dtest=BatchRoundTripBenchmark -Dbenchmark=true -Dsurefire.failIfNoSpecifiedTests=false
+ * </pre>
+ */
+@SpringBootTest
+@Import(BatchRoundTripBenchmark.CountingDataSourceConfig.class)
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class BatchRoundTripBenchmark {
+
+    private static final int BATCH = Integer.getInteger("benchmark.batch", 500);
+    static final AtomicLong ROUND_TRIPS = new AtomicLong();
+
+    @TempDir
+    static Path uploadDir;
+
+    @DynamicPropertySource
+    static void props(DynamicPropertyRegistry registry) {
+        registry.add("fileEntity.upload-dir", () -> uploadDir.toString());
+    }
+
+    @Autowired StorageService storageService;
+    @Autowired BucketService bucketService;
+
+    @Test
+    void roundTripsPerBatch() {
+        String key = (String) bucketService.createBucket("bench-" + UUID.randomUUID()).getData();
+
+        // file by file
+        MultipartFile[] perFile = files("a");
+        List<Long> perFileIds = new ArrayList<>();
+        long uploadBefore = count(() -> {
+            for (MultipartFile f : perFile) {
+                perFileIds.add(((FileDTO) storageService.uploadFile(f, key).getData()).getId());
+            }
+        });
+        long deleteBefore = count(() -> perFileIds.forEach(id -> storageService.deleteFile(id, key)));
+
+        // batched
+        MultipartFile[] batched = files("b");
+        List<Long> batchIds = new ArrayList<>();
+        long uploadAfter = count(() -> {
+            Response r = storageService.uploadFiles(batched, key);
+            @SuppressWarnings("unchecked")
+            List<FileDTO> uploaded = (List<FileDTO>) r.getData();
+            uploaded.forEach(d -> batchIds.add(d.getId()));
+        });
+        assertEquals(BATCH, batchIds.size());
+        long deleteAfter = count(() -> storageService.deleteFiles(batchIds.toArray(new Long[0]), key));
+
+        bucketService.deleteBucket(key);
+
+        System.out.printf("%n%-14s %10s %10s%n", "batch=" + BATCH, "per-file", "batched");
+        System.out.printf("%-14s %10d %10d%n", "upload", uploadBefore, uploadAfter);
+        System.out.printf("%-14s %10d %10d%n%n", "delete", deleteBefore, deleteAfter);
+    }
+
+    private static long count(Runnable work) {
+        long start = ROUND_TRIPS.get();
+        work.run();
+        return ROUND_TRIPS.get() - start;
+    }
+
+    private static MultipartFile[] files(String prefix) {
+        MultipartFile[] files = new MultipartFile[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            byte[] content = (prefix + "-" + i + "-" + UUID.randomUUID()).getBytes();
+            files[i] = new MockMultipartFile("files", prefix + i + ".txt", "text/plain", content);
+        }
+        return files;
+    }
+
+    @TestConfiguration
+    static class CountingDataSourceConfig {
+        @Bean
+        static BeanPostProcessor countingDataSource() {
+            return new BeanPostProcessor() {
+                @Override
+                public Object postProcessAfterInitialization(Object bean, String name) {
+                    return bean instanceof DataSource ds ? new CountingDataSource(ds) : bean;
+                }
+            };
+        }
+    }
+
+    /** Wraps every connection so executes and commits bump {@link #ROUND_TRIPS}. */
+    static class CountingDataSource extends DelegatingDataSource {
+        CountingDataSource(DataSource target) { super(target); }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return wrap(super.getConnection());
+        }
+
+        private static Connection wrap(Connection c) {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, (p, m, args) -> {
+                        if (m.getName().equals("commit")) ROUND_TRIPS.incrementAndGet();
+                        Object r = invoke(c, m, args);
+                        return r instanceof Statement s ? wrap(s) : r;
+                    });
+        }
+
+        private static Object wrap(Statement s) {
+            Class<?> type = s instanceof CallableStatement ? CallableStatement.class
+                    : s instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+            return Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[]{type},
+                    (p, m, args) -> {
+                        if (m.getName().startsWith("execute")) ROUND_TRIPS.incrementAndGet();
+                        return invoke(s, m, args);
+                    });
+        }
+
+        private static Object invoke(Object target, java.lang.reflect.Method m, Object[] args) throws Throwable {
+            try {
+                return m.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package es.hgccarlos.filehost.benchmark;
+
+import es.hgccarlos.filehost.controller.FileStreamer;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 100 clients download the same large file at once, first through the old
+ * {@code Files.readAllBytes} response and then through {@link FileStreamer}.
+ * Prints throughput, heap allocated by Tomcat's request threads per download and
+ * the peak heap seen while the downloads ran.
+ *
+ * <p>Runs an embedded Tomcat on a random port, no database needed:
+ * <pre>
+ * mvn test -Dtest=DownloadHeapBenchmark -Dbenchmark=true -Dsurefire.failIfNoSpecifiedTests=false
+ * </pre>
+ * Tune with {@code -Dbenchmark.clients=100 -Dbenchmark.sizeMb=8}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class DownloadHeapBenchmark {
+
+    private static final int CLIENTS = Integer.getInteger("benchmark.clients", 100);
+    private static final int SIZE_MB = Integer.getInteger("benchmark.sizeMb", 8);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void concurrentLargeDownloads() throws Exception {
+        Path file = dir.resolve("large.bin");
+        byte[] chunk = new byte[1024 * 1024];
+        new Random(42).nextBytes(chunk);
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (int i = 0; i < SIZE_MB; i++) out.write(chunk);
+        }
+
+        Tomcat tomcat = new Tomcat();
+        tomcat.setPort(0);
+        tomcat.setBaseDir(dir.resolve("tomcat").toString());
+        tomcat.getConnector();
+        Context ctx = tomcat.addContext("", null);
+        FileStreamer streamer = new FileStreamer();
+        Tomcat.addServlet(ctx, "bytes", new HttpServlet() {
+            @Override
+            protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+                byte[] body = Files.readAllBytes(file);
+                resp.setContentType("application/octet-stream");
+                resp.setContentLength(body.length);
+                resp.getOutputStream().write(body);
+            }
+        });
+        Tomcat.addServlet(ctx, "stream", new HttpServlet() {
+            @Override
+            protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+                streamer.stream(req, resp, file, "application/octet-stream", null, null, -1);
+            }
+        });
+        ctx.addServletMappingDecoded("/bytes", "bytes");
+        ctx.addServletMappingDecoded("/stream", "stream");
+        tomcat.start();
+
+        try {
+            String base = "http://localhost:" + tomcat.getConnector().getLocalPort();
+            Result bytes = run(base + "/bytes");
+            Result stream = run(base + "/stream");
+
+            System.out.printf("%n%d clients x %d MB%n", CLIENTS, SIZE_MB);
+            System.out.printf("%-10s %8s %18s %14s %8s%n", "", "MB/s", "KB alloc/download", "peak heap MB", "failed");
+            for (var e : List.of(java.util.Map.entry("byte[]", bytes), java.util.Map.entry("streamed", stream))) {
+                Result r = e.getValue();
+                System.out.printf("%-10s %8.0f %18d %14d %8d%n", e.getKey(),
+                        r.mbPerSec, r.allocKbPerDownload, r.peakHeapMb, r.failed);
+            }
+            System.out.println();
+        } finally {
+            tomcat.stop();
+            tomcat.destroy();
+        }
+    }
+
+    private record Result(double mbPerSec, long allocKbPerDownload, long peakHeapMb, int failed) {}
+
+    private static Result run(String url) throws Exception {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        Thread.sleep(200);
+
+        AtomicLong peak = new AtomicLong();
+        Thread sampler = Thread.ofPlatform().daemon().start(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                peak.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+                try { Thread.sleep(2); } catch (InterruptedException e) { return; }
+            }
+        });
+
+        long allocBefore = serverAllocatedBytes();
+        long start = System.nanoTime();
+        int failed = 0;
+        long received = 0;
+        try (HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build()) {
+            List<CompletableFuture<HttpResponse<Void>>> calls = new ArrayList<>();
+            for (int i = 0; i < CLIENTS; i++) {
+                calls.add(client.sendAsync(HttpRequest.newBuilder(URI.create(url)).build(),
+                        HttpResponse.BodyHandlers.discarding()));
+            }
+            for (CompletableFuture<HttpResponse<Void>> call : calls) {
+                try {
+                    HttpResponse<Void> r = call.join();
+                    if (r.statusCode() != 200) failed++;
+                    else received += r.headers().firstValueAsLong("Content-Length").orElse(0);
+                } catch (RuntimeException ex) {
+                    failed++;
+                }
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long allocated = serverAllocatedBytes() - allocBefore;
+        sampler.interrupt();
+        sampler.join();
+        return new Result(received / 1048576.0 / seconds, allocated / 1024 / CLIENTS,
+                peak.get() / 1048576, failed);
+    }
+
+    /** Heap allocated so far by Tomcat's request threads (http-nio-*-exec-*). */
+    private static long serverAllocatedBytes() {
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long[] ids = Thread.getAllStackTraces().keySet().stream()
+                .filter(t -> t.getName().contains("-exec-"))
+                .mapToLong(Thread::threadId).toArray();
+        long total = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(ids)) total += Math.max(bytes, 0);
+        return total;
+    }
+}
@@ -0,0 +1,89 @@
+package es.hgccarlos.filehost.benchmark;
+
+import es.hgccarlos.filehost.storage.ReedSolomon;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reed-Solomon throughput per core, in MB of file data per second (the {@code megabytes}
+ * counter), for one stripe of {@code cell}-sized shards at a time as the erasure-coded
+ * backend does it. {@code encode} computes the parity of a stripe (every upload);
+ * {@code decode} rebuilds {@code m} data cells from the others (a download with as many
+ * shards lost as the code allows). Checksums and disk I/O are left out. One thread by
+ * default, so the numbers are per core; {@code -Dbenchmark.threads=N} runs N to see how it
+ * scales.
+ *
+ * <p>No database needed:
+ * <pre>
+ * mvn test -Dtest=ErasureCodingBenchmark -Dbenchmark=true -Dsurefire.failIfNoSpecifiedTests=false
+ * </pre>
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ErasureCodingBenchmark {
+
+    @Param({"4+2", "6+3", "10+4"})
+    public String code;
+
+    @Param({"262144"})
+    public int cell;
+
+    private ReedSolomon rs;
+    private byte[][] shards;
+    private boolean[] present;
+
+    /** MB of file data processed, reported per second. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Processed {
+        public double megabytes;
+    }
+
+    @Test
+    void run() throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(getClass().getSimpleName())
+                .threads(Integer.getInteger("benchmark.threads", 1))
+                .build()).run();
+    }
+
+    @Setup
+    public void setUp() {
+        String[] km = code.split("\\+");
+        rs = new ReedSolomon(Integer.parseInt(km[0]), Integer.parseInt(km[1]));
+        shards = new byte[rs.totalShards()][cell];
+        Random random = new Random(42);
+        for (int i = 0; i < rs.dataShards(); i++) random.nextBytes(shards[i]);
+        rs.encodeParity(shards, cell);
+        present = new boolean[rs.totalShards()];
+        Arrays.fill(present, true);
+        // worst case: as many data cells missing as there are parity cells
+        for (int i = 0; i < rs.parityShards(); i++) present[i] = false;
+    }
+
+    @Benchmark
+    public byte[][] encode(Processed processed) {
+        rs.encodeParity(shards, cell);
+        processed.megabytes += (double) rs.dataShards() * cell / (1 << 20);
+        return shards;
+    }
+
+    @Benchmark
+    public byte[][] decode(Processed processed) {
+        rs.reconstructData(shards, present, cell);
+        processed.megabytes += (double) rs.dataShards() * cell / (1 << 20);
+        return shards;
+    }
+}
@@ -0,0 +1,135 @@
+package es.hgccarlos.filehost.benchmark;
+
+import es.hgccarlos.filehost.config.JwtAuthFilter;
+import es.hgccarlos.filehost.repository.UserRepository;
+import es.hgccarlos.filehost.service.JwtService;
+import es.hgccarlos.filehost.service.UserStatusCache;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.FilterChain;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Cost of {@link JwtAuthFilter} for one request carrying a bearer token. {@code legacy}
+ * reproduces the old service: signing key and parser rebuilt on every call and the
+ * token verified twice (validate, then read the subject). {@code current} is the
+ * cached key/parser plus the verified-claims cache, still loading the user through
+ * {@code UserDetailsService}; {@code stateless} takes the authorities from the token and
+ * only checks the (cached) user status. The user lookup is an in-memory stub, so the
+ * numbers leave out the database round trip the real {@code UserDetailsService} makes.
+ * With {@code tokens=100000} every request brings a token the cache (10 000 entries)
+ * hasn't seen, which isolates the single-parse gain from the cache hits.
+ *
+ * <p>No database needed:
+ * <pre>
+ * mvn test -Dtest=JwtAuthFilterBenchmark -Dbenchmark=true -Dsurefire.failIfNoSpecifiedTests=false
+ * </pre>
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtAuthFilterBenchmark {
+
+    private static final String SECRET = "hjd8o7SHD8asdh8S7D8gsadOHA8H&5SD7AD1|@#";
+    private static final UserDetails USER = User.withUsername("alice").password("x").roles("USER").build();
+    private static final FilterChain NOOP = (req, res) -> { };
+
+    @Param({"legacy", "current", "stateless"})
+    public String impl;
+
+    @Param({"1", "100000"})
+    public int tokens;
+
+    private JwtAuthFilter filter;
+    private MockHttpServletRequest[] requests;
+    private int next;
+
+    @Test
+    void run() throws Exception {
+        new Runner(new OptionsBuilder().include(getClass().getSimpleName()).build()).run();
+    }
+
+    @Setup
+    public void setUp() {
+        JwtService jwt = impl.equals("legacy") ? new LegacyJwtService() : new JwtService(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(jwt, "secret", SECRET);
+        ReflectionTestUtils.setField(jwt, "expirationMs", 3_600_000L);
+        ReflectionTestUtils.setField(jwt, "cacheSize", 10_000L);
+        ReflectionTestUtils.setField(jwt, "cacheTtl", Duration.ofMinutes(5));
+        jwt.init();
+        UserRepository users = mock(UserRepository.class);
+        when(users.findStatusByUsername(anyString())).thenReturn(Optional.of(new UserRepository.Status() {
+            public String getRole() { return "USER"; }
+            public boolean isEnabled() { return true; }
+        }));
+        UserStatusCache status = new UserStatusCache(users, new SimpleMeterRegistry(), "admin", Duration.ofSeconds(30), 10_000);
+        filter = new JwtAuthFilter(jwt, username -> USER, status);
+        ReflectionTestUtils.setField(filter, "stateless", impl.equals("stateless"));
+
+        requests = new MockHttpServletRequest[tokens];
+        for (int i = 0; i < tokens; i++) {
+            requests[i] = new MockHttpServletRequest("GET", "/api/files/list");
+            requests[i].addHeader("Authorization", "Bearer " + jwt.generateToken("alice-" + i, List.of("USER")));
+        }
+    }
+
+    @Benchmark
+    public Object authenticate() throws Exception {
+        MockHttpServletRequest req = requests[next++ % tokens];
+        filter.doFilter(req, new MockHttpServletResponse(), NOOP);
+        Object auth = SecurityContextHolder.getContext().getAuthentication();
+        SecurityContextHolder.clearContext();
+        return auth;
+    }
+
+    /** The service before signing key, parser and claims were cached. */
+    static class LegacyJwtService extends JwtService {
+        LegacyJwtService() {
+            super(new SimpleMeterRegistry());
+        }
+
+        @Override
+        public Optional<Claims> verify(String token) {
+            try {
+                parse(token);                        // validateToken
+                return Optional.of(parse(token));    // getUsernameFromToken
+            } catch (JwtException | IllegalArgumentException e) {
+                return Optional.empty();
+            }
+        }
+
+        private static Claims parse(String token) {
+            return Jwts.parserBuilder()
+                    .setSigningKey(Keys.hmacShaKeyFor(SECRET.getBytes()))
+                    .build()
+                    .parseClaimsJws(token)
+                    .getBody();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package es.hgccarlos.filehost.config;
+
+import es.hgccarlos.filehost.model.Bucket;
+import es.hgccarlos.filehost.service.BucketService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class BandwidthFilterTest {
+
+    private static final int SIZE = 64 * 1024;
+
+    private final SimpleMeterRegistry meters = new SimpleMeterRegistry();
+    private final BucketService bucketService = mock(BucketService.class);
+    private final Bucket bucket = new Bucket(7L, "media", "/data/media", "key-7", LocalDateTime.now());
+    private BandwidthProperties props;
+
+    @BeforeEach
+    void setUp() {
+        props = new BandwidthProperties();
+        props.setBurst(Duration.ofMillis(1));
+        when(bucketService.getBucketByApiKey("key-7")).thenReturn(Optional.of(bucket));
+    }
+
+    private BandwidthFilter filter() {
+        return new BandwidthFilter(props, new RateLimitProperties(), bucketService, meters);
+    }
+
+    private static MockHttpServletRequest download() {
+        MockHttpServletRequest req = new MockHttpServletRequest("GET", "/api/files/download/1");
+        req.addHeader("X-API-KEY", "key-7");
+        req.setAttribute(BandwidthFilter.SENDFILE_SUPPORTED, Boolean.TRUE);
+        return req;
+    }
+
+    /** Writes SIZE bytes to the response the way FileStreamer does. */
+    private static MockFilterChain streaming(AtomicReference<ServletRequest> seen) {
+        return new MockFilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException {
+                seen.set(request);
+                response.getOutputStream().write(new byte[SIZE], 0, SIZE);
+            }
+        };
+    }
+
+    @Test
+    @DisplayName("no limits ➞ requests pass untouched")
+    void disabled() throws Exception {
+        AtomicReference<ServletRequest> seen = new AtomicReference<>();
+        MockHttpServletRequest req = download();
+        filter().doFilter(req, new MockHttpServletResponse(), streaming(seen));
+
+        assertSame(req, seen.get());
+        verifyNoInteractions(bucketService);
+    }
+
+    @Test
+    @DisplayName("download ➞ bucket override paces the body, sendfile off, metrics recorded")
+    void downloadPaced() throws Exception {
+        props.setPerBucket(DataSize.ofMegabytes(100));
+        props.setBuckets(Map.of("media", DataSize.ofKilobytes(256)));
+        AtomicReference<ServletRequest> seen = new AtomicReference<>();
+        MockHttpServletResponse res = new MockHttpServletResponse();
+
+        long start = System.nanoTime();
+        filter().doFilter(download(), res, streaming(seen));
+        long elapsed = System.nanoTime() - start;
+
+        assertEquals(SIZE, res.getContentAsByteArray().length);
+        assertTrue(elapsed >= Duration.ofMillis(200).toNanos(), "took " + elapsed / 1_000_000 + "ms");
+        assertNull(seen.get().getAttribute(BandwidthFilter.SENDFILE_SUPPORTED));
+        assertTrue(meters.get("bandwidth.throttled.bytes")
+                .tags("direction", "download", "limitedBy", "bucket").counter().count() > 0);
+        assertTrue(meters.get("bandwidth.wait")
+                .tags("direction", "download", "limitedBy", "bucket").timer().count() > 0);
+        assertTrue(meters.find("bandwidth.throttled.bytes").tagKeys("bucketId").counters().isEmpty());
+    }
+
+    @Test
+    @DisplayName("upload ➞ the request body is read at the client's rate")
+    void uploadPaced() throws Exception {
+        props.setPerClient(DataSize.ofKilobytes(256));
+        MockHttpServletRequest req = new MockHttpServletRequest("PUT", "/api/files/upload/a.bin");
+        req.addHeader("bucketKey", "key-7");
+        req.setContent(new byte[SIZE]);
+        long[] read = new long[1];
+        MockFilterChain chain = new MockFilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException {
+                read[0] = request.getInputStream().transferTo(OutputStream.nullOutputStream());
+            }
+        };
+
+        long start = System.nanoTime();
+        filter().doFilter(req, new MockHttpServletResponse(), chain);
+        long elapsed = System.nanoTime() - start;
+
+        assertEquals(SIZE, read[0]);
+        assertTrue(elapsed >= Duration.ofMillis(200).toNanos(), "took " + elapsed / 1_000_000 + "ms");
+        assertTrue(meters.get("bandwidth.throttled.bytes")
+                .tags("direction", "upload", "limitedBy", "client").counter().count() > 0);
+    }
+
+    @Test
+    @DisplayName("other endpoints ➞ never shaped")
+    void otherEndpoints() throws Exception {
+        props.setGlobal(DataSize.ofKilobytes(1));
+        AtomicReference<ServletRequest> seen = new AtomicReference<>();
+        MockHttpServletRequest req = new MockHttpServletRequest("GET", "/api/files/list");
+
+        long start = System.nanoTime();
+        filter().doFilter(req, new MockHttpServletResponse(), streaming(seen));
+
+        assertSame(req, seen.get());
+        assertTrue(System.nanoTime() - start < Duration.ofSeconds(5).toNanos());
+        assertTrue(meters.find("bandwidth.throttled.bytes").counters().stream().allMatch(c -> c.count() == 0));
+    }
+}
@@ -0,0 +1,122 @@
+package es.hgccarlos.filehost.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IpRateLimitFilterTest {
+
+    private final SimpleMeterRegistry meters = new SimpleMeterRegistry();
+    private RateLimitProperties props;
+
+    @BeforeEach
+    void setUp() {
+        props = new RateLimitProperties();
+        props.setLimitForPeriod(3);
+        props.setLimitRefreshPeriod(Duration.ofMinutes(1));
+        props.setTimeoutDuration(Duration.ZERO);
+        props.setWhitelist(List.of("127.0.0.1"));
+        props.setTrustedProxies(List.of("10.0.0.0/8"));
+    }
+
+    private static MockHttpServletResponse call(IpRateLimitFilter filter, String remote, String forwardedFor) throws Exception {
+        MockHttpServletRequest req = new MockHttpServletRequest("GET", "/api/files/list");
+        req.setRemoteAddr(remote);
+        if (forwardedFor != null) req.addHeader("X-Forwarded-For", forwardedFor);
+        MockHttpServletResponse res = new MockHttpServletResponse();
+        filter.doFilter(req, res, new MockFilterChain());
+        return res;
+    }
+
+    @Test
+    @DisplayName("limit ➞ burst of limitForPeriod, then 429 with Retry-After")
+    void burstThenRefuse() throws Exception {
+        IpRateLimitFilter filter = new IpRateLimitFilter(props, meters);
+
+        for (int i = 2; i >= 0; i--) {
+            MockHttpServletResponse ok = call(filter, "203.0.113.7", null);
+            assertEquals(200, ok.getStatus());
+            assertEquals("3", ok.getHeader("RateLimit-Limit"));
+            assertEquals(String.valueOf(i), ok.getHeader("RateLimit-Remaining"));
+            assertEquals("3;w=60", ok.getHeader("RateLimit-Policy"));
+        }
+        MockHttpServletResponse refused = call(filter, "203.0.113.7", null);
+        assertEquals(429, refused.getStatus());
+        assertEquals("0", refused.getHeader("RateLimit-Remaining"));
+        assertEquals("20", refused.getHeader("Retry-After"));
+        assertEquals("60", refused.getHeader("RateLimit-Reset"));
+        assertEquals(1, meters.get("ratelimit.rejected").counter().count());
+
+        assertEquals(200, call(filter, "203.0.113.8", null).getStatus());
+        assertEquals(200, call(filter, "127.0.0.1", null).getStatus());
+    }
+
+    @Test
+    @DisplayName("X-Forwarded-For ➞ only honoured behind a trusted proxy")
+    void forwardedForTrust() throws Exception {
+        IpRateLimitFilter filter = new IpRateLimitFilter(props, meters);
+
+        // untrusted peer: the header is ignored, all three share the peer's limit
+        for (int i = 0; i < 3; i++) call(filter, "198.51.100.1", "192.0.2." + i);
+        assertEquals(429, call(filter, "198.51.100.1", "192.0.2.99").getStatus());
+
+        // behind our proxies: each client gets its own limit, spoofed left entries don't matter
+        for (int i = 0; i < 3; i++) call(filter, "10.0.0.5", "1.1.1.1, 192.0.2.50, 10.0.0.9");
+        assertEquals(429, call(filter, "10.0.0.5", "2.2.2.2, 192.0.2.50").getStatus());
+        assertEquals(200, call(filter, "10.0.0.5", "192.0.2.51").getStatus());
+        assertEquals(200, call(filter, "10.0.0.5", "garbage, 10.0.0.9").getStatus());
+    }
+
+    @Test
+    @DisplayName("IPv6 ➞ addresses of one /64 share a limit")
+    void ipv6Prefix() throws Exception {
+        IpRateLimitFilter filter = new IpRateLimitFilter(props, meters);
+
+        call(filter, "2001:db8:1:1::1", null);
+        call(filter, "2001:db8:1:1::2", null);
+        call(filter, "2001:db8:1:1:aaaa:bbbb:cccc:dddd", null);
+        assertEquals(429, call(filter, "2001:db8:1:1::ffff", null).getStatus());
+        assertEquals(200, call(filter, "2001:db8:1:2::1", null).getStatus());
+    }
+
+    @Test
+    @DisplayName("table ➞ fixed size, throttled clients are evicted only when it is full")
+    void boundedTable() throws Exception {
+        props.setMaxTrackedIps(64);
+        IpRateLimitFilter filter = new IpRateLimitFilter(props, meters);
+
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(200, call(filter, "198.18." + (i >> 8) + "." + (i & 255), null).getStatus());
+        }
+        assertTrue(meters.get("ratelimit.evicted").functionCounter().count() > 9_000);
+    }
+
+    @Test
+    @DisplayName("IpAddresses ➞ parses IPv4, IPv6 and mapped forms without allocating")
+    void parseAddresses() {
+        long[] a = new long[2];
+        assertTrue(IpAddresses.parse("192.168.1.20", 0, 12, a));
+        assertArrayEquals(new long[]{0, 0xFFFF_C0A8_0114L}, a);
+        assertTrue(IpAddresses.parse(" ::ffff:192.168.1.20 ", 0, 21, a));
+        assertArrayEquals(new long[]{0, 0xFFFF_C0A8_0114L}, a);
+        assertTrue(IpAddresses.parse("[2001:db8::8a2e:370:7334]", 0, 25, a));
+        assertArrayEquals(new long[]{0x2001_0db8_0000_0000L, 0x0000_8a2e_0370_7334L}, a);
+        assertTrue(IpAddresses.parse("0:0:0:0:0:0:0:1", 0, 15, a));
+        assertArrayEquals(new long[]{0, 1}, a);
+        assertTrue(IpAddresses.parse("fe80::1%eth0", 0, 12, a));
+        assertArrayEquals(new long[]{0xfe80_0000_0000_0000L, 1}, a);
+
+        for (String bad : List.of("", "1.2.3", "1.2.3.256", "1.2.3.4.5", "1::2::3", ":1::", "1:2:3:4:5:6:7:8:9", "12345::", "g::1")) {
+            assertFalse(IpAddresses.parse(bad, 0, bad.length(), a), bad);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package es.hgccarlos.filehost.config;
+
+import es.hgccarlos.filehost.repository.UserRepository;
+import es.hgccarlos.filehost.service.JwtService;
+import es.hgccarlos.filehost.service.UserStatusCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class JwtAuthFilterTest {
+
+    @Mock UserRepository userRepository;
+    @Mock UserDetailsService userDetailsService;
+
+    private JwtService jwt;
+    private JwtAuthFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        SimpleMeterRegistry meters = new SimpleMeterRegistry();
+        jwt = new JwtService(meters);
+        ReflectionTestUtils.setField(jwt, "secret", "hjd8o7SHD8asdh8S7D8gsadOHA8H&5SD7AD1|@#");
+        ReflectionTestUtils.setField(jwt, "expirationMs", 3_600_000L);
+        ReflectionTestUtils.setField(jwt, "cacheSize", 100L);
+        ReflectionTestUtils.setField(jwt, "cacheTtl", Duration.ofMinutes(5));
+        jwt.init();
+
+        UserStatusCache status = new UserStatusCache(userRepository, meters, "admin", Duration.ofSeconds(30), 100);
+        filter = new JwtAuthFilter(jwt, userDetailsService, status);
+        ReflectionTestUtils.setField(filter, "stateless", true);
+    }
+
+    @AfterEach
+    void clearContext() {
+        SecurityContextHolder.clearContext();
+    }
+
+    private Authentication authenticate(String token) throws Exception {
+        MockHttpServletRequest req = new MockHttpServletRequest("GET", "/api/files/list");
+        req.addHeader("Authorization", "Bearer " + token);
+        filter.doFilter(req, new MockHttpServletResponse(), new MockFilterChain());
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        SecurityContextHolder.clearContext();
+        return auth;
+    }
+
+    private static UserRepository.Status status(String role, boolean enabled) {
+        return new UserRepository.Status() {
+            public String getRole() { return role; }
+            public boolean isEnabled() { return enabled; }
+        };
+    }
+
+    @Test
+    @DisplayName("stateless ➞ authorities from the roles claim, user checked once per TTL")
+    void statelessUsesClaims() throws Exception {
+        when(userRepository.findStatusByUsername("alice")).thenReturn(Optional.of(status("USER", true)));
+        String token = jwt.generateToken("alice", List.of("USER"));
+
+        for (int i = 0; i < 3; i++) {
+            Authentication auth = authenticate(token);
+            assertEquals("alice", auth.getName());
+            assertEquals(List.of("ROLE_USER"), auth.getAuthorities().stream().map(GrantedAuthority::getAuthority).toList());
+        }
+        verify(userRepository, times(1)).findStatusByUsername("alice");
+        verifyNoInteractions(userDetailsService);
+    }
+
+    @Test
+    @DisplayName("stateless ➞ disabled users and stale roles are refused")
+    void statelessRevocation() throws Exception {
+        when(userRepository.findStatusByUsername("bob")).thenReturn(Optional.of(status("USER", false)));
+        when(userRepository.findStatusByUsername("carol")).thenReturn(Optional.of(status("USER", true)));
+        when(userRepository.findStatusByUsername("gone")).thenReturn(Optional.empty());
+
+        assertNull(authenticate(jwt.generateToken("bob", List.of("USER"))));
+        assertNull(authenticate(jwt.generateToken("carol", List.of("ADMIN"))));
+        assertNull(authenticate(jwt.generateToken("gone", List.of("USER"))));
+    }
+
+    @Test
+    @DisplayName("invalid token ➞ request continues unauthenticated")
+    void invalidToken() throws Exception {
+        assertNull(authenticate("garbage"));
+        verifyNoInteractions(userRepository, userDetailsService);
+    }
+}
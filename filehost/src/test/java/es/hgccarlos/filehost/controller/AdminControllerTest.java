@@ -0,0 +1,125 @@
+package es.hgccarlos.filehost.controller;
+
+import es.hgccarlos.filehost.config.ApiKeyFilter;
+import es.hgccarlos.filehost.config.BandwidthFilter;
+import es.hgccarlos.filehost.config.IpRateLimitFilter;
+import es.hgccarlos.filehost.config.JwtAuthFilter;
+import es.hgccarlos.filehost.dto.ScrubReport;
+import es.hgccarlos.filehost.dto.LayoutMigrationReport;
+import es.hgccarlos.filehost.dto.StorageRootStatus;
+import es.hgccarlos.filehost.service.LayoutMigrator;
+import es.hgccarlos.filehost.service.StorageRootMonitor;
+import es.hgccarlos.filehost.service.StorageScrubber;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.FilterType;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import static org.hamcrest.Matchers.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@WebMvcTest(
+        controllers = AdminController.class,
+        excludeFilters = {
+                @ComponentScan.Filter(type = FilterType.ASSIGNABLE_TYPE, classes = {
+                        IpRateLimitFilter.class,
+                        BandwidthFilter.class,
+                        JwtAuthFilter.class,
+                        ApiKeyFilter.class
+                })
+        }
+)
+@AutoConfigureMockMvc(addFilters = false)
+class AdminControllerTest {
+
+    @Autowired MockMvc mvc;
+    @MockBean StorageScrubber scrubber;
+    @MockBean LayoutMigrator layoutMigrator;
+    @MockBean StorageRootMonitor rootMonitor;
+
+    @Test
+    @DisplayName("GET /api/admin/scrub ➞ 200 + last report")
+    @WithMockUser(username = "admin", roles = "ADMIN")
+    void lastScrub() throws Exception {
+        LocalDateTime start = LocalDateTime.of(2026, 1, 1, 3, 0);
+        ScrubReport report = new ScrubReport(start, start.plusSeconds(90), "quarantine",
+                1200, 1100, 3, 4096, 2, 0, 0);
+        Mockito.when(scrubber.lastReport()).thenReturn(Optional.of(report));
+
+        mvc.perform(get("/api/admin/scrub"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.orphans", is(3)))
+                .andExpect(jsonPath("$.data.danglingRows", is(2)))
+                .andExpect(jsonPath("$.data.durationMs", is(90_000)));
+    }
+
+    @Test
+    @DisplayName("POST /api/admin/scrub ➞ 202, or 409 while one runs")
+    @WithMockUser(username = "admin", roles = "ADMIN")
+    void startScrub() throws Exception {
+        Mockito.when(scrubber.start()).thenReturn(true, false);
+
+        mvc.perform(post("/api/admin/scrub"))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.code", is("202")));
+        mvc.perform(post("/api/admin/scrub"))
+                .andExpect(status().isConflict())
+                .andExpect(jsonPath("$.code", is("SCRUB_RUNNING")));
+    }
+
+    @Test
+    @DisplayName("GET/POST /api/admin/layout-migration ➞ progress, 409 while one runs")
+    @WithMockUser(username = "admin", roles = "ADMIN")
+    void layoutMigration() throws Exception {
+        LayoutMigrationReport progress = new LayoutMigrationReport(true, LocalDateTime.now(), null,
+                1500, 20, 300, 1);
+        Mockito.when(layoutMigrator.status()).thenReturn(Optional.of(progress));
+        Mockito.when(layoutMigrator.isRunning()).thenReturn(true);
+        Mockito.when(layoutMigrator.start()).thenReturn(false);
+
+        mvc.perform(get("/api/admin/layout-migration"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.message", is("Migration in progress")))
+                .andExpect(jsonPath("$.data.blobsMoved", is(1500)))
+                .andExpect(jsonPath("$.data.finishedAt", nullValue()));
+        mvc.perform(post("/api/admin/layout-migration"))
+                .andExpect(status().isConflict())
+                .andExpect(jsonPath("$.code", is("MIGRATION_RUNNING")));
+    }
+
+    @Test
+    @DisplayName("GET /api/admin/storage/roots, POST .../drain ➞ 200, 404 for an unknown root")
+    @WithMockUser(username = "admin", roles = "ADMIN")
+    void storageRoots() throws Exception {
+        StorageRootStatus disk1 = new StorageRootStatus("jbod", "disk1", "/mnt/disk1", "ACTIVE",
+                400L << 30, 1000L << 30, 4.5, 120, 0);
+        StorageRootStatus disk2 = new StorageRootStatus("jbod", "disk2", "/mnt/disk2", "DRAINING",
+                100L << 30, 1000L << 30, 6.0, 80, 1);
+        Mockito.when(rootMonitor.status()).thenReturn(List.of(disk1, disk2));
+        Mockito.when(rootMonitor.setDraining("disk2", true)).thenReturn(Optional.of(disk2));
+        Mockito.when(rootMonitor.setDraining("disk9", true)).thenReturn(Optional.empty());
+
+        mvc.perform(get("/api/admin/storage/roots"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data", hasSize(2)))
+                .andExpect(jsonPath("$.data[1].state", is("DRAINING")));
+        mvc.perform(post("/api/admin/storage/roots/disk2/drain"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.root", is("disk2")));
+        mvc.perform(post("/api/admin/storage/roots/disk9/drain"))
+                .andExpect(status().isNotFound())
+                .andExpect(jsonPath("$.code", is("ROOT_NOT_FOUND")));
+    }
+}
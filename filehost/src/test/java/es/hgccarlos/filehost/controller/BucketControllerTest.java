@@ -6,6 +6,7 @@ import es.hgccarlos.filehost.dto.SimpleBuketRequest;
 import es.hgccarlos.filehost.dto.Response;
 import es.hgccarlos.filehost.model.Bucket;
 import es.hgccarlos.filehost.service.BucketService;
+import es.hgccarlos.filehost.config.BandwidthFilter;
 import es.hgccarlos.filehost.config.IpRateLimitFilter;
 import es.hgccarlos.filehost.config.JwtAuthFilter;
 import es.hgccarlos.filehost.config.ApiKeyFilter;
@@ -35,6 +36,7 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
                 // quitamos de este slice todos los filtros que son @Component
                 @ComponentScan.Filter(type = FilterType.ASSIGNABLE_TYPE, classes = {
                         IpRateLimitFilter.class,
+                        BandwidthFilter.class,
                         JwtAuthFilter.class,
                         ApiKeyFilter.class
                 })
@@ -54,12 +56,12 @@ class BucketControllerTest {
     @WithMockUser(username = ADMIN, roles = "ADMIN")
     void createBucket() throws Exception {
         Response fake = new Response("ok","200","created",null,"new-api-key");
-        Mockito.when(bucketService.createBucket("myBucket"))
+        Mockito.when(bucketService.createBucket("myBucket", "archive"))
                 .thenReturn(fake);
 
         mvc.perform(post("/api/buckets/create")
                         .contentType(MediaType.APPLICATION_JSON)
-                        .content(mapper.writeValueAsString(new CreateBucketRequest("myBucket"))))
+                        .content(mapper.writeValueAsString(new CreateBucketRequest("myBucket", "archive"))))
                 .andExpect(status().isCreated())
                 .andExpect(jsonPath("$.data", is("new-api-key")));
     }
@@ -94,17 +96,17 @@ class BucketControllerTest {
     }
 
     @Test
-    @DisplayName("DELETE /api/buckets ➞ 200 + message")
+    @DisplayName("DELETE /api/buckets ➞ 202 + message")
     @WithMockUser(username = ADMIN, roles = "ADMIN")
     void deleteBucket() throws Exception {
-        Response fake = new Response("ok","200","deleted",null,null);
+        Response fake = new Response("ok","202","deleted",null,null);
         Mockito.when(bucketService.deleteBucket("del-key"))
                 .thenReturn(fake);
 
         mvc.perform(delete("/api/buckets")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(mapper.writeValueAsString(new SimpleBuketRequest("ignored","del-key"))))
-                .andExpect(status().isOk())
+                .andExpect(status().isAccepted())
                 .andExpect(jsonPath("$.message", is("deleted")));
     }
 }
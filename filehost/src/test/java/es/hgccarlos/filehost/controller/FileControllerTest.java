@@ -2,15 +2,23 @@ package es.hgccarlos.filehost.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import es.hgccarlos.filehost.config.ApiKeyFilter;
+import es.hgccarlos.filehost.config.BandwidthFilter;
 import es.hgccarlos.filehost.config.IpRateLimitFilter;
 import es.hgccarlos.filehost.config.JwtAuthFilter;
 import es.hgccarlos.filehost.dto.DeleteManyFilesRequest;
 import es.hgccarlos.filehost.dto.FileDTO;
+import es.hgccarlos.filehost.dto.HashCheckDTO;
+import es.hgccarlos.filehost.dto.HashCheckRequest;
 import es.hgccarlos.filehost.dto.Response;
 import es.hgccarlos.filehost.model.FileEntity;
+import es.hgccarlos.filehost.service.FileContentCache;
+import es.hgccarlos.filehost.service.FileHandle;
 import es.hgccarlos.filehost.service.StorageService;
+import es.hgccarlos.filehost.storage.LocalStorageBackend;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
@@ -18,16 +26,24 @@ import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.FilterType;
+import org.springframework.context.annotation.Import;
 import org.springframework.core.io.ByteArrayResource;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.util.unit.DataSize;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
 import java.util.List;
 
 import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 
@@ -39,11 +55,13 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
                 type = FilterType.ASSIGNABLE_TYPE,
                 classes = {
                         IpRateLimitFilter.class,
+                        BandwidthFilter.class,
                         JwtAuthFilter.class,
                         ApiKeyFilter.class
                 }
         )
 )
+@Import(FileStreamer.class)
 @AutoConfigureMockMvc(addFilters = false)
 @WithMockUser(roles = "USER")  // cualquier rol válido
 class FileControllerTest {
@@ -51,8 +69,14 @@ class FileControllerTest {
     @Autowired MockMvc mvc;
     @MockBean StorageService service;
     @Autowired ObjectMapper mapper;
+    @TempDir Path tmp;
+
+    private final SimpleMeterRegistry meters = new SimpleMeterRegistry();
+    private final FileContentCache NO_CACHE = new FileContentCache(meters, DataSize.ofBytes(0), DataSize.ofBytes(0));
 
     private final String BUCKET = "bucket-123";
+    private static final String HELLO_SHA256_HEX = "2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824";
+    private static final String HELLO_SHA256_B64 = "LPJNul+wow4m6DsqxbninhsWHlwfp0JecwQzYpOLmCQ=";
 
     @Test
     @DisplayName("POST /api/files/upload ➞ 200 + Response")
@@ -68,7 +92,7 @@ class FileControllerTest {
         dto.setOriginalName("test.txt");
         Response fake = new Response("ok","200","uploaded",null, dto);
 
-        Mockito.when(service.uploadFile(any(), eq(BUCKET))).thenReturn(fake);
+        Mockito.when(service.uploadFile(any(), eq(BUCKET), isNull())).thenReturn(fake);
 
         mvc.perform(multipart("/api/files/upload")
                         .file(file)
@@ -79,6 +103,62 @@ class FileControllerTest {
                 .andExpect(jsonPath("$.data.originalName", is("test.txt")));
     }
 
+    @Test
+    @DisplayName("POST /api/files/upload + X-Expected-SHA256 ➞ hash passed to service")
+    void uploadConditional() throws Exception {
+        MockMultipartFile file = new MockMultipartFile(
+                "file", "test.txt", MediaType.TEXT_PLAIN_VALUE, "hello".getBytes());
+        String sha = "2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824";
+        Response fake = new Response("error","HASH_MISMATCH","mismatch",null,null);
+
+        Mockito.when(service.uploadFile(any(), eq(BUCKET), eq(sha))).thenReturn(fake);
+
+        mvc.perform(multipart("/api/files/upload")
+                        .file(file)
+                        .param("bucketKey", BUCKET)
+                        .header("X-Expected-SHA256", sha))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.code", is("HASH_MISMATCH")));
+    }
+
+    @Test
+    @DisplayName("PUT /api/files/upload/{name} ➞ raw body streamed to service")
+    void uploadRaw() throws Exception {
+        byte[] body = "raw bytes".getBytes(StandardCharsets.UTF_8);
+        FileDTO dto = new FileDTO();
+        dto.setId(43L);
+        dto.setOriginalName("build.tar.gz");
+        Response fake = new Response("success","201","uploaded",null, dto);
+
+        Mockito.when(service.uploadStream(any(), eq(BUCKET), eq("build.tar.gz"),
+                eq(MediaType.APPLICATION_OCTET_STREAM_VALUE), eq((long) body.length), isNull()))
+                .thenReturn(fake);
+
+        mvc.perform(put("/api/files/upload/{name}", "build.tar.gz")
+                        .header("bucketKey", BUCKET)
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .content(body))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.id", is(43)))
+                .andExpect(jsonPath("$.data.originalName", is("build.tar.gz")));
+    }
+
+    @Test
+    @DisplayName("POST /api/files/exists ➞ 200 + present/missing")
+    void existsHashes() throws Exception {
+        Response fake = new Response("success","200","checked",null,
+                new HashCheckDTO(List.of("aa"), List.of("bb")));
+        Mockito.when(service.checkHashes(List.of("aa", "bb"), BUCKET)).thenReturn(fake);
+
+        mvc.perform(post("/api/files/exists")
+                        .header("bucketKey", BUCKET)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(mapper.writeValueAsString(new HashCheckRequest(List.of("aa", "bb")))))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.present[0]", is("aa")))
+                .andExpect(jsonPath("$.data.missing[0]", is("bb")));
+    }
+
     @Test
     @DisplayName("POST /api/files/upload-many ➞ 200 + Response")
     void uploadMany() throws Exception {
@@ -143,12 +223,12 @@ class FileControllerTest {
         byte[] bytes = "imgdata".getBytes(StandardCharsets.UTF_8);
         FileEntity meta = new FileEntity();
         meta.setMimeType(MediaType.IMAGE_PNG_VALUE);
-        Mockito.when(service.getFileMetaById(12L, BUCKET)).thenReturn(meta);
-        Mockito.when(service.getFileBytes(12L, BUCKET)).thenReturn(bytes);
+        Mockito.when(service.openFile(12L, BUCKET)).thenReturn(handle(meta, stored(bytes), NO_CACHE));
 
         mvc.perform(get("/api/files/view/{id}", 12L).header("X-API-KEY", BUCKET))
                 .andExpect(status().isOk())
                 .andExpect(content().contentType(MediaType.IMAGE_PNG_VALUE))
+                .andExpect(header().longValue("Content-Length", bytes.length))
                 .andExpect(content().bytes(bytes));
     }
 
@@ -158,12 +238,142 @@ class FileControllerTest {
         byte[] data = {0x01,0x02};
         FileEntity meta = new FileEntity();
         meta.setOriginalName("doc.txt");
-        Mockito.when(service.getFileMetaById(33L, BUCKET)).thenReturn(meta);
-        Mockito.when(service.getFileBytes(33L, BUCKET)).thenReturn(data);
+        Mockito.when(service.openFile(33L, BUCKET)).thenReturn(handle(meta, stored(data), NO_CACHE));
 
         mvc.perform(get("/api/files/download/{id}", 33L).header("X-API-KEY", BUCKET))
                 .andExpect(status().isOk())
                 .andExpect(header().string("Content-Disposition", containsString("doc.txt")))
                 .andExpect(content().bytes(data));
     }
+
+    @Test
+    @DisplayName("GET /api/files/download/{id} + Range ➞ 206 + Content-Range")
+    void downloadSingleRange() throws Exception {
+        rangeFixture(34L);
+
+        mvc.perform(get("/api/files/download/{id}", 34L).header("X-API-KEY", BUCKET)
+                        .header("Range", "bytes=2-5"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string("Accept-Ranges", "bytes"))
+                .andExpect(header().string("Content-Range", "bytes 2-5/10"))
+                .andExpect(header().longValue("Content-Length", 4))
+                .andExpect(content().string("2345"));
+
+        mvc.perform(get("/api/files/download/{id}", 34L).header("X-API-KEY", BUCKET)
+                        .header("Range", "bytes=-3"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string("Content-Range", "bytes 7-9/10"))
+                .andExpect(content().string("789"));
+    }
+
+    @Test
+    @DisplayName("GET /api/files/view/{id} + multi Range ➞ 206 multipart/byteranges")
+    void viewMultiRange() throws Exception {
+        rangeFixture(35L);
+
+        String body = mvc.perform(get("/api/files/view/{id}", 35L).header("X-API-KEY", BUCKET)
+                        .header("Range", "bytes=0-1,8-"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string("Content-Type", org.hamcrest.Matchers.startsWith("multipart/byteranges; boundary=")))
+                .andReturn().getResponse().getContentAsString();
+        assertTrue(body.contains("Content-Range: bytes 0-1/10\r\n\r\n01\r\n"));
+        assertTrue(body.contains("Content-Range: bytes 8-9/10\r\n\r\n89\r\n"));
+    }
+
+    @Test
+    @DisplayName("GET /api/files/download/{id} + unsatisfiable Range ➞ 416")
+    void downloadRangeNotSatisfiable() throws Exception {
+        rangeFixture(36L);
+
+        mvc.perform(get("/api/files/download/{id}", 36L).header("X-API-KEY", BUCKET)
+                        .header("Range", "bytes=10-20"))
+                .andExpect(status().isRequestedRangeNotSatisfiable())
+                .andExpect(header().string("Content-Range", "bytes */10"));
+    }
+
+    @Test
+    @DisplayName("GET /api/files/download/{id} + stale If-Range ➞ 200 full body")
+    void downloadStaleIfRange() throws Exception {
+        rangeFixture(37L);
+
+        mvc.perform(get("/api/files/download/{id}", 37L).header("X-API-KEY", BUCKET)
+                        .header("Range", "bytes=2-5")
+                        .header("If-Range", "\"not-the-current-etag\""))
+                .andExpect(status().isOk())
+                .andExpect(content().string("0123456789"));
+    }
+
+    @Test
+    @DisplayName("GET /api/files/view/{id} ➞ ETag + Last-Modified + Cache-Control")
+    void viewValidators() throws Exception {
+        FileEntity meta = rangeFixture(38L);
+        meta.setHash(HELLO_SHA256_B64);
+        meta.setUploadTime(LocalDateTime.of(2025, 1, 2, 3, 4, 5));
+
+        mvc.perform(get("/api/files/view/{id}", 38L).header("X-API-KEY", BUCKET))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"" + HELLO_SHA256_HEX + "\""))
+                .andExpect(header().exists("Last-Modified"))
+                .andExpect(header().string("Cache-Control", containsString("max-age=")));
+    }
+
+    @Test
+    @DisplayName("GET /api/files/download/{id} + If-None-Match ➞ 304 without reading the file")
+    void downloadNotModified() throws Exception {
+        FileEntity meta = new FileEntity();
+        meta.setHash(HELLO_SHA256_B64);
+        meta.setUploadTime(LocalDateTime.of(2025, 1, 2, 3, 4, 5));
+        // the file isn't on disk: opening it would fail the request
+        Mockito.when(service.openFile(39L, BUCKET)).thenReturn(handle(meta, tmp.resolve("missing"), NO_CACHE));
+
+        mvc.perform(get("/api/files/download/{id}", 39L).header("X-API-KEY", BUCKET)
+                        .header("If-None-Match", "\"" + HELLO_SHA256_HEX + "\""))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", "\"" + HELLO_SHA256_HEX + "\""))
+                .andExpect(content().bytes(new byte[0]));
+
+        mvc.perform(get("/api/files/download/{id}", 39L).header("X-API-KEY", BUCKET)
+                        .header("If-Modified-Since", "Fri, 01 Jan 2100 00:00:00 GMT"))
+                .andExpect(status().isNotModified());
+
+        assertEquals(0, meters.counter("file.download.count").count());
+    }
+
+    @Test
+    @DisplayName("GET /api/files/view/{id} ➞ small file served from content cache")
+    void viewFromContentCache() throws Exception {
+        byte[] content = "cached!".getBytes(StandardCharsets.US_ASCII);
+        FileEntity meta = new FileEntity();
+        meta.setMimeType(MediaType.TEXT_PLAIN_VALUE);
+        meta.setHash(HELLO_SHA256_B64);
+        meta.setSizeBytes((long) content.length);
+        Path path = stored(content);
+        FileContentCache cache = new FileContentCache(meters, DataSize.ofMegabytes(1), DataSize.ofKilobytes(256));
+        cache.get(meta.getHash(), meta.getSizeBytes(), () -> Files.readAllBytes(path));
+        Files.delete(path);  // only the cached copy is left
+        Mockito.when(service.openFile(40L, BUCKET)).thenReturn(handle(meta, path, cache));
+
+        mvc.perform(get("/api/files/view/{id}", 40L).header("X-API-KEY", BUCKET)
+                        .header("Range", "bytes=0-5"))
+                .andExpect(status().isPartialContent())
+                .andExpect(content().string("cached"));
+    }
+
+    private FileEntity rangeFixture(long id) throws IOException {
+        FileEntity meta = new FileEntity();
+        meta.setOriginalName("digits.txt");
+        meta.setMimeType(MediaType.TEXT_PLAIN_VALUE);
+        Path digits = stored("0123456789".getBytes(StandardCharsets.US_ASCII));
+        Mockito.when(service.openFile(id, BUCKET)).thenAnswer(inv -> handle(meta, digits, NO_CACHE));
+        return meta;
+    }
+
+    private FileHandle handle(FileEntity meta, Path path, FileContentCache cache) {
+        return new FileHandle(meta, new LocalStorageBackend(tmp), tmp.relativize(path).toString(),
+                cache, meters.counter("file.download.count")::increment);
+    }
+
+    private Path stored(byte[] content) throws IOException {
+        return Files.write(tmp.resolve("blob-" + content.length), content);
+    }
 }
@@ -0,0 +1,109 @@
+package es.hgccarlos.filehost.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import es.hgccarlos.filehost.config.ApiKeyFilter;
+import es.hgccarlos.filehost.config.BandwidthFilter;
+import es.hgccarlos.filehost.config.IpRateLimitFilter;
+import es.hgccarlos.filehost.config.JwtAuthFilter;
+import es.hgccarlos.filehost.dto.CreateUploadSessionRequest;
+import es.hgccarlos.filehost.dto.Response;
+import es.hgccarlos.filehost.dto.UploadSessionDTO;
+import es.hgccarlos.filehost.service.UploadSessionService;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.FilterType;
+import org.springframework.http.MediaType;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.io.InputStream;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.mockito.ArgumentMatchers.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@WebMvcTest(
+        controllers = UploadSessionController.class,
+        excludeFilters = @ComponentScan.Filter(
+                type = FilterType.ASSIGNABLE_TYPE,
+                classes = {
+                        IpRateLimitFilter.class,
+                        BandwidthFilter.class,
+                        JwtAuthFilter.class,
+                        ApiKeyFilter.class
+                }
+        )
+)
+@AutoConfigureMockMvc(addFilters = false)
+@WithMockUser(roles = "USER")
+class UploadSessionControllerTest {
+
+    @Autowired MockMvc mvc;
+    @MockBean UploadSessionService service;
+    @Autowired ObjectMapper mapper;
+
+    private final String BUCKET = "bucket-123";
+
+    @Test
+    @DisplayName("POST /api/files/sessions ➞ 200 + session")
+    void createSession() throws Exception {
+        UploadSessionDTO dto = new UploadSessionDTO("s-1", "big.iso", "application/octet-stream",
+                10L, 0L, List.of(), null);
+        Mockito.when(service.createSession(BUCKET, "big.iso", "application/octet-stream", 10L))
+                .thenReturn(new Response("success", "201", "Upload session created", null, dto));
+
+        mvc.perform(post("/api/files/sessions")
+                        .header("bucketKey", BUCKET)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(mapper.writeValueAsString(
+                                new CreateUploadSessionRequest("big.iso", "application/octet-stream", 10L))))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.id", is("s-1")))
+                .andExpect(jsonPath("$.data.totalSize", is(10)));
+    }
+
+    @Test
+    @DisplayName("PUT /api/files/sessions/{id}?offset= ➞ raw body handed to the service")
+    void putChunk() throws Exception {
+        byte[] chunk = {1, 2, 3, 4};
+        UploadSessionDTO dto = new UploadSessionDTO("s-1", "big.iso", "application/octet-stream",
+                10L, 4L, List.of(new long[]{6, 10}), null);
+        ArgumentCaptor<InputStream> body = ArgumentCaptor.forClass(InputStream.class);
+        Mockito.when(service.writeChunk(eq("s-1"), eq(BUCKET), eq(6L), body.capture()))
+                .thenReturn(new Response("success", "200", "Chunk stored", null, dto));
+
+        mvc.perform(put("/api/files/sessions/{id}", "s-1")
+                        .header("bucketKey", BUCKET)
+                        .param("offset", "6")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .content(chunk))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.receivedBytes", is(4)))
+                .andExpect(jsonPath("$.data.received[0][0]", is(6)))
+                .andExpect(jsonPath("$.data.received[0][1]", is(10)));
+
+        assertArrayEquals(chunk, body.getValue().readAllBytes());
+    }
+
+    @Test
+    @DisplayName("POST /api/files/sessions/{id}/commit ➞ 200 + Response")
+    void commit() throws Exception {
+        Mockito.when(service.commit("s-1", BUCKET))
+                .thenReturn(new Response("error", "UPLOAD_INCOMPLETE",
+                        "Not all byte ranges have been received", null, null));
+
+        mvc.perform(post("/api/files/sessions/{id}/commit", "s-1").header("bucketKey", BUCKET))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.code", is("UPLOAD_INCOMPLETE")));
+    }
+}
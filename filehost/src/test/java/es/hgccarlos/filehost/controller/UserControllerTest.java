@@ -2,6 +2,7 @@ package es.hgccarlos.filehost.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import es.hgccarlos.filehost.config.ApiKeyFilter;
+import es.hgccarlos.filehost.config.BandwidthFilter;
 import es.hgccarlos.filehost.config.IpRateLimitFilter;
 import es.hgccarlos.filehost.config.JwtAuthFilter;
 
@@ -38,6 +39,7 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
                 type = FilterType.ASSIGNABLE_TYPE,
                 classes = {
                         IpRateLimitFilter.class,
+                        BandwidthFilter.class,
                         JwtAuthFilter.class,
                         ApiKeyFilter.class
                 }
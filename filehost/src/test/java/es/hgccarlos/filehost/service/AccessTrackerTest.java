@@ -0,0 +1,59 @@
+package es.hgccarlos.filehost.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class AccessTrackerTest {
+
+    @Mock JdbcTemplate jdbc;
+
+    private AccessTracker tracker;
+
+    @BeforeEach
+    void setUp() {
+        tracker = new AccessTracker(jdbc);
+        ReflectionTestUtils.setField(tracker, "enabled", true);
+        ReflectionTestUtils.setField(tracker, "halfLife", Duration.ofDays(1));
+    }
+
+    @Test
+    @DisplayName("flush ➞ reads per hash written in one batch, then counting starts over")
+    void flushBatches() {
+        tracker.record("a");
+        tracker.record("b");
+        tracker.record("a");
+
+        assertEquals(Map.of("a", 2L, "b", 1L), tracker.flush());
+        verify(jdbc, times(1)).batchUpdate(anyString(), argThat((Collection<Object> c) -> c.size() == 2),
+                eq(2), any(ParameterizedPreparedStatementSetter.class));
+
+        assertTrue(tracker.flush().isEmpty());
+        verifyNoMoreInteractions(jdbc);
+    }
+
+    @Test
+    @DisplayName("tiering off ➞ nothing tracked, nothing written")
+    void disabled() {
+        ReflectionTestUtils.setField(tracker, "enabled", false);
+        tracker.record("a");
+
+        assertTrue(tracker.flush().isEmpty());
+        verifyNoInteractions(jdbc);
+    }
+}
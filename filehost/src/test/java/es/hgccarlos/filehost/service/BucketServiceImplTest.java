@@ -0,0 +1,136 @@
+package es.hgccarlos.filehost.service;
+
+import es.hgccarlos.filehost.config.StorageProperties;
+import es.hgccarlos.filehost.dto.Response;
+import es.hgccarlos.filehost.model.Bucket;
+import es.hgccarlos.filehost.model.BucketDeletion;
+import es.hgccarlos.filehost.repository.BucketDeletionRepository;
+import es.hgccarlos.filehost.repository.BucketRepository;
+import es.hgccarlos.filehost.repository.FileRepository;
+import es.hgccarlos.filehost.storage.DirectoryCache;
+import es.hgccarlos.filehost.storage.StorageBackends;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class BucketServiceImplTest {
+
+    @Mock BucketRepository bucketRepo;
+    @Mock FileRepository fileRepo;
+    @Mock BucketDeletionRepository deletionRepo;
+    @Mock ObjectProvider<JdbcTemplate> jdbc;
+    @TempDir Path uploadDir;
+
+    private final SimpleMeterRegistry meters = new SimpleMeterRegistry();
+    private BucketServiceImpl service;
+
+    @BeforeEach
+    void setUp() {
+        BucketCache cache = new BucketCache(meters, jdbc, Duration.ofMinutes(1), Duration.ofSeconds(10), 100, false);
+        StorageBackends backends = new StorageBackends(new StorageProperties(), new DirectoryCache(), uploadDir.toString());
+        service = new BucketServiceImpl(bucketRepo, fileRepo, deletionRepo, cache, backends, meters);
+        ReflectionTestUtils.setField(service, "uploadDir", uploadDir.toString());
+    }
+
+    @Test
+    @DisplayName("getBucketByApiKey ➞ repeated lookups hit the DB once")
+    void lookupCached() {
+        Bucket bucket = new Bucket(1L, "b", "b", "key", null);
+        when(bucketRepo.findByApiKey("key")).thenReturn(Optional.of(bucket));
+
+        for (int i = 0; i < 5; i++) {
+            assertSame(bucket, service.getBucketByApiKey("key").orElseThrow());
+        }
+        verify(bucketRepo, times(1)).findByApiKey("key");
+        assertEquals(4, meters.get("cache.gets").tag("result", "hit").functionCounter().count());
+    }
+
+    @Test
+    @DisplayName("getBucketByApiKey ➞ unknown keys are cached too")
+    void lookupNegativeCached() {
+        when(bucketRepo.findByApiKey("nope")).thenReturn(Optional.empty());
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(service.getBucketByApiKey("nope").isEmpty());
+        }
+        verify(bucketRepo, times(1)).findByApiKey("nope");
+        assertEquals(2, meters.get("bucket.cache.negative.hits").counter().count());
+    }
+
+    @Test
+    @DisplayName("rotateApiKey ➞ old key stops resolving immediately")
+    void rotateEvicts() {
+        Bucket bucket = new Bucket(1L, "b", "b", "old", null);
+        when(bucketRepo.findByApiKey("old")).thenReturn(Optional.of(bucket));
+        service.getBucketByApiKey("old");
+
+        String fresh = (String) service.rotateApiKey("old").getData();
+        when(bucketRepo.findByApiKey("old")).thenReturn(Optional.empty());
+
+        assertTrue(service.getBucketByApiKey("old").isEmpty());
+        assertNotEquals("old", fresh);
+    }
+
+    @Test
+    @DisplayName("deleteBucket ➞ key revoked at once, files left to the reaper")
+    void deleteRevokesAndQueues() {
+        Bucket bucket = new Bucket(1L, "b", "b", "key", null);
+        when(bucketRepo.findByApiKey("key")).thenReturn(Optional.of(bucket));
+        when(fileRepo.countByBucketId(1L)).thenReturn(1_000_000L);
+        service.getBucketByApiKey("key");
+
+        Response res = service.deleteBucket("key");
+
+        assertEquals("202", res.getCode());
+        assertEquals(1L, res.getData());
+        assertTrue(bucket.getApiKey().startsWith(BucketServiceImpl.REVOKED_KEY_PREFIX));
+        assertNotNull(bucket.getDeletingSince());
+        ArgumentCaptor<BucketDeletion> deletion = ArgumentCaptor.forClass(BucketDeletion.class);
+        verify(deletionRepo).save(deletion.capture());
+        assertEquals(1_000_000L, deletion.getValue().getFilesTotal());
+        assertEquals("DELETING", deletion.getValue().getState());
+        verify(fileRepo, never()).findAllByBucketId(any());
+        verify(bucketRepo, never()).delete(any());
+
+        when(bucketRepo.findByApiKey("key")).thenReturn(Optional.empty());
+        assertTrue(service.getBucketByApiKey("key").isEmpty());
+    }
+
+    @Test
+    @DisplayName("createBucket ➞ name of a bucket still being deleted is refused")
+    void createWhileDeleting() {
+        Bucket bucket = new Bucket(1L, "b", "b", "revoked:x", null);
+        bucket.setDeletingSince(LocalDateTime.now());
+        when(bucketRepo.findByName("b")).thenReturn(Optional.of(bucket));
+
+        assertEquals("BUCKET_DELETING", service.createBucket("b").getCode());
+        verify(bucketRepo, never()).save(any());
+    }
+
+    @Test
+    @DisplayName("createBucket ➞ names of the shared directories are refused")
+    void createReservedName() {
+        for (String name : new String[] {"blobs", "sessions", "quarantine", "ec"}) {
+            assertEquals("BUCKET_NAME_RESERVED", service.createBucket(name).getCode());
+        }
+        verify(bucketRepo, never()).save(any());
+    }
+}
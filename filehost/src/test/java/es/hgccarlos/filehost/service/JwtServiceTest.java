@@ -0,0 +1,74 @@
+package es.hgccarlos.filehost.service;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.ExpiredJwtException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JwtServiceTest {
+
+    private final SimpleMeterRegistry meters = new SimpleMeterRegistry();
+    private JwtService jwt;
+
+    @BeforeEach
+    void setUp() {
+        jwt = service(3_600_000L);
+    }
+
+    private JwtService service(long expirationMs) {
+        JwtService s = new JwtService(meters);
+        ReflectionTestUtils.setField(s, "secret", "hjd8o7SHD8asdh8S7D8gsadOHA8H&5SD7AD1|@#");
+        ReflectionTestUtils.setField(s, "expirationMs", expirationMs);
+        ReflectionTestUtils.setField(s, "cacheSize", 100L);
+        ReflectionTestUtils.setField(s, "cacheTtl", Duration.ofMinutes(5));
+        s.init();
+        return s;
+    }
+
+    @Test
+    @DisplayName("verify ➞ token is parsed once, later calls reuse the claims")
+    void verifyCached() {
+        String token = jwt.generateToken("alice", List.of("USER"));
+
+        Claims first = jwt.verify(token).orElseThrow();
+        assertSame(first, jwt.verify(token).orElseThrow());
+        assertEquals("alice", jwt.getUsernameFromToken(token));
+        assertEquals(List.of("USER"), jwt.getRolesFromToken(token));
+        assertEquals(3, meters.get("cache.gets").tag("result", "hit").functionCounter().count());
+    }
+
+    @Test
+    @DisplayName("verify ➞ tampered or foreign tokens are rejected")
+    void verifyRejectsBadSignature() {
+        String token = jwt.generateToken("alice", List.of("USER"));
+        jwt.verify(token);
+        String tampered = token.substring(0, token.length() - 2) + (token.endsWith("A") ? "BB" : "AA");
+
+        assertTrue(jwt.verify(tampered).isEmpty());
+        assertTrue(jwt.verify("not-a-token").isEmpty());
+        assertTrue(jwt.verify(null).isEmpty());
+    }
+
+    @Test
+    @DisplayName("verify ➞ cached claims are not served past exp")
+    void verifyHonorsExpiry() throws Exception {
+        // exp is whole seconds, rounded down: 2s leaves at least one second of validity
+        JwtService shortLived = service(2_000L);
+        String token = shortLived.generateToken("alice", List.of("USER"));
+        assertTrue(shortLived.verify(token).isPresent());
+
+        Thread.sleep(2_100);
+
+        assertTrue(shortLived.verify(token).isEmpty());
+        assertThrows(ExpiredJwtException.class, () -> shortLived.getUsernameFromToken(token));
+        assertEquals("alice", shortLived.getUsernameFromTokenEvenIfExpired(token));
+    }
+}
@@ -0,0 +1,32 @@
+package es.hgccarlos.filehost.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OpsBudgetTest {
+
+    @Test
+    @DisplayName("Byte rate under 1MB/s ➞ still throttles")
+    void subMegabyteRate() {
+        OpsBudget budget = OpsBudget.bytesPerSecond(DataSize.ofKilobytes(512));
+        budget.spendBytes(DataSize.ofKilobytes(512).toBytes());   // first second's worth
+
+        long start = System.nanoTime();
+        budget.spendBytes(DataSize.ofKilobytes(128).toBytes());
+        assertTrue(System.nanoTime() - start > 200_000_000L, "128KB at 512KB/s waits ~250ms");
+    }
+
+    @Test
+    @DisplayName("Byte rate under 1KB/s ➞ refused, 0 ➞ unlimited")
+    void tooSmallRate() {
+        assertThrows(IllegalArgumentException.class, () -> OpsBudget.bytesPerSecond(DataSize.ofBytes(512)));
+
+        OpsBudget unlimited = OpsBudget.bytesPerSecond(DataSize.ofBytes(0));
+        long start = System.nanoTime();
+        unlimited.spendBytes(DataSize.ofGigabytes(1).toBytes());
+        assertTrue(System.nanoTime() - start < 100_000_000L);
+    }
+}
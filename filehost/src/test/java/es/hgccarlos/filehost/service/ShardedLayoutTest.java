@@ -0,0 +1,30 @@
+package es.hgccarlos.filehost.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Base64;
+import java.util.HexFormat;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardedLayoutTest {
+
+    @Test
+    @DisplayName("blobPath ➞ blobs/<2 hex>/<2 hex>/<full hex>")
+    void blobPath() {
+        byte[] hash = HexFormat.of().parseHex("abcdef0123456789");
+        String path = ShardedLayout.blobPath(Base64.getEncoder().encodeToString(hash));
+
+        assertEquals("blobs/ab/cd/abcdef0123456789", path);
+    }
+
+    @Test
+    @DisplayName("legacyPath ➞ shards a flat bucket path once, then leaves it alone")
+    void legacyPath() {
+        String sharded = ShardedLayout.legacyPath("photos/1f0c-uuid.jpg");
+
+        assertTrue(sharded.matches("photos/[0-9a-f]{2}/[0-9a-f]{2}/1f0c-uuid\\.jpg"), sharded);
+        assertEquals(sharded, ShardedLayout.legacyPath(sharded));
+    }
+}
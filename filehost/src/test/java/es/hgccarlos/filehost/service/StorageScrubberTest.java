@@ -0,0 +1,188 @@
+package es.hgccarlos.filehost.service;
+
+import es.hgccarlos.filehost.config.StorageProperties;
+import es.hgccarlos.filehost.dto.ScrubReport;
+import es.hgccarlos.filehost.storage.DirectoryCache;
+import es.hgccarlos.filehost.storage.StorageBackends;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class StorageScrubberTest {
+
+    @Mock JdbcTemplate jdbc;
+    @Mock NamedParameterJdbcTemplate namedJdbc;
+    @TempDir Path uploadDir;
+
+    private StorageScrubber scrubber;
+
+    @BeforeEach
+    void setUp() {
+        StorageBackends backends = new StorageBackends(new StorageProperties(), new DirectoryCache(), uploadDir.toString());
+        scrubber = new StorageScrubber(jdbc, namedJdbc, new SimpleMeterRegistry(), backends);
+        ReflectionTestUtils.setField(scrubber, "uploadDir", uploadDir.toString());
+        ReflectionTestUtils.setField(scrubber, "batchSize", 100);
+        ReflectionTestUtils.setField(scrubber, "parallelism", 2);
+        ReflectionTestUtils.setField(scrubber, "maxOpsPerSecond", 0L);
+        ReflectionTestUtils.setField(scrubber, "grace", Duration.ofHours(1));
+    }
+
+    @Test
+    @DisplayName("Old file no row points at ➞ quarantined; known, young and session files stay")
+    void quarantineOrphans() throws Exception {
+        init("quarantine");
+        noRows();
+        Path orphan = write("blobs/ab/cd/orphan", true);
+        Path known = write("blobs/ab/cd/known", true);
+        Path young = write("blobs/ab/cd/young", false);
+        Path session = write("sessions/s1.part", true);
+        knownPaths(Set.of("blobs/ab/cd/known"));
+
+        ScrubReport report = scrubber.run().orElseThrow();
+
+        assertFalse(Files.exists(orphan));
+        assertTrue(Files.exists(uploadDir.resolve("quarantine/blobs/ab/cd/orphan")));
+        assertTrue(Files.exists(known));
+        assertTrue(Files.exists(young));
+        assertTrue(Files.exists(session));
+        assertEquals(1, report.getOrphans());
+        assertEquals(6, report.getOrphanBytes());
+        assertEquals(3, report.getFilesScanned());
+    }
+
+    @Test
+    @DisplayName("Orphan claimed by an upload before the second check ➞ left alone")
+    @SuppressWarnings("unchecked")
+    void claimedBetweenChecks() throws Exception {
+        init("delete");
+        noRows();
+        Path file = write("blobs/ab/cd/racing", true);
+        AtomicInteger checks = new AtomicInteger();
+        when(namedJdbc.queryForList(anyString(), anyMap(), eq(String.class))).thenAnswer(inv ->
+                checks.incrementAndGet() == 1 ? List.of() : new ArrayList<>(((Map<String, List<String>>) inv.getArgument(1)).get("paths")));
+
+        ScrubReport report = scrubber.run().orElseThrow();
+
+        assertTrue(Files.exists(file));
+        assertEquals(2, checks.get());
+        assertEquals(0, report.getOrphans());
+    }
+
+    @Test
+    @DisplayName("orphan-action delete removes the file, report only counts it")
+    void deleteAndReport() throws Exception {
+        init("delete");
+        noRows();
+        knownPaths(Set.of());
+        Path deleted = write("bucket-a/old.txt", true);
+        assertEquals(1, scrubber.run().orElseThrow().getOrphans());
+        assertFalse(Files.exists(deleted));
+
+        init("report");
+        Path reported = write("bucket-a/old.txt", true);
+        assertEquals(1, scrubber.run().orElseThrow().getOrphans());
+        assertTrue(Files.exists(reported));
+        assertFalse(Files.exists(uploadDir.resolve("quarantine")));
+    }
+
+    @Test
+    @DisplayName("Rows ➞ missing file flagged with missing_since, flagged file that came back cleared")
+    @SuppressWarnings("unchecked")
+    void flagMissing() throws Exception {
+        init("report");
+        write("blobs/aa/present", false);
+        write("blobs/aa/back", false);
+        // id, path, flagged
+        Object[][] rows = {{1L, "blobs/aa/back", true}, {2L, "blobs/aa/gone", false}, {3L, "blobs/aa/present", false}};
+        when(jdbc.query(anyString(), any(RowMapper.class), eq(0L), anyInt())).thenAnswer(inv -> {
+            RowMapper<Object> mapper = inv.getArgument(1);
+            List<Object> page = new ArrayList<>();
+            for (Object[] r : rows) {
+                ResultSet rs = mock(ResultSet.class);
+                when(rs.getLong(1)).thenReturn((Long) r[0]);
+                when(rs.getString(2)).thenReturn((String) r[1]);
+                when(rs.getBoolean(4)).thenReturn((Boolean) r[2]);
+                page.add(mapper.mapRow(rs, page.size()));
+            }
+            return page;
+        });
+
+        ScrubReport report = scrubber.run().orElseThrow();
+
+        assertEquals(3, report.getRowsScanned());
+        assertEquals(1, report.getDanglingRows());
+        assertEquals(1, report.getRecoveredRows());
+        Map<String, Object[]> updates = updates();
+        assertArrayEquals(new Object[] {2L}, updates.get("now()"));
+        assertArrayEquals(new Object[] {1L}, updates.get("NULL"));
+    }
+
+    private void init(String orphanAction) {
+        ReflectionTestUtils.setField(scrubber, "orphanAction", orphanAction);
+        scrubber.init();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void noRows() {
+        when(jdbc.query(anyString(), any(RowMapper.class), anyLong(), anyInt())).thenReturn(List.of());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void knownPaths(Set<String> known) {
+        when(namedJdbc.queryForList(anyString(), anyMap(), eq(String.class))).thenAnswer(inv ->
+                ((Map<String, List<String>>) inv.getArgument(1)).get("paths").stream().filter(known::contains).toList());
+    }
+
+    private Path write(String relative, boolean old) throws Exception {
+        Path file = uploadDir.resolve(relative);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, "abcdef");
+        if (old) Files.setLastModifiedTime(file, FileTime.from(Instant.now().minus(Duration.ofHours(2))));
+        return file;
+    }
+
+    /** The ids each UPDATE was run with, keyed by what it sets missing_since to. */
+    private Map<String, Object[]> updates() throws Exception {
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<PreparedStatementSetter> setter = ArgumentCaptor.forClass(PreparedStatementSetter.class);
+        verify(jdbc, atLeastOnce()).update(sql.capture(), setter.capture());
+        Map<String, Object[]> updates = new HashMap<>();
+        for (int i = 0; i < sql.getAllValues().size(); i++) {
+            PreparedStatement ps = mock(PreparedStatement.class);
+            Connection connection = mock(Connection.class);
+            when(ps.getConnection()).thenReturn(connection);
+            setter.getAllValues().get(i).setValues(ps);
+            ArgumentCaptor<Object[]> ids = ArgumentCaptor.forClass(Object[].class);
+            verify(connection).createArrayOf(eq("bigint"), ids.capture());
+            updates.put(sql.getAllValues().get(i).contains("now()") ? "now()" : "NULL", ids.getValue());
+        }
+        return updates;
+    }
+}
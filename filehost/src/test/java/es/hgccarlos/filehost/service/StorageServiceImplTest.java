@@ -0,0 +1,179 @@
+package es.hgccarlos.filehost.service;
+
+import es.hgccarlos.filehost.config.StorageProperties;
+import es.hgccarlos.filehost.dto.FileDTO;
+import es.hgccarlos.filehost.dto.Response;
+import es.hgccarlos.filehost.model.Bucket;
+import es.hgccarlos.filehost.model.FileEntity;
+import es.hgccarlos.filehost.repository.FileRepository;
+import es.hgccarlos.filehost.storage.DirectoryCache;
+import es.hgccarlos.filehost.storage.ObjectRef;
+import es.hgccarlos.filehost.storage.StorageBackends;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class StorageServiceImplTest {
+
+    @Mock FileRepository fileRepo;
+    @Mock JdbcTemplate jdbc;
+    @Mock BucketService bucketService;
+    @Mock BlobService blobService;
+    @Mock AccessTracker accessTracker;
+    @Mock TransactionTemplate tx;
+    @TempDir Path uploadDir;
+
+    private StorageServiceImpl service;
+    private final String KEY = "bucket-key";
+
+    @BeforeEach
+    void setUp() {
+        SimpleMeterRegistry meters = new SimpleMeterRegistry();
+        FileContentCache cache = new FileContentCache(meters, DataSize.ofMegabytes(1), DataSize.ofKilobytes(256));
+        StorageBackends backends = new StorageBackends(new StorageProperties(), new DirectoryCache(), uploadDir.toString());
+        service = new StorageServiceImpl(fileRepo, jdbc, bucketService, blobService, cache, backends, accessTracker, tx, meters);
+    }
+
+    @Test
+    @DisplayName("openFile ➞ one query resolves bucket, ownership and metadata")
+    void openFileSingleQuery() throws Exception {
+        FileEntity file = file(7L, 1L);
+        when(fileRepo.findByIdAndBucketApiKey(7L, KEY)).thenReturn(Optional.of(file));
+
+        try (FileHandle handle = service.openFile(7L, KEY)) {
+            assertSame(file, handle.getMeta());
+            assertEquals(uploadDir.resolve("blobs/ab"), handle.getPath());
+        }
+
+        verify(fileRepo, times(1)).findByIdAndBucketApiKey(7L, KEY);
+        verifyNoMoreInteractions(fileRepo);
+        verifyNoInteractions(bucketService, blobService);
+    }
+
+    @Test
+    @DisplayName("openFile ➞ a read counts as one access for tiering, metadata alone doesn't")
+    void openFileRecordsAccess() throws Exception {
+        FileEntity file = file(7L, 1L);
+        file.setHash("h");
+        file.setSizeBytes(4L);
+        Files.createDirectories(uploadDir.resolve("blobs"));
+        Files.writeString(uploadDir.resolve("blobs/ab"), "data");
+        when(fileRepo.findByIdAndBucketApiKey(7L, KEY)).thenReturn(Optional.of(file));
+
+        try (FileHandle handle = service.openFile(7L, KEY)) {
+            handle.getMeta();
+            verifyNoInteractions(accessTracker);
+            handle.read(0, 4).close();
+            handle.read(2, 2).close();
+        }
+
+        verify(accessTracker, times(1)).record("h");
+    }
+
+    @Test
+    @DisplayName("openFile ➞ file of another bucket is refused")
+    void openFileOtherBucket() {
+        Bucket bucket = new Bucket(1L, "b", "b", KEY, null);
+        when(fileRepo.findByIdAndBucketApiKey(8L, KEY)).thenReturn(Optional.empty());
+        when(bucketService.getBucketByApiKey(KEY)).thenReturn(Optional.of(bucket));
+        when(fileRepo.existsById(8L)).thenReturn(true);
+
+        RuntimeException ex = assertThrows(RuntimeException.class, () -> service.openFile(8L, KEY));
+        assertEquals("File does not belong to this bucket", ex.getMessage());
+    }
+
+    @Test
+    @DisplayName("openFile ➞ unknown API key is refused")
+    void openFileInvalidKey() {
+        when(fileRepo.findByIdAndBucketApiKey(9L, KEY)).thenReturn(Optional.empty());
+        when(bucketService.getBucketByApiKey(KEY)).thenReturn(Optional.empty());
+
+        RuntimeException ex = assertThrows(RuntimeException.class, () -> service.openFile(9L, KEY));
+        assertEquals("Invalid API key", ex.getMessage());
+    }
+
+    @Test
+    @DisplayName("storeStaged ➞ response names the file under the bucket, not the shared blob")
+    void storeStagedKeepsBucketPath() throws Exception {
+        Bucket bucket = new Bucket(1L, "b", "bucket-dir", KEY, null);
+        Path part = Files.writeString(uploadDir.resolve("part"), "data");
+        StagedFile staged = new StagedFile(part, "h", 4L);
+        when(jdbc.queryForList(anyString(), eq(Long.class), eq(1L))).thenReturn(List.of(1L));
+        when(blobService.store(staged, null)).thenReturn(new ObjectRef("local", "blobs/ab/cd/abcd"));
+
+        Response res = service.storeStaged(bucket, staged, "report.pdf", "application/pdf");
+
+        FileDTO dto = (FileDTO) res.getData();
+        assertTrue(dto.getStoredName().matches("[0-9a-f-]{36}\\.pdf"), dto.getStoredName());
+        assertEquals("bucket-dir/" + dto.getStoredName(), dto.getRelativePath());
+        ArgumentCaptor<FileEntity> saved = ArgumentCaptor.forClass(FileEntity.class);
+        verify(fileRepo).save(saved.capture());
+        assertEquals("blobs/ab/cd/abcd", saved.getValue().getStorageKey());
+    }
+
+    @Test
+    @DisplayName("storeStaged ➞ bucket gone or being deleted, nothing stored and the upload abandoned")
+    void storeStagedBucketDeleting() throws Exception {
+        Bucket bucket = new Bucket(1L, "b", "b", KEY, null);
+        Path part = Files.writeString(uploadDir.resolve("part"), "data");
+        StagedFile staged = new StagedFile(part, "h", 4L);
+        when(jdbc.queryForList(anyString(), eq(Long.class), eq(1L))).thenReturn(List.of());
+
+        Response res = service.storeStaged(bucket, staged, "a.txt", "text/plain");
+
+        assertEquals("BUCKET_DELETING", res.getCode());
+        assertFalse(Files.exists(part));
+        verify(blobService).abandon(List.of(staged), null);
+        verify(blobService, never()).store(any(), any());
+        verifyNoInteractions(fileRepo);
+    }
+
+    @Test
+    @DisplayName("deleteFiles ➞ bucket resolved once, one bulk delete, unlinks left to the queue")
+    @SuppressWarnings("unchecked")
+    void deleteFilesBulk() {
+        Bucket bucket = new Bucket(1L, "b", "b", KEY, null);
+        when(bucketService.getBucketByApiKey(KEY)).thenReturn(Optional.of(bucket));
+        List<FileEntity> deleted = List.of(file(5L, 1L), file(7L, 1L));
+        when(jdbc.query(anyString(), any(PreparedStatementSetter.class), any(RowMapper.class))).thenReturn(deleted);
+
+        Response res = service.deleteFiles(new Long[]{5L, 6L, 7L, 5L}, KEY);
+
+        assertEquals("207", res.getCode());
+        assertEquals(List.of(5L, 7L), res.getData());
+        assertEquals("Failed deletions: [6, 5]", res.getDescription());
+        verify(bucketService, times(1)).getBucketByApiKey(KEY);
+        verify(jdbc, times(1)).query(anyString(), any(PreparedStatementSetter.class), any(RowMapper.class));
+        verify(blobService).releaseAll(deleted);
+        verifyNoInteractions(fileRepo);
+    }
+
+    private static FileEntity file(Long id, Long bucketId) {
+        FileEntity f = new FileEntity();
+        f.setId(id);
+        f.setBucketId(bucketId);
+        f.setRelativePath("b/" + id + ".txt");
+        f.setStorageKey("blobs/ab");
+        return f;
+    }
+}
@@ -0,0 +1,181 @@
+package es.hgccarlos.filehost.service;
+
+import es.hgccarlos.filehost.dto.Response;
+import es.hgccarlos.filehost.dto.UploadSessionDTO;
+import es.hgccarlos.filehost.model.Bucket;
+import es.hgccarlos.filehost.model.UploadChunk;
+import es.hgccarlos.filehost.model.UploadSession;
+import es.hgccarlos.filehost.repository.UploadChunkRepository;
+import es.hgccarlos.filehost.repository.UploadSessionRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class UploadSessionServiceImplTest {
+
+    @Mock UploadSessionRepository sessionRepo;
+    @Mock UploadChunkRepository chunkRepo;
+    @Mock BucketService bucketService;
+    @Mock StorageService storageService;
+    @Mock BlobService blobService;
+    @Mock TransactionTemplate tx;
+    @TempDir Path uploadDir;
+
+    private UploadSessionServiceImpl service;
+    private final List<UploadChunk> chunks = new ArrayList<>();
+    private final String KEY = "bucket-key";
+
+    @BeforeEach
+    void setUp() throws Exception {
+        service = new UploadSessionServiceImpl(sessionRepo, chunkRepo, bucketService, storageService,
+                blobService, tx, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(service, "uploadDir", uploadDir.toString());
+        ReflectionTestUtils.setField(service, "ttl", Duration.ofHours(1));
+        service.init();
+
+        Bucket bucket = new Bucket();
+        bucket.setId(1L);
+        bucket.setApiKey(KEY);
+        when(bucketService.getBucketByApiKey(KEY)).thenReturn(Optional.of(bucket));
+        when(sessionRepo.save(any())).thenAnswer(inv -> {
+            UploadSession s = inv.getArgument(0);
+            lenient().when(sessionRepo.findById(s.getId())).thenReturn(Optional.of(s));
+            return s;
+        });
+        lenient().when(chunkRepo.save(any())).thenAnswer(inv -> {
+            chunks.add(inv.getArgument(0));
+            return inv.getArgument(0);
+        });
+        lenient().when(tx.execute(any())).thenAnswer(inv ->
+                inv.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+        lenient().when(chunkRepo.findAllBySessionIdOrderByStartOffsetAsc(anyString())).thenAnswer(inv -> chunks.stream()
+                .sorted(Comparator.comparing(UploadChunk::getStartOffset)).toList());
+    }
+
+    @Test
+    @DisplayName("Chunk re-sent over bytes already hashed ➞ commit hashes the bytes on disk")
+    void overwriteHashedRange() throws Exception {
+        String id = create(8);
+        write(id, 0, "AAAA");
+        write(id, 4, "BBBB");   // prefix complete and hashed
+        write(id, 0, "CCCC");
+
+        ArgumentCaptor<StagedFile> staged = ArgumentCaptor.forClass(StagedFile.class);
+        when(storageService.storeStaged(any(), staged.capture(), any(), any()))
+                .thenReturn(new Response("success", "201", "File uploaded", null, null));
+
+        assertEquals("success", service.commit(id, KEY).getStatus());
+        assertEquals(sha256("CCCCBBBB"), staged.getValue().getHash());
+    }
+
+    @Test
+    @DisplayName("Chunks in any order ➞ commit hashes the whole file once")
+    void outOfOrder() throws Exception {
+        String id = create(8);
+        write(id, 4, "BBBB");
+        write(id, 0, "AAAA");
+
+        ArgumentCaptor<StagedFile> staged = ArgumentCaptor.forClass(StagedFile.class);
+        when(storageService.storeStaged(any(), staged.capture(), any(), any()))
+                .thenReturn(new Response("success", "201", "File uploaded", null, null));
+
+        service.commit(id, KEY);
+        assertEquals(sha256("AAAABBBB"), staged.getValue().getHash());
+    }
+
+    @Test
+    @DisplayName("Part file shorter than the received ranges ➞ commit answers UPLOAD_FAIL")
+    void commitShortPartFile() throws Exception {
+        String id = create(8);
+        write(id, 0, "AAAA");
+        write(id, 4, "BBBB");
+        try (FileChannel ch = FileChannel.open(uploadDir.resolve("sessions/" + id + ".part"), StandardOpenOption.WRITE)) {
+            ch.truncate(4);
+        }
+        write(id, 0, "CCCC");   // digest has to start over, and can't
+
+        Response r = service.commit(id, KEY);
+
+        assertEquals("UPLOAD_FAIL", r.getCode());
+        verifyNoInteractions(storageService);
+    }
+
+    @Test
+    @DisplayName("Expired session with a chunk still being written ➞ purge leaves it for the next run")
+    void purgeSkipsBusySession() throws Exception {
+        String id = create(8);
+        UploadSession session = sessionRepo.findById(id).orElseThrow();
+        CountDownLatch reading = new CountDownLatch(1), release = new CountDownLatch(1);
+        InputStream slow = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                reading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return -1;
+            }
+        };
+        Thread writer = Thread.ofVirtual().start(() -> service.writeChunk(id, KEY, 0, slow));
+        reading.await();
+        session.setExpiresAt(LocalDateTime.now().minusMinutes(1));
+        when(sessionRepo.findAllByExpiresAtBefore(any())).thenReturn(List.of(session));
+
+        service.purgeExpired();
+        verify(sessionRepo, never()).delete(any());
+
+        release.countDown();
+        writer.join();
+        service.purgeExpired();
+        verify(sessionRepo).delete(session);
+    }
+
+    private String create(long size) {
+        Response r = service.createSession(KEY, "f.txt", "text/plain", size);
+        return ((UploadSessionDTO) r.getData()).getId();
+    }
+
+    private void write(String id, long offset, String data) {
+        Response r = service.writeChunk(id, KEY, offset,
+                new ByteArrayInputStream(data.getBytes(StandardCharsets.US_ASCII)));
+        assertEquals("success", r.getStatus(), r.getMessage());
+    }
+
+    private static String sha256(String data) throws Exception {
+        return Base64.getEncoder().encodeToString(
+                MessageDigest.getInstance("SHA-256").digest(data.getBytes(StandardCharsets.US_ASCII)));
+    }
+}
@@ -0,0 +1,210 @@
+package es.hgccarlos.filehost.storage;
+
+import es.hgccarlos.filehost.config.StorageProperties.Placement;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** What the contract test can't see: lost and corrupt shards, repair, placement. */
+class ErasureCodedBackendTest {
+
+    private static final String KEY = "blobs/ab/cd/abcd";
+
+    @TempDir
+    Path tmp;
+
+    /** {@code roots} tmp dirs as a pool, all with plenty of space. */
+    static ErasureCodedBackend backend(Path dir, int roots, int k, int m, int cell) {
+        List<PoolMember> members = new ArrayList<>();
+        for (int i = 0; i < roots; i++) {
+            Path root = dir.resolve("disk" + i);
+            PoolMember member = new PoolMember("jbod", new LocalStorageBackend("disk" + i, root, new DirectoryCache()),
+                    root, 1, 0, 3, false);
+            member.setSpace(1L << 40, 1L << 40);
+            members.add(member);
+        }
+        return new ErasureCodedBackend("ec", new StoragePool("jbod", members, Placement.FREE_SPACE),
+                new ReedSolomon(k, m), cell);
+    }
+
+    @Test
+    @DisplayName("Up to m shards lost ➞ still readable, ranges too; one more ➞ IOException")
+    void lostShards() throws IOException {
+        ErasureCodedBackend ec = backend(tmp, 6, 4, 2, 4096);
+        byte[] data = put(ec, 100_000);
+
+        Files.delete(shard(ec, 0));
+        Files.delete(shard(ec, 5));
+
+        assertArrayEquals(data, read(ec, 0, data.length));
+        assertArrayEquals(Arrays.copyOfRange(data, 20_000, 20_100), read(ec, 20_000, 100));
+        assertTrue(ec.degradedReads() > 0);
+
+        Files.delete(shard(ec, 2));
+        IOException ex = assertThrows(IOException.class, () -> read(ec, 0, data.length));
+        assertTrue(ex.getMessage().contains("only 3 of the 4"), ex.getMessage());
+    }
+
+    @Test
+    @DisplayName("stat ➞ present while k whole shards are left, wherever they are; empty below that")
+    void statNeedsKShards() throws IOException {
+        ErasureCodedBackend ec = backend(tmp, 6, 4, 2, 4096);
+        put(ec, 100_000);
+
+        Files.delete(shard(ec, 0));
+        Files.delete(shard(ec, 3));
+        Path moved = shard(ec, 1);
+        Path elsewhere = ec.pool().members().stream().map(PoolMember::root)
+                .filter(r -> !moved.startsWith(r)).findFirst().orElseThrow()
+                .resolve(ErasureCodedBackend.shardKey(KEY, 1));
+        Files.createDirectories(elsewhere.getParent());
+        Files.move(moved, elsewhere, StandardCopyOption.REPLACE_EXISTING);
+        assertEquals(100_000, ec.stat(KEY).orElseThrow().size());
+
+        try (FileChannel ch = FileChannel.open(shard(ec, 2), StandardOpenOption.WRITE)) {
+            ch.truncate(1000);
+        }
+        assertTrue(ec.stat(KEY).isEmpty());
+    }
+
+    @Test
+    @DisplayName("A corrupt cell fails its checksum and the stripe is rebuilt")
+    void corruptCell() throws IOException {
+        ErasureCodedBackend ec = backend(tmp, 6, 4, 2, 4096);
+        byte[] data = put(ec, 50_000);
+
+        flipByte(shard(ec, 1), 24 + 4 + 10);
+
+        assertArrayEquals(data, read(ec, 0, data.length));
+        assertEquals(1, ec.degradedReads());
+    }
+
+    @Test
+    @DisplayName("Small files get cells of a k-th of the file, not full cells")
+    void smallFile() throws IOException {
+        ErasureCodedBackend ec = backend(tmp, 6, 4, 2, 256 * 1024);
+        byte[] data = put(ec, 10);
+
+        // header + checksum + ceil(10 / 4)
+        for (int i = 0; i < 6; i++) assertEquals(24 + 4 + 3, Files.size(shard(ec, i)));
+        assertArrayEquals(data, read(ec, 0, 10));
+    }
+
+    @Test
+    @DisplayName("repair ➞ lost and corrupt shards rewritten; a second run finds nothing to do")
+    void repair() throws IOException {
+        ErasureCodedBackend ec = backend(tmp, 6, 4, 2, 4096);
+        byte[] data = put(ec, 100_000);
+        byte[] shard2 = Files.readAllBytes(shard(ec, 2)), shard4 = Files.readAllBytes(shard(ec, 4));
+
+        Files.delete(shard(ec, 2));
+        flipByte(shard(ec, 4), 24 + 3 * (4 + 4096) + 4 + 7);
+
+        assertEquals(new ErasureCodedBackend.Repair(2, 2, true), ec.repair(KEY));
+        assertArrayEquals(shard2, Files.readAllBytes(shard(ec, 2)));
+        assertArrayEquals(shard4, Files.readAllBytes(shard(ec, 4)));
+        assertEquals(new ErasureCodedBackend.Repair(0, 0, true), ec.repair(KEY));
+        assertArrayEquals(data, read(ec, 0, data.length));
+        assertEquals(0, ec.degradedReads());
+    }
+
+    @Test
+    @DisplayName("repair ➞ shards on a draining root move to a root without one")
+    void repairDrains() throws IOException {
+        ErasureCodedBackend ec = backend(tmp, 7, 4, 2, 4096);
+        byte[] data = put(ec, 30_000);
+        Path before = shard(ec, 3);
+        PoolMember holder = ec.pool().members().stream()
+                .filter(m -> before.startsWith(m.root())).findFirst().orElseThrow();
+
+        holder.setDraining(true);
+
+        assertEquals(new ErasureCodedBackend.Repair(0, 1, true), ec.repair(KEY));
+        assertFalse(Files.exists(before));
+        assertFalse(shard(ec, 3).startsWith(holder.root()));
+        assertArrayEquals(data, read(ec, 0, data.length));
+    }
+
+    @Test
+    @DisplayName("More than m shards lost ➞ repair writes nothing")
+    void unrecoverable() throws IOException {
+        ErasureCodedBackend ec = backend(tmp, 6, 4, 2, 4096);
+        put(ec, 20_000);
+        for (int i = 0; i < 3; i++) Files.delete(shard(ec, i));
+
+        assertEquals(new ErasureCodedBackend.Repair(3, 0, false), ec.repair(KEY));
+        assertEquals(3, shards(ec).size());
+    }
+
+    @Test
+    @DisplayName("Fewer roots taking files than shards ➞ put fails, nothing left behind")
+    void notEnoughRoots() {
+        ErasureCodedBackend ec = backend(tmp, 6, 4, 2, 4096);
+        ec.pool().members().get(0).setDraining(true);
+
+        assertThrows(IOException.class, () -> put(ec, 1000));
+        assertEquals(List.of(), shards(ec));
+    }
+
+    private static byte[] put(ErasureCodedBackend ec, int size) throws IOException {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        ec.put(KEY, new ByteArrayInputStream(data), size);
+        return data;
+    }
+
+    private static byte[] read(ErasureCodedBackend ec, long offset, int length) throws IOException {
+        try (ReadableByteChannel ch = ec.get(KEY, offset, length);
+             InputStream in = Channels.newInputStream(ch)) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static Path shard(ErasureCodedBackend ec, int index) {
+        return shards(ec).stream()
+                .filter(p -> p.getFileName().toString().endsWith("." + index))
+                .findFirst().orElseThrow();
+    }
+
+    private static List<Path> shards(ErasureCodedBackend ec) {
+        return ec.pool().members().stream()
+                .flatMap(m -> {
+                    String key = ErasureCodedBackend.shardKey(KEY, 0);
+                    Path dir = m.root().resolve(key).getParent();
+                    try (Stream<Path> files = Files.exists(dir) ? Files.list(dir) : Stream.<Path>empty()) {
+                        return files.filter(p -> p.getFileName().toString().startsWith("abcd.")).toList().stream();
+                    } catch (IOException ex) {
+                        throw new RuntimeException(ex);
+                    }
+                })
+                .toList();
+    }
+
+    private static void flipByte(Path file, long position) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            ch.read(b, position);
+            b.put(0, (byte) (b.get(0) ^ 0x40)).rewind();
+            ch.write(b, position);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package es.hgccarlos.filehost.storage;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReedSolomonTest {
+
+    @Test
+    @DisplayName("Any m shards erased ➞ all of them rebuilt exactly")
+    void everyErasureOfM() {
+        ReedSolomon rs = new ReedSolomon(4, 3);
+        byte[][] original = encoded(rs, 1000);
+
+        for (int a = 0; a < 7; a++) {
+            for (int b = a + 1; b < 7; b++) {
+                for (int c = b + 1; c < 7; c++) {
+                    byte[][] shards = copy(original);
+                    boolean[] present = {true, true, true, true, true, true, true};
+                    for (int lost : new int[]{a, b, c}) {
+                        present[lost] = false;
+                        new Random(lost).nextBytes(shards[lost]);
+                    }
+                    rs.reconstruct(shards, present, 1000);
+                    for (int i = 0; i < 7; i++) assertArrayEquals(original[i], shards[i], a + "," + b + "," + c);
+                }
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("reconstructData ➞ data back, missing parity left alone")
+    void dataOnly() {
+        ReedSolomon rs = new ReedSolomon(6, 3);
+        byte[][] original = encoded(rs, 64);
+        byte[][] shards = copy(original);
+        shards[1] = new byte[64];
+        shards[7] = new byte[64];
+
+        rs.reconstructData(shards, new boolean[]{true, false, true, true, true, true, true, false, true}, 64);
+
+        for (int i = 0; i < 6; i++) assertArrayEquals(original[i], shards[i]);
+        assertArrayEquals(new byte[64], shards[7]);
+    }
+
+    @Test
+    @DisplayName("More than m shards missing ➞ IllegalArgumentException")
+    void tooManyMissing() {
+        ReedSolomon rs = new ReedSolomon(4, 2);
+        byte[][] shards = encoded(rs, 16);
+
+        assertThrows(IllegalArgumentException.class,
+                () -> rs.reconstruct(shards, new boolean[]{false, true, false, true, false, true}, 16));
+        assertThrows(IllegalArgumentException.class, () -> new ReedSolomon(200, 57));
+    }
+
+    private static byte[][] encoded(ReedSolomon rs, int length) {
+        byte[][] shards = new byte[rs.totalShards()][length];
+        Random random = new Random(7);
+        for (int i = 0; i < rs.dataShards(); i++) random.nextBytes(shards[i]);
+        rs.encodeParity(shards, length);
+        return shards;
+    }
+
+    private static byte[][] copy(byte[][] shards) {
+        byte[][] out = new byte[shards.length][];
+        for (int i = 0; i < shards.length; i++) out[i] = shards[i].clone();
+        return out;
+    }
+}
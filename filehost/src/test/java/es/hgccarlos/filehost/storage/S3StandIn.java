@@ -0,0 +1,262 @@
+package es.hgccarlos.filehost.storage;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Just enough of the S3 API, in process, for {@link S3StorageBackend}: path-style object
+ * PUT/GET (ranged)/HEAD/DELETE, multipart uploads and ListObjectsV2 (two keys a page, so
+ * paging gets exercised). Every request's SigV4 signature is checked, a bad one gets a 403.
+ */
+class S3StandIn implements AutoCloseable {
+
+    static final String BUCKET = "test-bucket";
+    static final String ACCESS_KEY = "test-access";
+    static final String SECRET_KEY = "test-secret";
+    static final String REGION = "us-east-1";
+    private static final int PAGE = 2;
+    private static final Pattern AUTH = Pattern.compile(
+            "AWS4-HMAC-SHA256 Credential=([^/]+)/[^,]+,SignedHeaders=([^,]+),Signature=\\p{XDigit}+");
+    private static final Pattern PART = Pattern.compile(
+            "<PartNumber>(\\d+)</PartNumber><ETag>([^<]+)</ETag>");
+
+    private record StoredObject(byte[] data, Instant modified) { }
+
+    private final SigV4Signer signer = new SigV4Signer(ACCESS_KEY, SECRET_KEY, REGION);
+    private final ConcurrentSkipListMap<String, StoredObject> objects = new ConcurrentSkipListMap<>();
+    private final Map<String, Map<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+    private final AtomicInteger partsReceived = new AtomicInteger();
+    private final HttpServer server;
+
+    S3StandIn() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    String endpoint() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    int partsReceived() {
+        return partsReceived.get();
+    }
+
+    int openUploads() {
+        return uploads.size();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    // ---- Dispatch ----
+    private void handle(HttpExchange ex) throws IOException {
+        try (ex) {
+            String rawPath = ex.getRequestURI().getRawPath();
+            Map<String, String> query = query(ex.getRequestURI().getRawQuery());
+            if (!signatureValid(ex, rawPath, query)) {
+                send(ex, 403, "<Error><Code>SignatureDoesNotMatch</Code></Error>");
+                return;
+            }
+            String prefix = "/" + BUCKET;
+            if (!rawPath.startsWith(prefix)) {
+                send(ex, 404, "<Error><Code>NoSuchBucket</Code></Error>");
+                return;
+            }
+            String key = URLDecoder.decode(rawPath.substring(prefix.length()).replaceFirst("^/", "")
+                    .replace("+", "%2B"), StandardCharsets.UTF_8);
+            byte[] body = ex.getRequestBody().readAllBytes();
+
+            switch (ex.getRequestMethod()) {
+                case "GET" -> {
+                    if (key.isEmpty()) list(ex, query);
+                    else get(ex, key);
+                }
+                case "HEAD" -> head(ex, key);
+                case "PUT" -> {
+                    if (query.containsKey("uploadId")) uploadPart(ex, query, body);
+                    else {
+                        objects.put(key, new StoredObject(body, Instant.now()));
+                        send(ex, 200, "");
+                    }
+                }
+                case "POST" -> {
+                    if (query.containsKey("uploads")) {
+                        String uploadId = UUID.randomUUID().toString();
+                        uploads.put(uploadId, new ConcurrentHashMap<>());
+                        send(ex, 200, "<InitiateMultipartUploadResult><Bucket>" + BUCKET + "</Bucket><Key>"
+                                + key + "</Key><UploadId>" + uploadId + "</UploadId></InitiateMultipartUploadResult>");
+                    } else {
+                        complete(ex, key, query.get("uploadId"), new String(body, StandardCharsets.UTF_8));
+                    }
+                }
+                case "DELETE" -> {
+                    if (query.containsKey("uploadId")) uploads.remove(query.get("uploadId"));
+                    else objects.remove(key);
+                    ex.sendResponseHeaders(204, -1);
+                }
+                default -> send(ex, 405, "");
+            }
+        }
+    }
+
+    // ---- Objects ----
+    private void get(HttpExchange ex, String key) throws IOException {
+        StoredObject o = objects.get(key);
+        if (o == null) {
+            send(ex, 404, "<Error><Code>NoSuchKey</Code></Error>");
+            return;
+        }
+        String range = ex.getRequestHeaders().getFirst("Range");
+        if (range == null) {
+            send(ex, 200, o.data());
+            return;
+        }
+        String[] bounds = range.substring("bytes=".length()).split("-");
+        int from = Integer.parseInt(bounds[0]);
+        int to = Math.min(Integer.parseInt(bounds[1]), o.data().length - 1);
+        ex.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + to + "/" + o.data().length);
+        send(ex, 206, Arrays.copyOfRange(o.data(), from, to + 1));
+    }
+
+    private void head(HttpExchange ex, String key) throws IOException {
+        StoredObject o = objects.get(key);
+        if (o == null) {
+            ex.sendResponseHeaders(404, -1);
+            return;
+        }
+        ex.getResponseHeaders().set("Content-Length", String.valueOf(o.data().length));
+        ex.getResponseHeaders().set("Last-Modified",
+                DateTimeFormatter.RFC_1123_DATE_TIME.format(o.modified().atZone(ZoneOffset.UTC)));
+        ex.sendResponseHeaders(200, -1);
+    }
+
+    private void list(HttpExchange ex, Map<String, String> query) throws IOException {
+        String prefix = query.getOrDefault("prefix", "");
+        String after = query.get("continuation-token");
+        NavigableMap<String, StoredObject> candidates = after == null ? objects : objects.tailMap(after, false);
+        StringBuilder xml = new StringBuilder("<ListBucketResult>");
+        int n = 0;
+        String last = null;
+        boolean truncated = false;
+        for (Map.Entry<String, StoredObject> e : candidates.entrySet()) {
+            if (!e.getKey().startsWith(prefix)) continue;
+            if (n == PAGE) {
+                truncated = true;
+                break;
+            }
+            xml.append("<Contents><Key>").append(e.getKey()).append("</Key><LastModified>")
+                    .append(e.getValue().modified()).append("</LastModified><Size>")
+                    .append(e.getValue().data().length).append("</Size></Contents>");
+            last = e.getKey();
+            n++;
+        }
+        xml.append("<IsTruncated>").append(truncated).append("</IsTruncated>");
+        if (truncated) xml.append("<NextContinuationToken>").append(last).append("</NextContinuationToken>");
+        send(ex, 200, xml.append("</ListBucketResult>").toString());
+    }
+
+    // ---- Multipart ----
+    private void uploadPart(HttpExchange ex, Map<String, String> query, byte[] body) throws IOException {
+        Map<Integer, byte[]> parts = uploads.get(query.get("uploadId"));
+        if (parts == null) {
+            send(ex, 404, "<Error><Code>NoSuchUpload</Code></Error>");
+            return;
+        }
+        int number = Integer.parseInt(query.get("partNumber"));
+        parts.put(number, body);
+        partsReceived.incrementAndGet();
+        ex.getResponseHeaders().set("ETag", etag(number, body));
+        send(ex, 200, "");
+    }
+
+    private void complete(HttpExchange ex, String key, String uploadId, String xml) throws IOException {
+        Map<Integer, byte[]> parts = uploadId == null ? null : uploads.get(uploadId);
+        if (parts == null) {
+            send(ex, 404, "<Error><Code>NoSuchUpload</Code></Error>");
+            return;
+        }
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        Matcher m = PART.matcher(xml);
+        int expected = 1;
+        while (m.find()) {
+            int number = Integer.parseInt(m.group(1));
+            byte[] part = parts.get(number);
+            String etag = m.group(2).replace("&quot;", "\"");
+            if (number != expected++ || part == null || !etag.equals(etag(number, part))) {
+                send(ex, 400, "<Error><Code>InvalidPart</Code></Error>");
+                return;
+            }
+            data.write(part);
+        }
+        uploads.remove(uploadId);
+        objects.put(key, new StoredObject(data.toByteArray(), Instant.now()));
+        send(ex, 200, "<CompleteMultipartUploadResult><Key>" + key + "</Key></CompleteMultipartUploadResult>");
+    }
+
+    private static String etag(int number, byte[] part) {
+        return "\"" + number + "-" + Arrays.hashCode(part) + "\"";
+    }
+
+    // ---- Helpers ----
+    private boolean signatureValid(HttpExchange ex, String rawPath, Map<String, String> query) {
+        String auth = ex.getRequestHeaders().getFirst("Authorization");
+        Matcher m = auth == null ? null : AUTH.matcher(auth);
+        if (m == null || !m.matches() || !ACCESS_KEY.equals(m.group(1))) return false;
+        SortedMap<String, String> headers = new TreeMap<>();
+        for (String name : m.group(2).split(";")) {
+            String value = ex.getRequestHeaders().getFirst(name);
+            if (value == null) return false;
+            headers.put(name, value);
+        }
+        String payload = ex.getRequestHeaders().getFirst("x-amz-content-sha256");
+        return auth.equals(signer.authorization(ex.getRequestMethod(), rawPath, query, headers, payload));
+    }
+
+    private static Map<String, String> query(String raw) {
+        Map<String, String> query = new HashMap<>();
+        if (raw == null || raw.isEmpty()) return query;
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            query.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return query;
+    }
+
+    private static void send(HttpExchange ex, int status, String body) throws IOException {
+        send(ex, status, body == null ? null : body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(HttpExchange ex, int status, byte[] body) throws IOException {
+        if (body == null || body.length == 0) {
+            ex.sendResponseHeaders(status, -1);
+            return;
+        }
+        ex.sendResponseHeaders(status, body.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package es.hgccarlos.filehost.storage;
+
+import es.hgccarlos.filehost.config.StorageProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** The same behaviour from every backend; S3 runs against {@link S3StandIn}, erasure coding over tmp dirs. */
+class StorageBackendContractTest {
+
+    private static final int MB = 1024 * 1024;
+
+    @TempDir
+    Path tmp;
+
+    private S3StandIn s3;
+
+    @BeforeEach
+    void startS3() throws IOException {
+        s3 = new S3StandIn();
+    }
+
+    @AfterEach
+    void stopS3() {
+        s3.close();
+    }
+
+    private StorageBackend backend(String kind) {
+        return switch (kind) {
+            case "local" -> new LocalStorageBackend(tmp.resolve("root"));
+            case "memory" -> new InMemoryStorageBackend();
+            case "s3" -> new S3StorageBackend("s3", s3Config());
+            case "ec" -> ErasureCodedBackendTest.backend(tmp.resolve("ec"), 6, 4, 2, 256 * 1024);
+            default -> throw new IllegalArgumentException(kind);
+        };
+    }
+
+    private StorageProperties.S3 s3Config() {
+        StorageProperties.S3 config = new StorageProperties.S3();
+        config.setEndpoint(s3.endpoint());
+        config.setBucket(S3StandIn.BUCKET);
+        config.setAccessKey(S3StandIn.ACCESS_KEY);
+        config.setSecretKey(S3StandIn.SECRET_KEY);
+        config.setRegion(S3StandIn.REGION);
+        config.setPartSize(DataSize.ofMegabytes(5));
+        config.setUploadParallelism(2);
+        return config;
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @ValueSource(strings = {"local", "memory", "s3", "ec"})
+    @DisplayName("put ➞ stat and get return the same bytes")
+    void putAndGet(String kind) throws IOException {
+        StorageBackend backend = backend(kind);
+        byte[] data = "hello, storage".getBytes(StandardCharsets.UTF_8);
+
+        backend.put("blobs/ab/cd/abcd", new ByteArrayInputStream(data), data.length);
+
+        ObjectStat stat = backend.stat("blobs/ab/cd/abcd").orElseThrow();
+        assertEquals(data.length, stat.size());
+        assertArrayEquals(data, read(backend, "blobs/ab/cd/abcd", 0, data.length));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @ValueSource(strings = {"local", "memory", "s3", "ec"})
+    @DisplayName("get(offset, length) ➞ only that range")
+    void rangedGet(String kind) throws IOException {
+        StorageBackend backend = backend(kind);
+        byte[] data = "0123456789".getBytes(StandardCharsets.US_ASCII);
+        backend.put("k", new ByteArrayInputStream(data), data.length);
+
+        assertEquals("3456", new String(read(backend, "k", 3, 4), StandardCharsets.US_ASCII));
+        assertEquals("9", new String(read(backend, "k", 9, 1), StandardCharsets.US_ASCII));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @ValueSource(strings = {"local", "memory", "s3", "ec"})
+    @DisplayName("putFile ➞ content stored, staged file consumed")
+    void putFile(String kind) throws IOException {
+        StorageBackend backend = backend(kind);
+        Files.createDirectories(tmp.resolve("root"));
+        Path staged = Files.write(tmp.resolve("root/.upload-1.part"), random(11 * MB));
+        byte[] data = Files.readAllBytes(staged);
+
+        backend.putFile("blobs/big", staged);
+
+        assertFalse(Files.exists(staged));
+        assertEquals(data.length, backend.stat("blobs/big").orElseThrow().size());
+        assertArrayEquals(data, read(backend, "blobs/big", 0, data.length));
+        assertArrayEquals(Arrays.copyOfRange(data, 5 * MB - 10, 5 * MB + 10),
+                read(backend, "blobs/big", 5 * MB - 10, 20));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @ValueSource(strings = {"local", "memory", "s3", "ec"})
+    @DisplayName("delete ➞ gone, reads fail with NoSuchFileException, deleting again is fine")
+    void delete(String kind) throws IOException {
+        StorageBackend backend = backend(kind);
+        backend.put("k", new ByteArrayInputStream(new byte[]{1}), 1);
+
+        backend.delete("k");
+
+        assertTrue(backend.stat("k").isEmpty());
+        assertThrows(NoSuchFileException.class, () -> backend.get("k", 0, 1).close());
+        backend.delete("k");
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @ValueSource(strings = {"local", "memory", "s3", "ec"})
+    @DisplayName("list(prefix) ➞ every key under the prefix and nothing else")
+    void list(String kind) throws IOException {
+        StorageBackend backend = backend(kind);
+        for (String key : List.of("blobs/aa/1", "blobs/aa/2", "blobs/ab/3", "blobs/b/4", "blobs/b/5", "other/6")) {
+            backend.put(key, new ByteArrayInputStream(new byte[]{7}), 1);
+        }
+
+        try (Stream<ObjectStat> all = backend.list("blobs/");
+             Stream<ObjectStat> aa = backend.list("blobs/a")) {
+            assertEquals(List.of("blobs/aa/1", "blobs/aa/2", "blobs/ab/3", "blobs/b/4", "blobs/b/5"),
+                    all.map(ObjectStat::key).sorted().toList());
+            assertEquals(List.of("blobs/aa/1", "blobs/aa/2", "blobs/ab/3"),
+                    aa.map(ObjectStat::key).sorted().toList());
+        }
+    }
+
+    // ---- S3 specifics ----
+    @Test
+    @DisplayName("S3: objects above part-size go up as a multipart upload, streams too")
+    void s3Multipart() throws IOException {
+        StorageBackend backend = backend("s3");
+        byte[] data = random(11 * MB);
+
+        try (InputStream in = new ByteArrayInputStream(data)) {
+            backend.put("blobs/streamed", in, data.length);
+        }
+
+        assertEquals(3, s3.partsReceived());
+        assertEquals(0, s3.openUploads());
+        assertArrayEquals(data, read(backend, "blobs/streamed", 0, data.length));
+    }
+
+    @Test
+    @DisplayName("S3: a failed part aborts the upload and nothing is stored")
+    void s3MultipartAbort() {
+        StorageBackend backend = backend("s3");
+        byte[] data = random(11 * MB);
+
+        // claims more bytes than the stream has: the last part can't be read
+        assertThrows(IOException.class,
+                () -> backend.put("blobs/short", new ByteArrayInputStream(data), data.length + MB));
+
+        assertEquals(0, s3.openUploads());
+        assertDoesNotThrow(() -> assertTrue(backend.stat("blobs/short").isEmpty()));
+    }
+
+    @Test
+    @DisplayName("S3: wrong credentials ➞ requests rejected")
+    void s3BadSignature() {
+        StorageProperties.S3 config = s3Config();
+        config.setSecretKey("not-the-secret");
+        StorageBackend backend = new S3StorageBackend("s3", config);
+
+        IOException ex = assertThrows(IOException.class,
+                () -> backend.put("k", new ByteArrayInputStream(new byte[]{1}), 1));
+        assertTrue(ex.getMessage().contains("403"), ex.getMessage());
+    }
+
+    private static byte[] read(StorageBackend backend, String key, long offset, int length) throws IOException {
+        try (ReadableByteChannel ch = backend.get(key, offset, length);
+             InputStream in = Channels.newInputStream(ch)) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte[] random(int size) {
+        byte[] data = new byte[size];
+        new Random(42).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,127 @@
+package es.hgccarlos.filehost.storage;
+
+import es.hgccarlos.filehost.config.StorageProperties.Placement;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StoragePoolTest {
+
+    private static final long GB = 1L << 30;
+
+    @TempDir
+    Path tmp;
+
+    private PoolMember member(String name, int weight, long freeBytes) {
+        Path root = tmp.resolve(name);
+        PoolMember m = new PoolMember("jbod", new LocalStorageBackend(name, root, new DirectoryCache()),
+                root, weight, 5 * GB, 3, false);
+        m.setSpace(freeBytes, 100 * GB);
+        return m;
+    }
+
+    private static Map<String, Integer> placements(StoragePool pool, int n) throws IOException {
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < n; i++) counts.merge(pool.place(1024).name(), 1, Integer::sum);
+        return counts;
+    }
+
+    @Test
+    @DisplayName("Round-robin follows the weights")
+    void roundRobinByWeight() throws IOException {
+        StoragePool pool = new StoragePool("jbod",
+                List.of(member("disk1", 2, 50 * GB), member("disk2", 1, 50 * GB)), Placement.ROUND_ROBIN);
+
+        assertEquals(Map.of("disk1", 200, "disk2", 100), placements(pool, 300));
+    }
+
+    @Test
+    @DisplayName("Free-space leaves out a root below min-free and favours the emptier one")
+    void freeSpace() throws IOException {
+        PoolMember full = member("disk1", 1, 4 * GB);
+        StoragePool pool = new StoragePool("jbod",
+                List.of(full, member("disk2", 1, 10 * GB), member("disk3", 1, 85 * GB)), Placement.FREE_SPACE);
+
+        Map<String, Integer> counts = placements(pool, 2000);
+        assertEquals(PoolMember.State.FULL, full.state());
+        assertNull(counts.get("disk1"));
+        assertTrue(counts.get("disk3") > 5 * counts.get("disk2"), counts.toString());
+    }
+
+    @Test
+    @DisplayName("Latency favours the root with faster recent writes")
+    void latency() throws IOException {
+        PoolMember fast = member("disk1", 1, 50 * GB), slow = member("disk2", 1, 50 * GB);
+        byte[] data = new byte[64 * 1024];
+        fast.put("a", new ByteArrayInputStream(data), data.length);
+        slow.put("a", new ByteArrayInputStream(data), data.length);
+        // make sure the two averages differ by far, whatever the tmp disk did
+        while (slow.nanosPerMb() <= 10 * fast.nanosPerMb()) {
+            fast.put("a", new ByteArrayInputStream(data), data.length);
+            slow.put("b", new SlowStream(data), data.length);
+        }
+        StoragePool pool = new StoragePool("jbod", List.of(fast, slow), Placement.LATENCY);
+
+        assertEquals(Map.of("disk1", 100), placements(pool, 100));
+    }
+
+    @Test
+    @DisplayName("Failing and draining roots take no new files; none left ➞ IOException")
+    void unhealthyRoots() throws IOException {
+        PoolMember broken = member("disk1", 1, 50 * GB), drained = member("disk2", 1, 50 * GB);
+        // a file where the root directory should be: probe and writes fail
+        Files.writeString(broken.root(), "not a directory");
+        for (int i = 0; i < 3; i++) {
+            assertThrows(IOException.class, () -> broken.put("k", new ByteArrayInputStream(new byte[1]), 1));
+        }
+        drained.setDraining(true);
+        StoragePool pool = new StoragePool("jbod",
+                List.of(broken, drained, member("disk3", 1, 50 * GB)), Placement.FREE_SPACE);
+
+        assertEquals(PoolMember.State.FAILING, broken.state());
+        assertEquals(3, broken.writeErrors());
+        assertEquals(Map.of("disk3", 50), placements(pool, 50));
+        assertThrows(IOException.class, () -> pool.place(1024, pool.members().get(2)));
+
+        // still broken after a probe; the drained one comes back when taken back
+        broken.check();
+        drained.setDraining(false);
+        assertEquals(PoolMember.State.FAILING, broken.state());
+        assertEquals("disk2", pool.place(1024, pool.members().get(2)).name());
+    }
+
+    /** Trickles the bytes out so the write takes a while. */
+    private static final class SlowStream extends InputStream {
+        private final InputStream in;
+
+        SlowStream(byte[] data) {
+            in = new ByteArrayInputStream(data);
+        }
+
+        @Override
+        public int read() throws IOException {
+            return in.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                Thread.sleep(2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return in.read(b, off, Math.min(len, 4096));
+        }
+    }
+}